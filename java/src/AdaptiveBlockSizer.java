@@ -0,0 +1,150 @@
+// AdaptiveBlockSizer.java
+
+package com.yosokumo.core;
+
+/**
+ * Decides how many items (specimens plus cells) to put into each specimen
+ * block posted to the server.  The limit starts at the largest number of
+ * items which may be sent in one HTTP request, and is adjusted from what
+ * is observed when blocks are posted:
+ * <ul>
+ * <li>The encoded size of a block is kept near {@code targetBytes}, using
+ *          a running estimate of the number of bytes per item.
+ * <li>When a block takes longer than {@code maxMillis} to be answered, the
+ *          limit is cut in proportion, so that a block of the new size
+ *          would take about {@code maxMillis}.
+ * <li>When a block of at least half the limit is answered in less than
+ *          {@code minMillis}, the limit is doubled.
+ * <li>When the server rejects a block as too large (status code 413), the
+ *          limit is set to half the size of the rejected block.
+ * </ul>
+ * By default there is no size target and no latency window, so only 413
+ * responses change the limit.
+ * <p>
+ * An {@code AdaptiveBlockSizer} is shared by a {@code Service} and its
+ * workers, so all methods are synchronized.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+class AdaptiveBlockSizer
+{
+    /**
+     * The weight given to a new observation of the number of bytes per
+     * item.
+     */
+    private static final double BYTES_PER_ITEM_WEIGHT = 0.25;
+
+    private final int  maxItems;
+    private final long targetBytes;
+    private final long minMillis;
+    private final long maxMillis;
+
+    /**
+     * The current limit on the number of items in a block, as set by the
+     * latency window and by 413 responses.
+     */
+    private int itemLimit;
+
+    /**
+     * The estimated number of encoded bytes per item, or 0 if no block has
+     * been observed yet.
+     */
+    private double bytesPerItem = 0;
+
+    // Constructors
+
+    /**
+     * Initializes a newly created {@code AdaptiveBlockSizer} object with no
+     * size target and no latency window.
+     *
+     * @param  maxItems  the largest number of items allowed in a block.
+     */
+    AdaptiveBlockSizer(int maxItems)
+    {
+        this(maxItems, Long.MAX_VALUE, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Initializes a newly created {@code AdaptiveBlockSizer} object with
+     * attributes specified by the input parameters.
+     *
+     * @param  maxItems     the largest number of items allowed in a block.
+     * @param  targetBytes  the desired encoded size of a block in bytes.
+     * @param  minMillis    blocks answered faster than this are grown.
+     * @param  maxMillis    blocks answered slower than this are shrunk.
+     */
+    AdaptiveBlockSizer(
+        int  maxItems,
+        long targetBytes,
+        long minMillis,
+        long maxMillis)
+    {
+        assert maxItems >= 1 && targetBytes >= 1 && minMillis <= maxMillis;
+
+        this.maxItems    = maxItems;
+        this.targetBytes = targetBytes;
+        this.minMillis   = minMillis;
+        this.maxMillis   = maxMillis;
+        this.itemLimit   = maxItems;
+    }
+
+    /**
+     * Return the number of items to put into the next block.
+     *
+     * @return the item limit (>= 1).
+     */
+    synchronized int getItemLimit()
+    {
+        long limit = itemLimit;
+
+        if (targetBytes != Long.MAX_VALUE && bytesPerItem > 0)
+            limit = Math.min(limit, (long)(targetBytes / bytesPerItem));
+
+        return (int)Math.max(1, limit);
+    }
+
+    /**
+     * Record the outcome of a block which was posted successfully.
+     *
+     * @param  numItems  the number of items in the block (>= 1).
+     * @param  numBytes  the encoded size of the block in bytes.
+     * @param  millis    the time in milliseconds from sending the block to
+     *                   receiving the response.
+     */
+    synchronized void observe(int numItems, int numBytes, long millis)
+    {
+        if (numItems < 1)
+            return;
+
+        double b = (double)numBytes / numItems;
+
+        if (bytesPerItem == 0)
+            bytesPerItem = b;
+        else
+            bytesPerItem += BYTES_PER_ITEM_WEIGHT * (b - bytesPerItem);
+
+        if (millis > maxMillis)
+        {
+            int limit = (int)((double)numItems * maxMillis / millis);
+            itemLimit = Math.max(1, Math.min(itemLimit, limit));
+        }
+        else if (millis < minMillis && numItems >= itemLimit / 2)
+        {
+            itemLimit = (int)Math.min(maxItems, 2L * itemLimit);
+        }
+    }
+
+    /**
+     * Record that the server rejected a block as too large.
+     *
+     * @param  numItems  the number of items in the rejected block.
+     */
+    synchronized void tooLarge(int numItems)
+    {
+        itemLimit = Math.max(1, Math.min(itemLimit, numItems / 2));
+    }
+
+}   // end class AdaptiveBlockSizer
+
+// end AdaptiveBlockSizer.java
@@ -0,0 +1,212 @@
+// ApacheTransport.java
+
+package com.yosokumo.core;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.Header;
+import org.apache.http.HeaderIterator;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.client.DefaultHttpClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+
+/**
+ * The default {@link Transport}, which sends each request with a new
+ * HttpClient 4.0 {@code DefaultHttpClient} over a new connection, and
+ * shuts the client down when the response is closed.  The headers of the
+ * request are sent as they are, so the Host header is the host name given
+ * to the service.  The entity of a request is written to the connection
+ * directly from the buffers or file region holding it.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+public final class ApacheTransport extends Transport
+{
+    /**
+     * The transport used by a service which has not been given another.
+     */
+    static final ApacheTransport DEFAULT = new ApacheTransport();
+
+    public TransportResponse execute(TransportRequest request)
+        throws IOException
+    {
+        HttpRequestBase httpRequest = makeHttpRequest(request);
+
+        for (int i = 0;  i < request.getHeaderCount();  ++i)
+        {
+            // The entity supplies the Content-Length header, and two of
+            // them cause an exception
+
+            String name = request.getHeaderName(i);
+
+            if (!name.equalsIgnoreCase("Content-Length"))
+                httpRequest.addHeader(name, request.getHeaderValue(i));
+        }
+
+        if (request.hasEntity())
+            ((HttpEntityEnclosingRequestBase)httpRequest).setEntity(
+                                                    new RequestEntity(request));
+
+        HttpClient httpclient = new DefaultHttpClient();
+
+        try
+        {
+            return new Response(httpclient, httpclient.execute(httpRequest));
+        }
+        catch (IOException e)
+        {
+            httpclient.getConnectionManager().shutdown();
+            throw e;
+        }
+    }
+
+    /**
+     * Make an HttpClient request with the method and URI of a request.
+     */
+    private static HttpRequestBase makeHttpRequest(
+        final TransportRequest request)
+    {
+        String method = request.getMethod();
+        URI    uri    = request.getUri();
+
+        if (method.equals("GET"))
+            return new HttpGet(uri);
+        if (method.equals("POST"))
+            return new HttpPost(uri);
+        if (method.equals("PUT"))
+            return new HttpPut(uri);
+        if (method.equals("DELETE"))
+            return new HttpDelete(uri);
+
+        HttpEntityEnclosingRequestBase other =
+            new HttpEntityEnclosingRequestBase()
+            {
+                public String getMethod()
+                {
+                    return request.getMethod();
+                }
+            };
+
+        other.setURI(uri);
+        return other;
+    }
+
+    /**
+     * The entity of a request, as an HttpClient entity.
+     */
+    private static final class RequestEntity extends AbstractHttpEntity
+    {
+        private final TransportRequest request;
+
+        RequestEntity(TransportRequest request)
+        {
+            this.request = request;
+        }
+
+        public boolean isRepeatable()
+        {
+            return true;
+        }
+
+        public boolean isStreaming()
+        {
+            return false;
+        }
+
+        public long getContentLength()
+        {
+            return request.getContentLength();
+        }
+
+        public InputStream getContent() throws IOException
+        {
+            return request.getContent();
+        }
+
+        public void writeTo(OutputStream out) throws IOException
+        {
+            if (out == null)
+                throw new IllegalArgumentException(
+                                            "Output stream may not be null");
+            request.writeContentTo(out);
+        }
+    }
+
+    /**
+     * A response received by an HttpClient, which owns the client.
+     */
+    private static final class Response extends TransportResponse
+    {
+        private final HttpClient   httpclient;
+        private final HttpResponse response;
+        private final HttpEntity   entity;
+
+        Response(HttpClient httpclient, HttpResponse response)
+        {
+            this.httpclient = httpclient;
+            this.response   = response;
+            this.entity     = response.getEntity();
+        }
+
+        public int getStatusCode()
+        {
+            return response.getStatusLine().getStatusCode();
+        }
+
+        public String getFirstHeader(String name)
+        {
+            Header h = response.getFirstHeader(name);
+            return h == null ? null : h.getValue();
+        }
+
+        public long getContentLength()
+        {
+            return entity == null ? -1 : entity.getContentLength();
+        }
+
+        public InputStream getContent() throws IOException
+        {
+            return entity == null ? null : entity.getContent();
+        }
+
+        public String getProtocol()
+        {
+            return response.getStatusLine().getProtocolVersion().toString();
+        }
+
+        public void close()
+        {
+            // Shutting down the connection manager closes the connection,
+            // whether or not the entity has been read to the end
+
+            httpclient.getConnectionManager().shutdown();
+        }
+
+        public String toString()
+        {
+            StringBuilder s = new StringBuilder();
+            s.append(response.getStatusLine());
+
+            HeaderIterator it = response.headerIterator(null);
+            while (it.hasNext())
+                s.append("\n    " + it.next());
+
+            return s.toString();
+        }
+    }
+
+}   //  end class ApacheTransport
+
+// end ApacheTransport.java
@@ -92,7 +92,7 @@ class Base64
 
     public static String encodeBytes(byte[] source)
     {
-        StringBuilder abcd = new StringBuilder();
+        StringBuilder abcd = new StringBuilder((source.length + 2) / 3 * 4);
         int n = source.length/3;    // No. times to loop
         int i, j;
 
@@ -0,0 +1,224 @@
+// BufferEntity.java
+
+package com.yosokumo.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The entity of an HTTP request, whose content is taken directly from a
+ * sequence of {@code ByteBuffer}s or from a region of a file, without
+ * first being gathered into one byte array.  The buffers are sent in order, as though
+ * they were one buffer (a gathering write).  Only the remaining bytes of
+ * each buffer are sent, and the positions of the buffers are not changed,
+ * so the entity can be sent more than once.
+ * <p>
+ * Heap buffers are written straight from their backing arrays.  Direct
+ * buffers are written through a small transfer array, and a file region
+ * with {@code FileChannel.transferTo}.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+class BufferEntity
+{
+    /**
+     * The size of the array used to write the contents of direct buffers.
+     */
+    private static final int TRANSFER_SIZE = 8192;
+
+    private final ByteBuffer [] buffers;
+
+    private final FileChannel channel;
+    private final long        position;
+    private final long        count;
+
+    // Constructors
+
+    /**
+     * Initializes a newly created {@code BufferEntity} object whose
+     * content is the remaining bytes of a sequence of buffers.
+     *
+     * @param  buffers  the buffers holding the content, in order.
+     */
+    BufferEntity(ByteBuffer... buffers)
+    {
+        this.buffers  = buffers.clone();
+        this.channel  = null;
+        this.position = 0;
+
+        long n = 0;
+        for (ByteBuffer b : buffers)
+            n += b.remaining();
+        this.count = n;
+    }
+
+    /**
+     * Initializes a newly created {@code BufferEntity} object whose
+     * content is a region of a file.
+     *
+     * @param  channel   the file holding the content.
+     * @param  position  the position in the file of the first byte of the
+     *                   content.
+     * @param  count     the number of bytes of content.
+     */
+    BufferEntity(FileChannel channel, long position, long count)
+    {
+        this.buffers  = null;
+        this.channel  = channel;
+        this.position = position;
+        this.count    = count;
+    }
+
+    /**
+     * Return the number of bytes of content.
+     *
+     * @return the length of the entity.
+     */
+    public long getContentLength()
+    {
+        return count;
+    }
+
+    /**
+     * Return a new stream supplying the content.
+     *
+     * @return the stream.
+     * @throws IOException if the content cannot be read.
+     */
+    public InputStream getContent() throws IOException
+    {
+        if (channel != null)
+        {
+            // Read the region without moving the channel's own position
+
+            return new InputStream()
+            {
+                private long next = position;
+                private final long end = position + count;
+
+                public int read() throws IOException
+                {
+                    byte [] b = new byte[1];
+                    return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xff);
+                }
+
+                public int read(byte [] b, int off, int len)
+                    throws IOException
+                {
+                    if (next >= end)
+                        return -1;
+
+                    len = (int)Math.min(len, end - next);
+                    int n = channel.read(ByteBuffer.wrap(b, off, len), next);
+                    if (n > 0)
+                        next += n;
+                    return n;
+                }
+            };
+        }
+
+        final ByteBuffer [] source = duplicates();
+
+        return new InputStream()
+        {
+            private int i = 0;
+
+            public int read() throws IOException
+            {
+                byte [] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xff);
+            }
+
+            public int read(byte [] b, int off, int len)
+            {
+                while (i < source.length && !source[i].hasRemaining())
+                    ++i;
+
+                if (i == source.length)
+                    return -1;
+
+                len = Math.min(len, source[i].remaining());
+                source[i].get(b, off, len);
+                return len;
+            }
+        };
+    }
+
+    /**
+     * Write the content to a stream.
+     *
+     * @param  out  the stream to write to.
+     * @throws IOException if the content cannot be read or written.
+     */
+    public void writeTo(OutputStream out) throws IOException
+    {
+        if (out == null)
+            throw new IllegalArgumentException("Output stream may not be null");
+
+        if (channel != null)
+        {
+            WritableByteChannel target = Channels.newChannel(out);
+            long next = position;
+            long end  = position + count;
+
+            while (next < end)
+            {
+                long n = channel.transferTo(next, end - next, target);
+                if (n <= 0)
+                    throw new IOException("File region ends before " +
+                                    count + " bytes were sent");
+                next += n;
+            }
+
+            out.flush();
+            return;
+        }
+
+        byte [] transfer = null;
+
+        for (ByteBuffer b : duplicates())
+        {
+            if (b.hasArray())
+            {
+                out.write(b.array(), b.arrayOffset() + b.position(),
+                                                            b.remaining());
+                continue;
+            }
+
+            if (transfer == null)
+                transfer = new byte[TRANSFER_SIZE];
+
+            while (b.hasRemaining())
+            {
+                int n = Math.min(transfer.length, b.remaining());
+                b.get(transfer, 0, n);
+                out.write(transfer, 0, n);
+            }
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Return duplicates of the buffers, so that reading them does not
+     * change the positions of the buffers themselves.
+     */
+    private ByteBuffer [] duplicates()
+    {
+        ByteBuffer [] d = new ByteBuffer[buffers.length];
+
+        for (int i = 0;  i < buffers.length;  ++i)
+            d[i] = buffers[i].duplicate();
+
+        return d;
+    }
+
+}   // end class BufferEntity
+
+// end BufferEntity.java
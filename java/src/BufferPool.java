@@ -0,0 +1,168 @@
+// BufferPool.java
+
+package com.yosokumo.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pool of byte arrays for encoding blocks and reading responses, so that
+ * the large arrays needed by bulk loads and scoring are reused rather than
+ * allocated afresh for every request.
+ * <p>
+ * Arrays are handed out in size classes:  the length of every pooled array
+ * is a power of two from {@code MIN_CLASS_SIZE} to {@code MAX_CLASS_SIZE}.
+ * {@code acquire} returns an array of the smallest class which is large
+ * enough, so the array may be longer than requested.  A request larger
+ * than the largest class is met with a new array of exactly the requested
+ * length, which is never pooled.
+ * <p>
+ * An array must be given back with {@code release} once its contents are no
+ * longer needed, and must not be used after that.  The pool holds at most
+ * {@code maxRetainedBytes} bytes of released arrays; arrays released beyond
+ * that are left to the garbage collector.
+ * <p>
+ * A {@code BufferPool} is shared by a {@code Service} and its workers, so
+ * all methods are synchronized.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+class BufferPool
+{
+    /**
+     * The length of the arrays of the smallest size class.
+     */
+    static final int MIN_CLASS_SIZE = 4096;
+
+    /**
+     * The length of the arrays of the largest size class.
+     */
+    static final int MAX_CLASS_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * The default maximum number of bytes held in released arrays.
+     */
+    static final long DEFAULT_MAX_RETAINED_BYTES = 64L * 1024 * 1024;
+
+    private static final int MIN_CLASS_SHIFT =
+                                Integer.numberOfTrailingZeros(MIN_CLASS_SIZE);
+
+    private static final int NUM_CLASSES =
+            Integer.numberOfTrailingZeros(MAX_CLASS_SIZE) - MIN_CLASS_SHIFT + 1;
+
+    private final long maxRetainedBytes;
+
+    /**
+     * The released arrays of each size class.
+     */
+    private final List<ArrayDeque<byte []>> free;
+
+    private long retainedBytes = 0;
+
+    // Constructors
+
+    /**
+     * Initializes a newly created, empty {@code BufferPool} object which
+     * holds at most {@code DEFAULT_MAX_RETAINED_BYTES} bytes.
+     */
+    BufferPool()
+    {
+        this(DEFAULT_MAX_RETAINED_BYTES);
+    }
+
+    /**
+     * Initializes a newly created, empty {@code BufferPool} object.
+     *
+     * @param  maxRetainedBytes  the maximum number of bytes held in released
+     *                           arrays (>= 0).
+     */
+    BufferPool(long maxRetainedBytes)
+    {
+        this.maxRetainedBytes = (maxRetainedBytes < 0 ? 0 : maxRetainedBytes);
+        this.free = new ArrayList<ArrayDeque<byte []>>(NUM_CLASSES);
+
+        for (int i = 0;  i < NUM_CLASSES;  ++i)
+            free.add(new ArrayDeque<byte []>());
+    }
+
+    /**
+     * Obtain an array of at least a given length.  The contents of the
+     * array are undefined.
+     *
+     * @param  minLength  the least acceptable length of the array (>= 0).
+     * @return an array of length {@code minLength} or more.
+     */
+    synchronized byte [] acquire(int minLength)
+    {
+        if (minLength > MAX_CLASS_SIZE)
+            return new byte[minLength];
+
+        int c = sizeClass(minLength);
+        byte [] array = free.get(c).pollFirst();
+
+        if (array == null)
+            return new byte[MIN_CLASS_SIZE << c];
+
+        retainedBytes -= array.length;
+
+        return array;
+    }
+
+    /**
+     * Give back an array obtained from {@code acquire}.  An array whose
+     * length is not that of a size class is ignored.
+     *
+     * @param  array  the array to give back; {@code null} is ignored.
+     */
+    synchronized void release(byte [] array)
+    {
+        if (array == null || array.length < MIN_CLASS_SIZE ||
+                array.length > MAX_CLASS_SIZE ||
+                Integer.bitCount(array.length) != 1)
+            return;
+
+        if (retainedBytes + array.length > maxRetainedBytes)
+            return;
+
+        free.get(sizeClass(array.length)).addFirst(array);
+        retainedBytes += array.length;
+    }
+
+    /**
+     * Return the number of bytes held in released arrays.
+     *
+     * @return the number of retained bytes.
+     */
+    synchronized long getRetainedBytes()
+    {
+        return retainedBytes;
+    }
+
+    /**
+     * Discard all released arrays.
+     */
+    synchronized void clear()
+    {
+        for (ArrayDeque<byte []> d : free)
+            d.clear();
+
+        retainedBytes = 0;
+    }
+
+    /**
+     * Return the number of the smallest size class whose arrays have at
+     * least a given length (<= MAX_CLASS_SIZE).
+     */
+    private static int sizeClass(int length)
+    {
+        if (length <= MIN_CLASS_SIZE)
+            return 0;
+
+        return 32 - Integer.numberOfLeadingZeros(length - 1) - MIN_CLASS_SHIFT;
+    }
+
+}   // end class BufferPool
+
+// end BufferPool.java
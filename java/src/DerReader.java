@@ -0,0 +1,511 @@
+// DerReader.java
+
+package com.yosokumo.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * A streaming reader of ASN.1 values in the Distinguished Encoding Rules
+ * (DER, ITU-T X.690), as written by {@code DerWriter}.  The caller steps
+ * through the fields of each constructed value in order, so no tree of the
+ * encoding is ever built.  A typical loop over the fields of a SEQUENCE
+ * is:
+ * <pre>
+ *   r.beginSequence();
+ *   while (r.hasNext())
+ *   {
+ *       int field = r.nextField();
+ *       if (field == 1)
+ *           key = r.readUnsigned();
+ *       else
+ *           r.skip();
+ *   }
+ *   r.end();
+ * </pre>
+ * The encoding is read either from an array, which is not copied, or from
+ * a stream through a buffer which grows only to hold the largest primitive
+ * value.  Lengths must be definite, as in DER; otherwise the reader is
+ * lenient, e.g., it accepts reals in any base, and lengths and integers
+ * which are not in their shortest form.
+ * <p>
+ * Malformed encodings cause an {@code IOException} giving the byte offset
+ * at which the problem was found.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+class DerReader
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+
+    private byte [] buf;
+    private int     pos   = 0;
+    private int     limit;
+
+    /**
+     * The number of bytes read and discarded from the buffer before the
+     * byte at {@code pos = 0}.
+     */
+    private long consumed = 0;
+
+    /*
+     * The offsets just past the ends of the open constructed values.
+     */
+    private long [] ends  = new long[16];
+    private int     depth = 0;
+
+    /*
+     * The header of the value most recently begun by nextField:  its tag
+     * number, whether it is constructed, and the length of its contents.
+     */
+    private int     tagNumber   = 0;
+    private boolean constructed = false;
+    private int     length      = -1;
+
+    // Constructors
+
+    /**
+     * Initializes a newly created {@code DerReader} object which reads the
+     * encoding in an array.
+     *
+     * @param  bytes  the DER bytes.
+     */
+    DerReader(byte [] bytes)
+    {
+        this.in    = null;
+        this.buf   = bytes;
+        this.limit = bytes.length;
+    }
+
+    /**
+     * Initializes a newly created {@code DerReader} object which reads the
+     * encoding from a stream.
+     *
+     * @param  in  the stream supplying the DER bytes.
+     */
+    DerReader(InputStream in)
+    {
+        this.in    = in;
+        this.buf   = new byte[BUFFER_SIZE];
+        this.limit = 0;
+    }
+
+    /**
+     * Begin a universal SEQUENCE:  a whole message or an element of a
+     * SEQUENCE OF.
+     */
+    void beginSequence() throws IOException
+    {
+        int identifier = readIdentifier();
+
+        if (identifier != (DerWriter.UNIVERSAL | DerWriter.CONSTRUCTED) ||
+                                            tagNumber != DerWriter.SEQUENCE)
+            throw error("Expected a SEQUENCE");
+
+        constructed = true;
+        length      = readLength();
+        begin();
+    }
+
+    /**
+     * Begin the constructed field most recently returned by {@code
+     * nextField}, i.e., a SEQUENCE or SEQUENCE OF.
+     */
+    void beginConstructed() throws IOException
+    {
+        if (length < 0 || !constructed)
+            throw error("Expected a constructed value");
+
+        begin();
+    }
+
+    /**
+     * End the innermost constructed value.
+     */
+    void end() throws IOException
+    {
+        if (position() != ends[depth-1])
+            throw error("Constructed value has unread contents");
+
+        --depth;
+    }
+
+    /**
+     * Return true if the innermost constructed value has more contents.
+     */
+    boolean hasNext()
+    {
+        return position() < ends[depth-1];
+    }
+
+    /**
+     * Read the identifier and length of the next field of the innermost
+     * constructed value, which must be context-specific.
+     *
+     * @return the tag number of the field.
+     */
+    int nextField() throws IOException
+    {
+        int identifier = readIdentifier();
+
+        if ((identifier & 0xc0) != DerWriter.CONTEXT)
+            throw error("Expected a context-specific tag");
+
+        constructed = (identifier & DerWriter.CONSTRUCTED) != 0;
+        length      = readLength();
+
+        if (position() + length > ends[depth-1])
+            throw error("Field runs past the end of its enclosing value");
+
+        return tagNumber;
+    }
+
+    /**
+     * Read a UTF8String field.
+     */
+    String readUtf8() throws IOException
+    {
+        int n = primitive();
+        String s = new String(buf, pos, n, UTF_8);
+        pos += n;
+        return s;
+    }
+
+    /**
+     * Read a BOOLEAN field.
+     */
+    boolean readBoolean() throws IOException
+    {
+        if (primitive() != 1)
+            throw error("BOOLEAN is not one octet");
+
+        return buf[pos++] != 0;
+    }
+
+    /**
+     * Read an INTEGER or ENUMERATED field holding a signed 64-bit number.
+     */
+    long readInteger() throws IOException
+    {
+        int n = primitive();
+
+        if (n == 0 || n > 8)
+            throw error("Not a 64-bit integer");
+
+        long value = buf[pos++];                    // sign extended
+        for (int i = 1;  i < n;  ++i)
+            value = (value << 8) | (buf[pos++] & 0xff);
+
+        return value;
+    }
+
+    /**
+     * Read an INTEGER field holding an unsigned 64-bit number, returning its
+     * bits as a long.
+     */
+    long readUnsigned() throws IOException
+    {
+        int n = primitive();
+
+        if (n == 0 || buf[pos] < 0 || (n == 9 && buf[pos] != 0) || n > 9)
+        {
+            pos += n;
+            throw error("Not an unsigned 64-bit integer");
+        }
+
+        long value = 0;
+        for (int i = 0;  i < n;  ++i)
+            value = (value << 8) | (buf[pos++] & 0xff);
+
+        return value;
+    }
+
+    /**
+     * Read a REAL field.  Binary encodings in base 2, 8, or 16 with any
+     * scale factor, decimal encodings, and the special real values are
+     * accepted.
+     */
+    double readReal() throws IOException
+    {
+        int n = primitive();
+
+        if (n == 0)
+            return 0.0;
+
+        int first = buf[pos] & 0xff;
+        int end   = pos + n;
+
+        if ((first & 0x80) != 0)
+        {
+            // Binary:  1 S BB FF EE, exponent, mantissa
+
+            int base = (first >> 4) & 3;
+            if (base == 3)
+                throw error("Reserved base in REAL");
+
+            int  scale = (first >> 2) & 3;
+            int  p     = pos + 1;
+            int  expLen = (first & 3) + 1;
+
+            if (expLen == 4)
+                expLen = (p < end ? buf[p++] & 0xff : 0);
+
+            if (expLen == 0 || expLen > 4 || p + expLen > end)
+                throw error("Bad exponent in REAL");
+
+            long exponent = buf[p++];               // sign extended
+            for (int i = 1;  i < expLen;  ++i)
+                exponent = (exponent << 8) | (buf[p++] & 0xff);
+
+            if (end - p > 8)
+                throw error("REAL mantissa longer than 64 bits");
+
+            long mantissa = 0;
+            while (p < end)
+                mantissa = (mantissa << 8) | (buf[p++] & 0xff);
+
+            pos = end;
+
+            double m = (mantissa >= 0 ? (double)mantissa
+                                      : 2.0 * (double)(mantissa >>> 1));
+            long e = exponent * (base == 0 ? 1 : base == 1 ? 3 : 4) + scale;
+            e = Math.max(-2200, Math.min(2200, e));
+            double value = Math.scalb(m, (int)e);
+
+            return ((first & 0x40) != 0 ? -value : value);
+        }
+
+        pos = end;
+
+        if ((first & 0x40) != 0)
+        {
+            // Special real value
+
+            if (n == 1)
+            {
+                switch (first)
+                {
+                case 0x40:  return Double.POSITIVE_INFINITY;
+                case 0x41:  return Double.NEGATIVE_INFINITY;
+                case 0x42:  return Double.NaN;
+                case 0x43:  return -0.0;
+                default:    break;
+                }
+            }
+            throw error("Unknown special REAL value " + first);
+        }
+
+        // Decimal (ISO 6093)
+
+        String s = new String(buf, end - n + 1, n - 1, UTF_8);
+
+        try
+        {
+            return Double.parseDouble(s.trim().replace(',', '.'));
+        }
+        catch (NumberFormatException e)
+        {
+            throw error("Bad decimal REAL:  " + s);
+        }
+    }
+
+    /**
+     * Skip the contents of the field most recently returned by {@code
+     * nextField}.
+     */
+    void skip() throws IOException
+    {
+        if (length < 0)
+            throw error("No field to skip");
+
+        long remaining = length;
+        length = -1;
+
+        while (remaining > 0)
+        {
+            if (pos == limit && !fill(1))
+                throw error("Encoding ends in the middle of a value");
+
+            int n = (int)Math.min(remaining, limit - pos);
+            pos += n;
+            remaining -= n;
+        }
+    }
+
+    /**
+     * Read the outermost value to its end, and make sure nothing follows.
+     */
+    void endDocument() throws IOException
+    {
+        if (depth != 0)
+            throw error("Encoding ends inside a constructed value");
+
+        if (pos < limit || fill(1))
+            throw error("Bytes follow the end of the encoding");
+    }
+
+    /**
+     * Read the identifier octets of a value.  Return the leading bits of
+     * the first octet (class and constructed), and leave the tag number in
+     * {@code tagNumber}.
+     */
+    private int readIdentifier() throws IOException
+    {
+        int first = readOctet();
+
+        if ((first & 0x1f) != 0x1f)
+        {
+            tagNumber = first & 0x1f;
+            return first & 0xe0;
+        }
+
+        int number = 0;
+        int b;
+
+        do
+        {
+            if (number > (Integer.MAX_VALUE >> 7))
+                throw error("Tag number too large");
+
+            b = readOctet();
+            number = (number << 7) | (b & 0x7f);
+        } while ((b & 0x80) != 0);
+
+        tagNumber = number;
+        return first & 0xe0;
+    }
+
+    /**
+     * Read the length octets of a value.
+     */
+    private int readLength() throws IOException
+    {
+        int first = readOctet();
+
+        if (first < 0x80)
+            return first;
+
+        if (first == 0x80)
+            throw error("Indefinite length is not allowed in DER");
+
+        int octets = first & 0x7f;
+        long len = 0;
+
+        for (int i = 0;  i < octets;  ++i)
+        {
+            len = (len << 8) | readOctet();
+            if (len > Integer.MAX_VALUE)
+                throw error("Length too large");
+        }
+
+        return (int)len;
+    }
+
+    /**
+     * Push the end of a constructed value whose header has just been read.
+     */
+    private void begin() throws IOException
+    {
+        long end = position() + length;
+
+        if (depth > 0 && end > ends[depth-1])
+            throw error("Value runs past the end of its enclosing value");
+
+        if (depth == ends.length)
+        {
+            long [] bigger = new long[2 * depth];
+            System.arraycopy(ends, 0, bigger, 0, depth);
+            ends = bigger;
+        }
+
+        ends[depth++] = end;
+        length = -1;
+    }
+
+    /**
+     * Make sure the contents of the primitive field most recently returned
+     * by {@code nextField} are in the buffer, and return their length.
+     */
+    private int primitive() throws IOException
+    {
+        if (length < 0 || constructed)
+            throw error("Expected a primitive value");
+
+        int n = length;
+        length = -1;
+
+        if (limit - pos < n && !fill(n))
+            throw error("Encoding ends in the middle of a value");
+
+        return n;
+    }
+
+    private int readOctet() throws IOException
+    {
+        if (pos == limit && !fill(1))
+            throw error("Encoding ends in the middle of a value");
+
+        return buf[pos++] & 0xff;
+    }
+
+    /**
+     * The offset in the encoding of the next byte to be read.
+     */
+    private long position()
+    {
+        return consumed + pos;
+    }
+
+    /**
+     * Make sure there are at least n unread bytes in the buffer, reading
+     * from the stream as needed.  Return false if the encoding ends first.
+     */
+    private boolean fill(int n) throws IOException
+    {
+        if (in == null)
+            return false;
+
+        // Move the unread bytes to the front of the buffer, into a larger
+        // buffer if need be
+
+        int unread = limit - pos;
+
+        if (n > buf.length)
+        {
+            byte [] bigger = new byte[Math.max(n, 2 * buf.length)];
+            System.arraycopy(buf, pos, bigger, 0, unread);
+            buf = bigger;
+        }
+        else
+            System.arraycopy(buf, pos, buf, 0, unread);
+
+        consumed += pos;
+        pos   = 0;
+        limit = unread;
+
+        while (limit < n)
+        {
+            int r = in.read(buf, limit, buf.length - limit);
+            if (r == -1)
+                return false;
+            limit += r;
+        }
+
+        return true;
+    }
+
+    private IOException error(String message)
+    {
+        return new IOException(message + " at byte " + position() +
+                                                        " of DER encoding");
+    }
+
+}   // end class DerReader
+
+// end DerReader.java
@@ -0,0 +1,436 @@
+// DerWriter.java
+
+package com.yosokumo.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A generator of ASN.1 values in the Distinguished Encoding Rules (DER,
+ * ITU-T X.690).  In DER every constructed value is preceded by the length
+ * of its contents, so the encoding is written backwards, from the end of
+ * the array toward the front:  when the contents of a value have been
+ * written, their length is known, and the length and tag are written in
+ * front of them.  Thus a value is encoded in one pass, without first
+ * computing the sizes of its parts, and without moving any bytes.  The
+ * price is that the parts of a value are written in reverse order:
+ * <pre>
+ *   DerWriter w = new DerWriter();
+ *   int end = w.mark();
+ *   w.writeReal(7, 2.5);          // the last field
+ *   w.writeUnsigned(1, 1234);     // the first field
+ *   w.endSequence(end);
+ *   byte [] bytes = w.toByteArray();
+ * </pre>
+ * Every field is written with a context-specific tag, implicitly tagged,
+ * as in the Yosokumo ASN.1 module (see yosokumo.asn).  Whole messages and
+ * the elements of a SEQUENCE OF are universal SEQUENCEs.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+class DerWriter
+{
+    // The leading bits of an identifier octet
+
+    static final int UNIVERSAL   = 0x00;
+    static final int CONTEXT     = 0x80;
+    static final int CONSTRUCTED = 0x20;
+
+    static final int SEQUENCE    = 16;
+
+    private final BufferPool pool;
+
+    /*
+     * The encoding is the last count bytes of buf.
+     */
+    private byte [] buf;
+    private int     count = 0;
+
+    /*
+     * Scratch space for the contents of a real value, which are formed
+     * front to back.
+     */
+    private final byte [] real = new byte[12];
+
+    // Constructors
+
+    /**
+     * Initializes a newly created {@code DerWriter} object which writes
+     * into an array of its own.
+     */
+    DerWriter()
+    {
+        this.pool = null;
+        this.buf  = new byte[256];
+    }
+
+    /**
+     * Initializes a newly created {@code DerWriter} object which writes
+     * into arrays obtained from a pool.  When the encoding outgrows an
+     * array, it is moved to the end of a larger array and the smaller array
+     * is given back.  The final array is given to the caller by
+     * {@link #toBuffer}.
+     *
+     * @param  pool  the pool from which to obtain arrays.
+     */
+    DerWriter(BufferPool pool)
+    {
+        this.pool = pool;
+        this.buf  = pool.acquire(BufferPool.MIN_CLASS_SIZE);
+    }
+
+    /**
+     * Return a mark to be given to {@code endSequence} or {@code
+     * endConstructed} after the contents of a constructed value have been
+     * written.
+     *
+     * @return the number of bytes written so far.
+     */
+    int mark()
+    {
+        return count;
+    }
+
+    /**
+     * Finish a universal SEQUENCE whose contents are everything written
+     * since a mark.
+     *
+     * @param  mark  the value of {@code mark()} before the contents were
+     *               written.
+     */
+    void endSequence(int mark)
+    {
+        writeLength(count - mark);
+        writeIdentifier(UNIVERSAL | CONSTRUCTED, SEQUENCE);
+    }
+
+    /**
+     * Finish a constructed field (a SEQUENCE or SEQUENCE OF) whose contents
+     * are everything written since a mark.
+     *
+     * @param  field  the context-specific tag number of the field.
+     * @param  mark   the value of {@code mark()} before the contents were
+     *                written.
+     */
+    void endConstructed(int field, int mark)
+    {
+        writeLength(count - mark);
+        writeIdentifier(CONTEXT | CONSTRUCTED, field);
+    }
+
+    /**
+     * Write a UTF8String field, unless the string is null.
+     *
+     * @param  field  the context-specific tag number of the field.
+     * @param  s      the string.
+     */
+    void writeUtf8(int field, String s)
+    {
+        if (s == null)
+            return;
+
+        int n = s.length();
+        int len = 0;
+
+        for (int i = 0;  i < n;  ++i)
+        {
+            char c = s.charAt(i);
+
+            if (c < 0x80)
+                len += 1;
+            else if (c < 0x800)
+                len += 2;
+            else if (Character.isHighSurrogate(c) && i+1 < n &&
+                                    Character.isLowSurrogate(s.charAt(i+1)))
+            {
+                len += 4;
+                ++i;
+            }
+            else
+                len += 3;
+        }
+
+        ensure(len);
+
+        int p = buf.length - count - len;
+
+        for (int i = 0;  i < n;  ++i)
+        {
+            char c = s.charAt(i);
+
+            if (c < 0x80)
+            {
+                buf[p++] = (byte)c;
+            }
+            else if (c < 0x800)
+            {
+                buf[p++] = (byte)(0xc0 | (c >> 6));
+                buf[p++] = (byte)(0x80 | (c & 0x3f));
+            }
+            else if (Character.isHighSurrogate(c) && i+1 < n &&
+                                    Character.isLowSurrogate(s.charAt(i+1)))
+            {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[p++] = (byte)(0xf0 | (cp >> 18));
+                buf[p++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+                buf[p++] = (byte)(0x80 | ((cp >>  6) & 0x3f));
+                buf[p++] = (byte)(0x80 | (cp & 0x3f));
+            }
+            else
+            {
+                buf[p++] = (byte)(0xe0 | (c >> 12));
+                buf[p++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                buf[p++] = (byte)(0x80 | (c & 0x3f));
+            }
+        }
+
+        count += len;
+
+        writeLength(len);
+        writeIdentifier(CONTEXT, field);
+    }
+
+    /**
+     * Write a BOOLEAN field.
+     *
+     * @param  field  the context-specific tag number of the field.
+     * @param  value  the boolean.
+     */
+    void writeBoolean(int field, boolean value)
+    {
+        write((byte)(value ? 0xff : 0x00));
+        write((byte)1);
+        writeIdentifier(CONTEXT, field);
+    }
+
+    /**
+     * Write an INTEGER or ENUMERATED field holding a signed number.
+     *
+     * @param  field  the context-specific tag number of the field.
+     * @param  value  the number.
+     */
+    void writeInteger(int field, long value)
+    {
+        ensure(8);
+
+        int start = count;
+
+        // The fewest octets of the two's complement, least significant
+        // first, stopping when the octets written show the sign
+
+        while (true)
+        {
+            byte b = (byte)value;
+            buf[buf.length - ++count] = b;
+            value >>= 8;
+
+            if ((value == 0 && b >= 0) || (value == -1 && b < 0))
+                break;
+        }
+
+        writeLength(count - start);
+        writeIdentifier(CONTEXT, field);
+    }
+
+    /**
+     * Write an INTEGER field holding an unsigned number.  The bits of the
+     * input are taken as an unsigned 64-bit number, as for the uint64
+     * fields of a block.
+     *
+     * @param  field  the context-specific tag number of the field.
+     * @param  value  the number.
+     */
+    void writeUnsigned(int field, long value)
+    {
+        ensure(9);
+
+        int start = count;
+
+        while (true)
+        {
+            byte b = (byte)value;
+            buf[buf.length - ++count] = b;
+            value >>>= 8;
+
+            if (value == 0 && b >= 0)
+                break;
+
+            if (value == 0)
+            {
+                // The top bit is set, so a zero octet shows that the
+                // number is positive
+
+                buf[buf.length - ++count] = 0;
+                break;
+            }
+        }
+
+        writeLength(count - start);
+        writeIdentifier(CONTEXT, field);
+    }
+
+    /**
+     * Write a REAL field.  As DER requires, a finite non-zero value is
+     * written in base 2 with an odd mantissa; zero has no contents, and
+     * minus zero, the infinities, and NaN are the special real values.
+     *
+     * @param  field  the context-specific tag number of the field.
+     * @param  value  the real.
+     */
+    void writeReal(int field, double value)
+    {
+        int n = 0;
+
+        if (value == 0)
+        {
+            if (1 / value < 0)
+                real[n++] = 0x43;
+        }
+        else if (Double.isNaN(value))
+            real[n++] = 0x42;
+        else if (value == Double.POSITIVE_INFINITY)
+            real[n++] = 0x40;
+        else if (value == Double.NEGATIVE_INFINITY)
+            real[n++] = 0x41;
+        else
+        {
+            long bits     = Double.doubleToLongBits(value);
+            int  exponent = (int)((bits >> 52) & 0x7ff);
+            long mantissa = bits & 0xfffffffffffffL;
+
+            if (exponent == 0)
+                exponent = -1074;                   // subnormal
+            else
+            {
+                mantissa |= 1L << 52;
+                exponent -= 1075;
+            }
+
+            int shift = Long.numberOfTrailingZeros(mantissa);
+            mantissa >>>= shift;
+            exponent  += shift;
+
+            // The exponent takes one or two octets
+
+            boolean oneOctet = (exponent >= -128 && exponent <= 127);
+
+            real[n++] = (byte)(0x80 | (bits < 0 ? 0x40 : 0) |
+                                                        (oneOctet ? 0 : 1));
+            if (!oneOctet)
+                real[n++] = (byte)(exponent >> 8);
+            real[n++] = (byte)exponent;
+
+            int octets = (64 - Long.numberOfLeadingZeros(mantissa) + 7) / 8;
+            for (int i = octets - 1;  i >= 0;  --i)
+                real[n++] = (byte)(mantissa >>> (8 * i));
+        }
+
+        ensure(n);
+        System.arraycopy(real, 0, buf, buf.length - count - n, n);
+        count += n;
+
+        writeLength(n);
+        writeIdentifier(CONTEXT, field);
+    }
+
+    /**
+     * Return the encoding, in an array of its exact length.
+     *
+     * @return the DER bytes.
+     */
+    byte [] toByteArray()
+    {
+        byte [] bytes = new byte[count];
+        System.arraycopy(buf, buf.length - count, bytes, 0, count);
+        return bytes;
+    }
+
+    /**
+     * Return the encoding, in a buffer wrapping the array into which it was
+     * written.  For a writer using a pool, the caller gives the array back
+     * to the pool when the encoding is no longer needed, and the writer
+     * must not be used again.
+     *
+     * @return a buffer whose remaining bytes are the DER bytes.
+     */
+    ByteBuffer toBuffer()
+    {
+        return ByteBuffer.wrap(buf, buf.length - count, count);
+    }
+
+    /**
+     * Write the length octets of a value.
+     */
+    private void writeLength(int len)
+    {
+        if (len < 0x80)
+        {
+            write((byte)len);
+            return;
+        }
+
+        int octets = 0;
+
+        for (int n = len;  n != 0;  n >>>= 8)
+        {
+            write((byte)n);
+            ++octets;
+        }
+
+        write((byte)(0x80 | octets));
+    }
+
+    /**
+     * Write the identifier octets of a value.  Tag numbers of 31 and more
+     * take the high-tag-number form, in base 128.
+     */
+    private void writeIdentifier(int leading, int number)
+    {
+        if (number < 31)
+        {
+            write((byte)(leading | number));
+            return;
+        }
+
+        write((byte)(number & 0x7f));
+        for (number >>>= 7;  number != 0;  number >>>= 7)
+            write((byte)(0x80 | (number & 0x7f)));
+
+        write((byte)(leading | 0x1f));
+    }
+
+    private void write(byte b)
+    {
+        if (count == buf.length)
+            ensure(1);
+        buf[buf.length - ++count] = b;
+    }
+
+    /**
+     * Make sure there is room for n more bytes in front of the encoding.
+     */
+    private void ensure(int n)
+    {
+        if (count + n <= buf.length)
+            return;
+
+        int newLength = Math.max(count + n, 2 * buf.length);
+        byte [] bigger;
+
+        if (pool == null)
+            bigger = new byte[newLength];
+        else
+            bigger = pool.acquire(newLength);
+
+        System.arraycopy(buf, buf.length - count, bigger, bigger.length - count,
+                                                                        count);
+
+        if (pool != null)
+            pool.release(buf);
+
+        buf = bigger;
+    }
+
+}   // end class DerWriter
+
+// end DerWriter.java
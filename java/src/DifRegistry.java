@@ -0,0 +1,222 @@
+// DifRegistry.java
+
+package com.yosokumo.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * The registry of Data Interchange Formats (DIFs):  the classes which
+ * implement {@code YosokumoDIF}, each registered under the content type it
+ * handles.  A {@code Service} asks the registry for the DIF processor with
+ * which to encode its requests, advertises the registered content types in
+ * the Accept header of each request, and decodes each response with the
+ * DIF processor registered for the response's content type.
+ * <p>
+ * The four DIFs of this package are registered first.  Then any further
+ * DIFs are discovered with {@code java.util.ServiceLoader}:  a jar may
+ * provide a DIF by naming its class in the file
+ * {@code META-INF/services/com.yosokumo.core.YosokumoDIF}.  Such a class
+ * must be in the package {@code com.yosokumo.core}, and be public with a
+ * public constructor taking no arguments.  A DIF discovered for a content
+ * type which is already registered replaces the one registered before, so
+ * a faster implementation of an existing DIF can be rolled out simply by
+ * adding its jar to the class path.
+ * <p>
+ * Content types are compared as media types:  without parameters, and
+ * ignoring case.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+final class DifRegistry
+{
+    /**
+     * The registered DIF classes by media type, in the order in which the
+     * media types were first registered.
+     */
+    private static final Map<String, Class<? extends YosokumoDIF>> difs =
+                        new LinkedHashMap<String, Class<? extends YosokumoDIF>>();
+
+    static
+    {
+        register(YosokumoProtobuf.class);
+        register(YosokumoXml.class);
+        register(YosokumoJson.class);
+        register(YosokumoAsn1.class);
+
+        discover();
+    }
+
+    private DifRegistry()
+    {
+    }
+
+    /**
+     * Register the DIFs provided through {@code ServiceLoader}.  A provider
+     * which cannot be loaded or instantiated is skipped.
+     */
+    private static void discover()
+    {
+        ServiceLoader<YosokumoDIF> loader = ServiceLoader.load(
+                        YosokumoDIF.class, DifRegistry.class.getClassLoader());
+
+        Iterator<YosokumoDIF> iter = loader.iterator();
+
+        while (true)
+        {
+            try
+            {
+                if (!iter.hasNext())
+                    break;
+
+                register(iter.next().getClass());
+            }
+            catch (ServiceConfigurationError e)
+            {
+                // A broken provider does not stop the others from loading
+            }
+        }
+    }
+
+    /**
+     * Register a DIF class under the content type returned by its {@code
+     * getContentType} method, replacing any DIF class registered under the
+     * same content type.
+     *
+     * @param  difClass  a class implementing {@code YosokumoDIF} which has
+     *                   a constructor taking no arguments.
+     * @throws IllegalArgumentException if the class cannot be instantiated.
+     */
+    static synchronized void register(Class<? extends YosokumoDIF> difClass)
+    {
+        YosokumoDIF ydif = instantiate(difClass);
+
+        if (ydif == null)
+            throw new IllegalArgumentException("Cannot instantiate DIF " +
+                                                        difClass.getName());
+
+        difs.put(mediaType(ydif.getContentType()), difClass);
+    }
+
+    /**
+     * Return a new DIF processor for a content type.
+     *
+     * @param  contentType  a content type, e.g.,
+     *                      "application/yosokumo+protobuf".
+     * @return a new DIF processor, or {@code null} if no DIF is registered
+     *             for the content type.
+     */
+    static YosokumoDIF newDif(String contentType)
+    {
+        Class<? extends YosokumoDIF> difClass;
+
+        synchronized (DifRegistry.class)
+        {
+            difClass = difs.get(mediaType(contentType));
+        }
+
+        return (difClass == null ? null : instantiate(difClass));
+    }
+
+    /**
+     * Return {@code true} if a DIF is registered for a content type.
+     *
+     * @param  contentType  a content type.
+     * @return {@code true} if a DIF is registered for the content type.
+     */
+    static synchronized boolean isRegistered(String contentType)
+    {
+        return difs.containsKey(mediaType(contentType));
+    }
+
+    /**
+     * Return the registered media types, in the order in which they were
+     * first registered.
+     *
+     * @return an unmodifiable list of media types.
+     */
+    static synchronized List<String> getContentTypes()
+    {
+        return Collections.unmodifiableList(
+                                    new ArrayList<String>(difs.keySet()));
+    }
+
+    /**
+     * Return the value of an Accept header which advertises content types
+     * in order of preference.  The first has the implied quality 1; the
+     * quality of each following type is 0.1 lower, but not below 0.1.
+     * For example:
+     * <pre>
+     *   application/yosokumo+protobuf, application/yosokumo+xml;q=0.9
+     * </pre>
+     *
+     * @param  contentTypes  the content types, most preferred first.
+     * @return the header value.
+     */
+    static String makeAcceptHeader(List<String> contentTypes)
+    {
+        StringBuilder sb = new StringBuilder();
+        int q = 10;
+
+        for (String type : contentTypes)
+        {
+            if (sb.length() > 0)
+                sb.append(", ");
+
+            sb.append(type);
+
+            if (q < 10)
+                sb.append(";q=0.").append(q);
+
+            if (q > 1)
+                --q;
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Return the media type of a content type:  the type and subtype,
+     * without parameters, in lower case.  For example, the media type of
+     * "Application/Yosokumo+XML; charset=UTF-8" is
+     * "application/yosokumo+xml".
+     *
+     * @param  contentType  a content type.
+     * @return the media type.
+     */
+    static String mediaType(String contentType)
+    {
+        int semi = contentType.indexOf(';');
+
+        if (semi >= 0)
+            contentType = contentType.substring(0, semi);
+
+        return contentType.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    private static YosokumoDIF instantiate(Class<? extends YosokumoDIF> difClass)
+    {
+        try
+        {
+            return difClass.getDeclaredConstructor().newInstance();
+        }
+        catch (Exception e)
+        {
+            // No constructor without arguments, or it is not accessible, 
+            // or it failed
+
+            return null;
+        }
+    }
+
+}   //  end class DifRegistry
+
+// end DifRegistry.java
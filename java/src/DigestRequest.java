@@ -31,20 +31,36 @@ class DigestRequest
 
     static public String makeDigest(String message, byte[] key) 
         throws ServiceException
+    {
+        Mac mac = makeMac(key);
+
+        return encodeDigest(mac.doFinal(message.getBytes()));
+
+    }   //  end makeDigest
+
+    /**
+     * Make a {@code Mac} which digests messages with a key.  The same 
+     * {@code Mac} may digest any number of messages, one at a time, since 
+     * {@code doFinal} resets it for the next.
+     *
+     * @param  key  the key to use to digest messages.  It must be exactly 
+     *                  64 bytes in length.
+     * @return the {@code Mac}, initialized with the key.
+     * @throws ServiceException if the input key length is not correct.
+     * @throws ServiceException if the HMAC algorithm is not available.
+     */
+    static Mac makeMac(byte[] key) throws ServiceException
     {
         if (key.length != Credentials.KEY_LEN)
 	    throw new ServiceException("Invalid key length (" + key.length + 
                                                     ") for making digest");
 
-         // digest of input message
-        byte[] digest;
-
         try
         {
             SecretKey seckey = new SecretKeySpec(key, "HmacSHA512");
             Mac mac = Mac.getInstance("HmacSHA512");
             mac.init(seckey);
-            digest = mac.doFinal(message.getBytes());
+            return mac;
         }
         catch (NoSuchAlgorithmException e)
         {
@@ -54,7 +70,17 @@ class DigestRequest
         {
             throw new ServiceException("HMAC encoding failed", e);
         }
+    }
 
+    /**
+     * Encode a digest made by a {@code Mac} from {@link #makeMac}.
+     *
+     * @param  digest  the digest to encode.
+     * @return the encoded digest.  It is exactly 88 characters long.
+     * @throws ServiceException if there is any problem encoding the digest.
+     */
+    static String encodeDigest(byte[] digest) throws ServiceException
+    {
         String request = Base64.encodeBytes(digest);
 
         if (request.length() != ENCODED_LEN)
@@ -63,7 +89,7 @@ class DigestRequest
 
         return request;
 
-    }   //  end makeDigest
+    }   //  end encodeDigest
 
 }   //  end class DigestRequest
 
@@ -0,0 +1,134 @@
+// Endpoint.java
+
+package com.yosokumo.core;
+
+import java.net.URI;
+
+/**
+ * Specifies one Yosokumo server (host name and port) among several which
+ * serve the same catalogs, for a service which balances its requests over
+ * them (see {@link EndpointBalancer}).
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+public final class Endpoint
+{
+    private final String hostName;
+    private final int    port;
+
+    // Constructors
+
+    /**
+     * Initializes a newly created {@code Endpoint} object with attributes
+     * specified by the input parameters.
+     *
+     * @param  hostName  host name of the server.
+     * @param  port      port to use for HTTP communication.
+     */
+    public Endpoint(String hostName, int port)
+    {
+        if (hostName == null || hostName.isEmpty())
+            throw new IllegalArgumentException("No host name");
+
+        this.hostName = hostName;
+        this.port     = port;
+    }
+
+    /**
+     * Return the host name of the server.
+     *
+     * @return the host name.
+     */
+    public String getHostName()
+    {
+        return hostName;
+    }
+
+    /**
+     * Return the port of the server.
+     *
+     * @return the port.
+     */
+    public int getPort()
+    {
+        return port;
+    }
+
+    /**
+     * Return {@code true} if a URI names this server, i.e., has the host
+     * name and port of this endpoint.
+     *
+     * @param  uri  the URI to check.
+     * @return {@code true} if the URI names this server.
+     */
+    boolean isNamedBy(URI uri)
+    {
+        return uri.getPort() == port &&
+                unbracket(hostName).equalsIgnoreCase(unbracket(uri.getHost()));
+    }
+
+    /**
+     * Return a URI with the scheme, path, and query of another, but with
+     * the host name and port of this endpoint.
+     *
+     * @param  uri  the URI to take the path from.
+     * @return the URI of the same resource on this server.
+     */
+    URI resolve(URI uri)
+    {
+        StringBuilder b = new StringBuilder();
+
+        b.append(uri.getScheme()).append("://").append(toString());
+        b.append(uri.getRawPath());
+
+        if (uri.getRawQuery() != null)
+            b.append('?').append(uri.getRawQuery());
+
+        return URI.create(b.toString());
+    }
+
+    /**
+     * Return a host name without the brackets around an IPv6 address.
+     */
+    private static String unbracket(String host)
+    {
+        if (host != null && host.startsWith("[") && host.endsWith("]"))
+            return host.substring(1, host.length() - 1);
+
+        return host;
+    }
+
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof Endpoint))
+            return false;
+
+        Endpoint e = (Endpoint)o;
+
+        return port == e.port && hostName.equalsIgnoreCase(e.hostName);
+    }
+
+    public int hashCode()
+    {
+        return 31 * hostName.toLowerCase().hashCode() + port;
+    }
+
+    /**
+     * Return a string representation of the {@code Endpoint}.
+     *
+     * @return  the host name and port, as in a URI.
+     */
+    public String toString()
+    {
+        String host = hostName;
+
+        if (host.indexOf(':') >= 0 && !host.startsWith("["))
+            host = "[" + host + "]";
+
+        return host + ":" + port;
+    }
+
+}   //  end class Endpoint
+
+// end Endpoint.java
@@ -0,0 +1,410 @@
+// EndpointBalancer.java
+
+package com.yosokumo.core;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads the requests of a service over several Yosokumo servers which
+ * serve the same catalogs (see {@link Service#setBalancer}).
+ * <p>
+ * Each request is sent to the less busy of two endpoints picked at random
+ * ("the power of two choices"), where the busier endpoint is the one with
+ * more requests awaiting a response.  With two endpoints this is simply
+ * the least busy one.  An endpoint is taken to be down when a request to
+ * it fails in the transport, or is answered with a status code of 500 or
+ * more, and requests go to the endpoints which are up as long as there
+ * are any.  An endpoint which is down is probed in the background, by an
+ * unsigned GET of the root resource every {@link #getProbeInterval}
+ * milliseconds, and is taken to be up again as soon as a probe, or any
+ * other request, is answered with a status code below 500.
+ * <p>
+ * A request which fails on one endpoint is sent to another, until each
+ * endpoint has been tried once, if it is a GET, PUT, or DELETE, which may
+ * be repeated without harm.  A POST is never sent twice, since the first
+ * one may have been carried out before it failed.
+ * <p>
+ * A request is balanced if its URI names the host and port given to the
+ * service, or those of one of the endpoints; the resource URIs returned by
+ * the server, such as the locations of studies, name one or the other.
+ * The request is then sent to the chosen endpoint, and signed over the
+ * Host header for that endpoint.  A request whose URI names some other
+ * server is sent there as it is.
+ * <p>
+ * A service and the workers it spawns share one balancer, and several
+ * services may share one too.  All the methods are thread-safe.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+public final class EndpointBalancer
+{
+    /**
+     * The default number of milliseconds between probes of an endpoint
+     * which is down.
+     */
+    public static final long DEFAULT_PROBE_INTERVAL = 5000;
+
+    /**
+     * Runs the probes of all balancers, on one daemon thread which is
+     * started when the first endpoint goes down.
+     */
+    private static final ScheduledExecutorService PROBER = makeProber();
+
+    /**
+     * The state of each endpoint, in the order given.
+     */
+    private final List<State> states;
+
+    private final Random random = new Random();
+
+    private volatile long probeInterval = DEFAULT_PROBE_INTERVAL;
+
+    /**
+     * The state of one endpoint.
+     */
+    private static final class State
+    {
+        final Endpoint      endpoint;
+        final AtomicInteger outstanding = new AtomicInteger(0);
+
+        volatile boolean up = true;
+
+        /*
+         * true while a probe of the endpoint is scheduled; guarded by the
+         * state itself.
+         */
+        boolean probing = false;
+
+        State(Endpoint endpoint)
+        {
+            this.endpoint = endpoint;
+        }
+    }
+
+    // Constructors
+
+    /**
+     * Initializes a newly created {@code EndpointBalancer} object which
+     * balances requests over a list of endpoints, all of which are taken to
+     * be up.
+     *
+     * @param  endpoints  the servers to send requests to.
+     * @throws IllegalArgumentException if there are no endpoints.
+     */
+    public EndpointBalancer(List<Endpoint> endpoints)
+    {
+        if (endpoints == null || endpoints.isEmpty())
+            throw new IllegalArgumentException("No endpoints");
+
+        List<State> list = new ArrayList<State>(endpoints.size());
+
+        for (Endpoint e : endpoints)
+            list.add(new State(e));
+
+        states = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Return the endpoints over which requests are balanced.
+     *
+     * @return the endpoints, in the order given.
+     */
+    public List<Endpoint> getEndpoints()
+    {
+        List<Endpoint> endpoints = new ArrayList<Endpoint>(states.size());
+
+        for (State s : states)
+            endpoints.add(s.endpoint);
+
+        return endpoints;
+    }
+
+    /**
+     * Set the number of milliseconds between probes of an endpoint which is
+     * down.
+     *
+     * @param  millis  the interval between probes; it must be positive.
+     */
+    public void setProbeInterval(long millis)
+    {
+        if (millis <= 0)
+            throw new IllegalArgumentException(
+                                    "Probe interval must be positive");
+        probeInterval = millis;
+    }
+
+    /**
+     * Return the number of milliseconds between probes of an endpoint which
+     * is down.
+     *
+     * @return the interval between probes.
+     */
+    public long getProbeInterval()
+    {
+        return probeInterval;
+    }
+
+    /**
+     * Return {@code true} if an endpoint is taken to be up.
+     *
+     * @param  endpoint  one of the endpoints of the balancer.
+     * @return {@code true} if the endpoint is up, {@code false} if it is
+     *             down or is not one of the endpoints.
+     */
+    public boolean isUp(Endpoint endpoint)
+    {
+        State s = find(endpoint);
+
+        return s != null && s.up;
+    }
+
+    /**
+     * Return the number of requests sent to an endpoint which are awaiting
+     * a response.
+     *
+     * @param  endpoint  one of the endpoints of the balancer.
+     * @return the number of outstanding requests.
+     */
+    public int getOutstanding(Endpoint endpoint)
+    {
+        State s = find(endpoint);
+
+        return s == null ? 0 : s.outstanding.get();
+    }
+
+    /**
+     * Return {@code true} if a URI names one of the endpoints.
+     *
+     * @param  uri  the URI of the request.
+     * @return {@code true} if the URI names an endpoint.
+     */
+    boolean names(URI uri)
+    {
+        for (State s : states)
+        {
+            if (s.endpoint.isNamedBy(uri))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Return the number of endpoints.
+     *
+     * @return the number of endpoints.
+     */
+    int size()
+    {
+        return states.size();
+    }
+
+    /**
+     * Choose the endpoint to send a request to, among the endpoints not yet
+     * tried for the request, and count the request as outstanding on it.
+     * An endpoint which is up is chosen if there is one; otherwise the
+     * request is sent to an endpoint which is down, since it may have come
+     * back without a probe having noticed yet.  Each call must be followed
+     * by a call of {@link #release} for the endpoint chosen.
+     *
+     * @param  tried  the endpoints already tried for the request, or {@code
+     *                    null} if none has been.
+     * @return the endpoint chosen, or {@code null} if every endpoint has
+     *             been tried.
+     */
+    Endpoint acquire(List<Endpoint> tried)
+    {
+        List<State> up   = new ArrayList<State>(states.size());
+        List<State> down = new ArrayList<State>();
+
+        for (State s : states)
+        {
+            if (tried != null && tried.contains(s.endpoint))
+                continue;
+
+            if (s.up)
+                up.add(s);
+            else
+                down.add(s);
+        }
+
+        List<State> candidates = up.isEmpty() ? down : up;
+
+        if (candidates.isEmpty())
+            return null;
+
+        State chosen = candidates.get(0);
+        int   n      = candidates.size();
+
+        if (n > 1)
+        {
+            int i = nextInt(n);
+            int j = nextInt(n - 1);
+
+            if (j >= i)
+                ++j;
+
+            State a = candidates.get(i);
+            State b = candidates.get(j);
+
+            chosen = b.outstanding.get() < a.outstanding.get() ? b : a;
+        }
+
+        chosen.outstanding.incrementAndGet();
+
+        return chosen.endpoint;
+    }
+
+    /**
+     * Record the outcome of a request to an endpoint, which is no longer
+     * outstanding.  If the endpoint failed it is taken to be down, and is
+     * probed with a transport until it is up again.
+     *
+     * @param  endpoint   the endpoint returned by {@link #acquire}.
+     * @param  failed     {@code true} if the request failed in the
+     *                        transport or with a status code of 500 or more.
+     * @param  transport  the transport with which to probe the endpoint.
+     */
+    void release(Endpoint endpoint, boolean failed, Transport transport)
+    {
+        State s = find(endpoint);
+
+        s.outstanding.decrementAndGet();
+
+        if (!failed)
+        {
+            s.up = true;
+            return;
+        }
+
+        synchronized (s)
+        {
+            s.up = false;
+
+            if (s.probing)
+                return;
+            s.probing = true;
+        }
+
+        scheduleProbe(s, transport);
+    }
+
+    /**
+     * Return the state of an endpoint, or {@code null} if it is not one of
+     * the endpoints.
+     */
+    private State find(Endpoint endpoint)
+    {
+        for (State s : states)
+        {
+            if (s.endpoint.equals(endpoint))
+                return s;
+        }
+
+        return null;
+    }
+
+    private int nextInt(int n)
+    {
+        synchronized (random)
+        {
+            return random.nextInt(n);
+        }
+    }
+
+    /**
+     * Probe an endpoint after the probe interval, and again after each
+     * interval until it is up.
+     */
+    private void scheduleProbe(final State s, final Transport transport)
+    {
+        PROBER.schedule(new Runnable()
+            {
+                public void run()
+                {
+                    if (s.up || probe(s.endpoint, transport))
+                    {
+                        synchronized (s)
+                        {
+                            s.up      = true;
+                            s.probing = false;
+                        }
+                    }
+                    else
+                        scheduleProbe(s, transport);
+                }
+            }, probeInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send an unsigned GET of the root resource to an endpoint, and return
+     * {@code true} if it is answered with a status code below 500.  Any
+     * other answer, such as 401 or 403, shows that the server is up.
+     */
+    private static boolean probe(Endpoint endpoint, Transport transport)
+    {
+        URI uri = URI.create("http://" + endpoint + "/");
+
+        TransportRequest request = new TransportRequest("GET", uri, null);
+        request.setHeader("Host",
+                    transport.getHostHeader(uri, endpoint.getHostName()));
+
+        try
+        {
+            TransportResponse response = transport.execute(request);
+
+            try
+            {
+                return response.getStatusCode() < 500;
+            }
+            finally
+            {
+                response.close();
+            }
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch (RuntimeException e)
+        {
+            return false;
+        }
+    }
+
+    private static ScheduledExecutorService makeProber()
+    {
+        ScheduledThreadPoolExecutor prober = new ScheduledThreadPoolExecutor(
+            1, new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "yosokumo-prober");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+        prober.setRemoveOnCancelPolicy(true);
+        return prober;
+    }
+
+}   //  end class EndpointBalancer
+
+// end EndpointBalancer.java
@@ -0,0 +1,315 @@
+// JdkTransport.java
+
+package com.yosokumo.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * A {@link Transport} which sends requests with the HTTP client of the JDK
+ * ({@code java.net.http}), using HTTP/2 where the server allows.
+ * <p>
+ * All requests sent by one {@code JdkTransport} share one client, which
+ * keeps a connection per server and multiplexes concurrent requests over
+ * it as HTTP/2 streams, with headers compressed by HPACK.  An {@code
+ * https} server is reached by ALPN (h2), and an {@code http} server by
+ * upgrading the first request (h2c).  A server which does not speak
+ * HTTP/2 is spoken to with HTTP/1.1 instead, over a pool of connections
+ * kept alive by the same client.  So the services which are to share
+ * connections should share one {@code JdkTransport}; a service and the
+ * workers it spawns always do.
+ * <p>
+ * The JDK client writes the Host header (the {@code :authority} of
+ * HTTP/2) and the Content-Length header itself, so {@link #getHostHeader}
+ * and {@link #getContentLengthHeader} return what it sends.  What it sends
+ * as the Content-Length of a request without an entity depends on the
+ * version of HTTP spoken:  nothing over HTTP/2, but {@code 0} over
+ * HTTP/1.1 (only for methods other than GET, HEAD, and DELETE from Java 19
+ * on).  An {@code http} server is spoken to with HTTP/1.1 until an upgrade
+ * to h2c succeeds, so the version is not known in advance; it is taken to
+ * be the version of the last response from the server, and a request
+ * which was signed for the wrong version is signed and sent again (see
+ * {@link #isSignedWrongly}).
+ * <p>
+ * This class needs Java 12 or later, the first release which lets a
+ * client set the Date header which the digest covers.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+public final class JdkTransport extends Transport
+{
+    /**
+     * {@code true} if the JDK sends a Content-Length of 0 for a GET, HEAD,
+     * or DELETE request without an entity over HTTP/1.1.
+     */
+    private static final boolean ZERO_LENGTH_FOR_ALL =
+                                        Runtime.version().feature() < 19;
+
+    private final HttpClient client;
+
+    /**
+     * The authorities of the servers whose last response came over HTTP/2.
+     */
+    private final ConcurrentHashMap<String, Boolean> h2Servers =
+                                    new ConcurrentHashMap<String, Boolean>();
+
+    // Constructors
+
+    /**
+     * Initializes a newly created {@code JdkTransport} object with a new
+     * client which prefers HTTP/2 and does not follow redirects.
+     */
+    public JdkTransport()
+    {
+        this(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build());
+    }
+
+    /**
+     * Initializes a newly created {@code JdkTransport} object which sends
+     * requests with a given client, e.g., one with its own executor or
+     * SSL context.
+     *
+     * @param  client  the client to use.  It should not follow redirects,
+     *                 since a redirected request is not signed again.
+     */
+    public JdkTransport(HttpClient client)
+    {
+        this.client = client;
+    }
+
+    /**
+     * Return the value the JDK client sends as the Host header, or as the
+     * {@code :authority} of an HTTP/2 request, for a URI:  the host,
+     * followed by the port unless it is the default port of the scheme.
+     *
+     * @param  uri       the URI of the request.
+     * @param  hostName  the name of the Yosokumo server given to the
+     *                   service, which is not used.
+     * @return the host and port of the URI as sent.
+     */
+    public String getHostHeader(URI uri, String hostName)
+    {
+        return authority(uri);
+    }
+
+    /**
+     * Return the value the JDK client sends as the Content-Length header of
+     * a request, guessing that the server speaks the version of HTTP with
+     * which it last responded.
+     *
+     * @param  request  the request, with its entity set.
+     * @return the length of the entity, or {@code null} if no Content-Length
+     *             header is sent.
+     */
+    public String getContentLengthHeader(TransportRequest request)
+    {
+        return contentLength(request,
+                        h2Servers.containsKey(authority(request.getUri())));
+    }
+
+    /**
+     * Return {@code true} if a response came over a version of HTTP for
+     * which the request was signed with the wrong Content-Length.
+     *
+     * @param  request   the request as signed.
+     * @param  response  the response to the request.
+     * @return {@code true} if the request should be signed and sent again.
+     */
+    public boolean isSignedWrongly(
+        TransportRequest  request,
+        TransportResponse response)
+    {
+        String sent = contentLength(request,
+                                    response.getProtocol().equals("HTTP/2"));
+        String signed = request.getFirstHeader("Content-Length");
+
+        return sent == null ? signed != null : !sent.equals(signed);
+    }
+
+    public TransportResponse execute(TransportRequest request)
+        throws IOException, InterruptedException
+    {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request.getUri());
+
+        for (int i = 0;  i < request.getHeaderCount();  ++i)
+        {
+            // The JDK client writes these headers itself
+
+            String name = request.getHeaderName(i);
+
+            if (name.equalsIgnoreCase("Host") ||
+                name.equalsIgnoreCase("Content-Length"))
+                continue;
+
+            builder.header(name, request.getHeaderValue(i));
+        }
+
+        builder.method(request.getMethod(), bodyOf(request));
+
+        HttpResponse<InputStream> response = client.send(builder.build(),
+                                    HttpResponse.BodyHandlers.ofInputStream());
+
+        String authority = authority(request.getUri());
+
+        if (response.version() == HttpClient.Version.HTTP_2)
+            h2Servers.put(authority, Boolean.TRUE);
+        else
+            h2Servers.remove(authority);
+
+        return new Response(response);
+    }
+
+    /**
+     * Return the host and port of a URI as the JDK client sends them.
+     */
+    static String authority(URI uri)
+    {
+        String host = uri.getHost();
+        int    port = uri.getPort();
+
+        if (host.indexOf(':') >= 0 && !host.startsWith("["))
+            host = "[" + host + "]";
+
+        int defaultPort = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+
+        if (port == -1 || port == defaultPort)
+            return host;
+
+        return host + ":" + port;
+    }
+
+    /**
+     * Return the Content-Length the JDK client sends for a request over
+     * HTTP/2 or HTTP/1.1, or {@code null} if it sends none.
+     */
+    private static String contentLength(TransportRequest request, boolean h2)
+    {
+        long length = request.getContentLength();
+
+        if (length > 0)
+            return Long.toString(length);
+
+        if (h2)
+            return null;
+
+        String method = request.getMethod();
+
+        if (ZERO_LENGTH_FOR_ALL || !(method.equals("GET") ||
+                        method.equals("HEAD") || method.equals("DELETE")))
+            return "0";
+
+        return null;
+    }
+
+    /**
+     * Return a publisher of the entity of a request, which declares the
+     * length of the entity so that it is sent with a Content-Length header.
+     * An error reading the entity fails the request with an {@code
+     * IOException}.
+     */
+    private static HttpRequest.BodyPublisher bodyOf(
+        final TransportRequest request)
+    {
+        if (request.getContentLength() <= 0)
+            return HttpRequest.BodyPublishers.noBody();
+
+        HttpRequest.BodyPublisher content =
+            HttpRequest.BodyPublishers.ofInputStream(
+                new Supplier<InputStream>()
+                {
+                    public InputStream get()
+                    {
+                        try
+                        {
+                            return request.getContent();
+                        }
+                        catch (IOException e)
+                        {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                });
+
+        return HttpRequest.BodyPublishers.fromPublisher(content,
+                                                request.getContentLength());
+    }
+
+    /**
+     * A response received by the JDK client.
+     */
+    private static final class Response extends TransportResponse
+    {
+        private final HttpResponse<InputStream> response;
+
+        Response(HttpResponse<InputStream> response)
+        {
+            this.response = response;
+        }
+
+        public int getStatusCode()
+        {
+            return response.statusCode();
+        }
+
+        public String getFirstHeader(String name)
+        {
+            return response.headers().firstValue(name).orElse(null);
+        }
+
+        public long getContentLength()
+        {
+            return response.headers().firstValueAsLong(
+                                                "Content-Length").orElse(-1);
+        }
+
+        public InputStream getContent()
+        {
+            return response.body();
+        }
+
+        public String getProtocol()
+        {
+            return response.version() == HttpClient.Version.HTTP_2 ?
+                                                    "HTTP/2" : "HTTP/1.1";
+        }
+
+        public void close() throws IOException
+        {
+            // Closing the stream before the end of the entity resets the
+            // stream (HTTP/2) or the connection (HTTP/1.1)
+
+            response.body().close();
+        }
+
+        public String toString()
+        {
+            StringBuilder s = new StringBuilder(super.toString());
+            HttpHeaders headers = response.headers();
+
+            for (Map.Entry<String, List<String>> h : headers.map().entrySet())
+            {
+                for (String v : h.getValue())
+                    s.append("\n    " + h.getKey() + ": " + v);
+            }
+
+            return s.toString();
+        }
+    }
+
+}   //  end class JdkTransport
+
+// end JdkTransport.java
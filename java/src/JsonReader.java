@@ -0,0 +1,797 @@
+// JsonReader.java
+
+package com.yosokumo.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+
+/**
+ * A streaming (pull) parser of JSON text encoded in UTF-8.  The caller
+ * steps through the document one token at a time, so no tree of the
+ * document is ever built.  A typical loop over the members of an object
+ * is:
+ * <pre>
+ *   r.beginObject();
+ *   while (r.hasNext())
+ *   {
+ *       String name = r.nextName();
+ *       if (name.equals("key"))
+ *           key = r.nextUnsignedLong();
+ *       else
+ *           r.skipValue();
+ *   }
+ *   r.endObject();
+ * </pre>
+ * The text is read either from an array, which is not copied, or from a
+ * stream through a small buffer.  Member names are interned in a small
+ * table, so the names of a document with many objects of the same kind
+ * are not allocated again and again.
+ * <p>
+ * Besides numbers, {@code nextDouble} accepts the strings "NaN",
+ * "Infinity", and "-Infinity", as written by {@code JsonWriter}.
+ * <p>
+ * Malformed text causes an {@code IOException} giving the byte offset at
+ * which the problem was found.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+class JsonReader
+{
+    /**
+     * The kinds of token in a JSON document.
+     */
+    enum Token
+    {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING,
+        NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    // The states of an open object, array, or document
+
+    private static final int EMPTY_ARRAY       = 1;
+    private static final int NONEMPTY_ARRAY    = 2;
+    private static final int EMPTY_OBJECT      = 3;
+    private static final int DANGLING_NAME     = 4;
+    private static final int NONEMPTY_OBJECT   = 5;
+    private static final int EMPTY_DOCUMENT    = 6;
+    private static final int NONEMPTY_DOCUMENT = 7;
+
+    private static final int BUFFER_SIZE   = 8192;
+    private static final int NAME_CACHE_SIZE = 64;
+
+    private final InputStream in;
+
+    private byte [] buf;
+    private int     pos   = 0;
+    private int     limit;
+
+    /**
+     * The number of bytes read and discarded from the buffer before the
+     * byte at {@code pos = 0}.
+     */
+    private long consumed = 0;
+
+    private int [] stack = new int[16];
+    private int    stackSize = 0;
+
+    private Token peeked = null;
+
+    /*
+     * The characters of the string being read, and of the number being
+     * read.
+     */
+    private char [] chars    = new char[64];
+    private int     numChars = 0;
+
+    private final String [] nameCache = new String[NAME_CACHE_SIZE];
+
+    // Constructors
+
+    /**
+     * Initializes a newly created {@code JsonReader} object which parses
+     * the text in an array.
+     *
+     * @param  text  the UTF-8 bytes of the text.
+     */
+    JsonReader(byte [] text)
+    {
+        this.in    = null;
+        this.buf   = text;
+        this.limit = text.length;
+        push(EMPTY_DOCUMENT);
+    }
+
+    /**
+     * Initializes a newly created {@code JsonReader} object which parses
+     * the text read from a stream.
+     *
+     * @param  in  the stream supplying the UTF-8 bytes of the text.
+     */
+    JsonReader(InputStream in)
+    {
+        this.in    = in;
+        this.buf   = new byte[BUFFER_SIZE];
+        this.limit = 0;
+        push(EMPTY_DOCUMENT);
+    }
+
+    /**
+     * Return the kind of the next token, without consuming it.
+     *
+     * @return the kind of the next token.
+     * @throws IOException if the text is malformed or cannot be read.
+     */
+    Token peek() throws IOException
+    {
+        if (peeked == null)
+            peeked = doPeek();
+
+        return peeked;
+    }
+
+    /**
+     * Consume the start of an object.
+     *
+     * @throws IOException if the next token is not the start of an object.
+     */
+    void beginObject() throws IOException
+    {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    /**
+     * Consume the end of the innermost object.
+     *
+     * @throws IOException if the next token is not the end of an object.
+     */
+    void endObject() throws IOException
+    {
+        expect(Token.END_OBJECT);
+        --stackSize;
+    }
+
+    /**
+     * Consume the start of an array.
+     *
+     * @throws IOException if the next token is not the start of an array.
+     */
+    void beginArray() throws IOException
+    {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    /**
+     * Consume the end of the innermost array.
+     *
+     * @throws IOException if the next token is not the end of an array.
+     */
+    void endArray() throws IOException
+    {
+        expect(Token.END_ARRAY);
+        --stackSize;
+    }
+
+    /**
+     * Return whether the innermost object or array has another member or
+     * element.
+     *
+     * @return {@code true} if there is another member or element.
+     * @throws IOException if the text is malformed or cannot be read.
+     */
+    boolean hasNext() throws IOException
+    {
+        Token t = peek();
+        return t != Token.END_OBJECT && t != Token.END_ARRAY &&
+                                                    t != Token.END_DOCUMENT;
+    }
+
+    /**
+     * Consume the name of the next member of an object.
+     *
+     * @return the name.
+     * @throws IOException if the next token is not a name.
+     */
+    String nextName() throws IOException
+    {
+        expect(Token.NAME);
+        readString();
+        return internName();
+    }
+
+    /**
+     * Consume a string value.
+     *
+     * @return the string.
+     * @throws IOException if the next token is not a string.
+     */
+    String nextString() throws IOException
+    {
+        expect(Token.STRING);
+        readString();
+        return new String(chars, 0, numChars);
+    }
+
+    /**
+     * Consume a boolean value.
+     *
+     * @return the boolean.
+     * @throws IOException if the next token is not a boolean.
+     */
+    boolean nextBoolean() throws IOException
+    {
+        expect(Token.BOOLEAN);
+
+        if (peekByte() == 't')
+        {
+            readLiteral("true");
+            return true;
+        }
+
+        readLiteral("false");
+        return false;
+    }
+
+    /**
+     * Consume a null value.
+     *
+     * @throws IOException if the next token is not null.
+     */
+    void nextNull() throws IOException
+    {
+        expect(Token.NULL);
+        readLiteral("null");
+    }
+
+    /**
+     * Consume an integer value which fits in a signed 64-bit number.
+     *
+     * @return the integer.
+     * @throws IOException if the next token is not such an integer.
+     */
+    long nextLong() throws IOException
+    {
+        expect(Token.NUMBER);
+        readNumber();
+
+        long value = parseDigits();
+
+        if (value == -1)
+            throw error("Not a 64-bit integer:  " + numberText());
+
+        return chars[0] == '-' ? -value : value;
+    }
+
+    /**
+     * Consume an integer value which fits in an unsigned 64-bit number.
+     * Values of 2^63 and more are returned as negative numbers with the
+     * same bits.
+     *
+     * @return the bits of the integer.
+     * @throws IOException if the next token is not such an integer.
+     */
+    long nextUnsignedLong() throws IOException
+    {
+        expect(Token.NUMBER);
+        readNumber();
+
+        if (chars[0] != '-')
+        {
+            long value = parseDigits();
+
+            if (value != -1)
+                return value;
+
+            // Too large for a signed number
+
+            if (isIntegral() && numChars <= 20)
+            {
+                BigInteger b = new BigInteger(numberText());
+                if (b.bitLength() <= 64)
+                    return b.longValue();
+            }
+        }
+        else if (numChars == 2 && chars[1] == '0')
+        {
+            return 0;
+        }
+
+        throw error("Not an unsigned 64-bit integer:  " + numberText());
+    }
+
+    /**
+     * Consume a real value.  An integer is converted to a real.
+     *
+     * @return the real.
+     * @throws IOException if the next token is neither a number nor one of
+     *             the strings NaN, Infinity, and -Infinity.
+     */
+    double nextDouble() throws IOException
+    {
+        if (peek() == Token.STRING)
+        {
+            String s = nextString();
+
+            if (s.equals("NaN"))        return Double.NaN;
+            if (s.equals("Infinity"))   return Double.POSITIVE_INFINITY;
+            if (s.equals("-Infinity"))  return Double.NEGATIVE_INFINITY;
+
+            throw error("Not a number:  \"" + s + "\"");
+        }
+
+        expect(Token.NUMBER);
+        readNumber();
+
+        // Integers of up to 15 digits convert exactly and quickly
+
+        if (isIntegral() && numChars <= 16)
+        {
+            long value = parseDigits();
+            if (value != -1)
+                return chars[0] == '-' ? -(double)value : (double)value;
+        }
+
+        try
+        {
+            return Double.parseDouble(numberText());
+        }
+        catch (NumberFormatException e)
+        {
+            throw error("Not a number:  " + numberText());
+        }
+    }
+
+    /**
+     * Consume the next value, including all of its contents if it is an
+     * object or array.
+     *
+     * @throws IOException if the text is malformed or cannot be read.
+     */
+    void skipValue() throws IOException
+    {
+        int depth = 0;
+
+        do
+        {
+            switch (peek())
+            {
+            case BEGIN_OBJECT:  beginObject();  ++depth;  break;
+            case BEGIN_ARRAY:   beginArray();   ++depth;  break;
+            case END_OBJECT:    endObject();    --depth;  break;
+            case END_ARRAY:     endArray();     --depth;  break;
+            case NAME:          nextName();               break;
+            case STRING:        nextString();             break;
+            case NUMBER:        expect(Token.NUMBER);  readNumber();  break;
+            case BOOLEAN:       nextBoolean();            break;
+            case NULL:          nextNull();               break;
+            case END_DOCUMENT:  throw error("Unexpected end of text");
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * Check that nothing but white space follows the value of the
+     * document.
+     *
+     * @throws IOException if anything else follows.
+     */
+    void endDocument() throws IOException
+    {
+        expect(Token.END_DOCUMENT);
+    }
+
+    /**
+     * Work out the kind of the next token, consuming the punctuation which
+     * precedes it.
+     */
+    private Token doPeek() throws IOException
+    {
+        int top = stack[stackSize-1];
+        int c;
+
+        switch (top)
+        {
+        case EMPTY_ARRAY:
+            stack[stackSize-1] = NONEMPTY_ARRAY;
+            if (nextNonWhitespace() == ']')
+            {
+                ++pos;
+                return Token.END_ARRAY;
+            }
+            break;
+
+        case NONEMPTY_ARRAY:
+            c = nextNonWhitespace();
+            ++pos;
+            if (c == ']')
+                return Token.END_ARRAY;
+            if (c != ',')
+                throw error("Expected ',' or ']'");
+            break;
+
+        case EMPTY_OBJECT:
+        case NONEMPTY_OBJECT:
+            stack[stackSize-1] = DANGLING_NAME;
+            c = nextNonWhitespace();
+            ++pos;
+            if (c == '}')
+                return Token.END_OBJECT;
+            if (top == NONEMPTY_OBJECT)
+            {
+                if (c != ',')
+                    throw error("Expected ',' or '}'");
+                c = nextNonWhitespace();
+                ++pos;
+            }
+            if (c != '"')
+                throw error("Expected a name");
+            return Token.NAME;
+
+        case DANGLING_NAME:
+            stack[stackSize-1] = NONEMPTY_OBJECT;
+            if (nextNonWhitespace() != ':')
+                throw error("Expected ':'");
+            ++pos;
+            break;
+
+        case EMPTY_DOCUMENT:
+            stack[stackSize-1] = NONEMPTY_DOCUMENT;
+            break;
+
+        case NONEMPTY_DOCUMENT:
+            if (nextNonWhitespace() == -1)
+                return Token.END_DOCUMENT;
+            throw error("Text follows the end of the document");
+        }
+
+        c = nextNonWhitespace();
+
+        switch (c)
+        {
+        case '{':   ++pos;  return Token.BEGIN_OBJECT;
+        case '[':   ++pos;  return Token.BEGIN_ARRAY;
+        case '"':   ++pos;  return Token.STRING;
+        case 't':
+        case 'f':           return Token.BOOLEAN;
+        case 'n':           return Token.NULL;
+        case -1:            throw error("Unexpected end of text");
+        default:
+            if (c == '-' || (c >= '0' && c <= '9'))
+                return Token.NUMBER;
+            throw error("Unexpected character '" + (char)c + "'");
+        }
+    }
+
+    private void expect(Token t) throws IOException
+    {
+        if (peek() != t)
+            throw error("Expected " + t + " but found " + peeked);
+
+        peeked = null;
+    }
+
+    private void push(int state)
+    {
+        if (stackSize == stack.length)
+        {
+            int [] bigger = new int[2 * stackSize];
+            System.arraycopy(stack, 0, bigger, 0, stackSize);
+            stack = bigger;
+        }
+
+        stack[stackSize++] = state;
+    }
+
+    /**
+     * Skip white space and return the next byte, without consuming it, or
+     * -1 at the end of the text.
+     */
+    private int nextNonWhitespace() throws IOException
+    {
+        while (true)
+        {
+            if (pos == limit && !fill())
+                return -1;
+
+            byte b = buf[pos];
+
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t')
+                return b;
+
+            ++pos;
+        }
+    }
+
+    /**
+     * Return the next byte without consuming it, or -1 at the end of the
+     * text.
+     */
+    private int peekByte() throws IOException
+    {
+        if (pos == limit && !fill())
+            return -1;
+
+        return buf[pos];
+    }
+
+    /**
+     * Consume and return the next byte, as an unsigned number.
+     */
+    private int readByte() throws IOException
+    {
+        if (pos == limit && !fill())
+            throw error("Unexpected end of text");
+
+        return buf[pos++] & 0xff;
+    }
+
+    /**
+     * Read more of the stream into the buffer.  Return false at the end of
+     * the text.
+     */
+    private boolean fill() throws IOException
+    {
+        if (in == null)
+            return false;
+
+        consumed += limit;
+        pos   = 0;
+        limit = 0;
+
+        int n;
+        do
+        {
+            n = in.read(buf, 0, buf.length);
+        } while (n == 0);
+
+        if (n == -1)
+            return false;
+
+        limit = n;
+        return true;
+    }
+
+    /**
+     * Read the rest of a string, whose opening quote has been consumed,
+     * into {@code chars}.
+     */
+    private void readString() throws IOException
+    {
+        numChars = 0;
+
+        while (true)
+        {
+            // Copy a run of plain ASCII characters straight from the buffer
+
+            while (pos < limit)
+            {
+                byte b = buf[pos];
+
+                if (b < 0x20 || b == '"' || b == '\\')
+                    break;
+
+                if (numChars == chars.length)
+                    growChars();
+
+                chars[numChars++] = (char)b;
+                ++pos;
+            }
+
+            int b = readByte();
+
+            if (b == '"')
+                return;
+
+            if (b == '\\')
+                readEscape();
+            else if (b < 0x20)
+                throw error("Control character in string");
+            else if (b >= 0x80)
+                readMultiByte(b);
+            else
+                appendChar((char)b);
+        }
+    }
+
+    private void readEscape() throws IOException
+    {
+        int b = readByte();
+
+        switch (b)
+        {
+        case '"':   appendChar('"');    break;
+        case '\\':  appendChar('\\');   break;
+        case '/':   appendChar('/');    break;
+        case 'b':   appendChar('\b');   break;
+        case 'f':   appendChar('\f');   break;
+        case 'n':   appendChar('\n');   break;
+        case 'r':   appendChar('\r');   break;
+        case 't':   appendChar('\t');   break;
+        case 'u':
+        {
+            int c = 0;
+            for (int i = 0;  i < 4;  ++i)
+            {
+                int h = Character.digit(readByte(), 16);
+                if (h < 0)
+                    throw error("Malformed \\u escape");
+                c = (c << 4) | h;
+            }
+            appendChar((char)c);
+            break;
+        }
+        default:
+            throw error("Unknown escape \\" + (char)b);
+        }
+    }
+
+    /**
+     * Decode a UTF-8 sequence of two, three, or four bytes, whose first
+     * byte has been consumed.
+     */
+    private void readMultiByte(int b) throws IOException
+    {
+        int n, cp;
+
+        if      ((b & 0xe0) == 0xc0)  { n = 1;  cp = b & 0x1f; }
+        else if ((b & 0xf0) == 0xe0)  { n = 2;  cp = b & 0x0f; }
+        else if ((b & 0xf8) == 0xf0)  { n = 3;  cp = b & 0x07; }
+        else
+            throw error("Malformed UTF-8");
+
+        for (int i = 0;  i < n;  ++i)
+        {
+            int next = readByte();
+            if ((next & 0xc0) != 0x80)
+                throw error("Malformed UTF-8");
+            cp = (cp << 6) | (next & 0x3f);
+        }
+
+        if (cp >= 0x10000)
+        {
+            char [] pair = Character.toChars(cp);
+            appendChar(pair[0]);
+            appendChar(pair[1]);
+        }
+        else
+            appendChar((char)cp);
+    }
+
+    private void appendChar(char c)
+    {
+        if (numChars == chars.length)
+            growChars();
+
+        chars[numChars++] = c;
+    }
+
+    private void growChars()
+    {
+        char [] bigger = new char[2 * chars.length];
+        System.arraycopy(chars, 0, bigger, 0, numChars);
+        chars = bigger;
+    }
+
+    /**
+     * Return the name in {@code chars}, using the copy in the name cache if
+     * there is one.
+     */
+    private String internName()
+    {
+        int h = 0;
+        for (int i = 0;  i < numChars;  ++i)
+            h = 31 * h + chars[i];
+
+        int slot = (h ^ (h >>> 16)) & (NAME_CACHE_SIZE - 1);
+        String s = nameCache[slot];
+
+        if (s != null && s.length() == numChars)
+        {
+            int i = 0;
+            while (i < numChars && s.charAt(i) == chars[i])
+                ++i;
+            if (i == numChars)
+                return s;
+        }
+
+        s = new String(chars, 0, numChars);
+        nameCache[slot] = s;
+        return s;
+    }
+
+    private void readLiteral(String literal) throws IOException
+    {
+        for (int i = 0;  i < literal.length();  ++i)
+        {
+            if (readByte() != literal.charAt(i))
+                throw error("Expected " + literal);
+        }
+    }
+
+    /**
+     * Read the characters of a number into {@code chars}, checking only
+     * that they may appear in a number.
+     */
+    private void readNumber() throws IOException
+    {
+        numChars = 0;
+
+        while (true)
+        {
+            int c = peekByte();
+
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' ||
+                                                        c == 'e' || c == 'E')
+            {
+                appendChar((char)c);
+                ++pos;
+            }
+            else
+                break;
+        }
+
+        if (numChars == 0 || (numChars == 1 && chars[0] == '-'))
+            throw error("Malformed number");
+    }
+
+    /**
+     * Return whether the number in {@code chars} is an optional minus sign
+     * followed by digits only.
+     */
+    private boolean isIntegral()
+    {
+        for (int i = (chars[0] == '-' ? 1 : 0);  i < numChars;  ++i)
+        {
+            if (chars[i] < '0' || chars[i] > '9')
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Return the magnitude of the integer in {@code chars}, or -1 if it is
+     * not an integer or does not fit in a signed 64-bit number.
+     */
+    private long parseDigits()
+    {
+        int i = (chars[0] == '-' ? 1 : 0);
+
+        if (i == numChars || numChars - i > 19)
+            return -1;
+
+        long value = 0;
+
+        for (;  i < numChars;  ++i)
+        {
+            char c = chars[i];
+
+            if (c < '0' || c > '9')
+                return -1;
+
+            value = 10 * value + (c - '0');
+
+            if (value < 0)
+                return -1;
+        }
+
+        return value;
+    }
+
+    private String numberText()
+    {
+        return new String(chars, 0, numChars);
+    }
+
+    private IOException error(String message)
+    {
+        return new IOException(message + " at byte " + (consumed + pos) +
+                                                            " of JSON text");
+    }
+
+}   // end class JsonReader
+
+// end JsonReader.java
@@ -0,0 +1,455 @@
+// JsonWriter.java
+
+package com.yosokumo.core;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * A streaming generator of JSON text, encoded in UTF-8.  Values are written
+ * one at a time, in document order, straight into a byte array; no tree of
+ * the document is ever built.  The generator inserts the commas and colons
+ * between the parts of objects and arrays, so a caller only says what to
+ * write:
+ * <pre>
+ *   JsonWriter w = new JsonWriter();
+ *   w.beginObject();
+ *   w.name("key").value(1234);
+ *   w.name("cell").beginArray();
+ *   ...
+ *   w.endArray();
+ *   w.endObject();
+ *   byte [] bytes = w.toByteArray();
+ * </pre>
+ * Real values which JSON cannot represent (NaN and the infinities) are
+ * written as the strings "NaN", "Infinity", and "-Infinity".
+ * <p>
+ * The generator does not check that the calls make a well-formed document.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+class JsonWriter
+{
+    private static final byte [] HEX =
+    {
+        '0', '1', '2', '3', '4', '5', '6', '7',
+        '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+
+    private static final byte [] TRUE  = { 't', 'r', 'u', 'e' };
+    private static final byte [] FALSE = { 'f', 'a', 'l', 's', 'e' };
+
+    private final BufferPool pool;
+
+    private byte [] buf;
+    private int     count = 0;
+
+    /*
+     * For each open object or array, whether anything has been written in
+     * it yet, i.e., whether the next value needs a comma before it.
+     */
+    private boolean [] started = new boolean[16];
+    private int        depth   = 0;
+
+    /*
+     * True after a name has been written, so that the next value follows
+     * the colon directly.
+     */
+    private boolean afterName = false;
+
+    // Constructors
+
+    /**
+     * Initializes a newly created {@code JsonWriter} object which writes
+     * into an array of its own.
+     */
+    JsonWriter()
+    {
+        this.pool = null;
+        this.buf  = new byte[256];
+    }
+
+    /**
+     * Initializes a newly created {@code JsonWriter} object which writes
+     * into arrays obtained from a pool.  When the text outgrows an array,
+     * the text is moved to a larger array and the smaller array is given
+     * back.  The final array is given to the caller by {@link #toBuffer}.
+     *
+     * @param  pool  the pool from which to obtain arrays.
+     */
+    JsonWriter(BufferPool pool)
+    {
+        this.pool = pool;
+        this.buf  = pool.acquire(BufferPool.MIN_CLASS_SIZE);
+    }
+
+    /**
+     * Begin an object.
+     *
+     * @return this writer.
+     */
+    JsonWriter beginObject()
+    {
+        beforeValue();
+        open();
+        write((byte)'{');
+        return this;
+    }
+
+    /**
+     * End the innermost open object.
+     *
+     * @return this writer.
+     */
+    JsonWriter endObject()
+    {
+        --depth;
+        write((byte)'}');
+        return this;
+    }
+
+    /**
+     * Begin an array.
+     *
+     * @return this writer.
+     */
+    JsonWriter beginArray()
+    {
+        beforeValue();
+        open();
+        write((byte)'[');
+        return this;
+    }
+
+    /**
+     * End the innermost open array.
+     *
+     * @return this writer.
+     */
+    JsonWriter endArray()
+    {
+        --depth;
+        write((byte)']');
+        return this;
+    }
+
+    /**
+     * Write the name of the next member of an object.
+     *
+     * @param  name  the name of the member.
+     * @return this writer.
+     */
+    JsonWriter name(String name)
+    {
+        beforeValue();
+        writeString(name);
+        write((byte)':');
+        afterName = true;
+        return this;
+    }
+
+    /**
+     * Write a string value.
+     *
+     * @param  value  the string; {@code null} is written as null.
+     * @return this writer.
+     */
+    JsonWriter value(String value)
+    {
+        beforeValue();
+
+        if (value == null)
+            writeAscii("null");
+        else
+            writeString(value);
+
+        return this;
+    }
+
+    /**
+     * Write a signed integer value.
+     *
+     * @param  value  the integer.
+     * @return this writer.
+     */
+    JsonWriter value(long value)
+    {
+        beforeValue();
+
+        if (value == Long.MIN_VALUE)
+        {
+            writeAscii("-9223372036854775808");
+            return this;
+        }
+
+        if (value < 0)
+        {
+            write((byte)'-');
+            value = -value;
+        }
+
+        writeDigits(value);
+        return this;
+    }
+
+    /**
+     * Write an unsigned integer value.  The bits of the input are taken as
+     * an unsigned 64-bit number, as for the uint64 fields of a block.
+     *
+     * @param  value  the integer.
+     * @return this writer.
+     */
+    JsonWriter unsignedValue(long value)
+    {
+        if (value >= 0)
+            return value(value);
+
+        beforeValue();
+        writeAscii(BigInteger.valueOf(value).add(BigInteger.ONE.shiftLeft(64))
+                                                                .toString());
+        return this;
+    }
+
+    /**
+     * Write a real value.
+     *
+     * @param  value  the real.
+     * @return this writer.
+     */
+    JsonWriter value(double value)
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            return value(Double.toString(value));
+
+        long n = (long)value;
+
+        if (n == value && Math.abs(n) < (1L << 53) &&
+                            (n != 0 || 1 / value > 0))
+        {
+            // An integral value is written without a fraction or exponent,
+            // which is much faster than the general conversion.  The reader
+            // gives the same real value back.
+
+            return value(n);
+        }
+
+        beforeValue();
+        writeAscii(Double.toString(value));
+        return this;
+    }
+
+    /**
+     * Write a boolean value.
+     *
+     * @param  value  the boolean.
+     * @return this writer.
+     */
+    JsonWriter value(boolean value)
+    {
+        beforeValue();
+        write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    /**
+     * Return the text written so far, in an array of its exact length.
+     *
+     * @return the UTF-8 bytes of the text.
+     */
+    byte [] toByteArray()
+    {
+        byte [] bytes = new byte[count];
+        System.arraycopy(buf, 0, bytes, 0, count);
+        return bytes;
+    }
+
+    /**
+     * Return the text written so far, in a buffer wrapping the array into
+     * which it was written.  For a writer using a pool, the caller gives
+     * the array back to the pool when the text is no longer needed, and
+     * the writer must not be used again.
+     *
+     * @return a buffer whose remaining bytes are the UTF-8 bytes of the
+     *             text.
+     */
+    ByteBuffer toBuffer()
+    {
+        return ByteBuffer.wrap(buf, 0, count);
+    }
+
+    /**
+     * Write a comma if a value has already been written at this level.
+     */
+    private void beforeValue()
+    {
+        if (afterName)
+        {
+            afterName = false;
+            return;
+        }
+
+        if (depth > 0)
+        {
+            if (started[depth-1])
+                write((byte)',');
+            else
+                started[depth-1] = true;
+        }
+    }
+
+    private void open()
+    {
+        if (depth == started.length)
+        {
+            boolean [] bigger = new boolean[2 * depth];
+            System.arraycopy(started, 0, bigger, 0, depth);
+            started = bigger;
+        }
+
+        started[depth++] = false;
+    }
+
+    /**
+     * Write the decimal digits of a non-negative number.
+     */
+    private void writeDigits(long value)
+    {
+        ensure(20);
+
+        int start = count;
+
+        do
+        {
+            buf[count++] = (byte)('0' + (int)(value % 10));
+            value /= 10;
+        } while (value != 0);
+
+        // The digits were written least significant first
+
+        for (int i = start, j = count-1;  i < j;  ++i, --j)
+        {
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+    }
+
+    /**
+     * Write a quoted string, escaping characters as JSON requires and
+     * encoding the rest in UTF-8.
+     */
+    private void writeString(String s)
+    {
+        int n = s.length();
+
+        ensure(2 + 6 * n);
+
+        buf[count++] = '"';
+
+        for (int i = 0;  i < n;  ++i)
+        {
+            char c = s.charAt(i);
+
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\')
+            {
+                buf[count++] = (byte)c;
+            }
+            else if (c == '"' || c == '\\')
+            {
+                buf[count++] = '\\';
+                buf[count++] = (byte)c;
+            }
+            else if (c < 0x20)
+            {
+                buf[count++] = '\\';
+                switch (c)
+                {
+                case '\n':  buf[count++] = 'n';  break;
+                case '\r':  buf[count++] = 'r';  break;
+                case '\t':  buf[count++] = 't';  break;
+                case '\b':  buf[count++] = 'b';  break;
+                case '\f':  buf[count++] = 'f';  break;
+                default:
+                    buf[count++] = 'u';
+                    buf[count++] = '0';
+                    buf[count++] = '0';
+                    buf[count++] = HEX[c >> 4];
+                    buf[count++] = HEX[c & 0xf];
+                }
+            }
+            else if (c < 0x800)
+            {
+                buf[count++] = (byte)(0xc0 | (c >> 6));
+                buf[count++] = (byte)(0x80 | (c & 0x3f));
+            }
+            else if (Character.isHighSurrogate(c) && i+1 < n &&
+                                    Character.isLowSurrogate(s.charAt(i+1)))
+            {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[count++] = (byte)(0xf0 | (cp >> 18));
+                buf[count++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+                buf[count++] = (byte)(0x80 | ((cp >>  6) & 0x3f));
+                buf[count++] = (byte)(0x80 | (cp & 0x3f));
+            }
+            else
+            {
+                buf[count++] = (byte)(0xe0 | (c >> 12));
+                buf[count++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                buf[count++] = (byte)(0x80 | (c & 0x3f));
+            }
+        }
+
+        buf[count++] = '"';
+    }
+
+    private void writeAscii(String s)
+    {
+        int n = s.length();
+
+        ensure(n);
+
+        for (int i = 0;  i < n;  ++i)
+            buf[count++] = (byte)s.charAt(i);
+    }
+
+    private void write(byte [] b)
+    {
+        ensure(b.length);
+        System.arraycopy(b, 0, buf, count, b.length);
+        count += b.length;
+    }
+
+    private void write(byte b)
+    {
+        ensure(1);
+        buf[count++] = b;
+    }
+
+    /**
+     * Make sure there is room for n more bytes.
+     */
+    private void ensure(int n)
+    {
+        if (count + n <= buf.length)
+            return;
+
+        int newLength = Math.max(count + n, 2 * buf.length);
+        byte [] bigger;
+
+        if (pool == null)
+            bigger = new byte[newLength];
+        else
+            bigger = pool.acquire(newLength);
+
+        System.arraycopy(buf, 0, bigger, 0, count);
+
+        if (pool != null)
+            pool.release(buf);
+
+        buf = bigger;
+    }
+
+}   // end class JsonWriter
+
+// end JsonWriter.java
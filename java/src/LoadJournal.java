@@ -0,0 +1,242 @@
+// LoadJournal.java
+
+package com.yosokumo.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only file recording which specimen blocks of a load into a
+ * study's table have been accepted by the server.  It makes it possible to
+ * resume a load which was interrupted, e.g., by a network failure or by
+ * the death of the process, without posting again the blocks recorded.  A
+ * block is recorded only after the server has accepted it, so the block
+ * in flight when the load was interrupted may be posted twice.
+ * <p>
+ * The journal is a text file.  The first line identifies the study:
+ * <pre>
+ *   study &lt;study identifier&gt;
+ * </pre>
+ * Each following line records one block which the server accepted:
+ * <pre>
+ *   block &lt;first index&gt; &lt;last index&gt; &lt;first key&gt; &lt;last key&gt;
+ * </pre>
+ * where the indexes are positions in the specimen list being loaded (the
+ * last index is exclusive) and the keys are the specimen keys at the first
+ * and last positions of the block.  Each line is forced to the disk before
+ * the next block is posted.  A final line without a newline is the remains
+ * of a write which was cut short; it is discarded when the journal is
+ * opened.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+class LoadJournal
+{
+    /**
+     * One block recorded in the journal.
+     */
+    private static final class Entry
+    {
+        final int  firstIdx;
+        final int  lastIdx;
+        final long firstKey;
+        final long lastKey;
+
+        Entry(int firstIdx, int lastIdx, long firstKey, long lastKey)
+        {
+            this.firstIdx = firstIdx;
+            this.lastIdx  = lastIdx;
+            this.firstKey = firstKey;
+            this.lastKey  = lastKey;
+        }
+    }
+
+    private final File             file;
+    private final RandomAccessFile journal;
+    private final List<Entry>      entries = new ArrayList<Entry>();
+
+    // Constructors
+
+    /**
+     * Open a journal for a load into a study's table, creating the file if
+     * it does not exist.
+     *
+     * @param  file     the journal file.
+     * @param  studyId  the study into which subjects are loaded.
+     * @throws IOException if the file cannot be read or written, or if it
+     *         is not a journal of a load into the study.
+     */
+    LoadJournal(File file, String studyId) throws IOException
+    {
+        this.file    = file;
+        this.journal = new RandomAccessFile(file, "rw");
+
+        try
+        {
+            readEntries(studyId);
+        }
+        catch (IOException e)
+        {
+            journal.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read the entries of the journal, discarding a partially written last
+     * line, and position the file for appending.  An empty file is given a
+     * study line.
+     */
+    private void readEntries(String studyId) throws IOException
+    {
+        byte [] contents = new byte[(int)journal.length()];
+        journal.readFully(contents);
+
+        String text = new String(contents, "UTF-8");
+        int end = text.lastIndexOf('\n') + 1;
+
+        if (end < text.length())
+            journal.setLength(text.substring(0, end).getBytes("UTF-8").length);
+
+        journal.seek(journal.length());
+
+        if (end == 0)
+        {
+            append("study " + studyId);
+            return;
+        }
+
+        String [] lines = text.substring(0, end).split("\n");
+
+        if (!lines[0].equals("study " + studyId))
+            throw new IOException(file + " is not a load journal for study " +
+                                                                    studyId);
+
+        int committed = 0;
+
+        for (int i = 1;  i < lines.length;  ++i)
+        {
+            String [] field = lines[i].split(" ");
+            Entry e;
+
+            try
+            {
+                if (field.length != 5 || !field[0].equals("block"))
+                    throw new NumberFormatException();
+
+                e = new Entry(Integer.parseInt(field[1]),
+                              Integer.parseInt(field[2]),
+                              Long.parseLong   (field[3]),
+                              Long.parseLong   (field[4]));
+            }
+            catch (NumberFormatException x)
+            {
+                throw new IOException(file + ", line " + (i+1) +
+                                            ":  not a valid journal entry");
+            }
+
+            if (e.firstIdx != committed || e.lastIdx <= e.firstIdx)
+                throw new IOException(file + ", line " + (i+1) +
+                    ":  block does not follow the previous one");
+
+            entries.add(e);
+            committed = e.lastIdx;
+        }
+    }
+
+    /**
+     * Return the number of specimens at the start of the specimen list which
+     * the server has accepted, i.e., the index of the first specimen still
+     * to be posted.
+     *
+     * @return the number of committed specimens.
+     */
+    int getCommittedCount()
+    {
+        return entries.isEmpty() ? 0 : entries.get(entries.size()-1).lastIdx;
+    }
+
+    /**
+     * Check that the journal describes a load of a given specimen list, by
+     * comparing the keys recorded for each block with the keys of the
+     * specimens at the same positions in the list.
+     *
+     * @param  specimenList  the list being loaded.
+     * @return {@code null} if the journal matches the list, or else a
+     *         description of the first mismatch.
+     */
+    String verify(List<Specimen> specimenList)
+    {
+        for (Entry e : entries)
+        {
+            if (e.lastIdx > specimenList.size())
+                return "the journal records specimen " + (e.lastIdx-1) +
+                    " but the list has only " + specimenList.size() +
+                    " specimens";
+
+            long firstKey = specimenList.get(e.firstIdx  ).getSpecimenKey();
+            long lastKey  = specimenList.get(e.lastIdx-1).getSpecimenKey();
+
+            if (firstKey != e.firstKey || lastKey != e.lastKey)
+                return "the keys of specimens " + e.firstIdx + " to " +
+                    (e.lastIdx-1) + " differ from those in the journal";
+        }
+
+        return null;
+    }
+
+    /**
+     * Record that the server has accepted a block of specimens.  When this
+     * method returns, the record is on the disk.
+     *
+     * @param  firstIdx  the index of the first specimen of the block in the
+     *                   list being loaded.
+     * @param  lastIdx   the index following the last specimen of the block.
+     * @param  firstKey  the key of the first specimen of the block.
+     * @param  lastKey   the key of the last specimen of the block.
+     * @throws IOException if the record cannot be written.
+     */
+    void commit(
+        int  firstIdx,
+        int  lastIdx,
+        long firstKey,
+        long lastKey) throws IOException
+    {
+        assert firstIdx == getCommittedCount() && lastIdx > firstIdx;
+
+        append("block " + firstIdx + " " + lastIdx + " " +
+                                                firstKey + " " + lastKey);
+        entries.add(new Entry(firstIdx, lastIdx, firstKey, lastKey));
+    }
+
+    /**
+     * Close the journal file.
+     */
+    void close()
+    {
+        try
+        {
+            journal.close();
+        }
+        catch (IOException e)
+        {
+            // Every record was forced to the disk when it was written
+        }
+    }
+
+    /**
+     * Append a line to the journal and force it to the disk.
+     */
+    private void append(String line) throws IOException
+    {
+        journal.write((line + "\n").getBytes("UTF-8"));
+        journal.getFD().sync();
+    }
+
+}   // end class LoadJournal
+
+// end LoadJournal.java
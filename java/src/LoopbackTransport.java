@@ -0,0 +1,63 @@
+// LoopbackTransport.java
+
+package com.yosokumo.core;
+
+import java.io.IOException;
+
+/**
+ * A {@link Transport} which sends no request over a network, but hands
+ * each request to a handler in the same process and returns the handler's
+ * response.  A service using a loopback transport prepares, signs, and
+ * encodes each request, and decodes each response, exactly as it would
+ * for a real server, so the handler can stand in for a server in tests
+ * and in benchmarks which are to measure the client alone.
+ * <p>
+ * The handler is called on the thread which sends the request, and must
+ * allow for being called by several threads at once when the service
+ * fans out over several workers.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+public final class LoopbackTransport extends Transport
+{
+    /**
+     * Answers the requests sent through a {@code LoopbackTransport}.
+     */
+    public interface Handler
+    {
+        /**
+         * Answer a request.
+         *
+         * @param  request  the request, with all its headers set.
+         * @return the response to the request; see {@link
+         *             TransportResponse#of}.
+         * @throws IOException to make the request fail as though the
+         *             connection had failed.
+         */
+        TransportResponse serve(TransportRequest request) throws IOException;
+    }
+
+    private final Handler handler;
+
+    // Constructors
+
+    /**
+     * Initializes a newly created {@code LoopbackTransport} object.
+     *
+     * @param  handler  answers the requests sent through the transport.
+     */
+    public LoopbackTransport(Handler handler)
+    {
+        this.handler = handler;
+    }
+
+    public TransportResponse execute(TransportRequest request)
+        throws IOException
+    {
+        return handler.serve(request);
+    }
+
+}   //  end class LoopbackTransport
+
+// end LoopbackTransport.java
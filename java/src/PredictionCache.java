@@ -0,0 +1,335 @@
+// PredictionCache.java
+
+package com.yosokumo.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A bounded cache of predictands computed by study models, used to answer
+ * repeated prospects without posting them to the server.  An entry is
+ * indexed by a study identifier and the exact contents of the prospect's
+ * cells (see {@link Key}).  The cache has these properties:
+ * <ul>
+ * <li>At most {@code maxEntries} predictands are held; when the cache is
+ *          full, the least recently used entry is evicted.
+ * <li>An entry expires {@code ttlMillis} milliseconds after it was stored.
+ * <li>All entries of a study are discarded when the study's latest block
+ *          time changes, since the study's model may then have changed.
+ * </ul>
+ * A {@code PredictionCache} is shared by a {@code Service} and its workers,
+ * so all methods are synchronized.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+class PredictionCache
+{
+    /**
+     * The index of a cached predictand:  a study identifier together with a
+     * fingerprint of the cells of a prospect.  The fingerprint holds the
+     * name, the value type, and the value bits of each cell, in cell order,
+     * so two keys are equal only if the prospects have exactly the same
+     * cells.  The hash code is computed once, when the key is constructed.
+     */
+    static final class Key
+    {
+        private final String studyId;
+        private final long[] cells;
+        private final int    hash;
+
+        /**
+         * Initializes a newly created {@code Key} object for a prospect of
+         * a study.
+         *
+         * @param  studyId   the study whose model scores the prospect.
+         * @param  prospect  the prospect whose cells are fingerprinted.
+         */
+        Key(String studyId, Specimen prospect)
+        {
+            List<Cell> cellList = prospect.getCells();
+
+            this.studyId = studyId;
+            this.cells   = new long[3 * cellList.size()];
+
+            int i = 0;
+            for (Cell c : cellList)
+            {
+                Value v = c.getValue();
+                cells[i++] = c.getName();
+                cells[i++] = v.getType().ordinal();
+                cells[i++] = valueBits(v);
+            }
+
+            this.hash = 31 * studyId.hashCode() + Arrays.hashCode(cells);
+        }
+
+        /**
+         * Return the identifier of the study of this key.
+         *
+         * @return the study identifier.
+         */
+        String getStudyIdentifier()
+        {
+            return studyId;
+        }
+
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+
+            if (!(o instanceof Key))
+                return false;
+
+            Key k = (Key)o;
+
+            return hash == k.hash && studyId.equals(k.studyId) &&
+                                                    Arrays.equals(cells, k.cells);
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        /**
+         * Return the bits of a value as a long.  A real value is
+         * represented by its IEEE 754 bit pattern.
+         */
+        private static long valueBits(Value v)
+        {
+            switch (v.getType())
+            {
+            case NATURAL:   return ((NaturalValue)v).getValue();
+            case INTEGER:   return ((IntegerValue)v).getValue();
+            case REAL:      return Double.doubleToLongBits(
+                                                    ((RealValue)v).getValue());
+            case SPECIAL:   return ((SpecialValue)v).getValue();
+            default:        return 0;
+            }
+        }
+
+    }   // end class Key
+
+    /**
+     * A cached predictand and the time at which it expires.  (It is not 
+     * named {@code Entry}, which would hide {@code Map.Entry} in the map
+     * below.)
+     */
+    private static final class CachedPredictand
+    {
+        final Value predictand;
+        final long  expiryTime;
+
+        CachedPredictand(Value predictand, long expiryTime)
+        {
+            this.predictand = predictand;
+            this.expiryTime = expiryTime;
+        }
+    }
+
+    private final int  maxEntries;
+    private final long ttlMillis;
+
+    /**
+     * The cached predictands, in access order, so that the eldest entry is
+     * the least recently used one.
+     */
+    private final LinkedHashMap<Key, CachedPredictand> entries;
+
+    /**
+     * The keys of the cached predictands of each study, indexed by study 
+     * identifier, so that the predictands of a study are discarded without
+     * looking at those of other studies.
+     */
+    private final Map<String, Set<Key>> keysByStudy =
+                                        new HashMap<String, Set<Key>>();
+
+    /**
+     * The latest block time of each study as last seen in the study's
+     * panel, indexed by study identifier.
+     */
+    private final Map<String, String> latestBlockTimes =
+                                            new LinkedHashMap<String, String>();
+
+    // Constructors
+
+    /**
+     * Initializes a newly created {@code PredictionCache} object with
+     * attributes specified by the input parameters.
+     *
+     * @param  maxEntries  the maximum number of predictands held (>= 1).
+     * @param  ttlMillis   the time in milliseconds for which a predictand
+     *                     remains valid (> 0).
+     */
+    PredictionCache(int maxEntries, long ttlMillis)
+    {
+        final int max = (maxEntries < 1 ? 1 : maxEntries);
+
+        this.maxEntries = max;
+        this.ttlMillis  = (ttlMillis < 1 ? 1 : ttlMillis);
+
+        this.entries = 
+                new LinkedHashMap<Key, CachedPredictand>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(
+                Map.Entry<Key, CachedPredictand> eldest)
+            {
+                if (size() <= max)
+                    return false;
+
+                unindex(eldest.getKey());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Return the maximum number of predictands held.
+     *
+     * @return the maximum number of entries.
+     */
+    int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    /**
+     * Return the time for which a predictand remains valid.
+     *
+     * @return the time to live in milliseconds.
+     */
+    long getTtlMillis()
+    {
+        return ttlMillis;
+    }
+
+    /**
+     * Look up the predictand of a prospect.
+     *
+     * @param  key  specifies the study and the cells of the prospect.
+     * @return the cached predictand, or {@code null} if there is none or it
+     *         has expired.
+     */
+    synchronized Value get(Key key)
+    {
+        CachedPredictand e = entries.get(key);
+
+        if (e == null)
+            return null;
+
+        if (e.expiryTime - System.currentTimeMillis() <= 0)
+        {
+            entries.remove(key);
+            unindex(key);
+            return null;
+        }
+
+        return e.predictand;
+    }
+
+    /**
+     * Store the predictand of a prospect.
+     *
+     * @param  key         specifies the study and the cells of the prospect.
+     * @param  predictand  the predictand computed by the study's model.
+     */
+    synchronized void put(Key key, Value predictand)
+    {
+        if (predictand == null)
+            return;
+
+        String studyId = key.getStudyIdentifier();
+        Set<Key> keys  = keysByStudy.get(studyId);
+
+        if (keys == null)
+        {
+            keys = new HashSet<Key>();
+            keysByStudy.put(studyId, keys);
+        }
+
+        keys.add(key);
+
+        entries.put(key, new CachedPredictand(predictand,
+                                    System.currentTimeMillis() + ttlMillis));
+    }
+
+    /**
+     * Record the latest block time of a study, as found in the study's
+     * panel.  If it differs from the time recorded previously, the study's
+     * model may have changed, so all predictands of the study are discarded.
+     *
+     * @param  studyId          the study whose panel was read.
+     * @param  latestBlockTime  the latest block time from the panel.
+     */
+    synchronized void noteLatestBlockTime(
+        String studyId,
+        String latestBlockTime)
+    {
+        String previous = latestBlockTimes.put(studyId, latestBlockTime);
+
+        if (previous == null ? latestBlockTime != null :
+                                            !previous.equals(latestBlockTime))
+            invalidate(studyId);
+    }
+
+    /**
+     * Discard all predictands of a study.
+     *
+     * @param  studyId  the study whose predictands are discarded.
+     */
+    synchronized void invalidate(String studyId)
+    {
+        Set<Key> keys = keysByStudy.remove(studyId);
+
+        if (keys == null)
+            return;
+
+        for (Key key : keys)
+            entries.remove(key);
+    }
+
+    /**
+     * Discard all predictands.
+     */
+    synchronized void clear()
+    {
+        entries.clear();
+        keysByStudy.clear();
+        latestBlockTimes.clear();
+    }
+
+    /**
+     * Remove a key from the index of the keys of its study.
+     */
+    private void unindex(Key key)
+    {
+        String   studyId = key.getStudyIdentifier();
+        Set<Key> keys    = keysByStudy.get(studyId);
+
+        if (keys != null && keys.remove(key) && keys.isEmpty())
+            keysByStudy.remove(studyId);
+    }
+
+    /**
+     * Return the number of predictands held, including any which have
+     * expired but have not yet been discarded.
+     *
+     * @return the number of entries.
+     */
+    synchronized int size()
+    {
+        return entries.size();
+    }
+
+}   // end class PredictionCache
+
+// end PredictionCache.java
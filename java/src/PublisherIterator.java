@@ -0,0 +1,210 @@
+// PublisherIterator.java
+
+package com.yosokumo.core;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Subscribes to a {@code Flow.Publisher} and hands the items it publishes
+ * to a blocking {@code Iterator}, so that a reactive source can feed the
+ * iterator forms of {@code Service.loadSubjects} and {@code
+ * Service.scoreProspects}.
+ * <p>
+ * Demand follows consumption:  {@code window} items are requested when the
+ * subscription starts, and another {@code window / 2} each time that many
+ * have been taken from the iterator.  So at most {@code window} items are
+ * ever buffered, and when the service stops taking items, because as many
+ * blocks as it allows are in flight, the publisher is asked for no more.
+ * <p>
+ * The iterator is meant to be used by one thread, which blocks in {@code
+ * hasNext} until an item or the end of the stream arrives.  If the
+ * publisher signals an error, {@code hasNext} throws an {@code
+ * UpstreamException} whose cause is the error.  After {@code cancel}, the
+ * iterator has no more items.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+final class PublisherIterator<T> implements Flow.Subscriber<T>, Iterator<T>
+{
+    /**
+     * Thrown by {@code hasNext} and {@code next} when the publisher has
+     * signalled an error, or the waiting thread has been interrupted.  The
+     * cause is the error or the {@code InterruptedException}.
+     */
+    static final class UpstreamException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        UpstreamException(Throwable cause)
+        {
+            super(cause);
+        }
+    }
+
+    /**
+     * Queued after the last item when the publisher completes, or when the
+     * subscription is cancelled.
+     */
+    private static final Object END = new Object();
+
+    /**
+     * Queued when the publisher signals an error.
+     */
+    private static final class Failure
+    {
+        final Throwable error;
+
+        Failure(Throwable error)
+        {
+            this.error = error;
+        }
+    }
+
+    private final int window;
+    private final int refill;
+
+    /*
+     * Items, followed by END or a Failure.  The queue is not bounded,
+     * since the publisher may only send what has been requested.
+     */
+    private final BlockingQueue<Object> queue =
+                                            new LinkedBlockingQueue<Object>();
+
+    private volatile Flow.Subscription subscription = null;
+    private volatile boolean           cancelled    = false;
+
+    /*
+     * Used only by the thread using the iterator.
+     */
+    private Object  next  = null;
+    private boolean ended = false;
+    private int     taken = 0;
+
+    // Constructors
+
+    /**
+     * Initializes a newly created {@code PublisherIterator} object.
+     *
+     * @param  window  the largest number of items requested and not yet
+     *                 taken from the iterator (>= 1).
+     */
+    PublisherIterator(int window)
+    {
+        this.window = Math.max(1, window);
+        this.refill = Math.max(1, this.window / 2);
+    }
+
+    public void onSubscribe(Flow.Subscription s)
+    {
+        if (subscription != null || cancelled)
+        {
+            s.cancel();
+            return;
+        }
+
+        subscription = s;
+        s.request(window);
+    }
+
+    public void onNext(T item)
+    {
+        if (item == null)
+            throw new NullPointerException("Publisher sent a null item");
+
+        queue.offer(item);
+    }
+
+    public void onError(Throwable error)
+    {
+        queue.offer(new Failure(error));
+    }
+
+    public void onComplete()
+    {
+        queue.offer(END);
+    }
+
+    /**
+     * Cancel the subscription.  The iterator has no more items, and a
+     * thread waiting in {@code hasNext} returns.
+     */
+    void cancel()
+    {
+        cancelled = true;
+
+        Flow.Subscription s = subscription;
+
+        if (s != null)
+            s.cancel();
+
+        queue.offer(END);
+    }
+
+    public boolean hasNext()
+    {
+        if (cancelled)
+            return false;
+
+        if (next == null)
+        {
+            if (ended)
+                return false;
+
+            try
+            {
+                next = queue.take();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                cancel();
+                throw new UpstreamException(e);
+            }
+        }
+
+        if (next == END || cancelled)
+        {
+            ended = true;
+            return false;
+        }
+
+        if (next instanceof Failure)
+        {
+            ended = true;
+            throw new UpstreamException(((Failure)next).error);
+        }
+
+        return true;
+    }
+
+    public T next()
+    {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        @SuppressWarnings("unchecked")
+        T item = (T)next;
+        next = null;
+
+        if (++taken == refill)
+        {
+            taken = 0;
+            subscription.request(refill);
+        }
+
+        return item;
+    }
+
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+}   //  end class PublisherIterator
+
+// end PublisherIterator.java
@@ -0,0 +1,263 @@
+// RequestSigner.java
+
+package com.yosokumo.core;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Locale;
+import javax.crypto.Mac;
+
+/**
+ * Signs HTTP requests to the Yosokumo server with a user's key.
+ * <p>
+ * The signature of a request is an HMAC digest of its request string:
+ * <pre>
+ *     method+host+path+date+content-type+content-length+
+ *         content-encoding+content-md5
+ * </pre>
+ * where each field after the path is the value of the header of that
+ * name, or nothing if the request has no such header.  A signer finds all
+ * these headers in one pass over the headers of the request, writes the
+ * request string as bytes into a buffer which it keeps from one request
+ * to the next, and digests it with a {@code Mac} which was initialized
+ * with the key once, when the signer was made.  So signing a request
+ * costs little more than the digest itself.
+ * <p>
+ * A signer is used by one thread at a time, like the {@code
+ * YosokumoRequest} which owns it.  The value of the Date header, which
+ * changes only once a second, is formatted once a second for all threads
+ * by {@link #formatDate}.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+final class RequestSigner
+{
+    /**
+     * The headers whose values are in the request string, in order.
+     */
+    private static final String [] SIGNED_HEADERS =
+    {
+        "Host",
+        "Date",
+        "Content-Type",
+        "Content-Length",
+        "Content-Encoding",
+        "Content-MD5"
+    };
+
+    /**
+     * Formats the value of the Date header (RFC 1123), e.g.,
+     * "Sun, 06 Nov 1994 08:49:37 GMT".
+     */
+    private static final DateTimeFormatter DATE_FORMAT =
+        DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'",
+                                    Locale.US).withZone(ZoneOffset.UTC);
+
+    /**
+     * The Date header for the last second formatted.
+     */
+    private static volatile FormattedDate lastDate = null;
+
+    private final Mac mac;
+
+    /*
+     * The request string of the last request signed is in the first
+     * length bytes of buffer.
+     */
+    private byte [] buffer = new byte[256];
+    private int     length = 0;
+
+    /*
+     * The values of the signed headers of the request being signed.
+     */
+    private final String [] values = new String[SIGNED_HEADERS.length];
+
+    /**
+     * A second, and the value of the Date header during it.
+     */
+    private static final class FormattedDate
+    {
+        final long   second;
+        final String value;
+
+        FormattedDate(long second, String value)
+        {
+            this.second = second;
+            this.value  = value;
+        }
+    }
+
+    // Constructors
+
+    /**
+     * Initializes a newly created {@code RequestSigner} object which signs
+     * requests with a key.
+     *
+     * @param  key  the user's key.  It must be exactly 64 bytes in length.
+     * @throws ServiceException if the key length is not correct, or the
+     *             HMAC algorithm is not available.
+     */
+    RequestSigner(byte [] key) throws ServiceException
+    {
+        mac = DigestRequest.makeMac(key);
+    }
+
+    /**
+     * Return the value of the Date header for a time.  The value is only
+     * formatted once for each second.
+     *
+     * @param  millis  the time, in milliseconds since the epoch.
+     * @return the time as an HTTP date, e.g.,
+     *             "Sun, 06 Nov 1994 08:49:37 GMT".
+     */
+    static String formatDate(long millis)
+    {
+        long second = Math.floorDiv(millis, 1000L);
+
+        FormattedDate date = lastDate;
+
+        if (date == null || date.second != second)
+        {
+            date = new FormattedDate(second,
+                            DATE_FORMAT.format(Instant.ofEpochSecond(second)));
+            lastDate = date;
+        }
+
+        return date.value;
+    }
+
+    /**
+     * Return the value of the Date header for now.
+     *
+     * @return the current time as an HTTP date.
+     */
+    static String currentDate()
+    {
+        return formatDate(System.currentTimeMillis());
+    }
+
+    /**
+     * Sign a request.
+     *
+     * @param  request  the request, with all its signed headers set.
+     * @return the signature, an encoded digest of the request string.
+     * @throws ServiceException if there is any problem encoding the
+     *             digest.
+     */
+    String sign(TransportRequest request) throws ServiceException
+    {
+        findSignedHeaders(request);
+
+        length = 0;
+
+        append(request.getMethod());
+        append('+');
+        append(values[0]);
+        append('+');
+        append(request.getUri().getPath());
+
+        for (int i = 1;  i < values.length;  ++i)
+        {
+            append('+');
+            append(values[i]);
+        }
+
+        mac.update(buffer, 0, length);
+
+        return DigestRequest.encodeDigest(mac.doFinal());
+    }
+
+    /**
+     * Return the request string of the last request signed, e.g., for
+     * tracing.
+     *
+     * @return the request string.
+     */
+    String getRequestString()
+    {
+        return new String(buffer, 0, length);
+    }
+
+    /**
+     * Set {@code values} to the values of the first headers of the request
+     * with the names of the signed headers, or {@code null} for those the
+     * request does not have.
+     */
+    private void findSignedHeaders(TransportRequest request)
+    {
+        Arrays.fill(values, null);
+
+        int n = request.getHeaderCount();
+
+        for (int i = 0;  i < n;  ++i)
+        {
+            String name = request.getHeaderName(i);
+
+            for (int j = 0;  j < SIGNED_HEADERS.length;  ++j)
+            {
+                String signed = SIGNED_HEADERS[j];
+
+                if (values[j] == null &&
+                    signed.length() == name.length() &&
+                    signed.equalsIgnoreCase(name))
+                {
+                    values[j] = request.getHeaderValue(i);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void append(char c)
+    {
+        ensureCapacity(length + 1);
+        buffer[length++] = (byte)c;
+    }
+
+    /**
+     * Append a string to the request string.  An ASCII string is written
+     * byte by byte; any other string is encoded with the default charset,
+     * as the whole request string used to be.
+     */
+    private void append(String s)
+    {
+        if (s == null)
+            return;
+
+        int n     = s.length();
+        int start = length;
+
+        ensureCapacity(length + n);
+
+        for (int i = 0;  i < n;  ++i)
+        {
+            char c = s.charAt(i);
+
+            if (c >= 0x80)
+            {
+                byte [] bytes = s.getBytes();
+
+                length = start;
+                ensureCapacity(length + bytes.length);
+                System.arraycopy(bytes, 0, buffer, length, bytes.length);
+                length += bytes.length;
+                return;
+            }
+
+            buffer[length++] = (byte)c;
+        }
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity > buffer.length)
+            buffer = Arrays.copyOf(buffer,
+                                    Math.max(capacity, 2 * buffer.length));
+    }
+
+}   //  end class RequestSigner
+
+// end RequestSigner.java
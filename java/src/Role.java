@@ -144,6 +144,25 @@ public class Role
         setStudyIdentifier(studyIdentifier);
     }
 
+    /**
+     * Make a copy of a role.
+     *
+     * @param  r        the role to copy.
+     * @return          a copy of r.
+     */
+    static Role copyRole(Role r)
+    {
+        Role role = new Role(r.getUserIdentifier(), r.getStudyIdentifier());
+
+        role.setRoleLocation(r.getRoleLocation());
+        role.setUserName    (r.getUserName()    );
+        role.setStudyName   (r.getStudyName()   );
+        role.privilegeSet = (BitSet)r.privilegeSet.clone();
+
+        return role;
+
+    }   //  end copyRole
+
     // Setters and getters
 
     /**
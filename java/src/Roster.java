@@ -61,6 +61,25 @@ public class Roster
         setStudyName(studyName);
     }
 
+    /**
+     * Make a deep copy of a roster.
+     *
+     * @param  r        the roster to copy.
+     * @return          a deep copy of r.
+     */
+    static Roster copyRoster(Roster r)
+    {
+        Roster roster = new Roster(r.getStudyIdentifier(), r.getStudyName());
+
+        roster.setRosterLocation(r.getRosterLocation());
+
+        for (Role role : r.getRoleCollection())
+            roster.addRole(Role.copyRole(role));
+
+        return roster;
+
+    }   //  end copyRoster
+
 
     // Setters and getters
 
@@ -0,0 +1,161 @@
+// RosterCache.java
+
+package com.yosokumo.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A cache of the rosters of studies, used to look up roles without 
+ * obtaining the whole roster of a study from the server each time.  An 
+ * entry is indexed by a study identifier.  The cache has these 
+ * properties:
+ * <ul>
+ * <li>An entry expires {@code ttlMillis} milliseconds after it was stored,
+ *          since the roles of a study may be changed by other clients.
+ * <li>The entry of a study is discarded when a role on the study is 
+ *          created, updated, or deleted, or the study is deleted, by the 
+ *          {@code Service} which owns the cache.
+ * </ul>
+ * The rosters held are private to the cache:  a roster stored is not 
+ * handed out to clients of the service, and roles looked up in it are 
+ * copied before they are handed out.  A {@code RosterCache} is shared by a
+ * {@code Service} and its workers, so all methods are synchronized.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+class RosterCache
+{
+    /**
+     * A cached roster and the time at which it expires.
+     */
+    private static final class Entry
+    {
+        final Roster roster;
+        final long   expiryTime;
+
+        Entry(Roster roster, long expiryTime)
+        {
+            this.roster     = roster;
+            this.expiryTime = expiryTime;
+        }
+    }
+
+    private final long ttlMillis;
+
+    /**
+     * The cached rosters, indexed by study identifier.
+     */
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    // Constructors
+
+    /**
+     * Initializes a newly created {@code RosterCache} object with 
+     * attributes specified by the input parameters.
+     *
+     * @param  ttlMillis   the time in milliseconds for which a roster
+     *                     remains valid (> 0).
+     */
+    RosterCache(long ttlMillis)
+    {
+        this.ttlMillis = (ttlMillis < 1 ? 1 : ttlMillis);
+    }
+
+    /**
+     * Return the time for which a roster remains valid.
+     *
+     * @return the time to live in milliseconds.
+     */
+    long getTtlMillis()
+    {
+        return ttlMillis;
+    }
+
+    /**
+     * Look up the roster of a study.
+     *
+     * @param  studyId  the study whose roster is wanted.
+     * @return the cached roster, or {@code null} if there is none or it has
+     *         expired.  The roster must not be changed.
+     */
+    synchronized Roster get(String studyId)
+    {
+        Entry e = entries.get(studyId);
+
+        if (e == null)
+            return null;
+
+        if (e.expiryTime - System.currentTimeMillis() <= 0)
+        {
+            entries.remove(studyId);
+            return null;
+        }
+
+        return e.roster;
+    }
+
+    /**
+     * Store the roster of a study.
+     *
+     * @param  studyId  the study to which the roster belongs.
+     * @param  roster   the roster as just obtained from the server.  It 
+     *                  must not be changed after it is stored.
+     */
+    synchronized void put(String studyId, Roster roster)
+    {
+        put(studyId, roster, ttlMillis);
+    }
+
+    /**
+     * Store the roster of a study for a given time, instead of the time to
+     * live of the cache.
+     *
+     * @param  studyId     the study to which the roster belongs.
+     * @param  roster      the roster.  It must not be changed after it is 
+     *                     stored.
+     * @param  ttlMillis   the time in milliseconds for which the roster
+     *                     remains valid (> 0).
+     */
+    synchronized void put(String studyId, Roster roster, long ttlMillis)
+    {
+        if (roster == null)
+            return;
+
+        entries.put(studyId, new Entry(roster, System.currentTimeMillis() + 
+                                            (ttlMillis < 1 ? 1 : ttlMillis)));
+    }
+
+    /**
+     * Discard the roster of a study.
+     *
+     * @param  studyId  the study whose roster is discarded.
+     */
+    synchronized void invalidate(String studyId)
+    {
+        entries.remove(studyId);
+    }
+
+    /**
+     * Discard all rosters.
+     */
+    synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    /**
+     * Return the number of rosters held, including any which have expired 
+     * but have not yet been discarded.
+     *
+     * @return the number of entries.
+     */
+    synchronized int size()
+    {
+        return entries.size();
+    }
+
+}   // end class RosterCache
+
+// end RosterCache.java
@@ -0,0 +1,469 @@
+// ScoringBatcher.java
+
+package com.yosokumo.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Scores prospects one at a time on behalf of many callers by gathering
+ * them into blocks.  Each call of {@code score} queues a single prospect
+ * for a study and returns at once with a {@code Future}.  The queued
+ * prospects of a study are sent to the study's model as one block when
+ * either the batch size is reached or the linger time has passed since
+ * the first prospect of the batch was queued, whichever comes first.  When
+ * the block has been scored, each caller's {@code Future} is completed
+ * with the predictand of its prospect.
+ * <p>
+ * Thus many single-prospect scoring calls cost one HTTP round trip instead
+ * of one round trip each.  The price is that a prospect may wait up to the
+ * linger time before it is sent.
+ * <p>
+ * Calls which score identical prospects, i.e., prospects of the same study
+ * with exactly the same cells, while an earlier one is still waiting for
+ * its predictand, are coalesced:  the prospect is scored only once, and
+ * all the callers get the same {@code Future}.
+ * <p>
+ * A {@code ScoringBatcher} may be used by any number of threads.  It talks
+ * to the server through worker copies of the {@code Service} given to the
+ * constructor, so the {@code Service} itself remains free for other use by
+ * its owning thread.  The batches are sent on the executor of the
+ * {@code Service} (see {@link Service#setExecutor}), each by a worker of 
+ * its own, so that a slow batch neither holds up the batches of other 
+ * studies nor delays the linger timers.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+public class ScoringBatcher
+{
+    /**
+     * A copy of the service given to the constructor.  Each batch is sent 
+     * by a worker spawned from it.  It is only used to talk to the server 
+     * to obtain the catalog, when a study is not yet in the catalog it 
+     * holds, so that the workers spawned from it send nothing but the 
+     * batch.  Guarded by itself.
+     */
+    private final Service worker;
+
+    private final int  maxBatchSize;
+    private final long lingerMillis;
+
+    /**
+     * Runs the linger timers.  It never sends a batch itself.
+     */
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * Runs the sending of the batches.
+     */
+    private final ExecutorService sender;
+
+    /**
+     * The batches being gathered, indexed by study identifier.  Guarded by
+     * {@code this}.
+     */
+    private final Map<String, List<PendingPrediction>> batches =
+                            new LinkedHashMap<String, List<PendingPrediction>>();
+
+    /**
+     * The predictions which have been queued but not yet completed, indexed
+     * by study and cells.  Guarded by {@code this}.
+     */
+    private final Map<PredictionCache.Key, PendingPrediction> inFlight =
+                    new HashMap<PredictionCache.Key, PendingPrediction>();
+
+    /**
+     * The number of batches taken out of {@code batches} whose sending has
+     * not yet finished.  Guarded by {@code this}.
+     */
+    private int sending = 0;
+
+    private boolean closed = false;
+
+    // Constructors
+
+    /**
+     * Initializes a newly created {@code ScoringBatcher} object with
+     * attributes specified by the input parameters.
+     *
+     * @param  service       specifies the server, credentials, and DIF to
+     *                       use for scoring.
+     * @param  maxBatchSize  the number of prospects of one study which
+     *                       causes a batch to be sent at once (>= 1).
+     * @param  lingerMillis  the maximum time in milliseconds which a
+     *                       prospect waits for its batch to fill (>= 0).
+     * @throws ServiceException if the DIF of the service is not implemented
+     */
+    public ScoringBatcher(
+        Service service,
+        int     maxBatchSize,
+        long    lingerMillis) throws ServiceException
+    {
+        this.worker       = service.spawnWorker();
+        this.maxBatchSize = (maxBatchSize < 1 ? 1 : maxBatchSize);
+        this.lingerMillis = (lingerMillis < 0 ? 0 : lingerMillis);
+        this.sender       = worker.getExecutor();
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "yosokumo-scoring-batcher");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    }
+
+    /**
+     * Queue a prospect to be scored using a study's model.
+     *
+     * @param   studyId specifies the study whose model is to be used.
+     * @param   prospect is the specimen whose predictand is to be computed.
+     *              When the returned {@code Future} completes, the
+     *              predictand member of {@code prospect} also contains the
+     *              result of the computation.
+     * @return  a {@code Future} which completes with the predictand of the
+     *              prospect, or fails with the {@code ServiceException}
+     *              which prevented the batch from being scored.  If an
+     *              identical prospect of the study is already queued, its
+     *              {@code Future} is returned.
+     * @throws  IllegalStateException if the batcher has been closed.
+     */
+    public Future<Value> score(String studyId, Specimen prospect)
+    {
+        PredictionCache.Key key = new PredictionCache.Key(studyId, prospect);
+        List<PendingPrediction> fullBatch = null;
+        PendingPrediction p;
+
+        synchronized (this)
+        {
+            if (closed)
+                throw new IllegalStateException("ScoringBatcher is closed");
+
+            p = inFlight.get(key);
+
+            if (p != null)
+            {
+                p.share(prospect);
+                return p;
+            }
+
+            p = new PendingPrediction(key, prospect);
+            inFlight.put(key, p);
+
+            List<PendingPrediction> batch = batches.get(studyId);
+
+            if (batch == null)
+            {
+                batch = new ArrayList<PendingPrediction>();
+                batches.put(studyId, batch);
+                flusher.schedule(new Linger(studyId, batch), lingerMillis,
+                                                        TimeUnit.MILLISECONDS);
+            }
+
+            batch.add(p);
+
+            if (batch.size() >= maxBatchSize)
+            {
+                batches.remove(studyId);
+                ++sending;
+                fullBatch = batch;
+            }
+        }
+
+        if (fullBatch != null)
+            send(studyId, fullBatch);
+
+        return p;
+    }
+
+    /**
+     * Send every batch at once, without waiting for the linger time, and
+     * stop accepting prospects.  This method returns when all queued
+     * prospects have been scored (or have failed).
+     */
+    public void close()
+    {
+        Map<String, List<PendingPrediction>> rest;
+
+        synchronized (this)
+        {
+            if (closed)
+                return;
+            closed = true;
+
+            rest = new LinkedHashMap<String, List<PendingPrediction>>(batches);
+            sending += rest.size();
+            batches.clear();
+        }
+
+        // The pending linger timers are discarded, which is harmless since
+        // their batches have just been taken
+
+        flusher.shutdownNow();
+
+        for (Map.Entry<String, List<PendingPrediction>> e : rest.entrySet())
+            send(e.getKey(), e.getValue());
+
+        synchronized (this)
+        {
+            try
+            {
+                while (sending > 0)
+                    wait();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Start sending a batch which has been taken out of the set of batches
+     * being gathered, and counted in {@code sending}.  If the executor 
+     * refuses the task, the batch is sent on the calling thread.
+     *
+     * @param   studyId specifies the study whose model is to be used.
+     * @param   batch is the batch of prospects to score.
+     */
+    private void send(String studyId, List<PendingPrediction> batch)
+    {
+        Send task = new Send(studyId, batch);
+
+        try
+        {
+            sender.execute(task);
+        }
+        catch (RejectedExecutionException e)
+        {
+            task.run();
+        }
+    }
+
+    /**
+     * Send a batch of prospects to a study's model and complete the futures
+     * of the batch.
+     *
+     * @param   studyId specifies the study whose model is to be used.
+     * @param   batch is the batch of prospects to score.
+     */
+    private void sendBatch(String studyId, List<PendingPrediction> batch)
+    {
+        List<Specimen> slist = new ArrayList<Specimen>(batch.size());
+
+        for (PendingPrediction p : batch)
+            slist.add(p.prospect);
+
+        // scoreProspects matches each returned specimen with the specimen
+        // posted at the same position, checking that the keys agree, and
+        // stores the predictand in the posted specimen
+
+        ServiceException failure = null;
+
+        try
+        {
+            Service sender;
+
+            synchronized (worker)
+            {
+                if (!worker.primeCatalog(studyId))
+                    throw worker.getException();
+
+                sender = worker.spawnWorker();
+            }
+
+            sender.scoreProspects(studyId, slist);
+        }
+        catch (ServiceException e)
+        {
+            failure = e;
+        }
+
+        // Once a prediction is out of inFlight no caller can share it, so 
+        // its list of sharing prospects is final
+
+        synchronized (this)
+        {
+            for (PendingPrediction p : batch)
+                inFlight.remove(p.key);
+        }
+
+        for (PendingPrediction p : batch)
+        {
+            if (failure != null)
+                p.fail(failure);
+            else
+                p.complete(p.prospect.getPredictand());
+        }
+    }
+
+    /**
+     * The linger timer of a batch.  A batch is sent by whoever takes it out
+     * of the set of batches being gathered:  {@code score} when the batch 
+     * is full, {@code close}, or the linger timer.  When the timer goes off
+     * for a batch which has already been taken, it does nothing.
+     */
+    private class Linger implements Runnable
+    {
+        private final String                  studyId;
+        private final List<PendingPrediction> batch;
+
+        Linger(String studyId, List<PendingPrediction> batch)
+        {
+            this.studyId = studyId;
+            this.batch   = batch;
+        }
+
+        public void run()
+        {
+            synchronized (ScoringBatcher.this)
+            {
+                if (batches.get(studyId) != batch)
+                    return;
+                batches.remove(studyId);
+                ++sending;
+            }
+
+            send(studyId, batch);
+        }
+    }
+
+    /**
+     * Sends one batch which has been taken, and counts it as sent.
+     */
+    private class Send implements Runnable
+    {
+        private final String                  studyId;
+        private final List<PendingPrediction> batch;
+
+        Send(String studyId, List<PendingPrediction> batch)
+        {
+            this.studyId = studyId;
+            this.batch   = batch;
+        }
+
+        public void run()
+        {
+            try
+            {
+                sendBatch(studyId, batch);
+            }
+            finally
+            {
+                synchronized (ScoringBatcher.this)
+                {
+                    if (--sending == 0)
+                        ScoringBatcher.this.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * The {@code Future} returned by {@code score}.
+     */
+    private static class PendingPrediction implements Future<Value>
+    {
+        final PredictionCache.Key key;
+        final Specimen            prospect;
+
+        /**
+         * The prospects of the callers who share this prediction, other 
+         * than {@code prospect}.  Guarded by the batcher lock until the 
+         * prediction is removed from {@code inFlight}.
+         */
+        private List<Specimen> sharers = null;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile Value            predictand = null;
+        private volatile ServiceException failure    = null;
+
+        PendingPrediction(PredictionCache.Key key, Specimen prospect)
+        {
+            this.key      = key;
+            this.prospect = prospect;
+        }
+
+        void share(Specimen s)
+        {
+            if (sharers == null)
+                sharers = new ArrayList<Specimen>();
+            sharers.add(s);
+        }
+
+        void complete(Value v)
+        {
+            if (sharers != null)
+            {
+                for (Specimen s : sharers)
+                    s.setPredictand(v);
+            }
+
+            predictand = v;
+            done.countDown();
+        }
+
+        void fail(ServiceException e)
+        {
+            failure = e;
+            done.countDown();
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            return false;   // Once queued, a prospect is always scored
+        }
+
+        public boolean isCancelled()
+        {
+            return false;
+        }
+
+        public boolean isDone()
+        {
+            return done.getCount() == 0;
+        }
+
+        public Value get() throws InterruptedException, ExecutionException
+        {
+            done.await();
+            return result();
+        }
+
+        public Value get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException
+        {
+            if (!done.await(timeout, unit))
+                throw new TimeoutException();
+            return result();
+        }
+
+        private Value result() throws ExecutionException
+        {
+            if (failure != null)
+                throw new ExecutionException(failure);
+            return predictand;
+        }
+    }
+
+}   // end class ScoringBatcher
+
+// end ScoringBatcher.java
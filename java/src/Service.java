@@ -2,10 +2,27 @@
 
 package com.yosokumo.core;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Provides the basic operations available from the Yosokumo web service, e.g.,
@@ -85,6 +102,20 @@ public class Service
      */
     private YosokumoDIF ydif = null;
 
+    /**
+     * The content types in which responses are accepted, most preferred 
+     * first, or {@code null} for the default:  the content type of the DIF,
+     * followed by the other registered content types.
+     */
+    private List<String> acceptedContentTypes = null;
+
+    /**
+     * The DIF processors made to decode responses in content types other 
+     * than that of the DIF, by media type.
+     */
+    private Map<String, YosokumoDIF> responseDifs = 
+                                        new HashMap<String, YosokumoDIF>();
+
     /*
      * Store an exception thrown during HTTP processing.
      */
@@ -131,6 +162,122 @@ public class Service
      */
     private boolean refreshedCachedCatalog = false;
 
+    /**
+     * The maximum number of requests which an operation may have sent to 
+     * the server and not yet had answered when it fans out over several 
+     * workers:  when prospects are scored (or, if parallel table loads 
+     * are enabled, subjects are loaded) from an {@code Iterator} or from a
+     * specimen list of more than one block, and when the panels or rosters
+     * of several studies are obtained.  Each request in flight is sent by 
+     * its own worker, on its own thread.
+     */
+    private int maxBlocksInFlight = 4;
+
+    /**
+     * Set when the blocks of a specimen list loaded into a table may be 
+     * posted in parallel, rather than one at a time in order.
+     */
+    private boolean parallelTableLoads = false;
+
+    /**
+     * Runs the workers of an operation which fans out.  A worker shares the
+     * executor of the service which spawned it.
+     */
+    private ExecutorService executor = TaskExecutors.getDefault();
+
+    /**
+     * The cache of predictands used when prospects are scored, or 
+     * {@code null} if predictands are not cached.  A worker shares the 
+     * cache of the service which spawned it.
+     */
+    private PredictionCache predictionCache = null;
+
+    /**
+     * The cache of rosters used to look up roles, or {@code null} if 
+     * rosters are not cached.  A worker shares the cache of the service 
+     * which spawned it.
+     */
+    private RosterCache rosterCache = null;
+
+    /**
+     * The role of the user of the service on each study, kept as a roster
+     * holding only that role, or {@code null} if privileges are not 
+     * checked before requests are sent.  A worker shares the privilege 
+     * cache of the service which spawned it.
+     */
+    private RosterCache privilegeCache = null;
+
+    /**
+     * Decides how many items to put into each specimen block.  A worker 
+     * shares the block sizer of the service which spawned it.
+     */
+    private AdaptiveBlockSizer blockSizer = 
+                            new AdaptiveBlockSizer(MAX_ITEMS_TO_SEND_VIA_HTTP);
+
+    /**
+     * The pool of arrays into which specimen blocks are encoded and 
+     * responses are read.  A worker shares the pool of the service which 
+     * spawned it.
+     */
+    private BufferPool bufferPool = new BufferPool();
+
+    /**
+     * The journal of the resumable load in progress, or {@code null} if no
+     * such load is in progress.  Each block posted to the table is recorded
+     * in it, at the position of the block in the specimen list being 
+     * loaded plus {@code journalBase}.
+     */
+    private LoadJournal loadJournal = null;
+    private int         journalBase = 0;
+
+    /**
+     * Set when specimen blocks which can be packed are posted in the packed
+     * columnar form (see {@code BlockPacker}), and cleared when the server 
+     * refuses a packed block.  A worker shares the flag of the service 
+     * which spawned it, so that once the server has refused a packed block,
+     * no worker sends another.
+     */
+    private AtomicBoolean packBlocks = new AtomicBoolean(false);
+
+    /**
+     * Sends the requests to the server.  A worker shares the transport of 
+     * the service which spawned it.
+     */
+    private Transport transport = ApacheTransport.DEFAULT;
+
+    /**
+     * Spreads the requests over several servers, or {@code null} if they 
+     * all go to hostName and port.  A worker shares the balancer of its 
+     * parent.
+     */
+    private EndpointBalancer balancer = null;
+
+    /**
+     * The resource URIs requested, such as the locations of studies, in 
+     * normalized and parsed form.  A worker shares the cache of its parent.
+     */
+    private UriCache uriCache = new UriCache();
+
+    /**
+     * The HTTP status code with which the server rejects a request entity 
+     * as too large.
+     */
+    private static final int REQUEST_ENTITY_TOO_LARGE = 413;
+
+    /**
+     * The HTTP status code with which the server refuses a request entity
+     * whose content type it does not support.
+     */
+    private static final int UNSUPPORTED_MEDIA_TYPE = 415;
+
+    /**
+     * The longest time in milliseconds for which it is remembered that the
+     * privileges of the user on a study could not be found because the 
+     * roster could not be obtained, e.g., because the server was 
+     * unavailable, before the roster is requested again.
+     */
+    private static final long UNKNOWN_PRIVILEGE_TTL = 5000;
+
     // Constructors
 
     /**
@@ -217,12 +364,84 @@ public class Service
         initDifAndRequest();
     }
 
+    /**
+     * Initializes a newly created {@code Service} object which talks to the 
+     * same server as {@code parent}, using the same credentials and DIF, but
+     * with its own HTTP request processor and DIF processor.  A worker made 
+     * this way can carry out an operation on one thread while its parent 
+     * (or another worker) carries out an operation on another thread.
+     *
+     * @param  parent  the service whose settings are copied.
+     * @throws ServiceException if the DIF is not implemented
+     */
+    private Service(Service parent) throws ServiceException
+    {
+        this.credentials = parent.credentials;
+        this.hostName    = parent.hostName;
+        this.port        = parent.port;
+        this.dif         = parent.dif;
+
+        this.acceptedContentTypes = parent.acceptedContentTypes;
+        this.transport            = parent.transport;
+        this.balancer             = parent.balancer;
+        this.uriCache             = parent.uriCache;
+        this.parallelTableLoads   = parent.parallelTableLoads;
+
+        initDifAndRequest();
+
+        yRequest.setTrace(parent.yRequest.getTrace());
+        yRequest.setMaxEntitySize(parent.yRequest.getMaxEntitySize());
+
+        predictionCache = parent.predictionCache;
+        rosterCache     = parent.rosterCache;
+        privilegeCache  = parent.privilegeCache;
+        blockSizer      = parent.blockSizer;
+        bufferPool      = parent.bufferPool;
+        packBlocks      = parent.packBlocks;
+        executor        = parent.executor;
+
+        yRequest.setBufferPool(bufferPool);
+
+        if (parent.cachedCatalog != null)
+            cachedCatalog = Catalog.copyCatalog(parent.cachedCatalog);
+    }
+
+    /**
+     * Make a worker for carrying out an operation on another thread.  See
+     * {@link #Service(Service)}.
+     *
+     * @return  a new {@code Service} with the same settings as this one.
+     * @throws ServiceException if the DIF is not implemented
+     */
+    Service spawnWorker() throws ServiceException
+    {
+        return new Service(this);
+    }
+
+    /**
+     * Make sure the cached catalog holds a study, obtaining the catalog if
+     * it does not.  Workers spawned afterwards copy the catalog, so they 
+     * find the study without sending any request.
+     *
+     * @param   studyId specifies the study.
+     * @return  {@code false} means the study could not be found (call 
+     *              {@code getException()} for details).
+     */
+    boolean primeCatalog(String studyId)
+    {
+        initForOperation("primeCatalog");
+
+        return mapStudyIdentifierToStudy(studyId) != null;
+    }
+
 
     /**
      * Initialize DIF processor and HTTP request processor.  The input dif 
-     * is used to instantiate a DIF processor in ydif, as well as contentType.
-     * In addition, yRequest is set to an instance of YosokumoRequest for 
-     * processing HTTP requests.
+     * is used to instantiate a DIF processor in ydif, unless the DIF 
+     * registry holds another DIF for its content type, as well as 
+     * contentType.  In addition, yRequest is set to an instance of 
+     * YosokumoRequest for processing HTTP requests, which advertises the 
+     * accepted content types.
      *
      * @throws ServiceException if the DIF is not implemented
      */
@@ -230,18 +449,64 @@ public class Service
     {
         switch (dif)
         {
-        case XML:
-        case JSON:
-        case ASN_1: throw new ServiceException("Unimplementd DIF:  " + 
-                                                               dif.name());
-
         case PROTOBUF:  ydif = new YosokumoProtobuf();  break;
+        case XML:       ydif = new YosokumoXml();       break;
+        case JSON:      ydif = new YosokumoJson();      break;
+        case ASN_1:     ydif = new YosokumoAsn1();      break;
         }
 
+        // A DIF registered for the same content type replaces the built-in
+
+        YosokumoDIF registered = DifRegistry.newDif(ydif.getContentType());
+
+        if (registered != null)
+            ydif = registered;
+
         contentType = ydif.getContentType();
 
         yRequest = new YosokumoRequest(credentials, hostName, port, 
                                                             contentType);
+        yRequest.setBufferPool(bufferPool);
+        yRequest.setTransport(transport);
+        yRequest.setBalancer(balancer);
+        yRequest.setUriCache(uriCache);
+        yRequest.setAccept(
+                    DifRegistry.makeAcceptHeader(getAcceptedContentTypes()));
+    }
+
+    /**
+     * Return the DIF processor with which to decode the entity of the last
+     * response:  the one registered for the content type of the response.  
+     * If the response has no content type, or one for which no DIF is 
+     * registered, the DIF processor of the service is used.
+     *
+     * @return a DIF processor.
+     */
+    private YosokumoDIF responseDif()
+    {
+        String type = yRequest.getResponseContentType();
+
+        if (type == null)
+            return ydif;
+
+        type = DifRegistry.mediaType(type);
+
+        if (type.equals(DifRegistry.mediaType(contentType)))
+            return ydif;
+
+        YosokumoDIF rdif = responseDifs.get(type);
+
+        if (rdif == null)
+        {
+            rdif = DifRegistry.newDif(type);
+
+            if (rdif == null)
+                return ydif;
+
+            responseDifs.put(type, rdif);
+        }
+
+        return rdif;
     }
 
     /**
@@ -305,490 +570,523 @@ public class Service
     }
 
     /**
-     * Return Service exception.
+     * Set the largest response entity accepted from the server.  An 
+     * operation whose response is larger fails, and the response is not 
+     * read beyond the limit.  By default there is no limit.
      *
-     * @return  exception occurring during HTTP processing.  Null means none.
+     * @param  maxSize  the maximum size of a response in bytes (>= 0).
      */
-    ServiceException getException()
+    public void setMaxResponseSize(int maxSize)
     {
-        return exception;
+        yRequest.setMaxEntitySize(maxSize);
     }
 
     /**
-     * Return the status code from the last Service operation.
+     * Return the largest response entity accepted from the server.
      *
-     * @return the status code.
+     * @return the maximum size of a response in bytes.
      */
-    public int getStatusCode()
+    public int getMaxResponseSize()
     {
-        return yRequest.getStatusCode();
+        return yRequest.getMaxEntitySize();
     }
 
     /**
-     * Obtain the user's catalog of studies.  
+     * Set the transport which sends requests to the server (see {@link 
+     * Transport}).  By default each request is sent by HttpClient 4.0 over 
+     * a new connection ({@link ApacheTransport}).  A {@link JdkTransport} 
+     * shares its connections among all the services using it, and 
+     * multiplexes the requests of operations running at the same time 
+     * (such as the blocks in flight while prospects are scored, or the 
+     * panels of a catalog) over one HTTP/2 connection.  A {@link 
+     * LoopbackTransport} answers requests without a network.  The workers 
+     * of the service share its transport.
      *
-     * @return  a reference to the user's catalog, containing all the 
-     *          studies the user has a role on.
-     * @throws ServiceException
+     * @param  transport  the transport to use; {@code null} means the 
+     *                    default transport.
      */
-    public Catalog obtainCatalog() throws ServiceException
+    public void setTransport(Transport transport)
     {
-        initForOperation("obtainCatalog");
-
-        Catalog catalog = obtainCatalogX();
-
-        if (catalog == null)
-            throw getException();
-
-        return catalog;
+        this.transport = (transport != null ? transport : 
+                                                    ApacheTransport.DEFAULT);
+        yRequest.setTransport(this.transport);
     }
 
     /**
-     * Create a default study and add it to the user's catalog of studies.  
+     * Return the transport which sends requests to the server.
      *
-     * @return  a reference to a newly-created study with default name, 
-     *          type, status, and visibility.  (Note that the name will be 
-     *          an empty string.)  The study identifier, owner identifier, 
-     *          and owner name are initialized, as well as references to 
-     *          study components.
-     * @throws ServiceException
+     * @return the transport.
      */
-    public Study createStudy() throws ServiceException
+    public Transport getTransport()
     {
-        Study study = createStudyX();
-
-        if (study == null)
-            throw getException();
-
-        return study;
+        return transport;
     }
 
     /**
-     * Create a named study and add it to the user's catalog of studies.  
+     * Spread the requests of the service over several Yosokumo servers 
+     * which serve the same catalogs (see {@link EndpointBalancer}).  The 
+     * requests for the host name and port given to the service, and for 
+     * the resources whose URIs the servers return, then go to whichever 
+     * endpoint the balancer chooses, and a GET, PUT, or DELETE which fails 
+     * on one endpoint is sent to another.  The workers of the service 
+     * share its balancer.
      *
-     * @param   studyName specifies the study name.
-     * @return  a reference to a newly-created study with name as specified 
-     *          by the parameter, and default type, status, and visibility.  
-     *          The study identifier, owner identifier, and owner name are 
-     *          initialized, as well as references to study components.
-     * @throws ServiceException
+     * @param  balancer  the balancer to use, or {@code null} to send all 
+     *                   requests to the host name and port of the service.
      */
-    public Study createStudy(String studyName) throws ServiceException
+    public void setBalancer(EndpointBalancer balancer)
     {
-        Study study = createStudyX(studyName);
-
-        if (study == null)
-            throw getException();
-
-        return study;
+        this.balancer = balancer;
+        yRequest.setBalancer(balancer);
     }
 
     /**
-     * Create a study with specified name and type and add it to the user's 
-     *      catalog of studies.  
+     * Return the balancer which spreads the requests of the service over 
+     * several servers.
      *
-     * @param   studyName specifies the study name.
-     * @param   studyType specifies the study type.
-     * @return  a reference to a newly-created study with name and type as 
-     *          specified by the parameters, and default status and visibility.
-     *          The study identifier, owner identifier, and owner name are 
-     *          initialized, as well as references to study components.
-     * @throws ServiceException
+     * @return the balancer, or {@code null} if there is none.
      */
-    public Study createStudy(String studyName, Study.Type studyType) 
-        throws ServiceException
+    public EndpointBalancer getBalancer()
     {
-        Study study = createStudyX(studyName, studyType);
-
-        if (study == null)
-            throw getException();
-
-        return study;
+        return balancer;
     }
 
     /**
-     * Create a study with specified name, type, status, and visibility, and 
-     *      add it to the user's catalog of studies.  
+     * Set the maximum number of requests which an operation may have in 
+     * flight at one time when it fans out over several workers:  when 
+     * prospects are scored (or, if parallel table loads are enabled, 
+     * subjects are loaded) from an {@code Iterator} or from a specimen 
+     * list of more than one block, and when the panels or rosters of 
+     * several studies are obtained.  When specimens are posted from an 
+     * {@code Iterator}, at most this many blocks are in flight, plus the
+     * block being gathered, so that is how many are held in memory at 
+     * once.  With {@code n = 1} every operation sends its requests one at
+     * a time, on the calling thread except when posting from an {@code 
+     * Iterator}.
      *
-     * @param   studyName specifies the study name.
-     * @param   studyType specifies the study type.
-     * @param   studyStatus specifies the study status.
-     * @param   studyVisibility specifies the study visibility.
-     * @return  a reference to a newly-created study with name, type, status, 
-     *          and visibility as specified by the parameters.  The study 
-     *          identifier, owner identifier, and owner name are initialized, 
-     *          as well as references to study components.
-     * @throws ServiceException
+     * @param  n  the maximum number of requests in flight (>= 1).
      */
-    public Study createStudy(
-        String           studyName,
-        Study.Type       studyType,
-        Study.Status     studyStatus,
-        Study.Visibility studyVisibility)  throws ServiceException
+    public void setMaxBlocksInFlight(int n)
     {
-        Study study = createStudyX(studyName, studyType, studyStatus, 
-                                                        studyVisibility);
-
-        if (study == null)
-            throw getException();
-
-        return study;
+        maxBlocksInFlight = (n < 1 ? 1 : n);
     }
 
     /**
-     * Update a study, changing the study name.
+     * Return the maximum number of requests which an operation may have in
+     * flight at one time when it fans out over several workers.
      *
-     * @param   studyId specifies the identifier of the study to update.
-     * @param   studyName is the new name to assign to the study.
-     * @return  a reference to the {@code Study} specified by studyId, with 
-     *          its name changed to studyName.  The name is also changed on 
-     *          the server.
-     * @throws ServiceException
+     * @return  the maximum number of requests in flight.
      */
-    public Study updateStudy(String studyId, String studyName) 
-        throws ServiceException
+    public int getMaxBlocksInFlight()
     {
-        Study study = updateStudyX(studyId, studyName);
-
-        if (study == null)
-            throw getException();
-
-        return study;
+        return maxBlocksInFlight;
     }
 
     /**
-     * Update a study, changing the status.
+     * Set whether the blocks of specimens loaded into a study's table by 
+     * {@link #loadSubjects(String, List)} or {@link #loadSubjects(String, 
+     * Iterator)} are posted in parallel, up to {@link 
+     * #getMaxBlocksInFlight} at a time.  By default they are posted one at
+     * a time, in order, so that if the load fails, the subjects loaded are
+     * a prefix of those supplied.  When they are posted in parallel, the 
+     * blocks may be accepted by the server in any order, and if the load 
+     * fails, the subjects loaded may be any set of whole blocks:  some 
+     * blocks after the one which failed may have been accepted, and some 
+     * before it may not have been posted.  A load with a journal, or from a
+     * {@code SpecimenStore}, is never posted in parallel.
      *
-     * @param   studyId specifies the identifier of the study to update.
-     * @param   studyStatus is the new status to assign to the study.
-     * @return  a reference to the {@code Study} specified by studyId, with 
-     *          its status changed to studyStatus.  The status is also changed
-     *          on the server.
-     * @throws ServiceException
+     * @param  on  {@code true} to post the blocks of a table load in 
+     *             parallel.
      */
-    public Study updateStudy(String studyId, Study.Status studyStatus)
-         throws ServiceException
+    public void setParallelTableLoads(boolean on)
     {
-        Study study = updateStudyX(studyId, studyStatus);
-
-        if (study == null)
-            throw getException();
-
-        return study;
+        parallelTableLoads = on;
     }
 
     /**
-     * Update a study, changing the visibility.
+     * Return {@code true} if the blocks of specimens loaded into a study's
+     * table are posted in parallel.
      *
-     * @param   studyId specifies the identifier of the study to update.
-     * @param   studyVisibility is the new visibility to assign to the study.
-     * @return  a reference to the {@code Study} specified by studyId, with 
-     *          its visibility changed to studyVisibility.  The visibility is 
-     *          also changed on the server.
-     * @throws ServiceException
+     * @return  {@code true} if table loads are posted in parallel.
+     *          {@code false} otherwise.
      */
-    public Study updateStudy(String studyId, Study.Visibility studyVisibility)
-         throws ServiceException
+    public boolean isParallelTableLoadsEnabled()
     {
-        Study study = updateStudyX(studyId, studyVisibility);
-
-        if (study == null)
-            throw getException();
-
-        return study;
+        return parallelTableLoads;
     }
 
     /**
-     * Obtain a study from the server. 
+     * Set the executor which runs the workers of an operation which fans 
+     * out (see {@link #setMaxBlocksInFlight}).  Each worker is one task, 
+     * which sends its requests with blocking I/O; the thread which called
+     * the operation waits for the tasks to finish.  The service never 
+     * shuts the executor down.
+     * <p>
+     * By default the tasks run on virtual threads, one per task, if the 
+     * Java runtime has them (Java 21 and later), and otherwise on a cached
+     * pool of daemon platform threads shared by all services.
      *
-     * @param   studyId specifies the identifier of the study to obtain.
-     * @return  a reference to a study obtained from the server with study 
-     *          identifier equal to studyId.  
-     * @throws ServiceException
+     * @param  executor  the executor, or {@code null} to restore the 
+     *                   default.
      */
-    public Study obtainStudy(String studyId) throws ServiceException
+    public void setExecutor(ExecutorService executor)
     {
-        Study study = obtainStudyX(studyId);
-
-        if (study == null)
-            throw getException();
-
-        return study;
+        this.executor = (executor == null ? TaskExecutors.getDefault() 
+                                          : executor);
     }
 
-
     /**
-     * Delete a study from the server. 
+     * Return the executor which runs the workers of an operation which 
+     * fans out.
      *
-     * @param   studyId specifies the identifier of the study to delete.
-     * @throws ServiceException
+     * @return  the executor.
      */
-    public void deleteStudy(String studyId) throws ServiceException
+    public ExecutorService getExecutor()
     {
-        if (!deleteStudyX(studyId))
-            throw getException();
+        return executor;
     }
 
-
     /**
-     * Obtain the roster for a study.
+     * Set the policy for sizing the specimen blocks posted when subjects 
+     * are loaded or prospects are scored.  Block sizes start at the largest 
+     * number of items (specimens plus cells) allowed in one HTTP request and
+     * adapt as blocks are posted:  the encoded size of a block is kept near
+     * {@code targetBytes}; a block answered in more than {@code maxMillis} 
+     * milliseconds shrinks the following blocks in proportion; and a block 
+     * answered in less than {@code minMillis} milliseconds lets the 
+     * following blocks double in size.  Whatever the policy, a block which 
+     * the server rejects as too large (status code 413) is split in half 
+     * and posted again, and later blocks are made no larger than the half.
+     * <p>
+     * By default there is no size target and no latency window.
      *
-     * @param   studyId specifies the identifier of the study whose roster 
-     *              is to be obtained.
-     * @return  a reference to the roster for the study specified by the 
-     *          input parameter.
-     * @throws ServiceException
+     * @param  targetBytes  the desired encoded size of a block in bytes 
+     *                      (>= 1).
+     * @param  minMillis    the lower end of the latency window (>= 0).
+     * @param  maxMillis    the upper end of the latency window 
+     *                      (>= minMillis).
      */
-    public Roster obtainRoster(String studyId) throws ServiceException
+    public void setBlockSizing(long targetBytes, long minMillis, long maxMillis)
     {
-        Roster roster = obtainRosterX(studyId);
-
-        if (roster == null)
-            throw getException();
-
-        return roster;
+        if (targetBytes < 1)
+            targetBytes = 1;
+        if (minMillis < 0)
+            minMillis = 0;
+        if (maxMillis < minMillis)
+            maxMillis = minMillis;
+
+        blockSizer = new AdaptiveBlockSizer(MAX_ITEMS_TO_SEND_VIA_HTTP, 
+                                            targetBytes, minMillis, maxMillis);
     }
 
     /**
-     * Add a {@code Role} to a study's roster.
+     * Set the content types in which responses are accepted from the 
+     * server.  They are advertised in the Accept header of each request, 
+     * most preferred first, with qualities falling from 1 in steps of 0.1.
+     * Whatever the content type of a response, it is decoded with the DIF 
+     * registered for that content type.  Requests are still sent in the 
+     * DIF of the service.
+     * <p>
+     * By default the content type of the DIF of the service is preferred, 
+     * followed by every other registered content type, in the order in 
+     * which they were registered.  Besides the DIFs of the {@code DIFType}
+     * enumeration, further DIFs may be registered by jars on the class 
+     * path (see {@code java.util.ServiceLoader}).
      *
-     * @param  role  the role to add to the roster.  The user identifier 
-     *               and study identifier fields of the {@code role} must 
-     *               be set.  The role is added to the roster of the study, 
-     *               specifying the privileges of the user on the study.
-     *
-     * @return  a reference to a newly-created role corresponding to the 
-     *          input role with additional fields filled out by the service.
-     * @throws ServiceException
+     * @param  contentTypes  the content types, most preferred first; 
+     *                       {@code null} restores the default.
+     * @throws ServiceException if a content type has no registered DIF, or
+     *             no content type is given.
      */
-    public Role createRole(Role role) throws ServiceException
+    public void setAcceptedContentTypes(List<String> contentTypes) 
+        throws ServiceException
     {
-        Role newRole = createRoleX(role);
+        if (contentTypes != null)
+        {
+            if (contentTypes.isEmpty())
+                throw new ServiceException("No content type to accept");
 
-        if (newRole == null)
-            throw getException();
+            for (String type : contentTypes)
+            {
+                if (!DifRegistry.isRegistered(type))
+                    throw new ServiceException("No DIF is registered for " +
+                                                "content type " + type);
+            }
 
-        return newRole;
-    }
+            contentTypes = Collections.unmodifiableList(
+                                        new ArrayList<String>(contentTypes));
+        }
+
+        acceptedContentTypes = contentTypes;
 
+        yRequest.setAccept(
+                    DifRegistry.makeAcceptHeader(getAcceptedContentTypes()));
+    }
 
     /**
-     * Update a role on the server.
+     * Return the content types in which responses are accepted from the 
+     * server, most preferred first.
      *
-     * @param   role specifies the role to change.
-     * @return  the role on the server is updated with the fields specified 
-     *              by the input parameter {@code role}.  A null return value
-     *              indicates there were no issues with the update. A non-null
-     *              return value is a reference to a Message which describes 
-     *              how the request was completed provisionally. This happens,
-     *              e.g., when an attempt is made by user U to change the 
-     *              delete_role privilege on a study owned by user U.  The 
-     *              privilege is left unchanged in such cases to ensure that 
-     *              there is always at least one user (the study creator) who 
-     *              is authorized to reset privileges for any roleholder for 
-     *              the study.
-     * @throws ServiceException
+     * @return an unmodifiable list of content types.
      */
-    public Message updateRole(Role role) throws ServiceException
+    public List<String> getAcceptedContentTypes()
     {
-        if (updateRoleX(role) == null)
-            throw getException();
-
-        if (yRequest.getStatusCode() == 204)
-            return null;    // Everything worked fine
-
-        // The update operation was completed provisionally
+        if (acceptedContentTypes != null)
+            return acceptedContentTypes;
 
-        Message message = null;
+        List<String> types = new ArrayList<String>();
+        types.add(contentType);
 
-        byte [] messageAsBytes = yRequest.getEntity();
-        if (messageAsBytes != null)
-            message = ydif.makeMessageFromBytes(messageAsBytes);
+        String mediaType = DifRegistry.mediaType(contentType);
 
-        if (message == null)
+        for (String type : DifRegistry.getContentTypes())
         {
-            reportProblem("Expected updateRole to return a Message");
-            throw getException();
+            if (!type.equals(mediaType))
+                types.add(type);
         }
 
-        return message;
+        return Collections.unmodifiableList(types);
     }
 
-
     /**
-     * Obtain a role.  The role of a specific user on a specific study is
-     * obtained.
+     * Set whether specimen blocks are posted in packed columnar form when 
+     * subjects are loaded or prospects are scored.  A block can be packed 
+     * when its specimens all have the same status, weight, and cell names,
+     * and the values in each column are all of the same kind, as in a 
+     * dense numeric table; then the cell names are sent once, rather than 
+     * in every specimen, and each column of values is sent as one packed 
+     * array.  Other blocks are posted as usual.
+     * <p>
+     * Packing is used only with the PROTOBUF DIF, and only with a server 
+     * which accepts the content type application/yosokumo-packed+protobuf.
+     * If the server refuses a packed block (status code 415), the block is
+     * posted again in the usual form, and packing is turned off.
+     * <p>
+     * By default blocks are not packed.
      *
-     * @param   userId specifies the user.
-     * @param   studyId specifies the study.
+     * @param  on  {@code true} to pack blocks which can be packed.
+     */
+    public void setBlockPacking(boolean on)
+    {
+        packBlocks.set(on);
+    }
+
+    /**
+     * Return {@code true} if specimen blocks which can be packed are posted 
+     * in packed columnar form.  This becomes false if the server refuses a 
+     * packed block.
      *
-     * @return  a reference to the role of the specified user on the 
-     *           specified study.
-     * @throws ServiceException
+     * @return  {@code true} if blocks are packed.
+     *          {@code false} otherwise.
      */
-    public Role obtainRole(String userId, String studyId) 
-        throws ServiceException
+    public boolean isBlockPackingEnabled()
     {
-        Role role = obtainRoleX(userId, studyId);
+        return packBlocks.get();
+    }
 
-        if (role == null)
-            throw getException();
+    /**
+     * Turn on caching of predictands.  When prospects are scored, a 
+     * prospect whose study and cells are exactly the same as those of a 
+     * prospect scored earlier gets the cached predictand, and only the 
+     * remaining prospects are posted to the study's model.  All cached 
+     * predictands of a study are discarded when the study's latest block 
+     * time is seen to change, or when subjects are loaded into the study.
+     * Any predictands cached previously are discarded.
+     *
+     * @param  maxEntries  the maximum number of predictands to cache; when 
+     *                     the cache is full the least recently used 
+     *                     predictand is evicted (>= 1).
+     * @param  ttlMillis   the time in milliseconds for which a cached 
+     *                     predictand remains valid (> 0).
+     */
+    public void enablePredictionCache(int maxEntries, long ttlMillis)
+    {
+        predictionCache = new PredictionCache(maxEntries, ttlMillis);
+    }
 
-        return role;
+    /**
+     * Turn off caching of predictands, discarding any cached predictands.
+     */
+    public void disablePredictionCache()
+    {
+        predictionCache = null;
     }
 
     /**
-     * Delete a role.  The role played on by a specific user on a specific 
-     * study is deleted.
+     * Return {@code true} if predictands are cached.
      *
-     * @param   userId specifies the user.
-     * @param   studyId specifies the study.
-     * @throws ServiceException
+     * @return  {@code true} if predictands are cached.
+     *          {@code false} otherwise.
      */
-    public void deleteRole(String userId, String studyId)
-         throws ServiceException
+    public boolean isPredictionCacheEnabled()
     {
-        if (!deleteRoleX(userId, studyId))
-            throw getException();
+        return predictionCache != null;
     }
 
     /**
-     * Describe a study's predictors.  A list of column definitions is 
-     * associated with a study.
+     * Turn on caching of rosters.  When a role is obtained, updated, or 
+     * deleted, the role is looked up in the cached roster of its study, if
+     * there is one, instead of in a roster obtained from the server.  The 
+     * roster of a study is cached whenever it is obtained, and is 
+     * discarded when it is older than {@code ttlMillis}, or when a role on
+     * the study is created, updated, or deleted, or the study is deleted, 
+     * through this service or one of its workers.  Roles changed by other 
+     * clients are seen only once the cached roster expires.  Any rosters 
+     * cached previously are discarded.
      *
-     * @param   studyId specifies the study whose predictors are to be 
-     *              described.
-     * @param   predictorList a list of the predictors (= variables = columns)
-     *              for the table.
-     * @throws ServiceException
+     * @param  ttlMillis   the time in milliseconds for which a cached 
+     *                     roster remains valid (> 0).
      */
-    public void describePredictors(
-        String studyId, 
-        List<Predictor> predictorList) throws ServiceException
+    public void enableRosterCache(long ttlMillis)
     {
-        if (!describePredictorsX(studyId, predictorList))
-            throw getException();
+        rosterCache = new RosterCache(ttlMillis);
     }
 
+    /**
+     * Turn off caching of rosters, discarding any cached rosters.
+     */
+    public void disableRosterCache()
+    {
+        rosterCache = null;
+    }
 
     /**
-     * Populate the rows of a study's table with subjects.  A list of 
-     * rows is inserted into the study's table.
+     * Return {@code true} if rosters are cached.
      *
-     * @param   studyId specifies the study whose table is to be populated.
-     * @param   specimenList a list of the specimens 
-     *              (= rows = observations = records) for the table.
-     * @throws ServiceException
+     * @return  {@code true} if rosters are cached.
+     *          {@code false} otherwise.
      */
-    public void loadSubjects(
-        String studyId, 
-        List<Specimen> specimenList) throws ServiceException
+    public boolean isRosterCacheEnabled()
     {
-        if (!loadSubjectsX(studyId, specimenList))
-            throw getException();
+        return rosterCache != null;
     }
 
     /**
-     * Score prospects (compute predictands) using a study's model.  
+     * Turn on checking of privileges before requests are sent.  An 
+     * operation on a study which needs a privilege the user of this 
+     * service does not have on the study, e.g., scoring prospects without 
+     * the POST_MODEL privilege, then fails at once, without sending any 
+     * request to the server.  The privileges of the user on a study are 
+     * taken from the user's role in the roster of the study, which is 
+     * obtained the first time it is needed (or taken from the roster 
+     * cache, see {@link #enableRosterCache}).  The privileges are cached 
+     * for {@code ttlMillis}, or until a role on the study is changed 
+     * through this service.  An operation is not checked if the user's 
+     * role cannot be found, e.g., because the user may not obtain the 
+     * roster; the server then decides, as usual.  If the roster is refused
+     * (status 403), this is remembered for {@code ttlMillis}; if obtaining
+     * it fails in any other way, e.g., the server is unavailable, this is 
+     * remembered for at most a few seconds, so that operations are not 
+     * each delayed by a request for the roster.  Any privileges cached 
+     * previously are discarded.
      *
-     * @param   studyId specifies the study whose model is to be used.
-     * @param   specimenList is the list of specimens 
-     *              (= rows = observations = records) whose predictands
-     *              are to be computed.  Upon return from this method, the 
-     *              predictand member of each Specimen in the list
-     *              contains the results of the computations (the score).
-     * @throws ServiceException
+     * @param  ttlMillis   the time in milliseconds for which the 
+     *                     privileges of the user on a study remain valid 
+     *                     (> 0).
      */
-    public void scoreProspects(
-        String studyId, 
-        List<Specimen> specimenList) throws ServiceException
+    public void enablePrivilegeCheck(long ttlMillis)
     {
-        if (!scoreProspectsX(studyId, specimenList))
-            throw getException();
+        privilegeCache = new RosterCache(ttlMillis);
     }
 
+    /**
+     * Turn off checking of privileges before requests are sent, 
+     * discarding any cached privileges.
+     */
+    public void disablePrivilegeCheck()
+    {
+        privilegeCache = null;
+    }
 
     /**
-     * Obtain the user's catalog of studies.  
+     * Return {@code true} if privileges are checked before requests are 
+     * sent.
      *
-     * @return  {@code null} means the user's catalog could not be obtained
-     *              (call {@code getException()} for details).
-     *          Otherwise the return value is a reference to the user's 
-     *              catalog, containing all the studies the user has a role on.
+     * @return  {@code true} if privileges are checked.
+     *          {@code false} otherwise.
      */
-    private Catalog obtainCatalogX()
+    public boolean isPrivilegeCheckEnabled()
     {
-        cachedCatalog = null;
-
-        // The next line insures that the Get Catalog HTTP request will 
-        // get full entries for studies; if the second parameter is "off",
-        // then only partial studies are obtained
-        yRequest.setAuxHeader("x-yosokumo-full-entries", "on");
-
-        String catalogUri = "/";
+        return privilegeCache != null;
+    }
 
-        if (!yRequest.getFromServer(catalogUri))
-            return (Catalog)reportProblem();
+    /**
+     * Return Service exception.
+     *
+     * @return  exception occurring during HTTP processing.  Null means none.
+     */
+    ServiceException getException()
+    {
+        return exception;
+    }
 
-        byte [] catalogAsBytes = yRequest.getEntity();
+    /**
+     * Return the status code from the last Service operation.
+     *
+     * @return the status code.
+     */
+    public int getStatusCode()
+    {
+        return yRequest.getStatusCode();
+    }
 
-        if (catalogAsBytes == null || !requestOk(Role.Privilege.GET_CATALOG))
-            return (Catalog)reportProblem();
+    /**
+     * Obtain the user's catalog of studies.  
+     *
+     * @return  a reference to the user's catalog, containing all the 
+     *          studies the user has a role on.
+     * @throws ServiceException
+     */
+    public Catalog obtainCatalog() throws ServiceException
+    {
+        initForOperation("obtainCatalog");
 
-        Catalog catalog = ydif.makeCatalogFromBytes(catalogAsBytes);
+        Catalog catalog = obtainCatalogX();
 
         if (catalog == null)
-        {
-            exception = ydif.getException();
-            return null;
-        }
-
-        for (Study s : catalog.getStudyCollection())
-        {
-            if (mergePanelIntoStudy(s) == null)
-                return null;
-        }
-
-        if (catalog != null)
-            cachedCatalog = Catalog.copyCatalog(catalog);
+            throw getException();
 
         return catalog;
-
-    }   //  end obtainCatalogX
+    }
 
     /**
      * Create a default study and add it to the user's catalog of studies.  
      *
-     * @return  {@code null} means the study could not be created (call 
-     *              {@code getException()} for details).
-     *          Otherwise the return value is a reference to a newly-created 
-     *              study with default name, type, status, and visibility.
-     *              (Note that the name will be an empty string.)
-     *              The study identifier, owner identifier, and owner name 
-     *              are initialized, as well as references to study components.
+     * @return  a reference to a newly-created study with default name, 
+     *          type, status, and visibility.  (Note that the name will be 
+     *          an empty string.)  The study identifier, owner identifier, 
+     *          and owner name are initialized, as well as references to 
+     *          study components.
+     * @throws ServiceException
      */
-    private Study createStudyX()
+    public Study createStudy() throws ServiceException
     {
-        return createStudy(new Study());
+        Study study = createStudyX();
+
+        if (study == null)
+            throw getException();
+
+        return study;
     }
 
     /**
      * Create a named study and add it to the user's catalog of studies.  
      *
      * @param   studyName specifies the study name.
-     * @return  {@code null} means the study could not be created (call 
-     *              {@code getException()} for details).
-     *          Otherwise the return value is a reference to a newly-created 
-     *              study with name as specified by the parameter, and default
-     *              type, status, and visibility.  The study identifier, 
-     *              owner identifier, and owner name are initialized, as well 
-     *              as references to study components.
+     * @return  a reference to a newly-created study with name as specified 
+     *          by the parameter, and default type, status, and visibility.  
+     *          The study identifier, owner identifier, and owner name are 
+     *          initialized, as well as references to study components.
+     * @throws ServiceException
      */
-    private Study createStudyX(String studyName)
+    public Study createStudy(String studyName) throws ServiceException
     {
-        Study study = new Study();
-        study.setStudyName(studyName);
-        return createStudy(study);
+        Study study = createStudyX(studyName);
+
+        if (study == null)
+            throw getException();
+
+        return study;
     }
 
     /**
@@ -797,20 +1095,21 @@ public class Service
      *
      * @param   studyName specifies the study name.
      * @param   studyType specifies the study type.
-     * @return  {@code null} means the study could not be created (call 
-     *              {@code getException()} for details).
-     *          Otherwise the return value is a reference to a newly-created 
-     *              study with name and type as specified by the parameters, 
-     *              and default status and visibility.  The study identifier, 
-     *              owner identifier, and owner name are initialized, as well 
-     *              as references to study components.
+     * @return  a reference to a newly-created study with name and type as 
+     *          specified by the parameters, and default status and visibility.
+     *          The study identifier, owner identifier, and owner name are 
+     *          initialized, as well as references to study components.
+     * @throws ServiceException
      */
-    private Study createStudyX(String studyName, Study.Type studyType)
+    public Study createStudy(String studyName, Study.Type studyType) 
+        throws ServiceException
     {
-        Study study = new Study();
-        study.setStudyName(studyName);
-        study.setType(studyType);
-        return createStudy(study);
+        Study study = createStudyX(studyName, studyType);
+
+        if (study == null)
+            throw getException();
+
+        return study;
     }
 
     /**
@@ -821,86 +1120,65 @@ public class Service
      * @param   studyType specifies the study type.
      * @param   studyStatus specifies the study status.
      * @param   studyVisibility specifies the study visibility.
-     * @return  {@code null} means the study could not be created (call 
-     *              {@code getException()} for details).
-     *          Otherwise the return value is a reference to a newly-created 
-     *              study with name, type, status, and visibility as specified 
-     *              by the parameters.  The study identifier, owner identifier,
-     *              and owner name are initialized, as well as references to 
-     *              study components.
+     * @return  a reference to a newly-created study with name, type, status, 
+     *          and visibility as specified by the parameters.  The study 
+     *          identifier, owner identifier, and owner name are initialized, 
+     *          as well as references to study components.
+     * @throws ServiceException
      */
-    private Study createStudyX(
+    public Study createStudy(
         String           studyName,
         Study.Type       studyType,
         Study.Status     studyStatus,
-        Study.Visibility studyVisibility)
+        Study.Visibility studyVisibility)  throws ServiceException
     {
-        return createStudy(new Study(studyName, studyType, studyStatus, 
-                                                        studyVisibility));
-    }
+        Study study = createStudyX(studyName, studyType, studyStatus, 
+                                                        studyVisibility);
+
+        if (study == null)
+            throw getException();
 
+        return study;
+    }
 
     /**
      * Update a study, changing the study name.
      *
      * @param   studyId specifies the identifier of the study to update.
      * @param   studyName is the new name to assign to the study.
-     * @return  {@code null} means the study could not be changed (call 
-     *              {@code getException()} for details).
-     *          Otherwise the return value is the {@code Study} specified by 
-     *              studyId, with its name changed to studyName.  The name 
-     *              is also changed on the server.
+     * @return  a reference to the {@code Study} specified by studyId, with 
+     *          its name changed to studyName.  The name is also changed on 
+     *          the server.
+     * @throws ServiceException
      */
-    private Study updateStudyX(String studyId, String studyName)
+    public Study updateStudy(String studyId, String studyName) 
+        throws ServiceException
     {
-        initForOperation("updateStudy with name change");
-
-        Study study = mapStudyIdentifierToStudy(studyId);
+        Study study = updateStudyX(studyId, studyName);
 
         if (study == null)
-            return (Study)reportProblem();
-
-        study.setStudyName(studyName);
-
-        byte [] nameAsBytes = 
-                    ydif.makeBytesFromStudyName(study.getStudyName());
-
-        if (!yRequest.putToServer(study.getNameControlLocation(), 
-                        nameAsBytes) || !requestOk(Role.Privilege.PUT_CONTROL))
-            return (Study)reportProblem();
+            throw getException();
 
         return study;
     }
 
-
     /**
      * Update a study, changing the status.
      *
      * @param   studyId specifies the identifier of the study to update.
      * @param   studyStatus is the new status to assign to the study.
-     * @return  {@code null} means the study could not be changed (call 
-     *              {@code getException()} for details).
-     *          Otherwise the return value is the {@code Study} specified by 
-     *              studyId, with its status changed to studyStatus.  The 
-     *              status is also changed on the server.
+     * @return  a reference to the {@code Study} specified by studyId, with 
+     *          its status changed to studyStatus.  The status is also changed
+     *          on the server.
+     * @throws ServiceException
      */
-    private Study updateStudyX(String studyId, Study.Status studyStatus)
+    public Study updateStudy(String studyId, Study.Status studyStatus)
+         throws ServiceException
     {
-        initForOperation("updateStudy with status change");
-
-        Study study = mapStudyIdentifierToStudy(studyId);
+        Study study = updateStudyX(studyId, studyStatus);
 
         if (study == null)
-            return (Study)reportProblem();
-
-        study.setStatus(studyStatus);
-
-        byte [] statusAsBytes = 
-                    ydif.makeBytesFromStudyStatus(study.getStatus());
-
-        if (!yRequest.putToServer(study.getStatusControlLocation(), 
-                    statusAsBytes) || !requestOk(Role.Privilege.PUT_CONTROL))
-            return (Study)reportProblem();
+            throw getException();
 
         return study;
     }
@@ -910,29 +1188,18 @@ public class Service
      *
      * @param   studyId specifies the identifier of the study to update.
      * @param   studyVisibility is the new visibility to assign to the study.
-     * @return  {@code null} means the study could not be changed (call 
-     *              {@code getException()} for details).
-     *          Otherwise the return value is the {@code Study} specified by 
-     *              studyId, with its visibility changed to studyVisibility.  
-     *              The visibility is also changed on the server.
+     * @return  a reference to the {@code Study} specified by studyId, with 
+     *          its visibility changed to studyVisibility.  The visibility is 
+     *          also changed on the server.
+     * @throws ServiceException
      */
-    private Study updateStudyX(String studyId, Study.Visibility studyVisibility)
+    public Study updateStudy(String studyId, Study.Visibility studyVisibility)
+         throws ServiceException
     {
-        initForOperation("updateStudy with visibility change");
-
-        Study study = mapStudyIdentifierToStudy(studyId);
+        Study study = updateStudyX(studyId, studyVisibility);
 
         if (study == null)
-            return (Study)reportProblem();
-
-        study.setVisibility(studyVisibility);
-
-        byte [] visibilityAsBytes = 
-                    ydif.makeBytesFromStudyVisibility(study.getVisibility());
-
-        if (!yRequest.putToServer(study.getVisibilityControlLocation(), 
-                visibilityAsBytes) || !requestOk(Role.Privilege.PUT_CONTROL))
-            return (Study)reportProblem();
+            throw getException();
 
         return study;
     }
@@ -941,80 +1208,32 @@ public class Service
      * Obtain a study from the server. 
      *
      * @param   studyId specifies the identifier of the study to obtain.
-     * @return  {@code null} means the study could not be obtained (call 
-     *              {@code getException()} for details).
-     *          Otherwise the return value is a reference to a study obtained
-     *              from the server with study identifier == studyId.  
+     * @return  a reference to a study obtained from the server with study 
+     *          identifier equal to studyId.  
+     * @throws ServiceException
      */
-    private Study obtainStudyX(String studyId)
+    public Study obtainStudy(String studyId) throws ServiceException
     {
-        initForOperation("obtainStudy");
-
-        Study study = mapStudyIdentifierToStudy(studyId);
-
-        if (study == null)
-            return (Study)reportProblem();
-
-        if (refreshedCachedCatalog)
-            return study;
-
-        // A study with id equal to studyId was found in the 
-        // cachedCatalog, but since the cachedCatalog was not refreshed,
-        // the study is gotten from the server
-
-        if (!yRequest.getFromServer(study.getStudyLocation()))
-            return (Study)reportProblem();
-
-        byte [] studyAsBytes = yRequest.getEntity();
-
-        if (studyAsBytes == null || !requestOk(Role.Privilege.GET_STUDY))
-            return (Study)reportProblem();
-
-        study = ydif.makeStudyFromBytes(studyAsBytes);
+        Study study = obtainStudyX(studyId);
 
         if (study == null)
-        {
-            exception = ydif.getException();
-            return null;
-        }
-
-        study = mergePanelIntoStudy(study);
+            throw getException();
 
         return study;
-
-    }   //  end obtainStudyX
+    }
 
 
     /**
      * Delete a study from the server. 
      *
      * @param   studyId specifies the identifier of the study to delete.
-     * @return  {@code false} means the study could not be deleted (call 
-     *              {@code getException()} for details).
-     *          {@code true} means the study was deleted.
+     * @throws ServiceException
      */
-    private boolean deleteStudyX(String studyId)
+    public void deleteStudy(String studyId) throws ServiceException
     {
-        initForOperation("deleteStudy");
-
-        Study study = mapStudyIdentifierToStudy(studyId);
-
-        if (study == null)
-        {
-            reportProblem();
-            return false;
-        }
-
-        if (!yRequest.deleteFromServer(study.getStudyLocation()) || 
-                                    !requestOk(Role.Privilege.DELETE_STUDY))
-        {
-            reportProblem();
-            return false;
-        }
-
-        return true;
-
-    }   //  end deleteStudyX
+        if (!deleteStudyX(studyId))
+            throw getException();
+    }
 
 
     /**
@@ -1022,112 +1241,97 @@ public class Service
      *
      * @param   studyId specifies the identifier of the study whose roster 
      *              is to be obtained.
-     * @return  {@code null} means the roster could not be obtained (call 
-     *              {@code getException()} for details).
-     *          Otherwise the return value is a reference to the roster for 
-     *              the study specified by the input parameter.
+     * @return  a reference to the roster for the study specified by the 
+     *          input parameter.
+     * @throws ServiceException
      */
-    private Roster obtainRosterX(String studyId)
+    public Roster obtainRoster(String studyId) throws ServiceException
     {
-        initForOperation("obtainRoster");
-
-        Study study = mapStudyIdentifierToStudy(studyId);
-
-        if (study == null)
-            return (Roster)reportProblem();
-
-        // The next line insures that the Get Roster HTTP request will 
-        // get full entries for roles; if the second parameter is "off",
-        // then only partial roles are obtained
-        yRequest.setAuxHeader("x-yosokumo-full-entries", "on");
-
-        if (!yRequest.getFromServer(study.getRosterLocation()))
-            return (Roster)reportProblem();
-
-        byte [] rosterAsBytes = yRequest.getEntity();
-
-        if (rosterAsBytes == null || !requestOk(Role.Privilege.GET_ROSTER))
-            return (Roster)reportProblem();
-
-        Roster roster = ydif.makeRosterFromBytes(rosterAsBytes);
+        Roster roster = obtainRosterX(studyId);
 
         if (roster == null)
-            exception = ydif.getException();
+            throw getException();
 
         return roster;
-
-    }   //  end obtainRosterX
+    }
 
     /**
-     * Add a {@code Role} to a study's roster.
-     *
-     * @param  role  the role to add to the roster.  The user identifier 
-     *               and study identifier fields must be set.  The role 
-     *               is added to the roster of the study, specifying the 
-     *               privileges of the user on the study.
+     * Obtain the rosters of several studies.  Up to {@link 
+     * #getMaxBlocksInFlight} rosters are requested at one time.
      *
-     * @return  {@code null} means the role could not be created (call 
-     *              {@code getException()} for details).
-     *          Otherwise the return value is a reference to a newly-created
-     *              role corresponding to the input role with additional 
-     *              fields filled out by the service.
+     * @param   studyIds specifies the identifiers of the studies whose 
+     *              rosters are to be obtained.
+     * @return  a list of the rosters of the studies, in the order of 
+     *          {@code studyIds}.
+     * @throws ServiceException
      */
-    private Role createRoleX(Role role)
+    public List<Roster> obtainRosters(List<String> studyIds) 
+        throws ServiceException
     {
-        initForOperation("createRole");
+        List<Roster> rosters = obtainRostersX(studyIds);
 
-        Study study = mapStudyIdentifierToStudy(role.getStudyIdentifier());
+        if (rosters == null)
+            throw getException();
 
-        if (study == null)
-            return (Role)reportProblem();
-
-        byte [] roleAsBytes = ydif.makeBytesFromRole(role);
-
-        if (!yRequest.postToServer(study.getRosterLocation(), roleAsBytes))
-            return (Role)reportProblem();
-
-        byte [] newRoleAsBytes = yRequest.getEntity();
-
-        if (newRoleAsBytes == null || !requestOk(Role.Privilege.POST_ROSTER))
-            return (Role)reportProblem();
+        return rosters;
+    }
 
-        Role newRole = ydif.makeRoleFromBytes(newRoleAsBytes);
+    /**
+     * Add a {@code Role} to a study's roster.
+     *
+     * @param  role  the role to add to the roster.  The user identifier 
+     *               and study identifier fields of the {@code role} must 
+     *               be set.  The role is added to the roster of the study, 
+     *               specifying the privileges of the user on the study.
+     *
+     * @return  a reference to a newly-created role corresponding to the 
+     *          input role with additional fields filled out by the service.
+     * @throws ServiceException
+     */
+    public Role createRole(Role role) throws ServiceException
+    {
+        Role newRole = createRoleX(role);
 
         if (newRole == null)
-            exception = ydif.getException();
+            throw getException();
 
         return newRole;
-
-    }   //  end createRoleX
+    }
 
 
     /**
      * Update a role on the server.
      *
      * @param   role specifies the role to change.
-     * @return  {@code null} means the role could not be changed (call 
-     *              {@code getException()} for details).
-     *          Otherwise the return value is the input parameter {@code role}
-     *              and all the fields for role have been changed on the 
-     *              server.
+     * @return  the role on the server is updated with the fields specified 
+     *              by the input parameter {@code role}.  A null return value
+     *              indicates there were no issues with the update. A non-null
+     *              return value is a reference to a Message which describes 
+     *              how the request was completed provisionally. This happens,
+     *              e.g., when an attempt is made by user U to change the 
+     *              delete_role privilege on a study owned by user U.  The 
+     *              privilege is left unchanged in such cases to ensure that 
+     *              there is always at least one user (the study creator) who 
+     *              is authorized to reset privileges for any roleholder for 
+     *              the study.
+     * @throws ServiceException
      */
-    private Role updateRoleX(Role role)
+    public Message updateRole(Role role) throws ServiceException
     {
-        initForOperation("updateRole");
+        if (updateRoleX(role) == null)
+            throw getException();
 
-        Role r = getRoleHelper(role.getUserIdentifier(), 
-                                                role.getStudyIdentifier());
+        if (yRequest.getStatusCode() == 204)
+            return null;    // Everything worked fine
 
-        if (r == null)
-            return (Role)reportProblem();
+        // The update operation was completed provisionally
 
-        byte [] roleAsBytes = ydif.makeBytesFromRole(role);
+        Message message = makeProvisionalMessage();
 
-        if (!yRequest.putToServer(r.getRoleLocation(), roleAsBytes) || 
-                                        !requestOk(Role.Privilege.PUT_ROLE))
-            return (Role)reportProblem();
+        if (message == null)
+            throw getException();
 
-        return role;
+        return message;
     }
 
 
@@ -1138,170 +1342,2201 @@ public class Service
      * @param   userId specifies the user.
      * @param   studyId specifies the study.
      *
-     * @return  {@code null} means the role could not be obtained (call 
-     *              {@code getException()} for details).
-     *          Otherwise the return value is a reference to the role of 
-     *              the specified user on the specified study.
+     * @return  a reference to the role of the specified user on the 
+     *           specified study.
+     * @throws ServiceException
      */
-    private Role obtainRoleX(String userId, String studyId)
+    public Role obtainRole(String userId, String studyId) 
+        throws ServiceException
     {
-        initForOperation("obtainRole");
+        Role role = obtainRoleX(userId, studyId);
 
-        return getRoleHelper(userId, studyId);
-    }
+        if (role == null)
+            throw getException();
 
+        return role;
+    }
 
     /**
-     * Delete a role.  The role of a specific user on a specific study is
-     * deleted.
+     * Delete a role.  The role played on by a specific user on a specific 
+     * study is deleted.
      *
      * @param   userId specifies the user.
      * @param   studyId specifies the study.
+     * @throws ServiceException
+     */
+    public void deleteRole(String userId, String studyId)
+         throws ServiceException
+    {
+        if (!deleteRoleX(userId, studyId))
+            throw getException();
+    }
+
+    /**
+     * Obtain the roles of several users on a study.  The roster of the 
+     * study is obtained once, or taken from the roster cache (see {@link 
+     * #enableRosterCache}), and the roles are taken from it.
+     *
+     * @param   studyId specifies the study.
+     * @param   userIds specifies the users.
      *
-     * @return  {@code false} means the role could not be deleted (call 
-     *              {@code getException()} for details).
-     *          {@code true} means the role played on the user specified by 
-     *              userId on the study specified by studyId was deleted.
+     * @return  a list of the roles of the users on the study, in the order
+     *          of {@code userIds}.
+     * @throws ServiceException if a user has no role on the study.
      */
-    private boolean deleteRoleX(String userId, String studyId)
+    public List<Role> obtainRoles(String studyId, Collection<String> userIds)
+        throws ServiceException
     {
-        initForOperation("deleteRole");
+        List<Role> roles = obtainRolesX(studyId, userIds);
 
-        Role role = getRoleHelper(userId, studyId);
+        if (roles == null)
+            throw getException();
 
-        if (role == null)
-            return false;
+        return roles;
+    }
 
-        if (!yRequest.deleteFromServer(role.getRoleLocation()) || 
-                                     !requestOk(Role.Privilege.DELETE_ROLE))
-        {
-            reportProblem();
-            return false;
-        }
+    /**
+     * Give users the roles on a study which are specified by a collection 
+     * of roles.  The roster of the study is obtained once, and compared 
+     * with the roles wanted:  a role is created for each user who has 
+     * none, a role is updated for each user whose privileges differ from 
+     * those wanted, and the other roles are left alone.  The roles are 
+     * created and updated in parallel, by up to {@code 
+     * getMaxBlocksInFlight()} requests at a time.
+     *
+     * @param   studyId specifies the study.
+     * @param   roles specifies the roles wanted.  The user identifier of 
+     *              each role must be set, and no two roles may be for the 
+     *              same user.  The study identifier of a role must be 
+     *              {@code studyId}, or {@code null}.
+     *
+     * @return  a list of the Messages describing how updates of roles were
+     *          completed provisionally (see {@link #updateRole}).  The 
+     *          list is empty if every change was completed.
+     * @throws ServiceException if a role could not be obtained or changed.
+     *          The roles are then only partly as wanted.
+     */
+    public List<Message> applyRoles(String studyId, Collection<Role> roles)
+        throws ServiceException
+    {
+        return applyRoles(studyId, roles, false);
+    }
 
-        return true;
+    /**
+     * Give users the roles on a study which are specified by a collection 
+     * of roles, and optionally take away the roles of all other users.  
+     * See {@link #applyRoles(String, Collection)}.  If {@code removeOthers}
+     * is {@code true}, the role on the study of each user who has no role 
+     * in {@code roles} is deleted, except the role of the user of this 
+     * service.
+     *
+     * @param   studyId specifies the study.
+     * @param   roles specifies the roles wanted.
+     * @param   removeOthers specifies whether to delete the roles of users 
+     *              who have no role in {@code roles}.
+     *
+     * @return  a list of the Messages describing how updates of roles were
+     *          completed provisionally.
+     * @throws ServiceException if a role could not be obtained or changed.
+     */
+    public List<Message> applyRoles(
+        String           studyId, 
+        Collection<Role> roles,
+        boolean          removeOthers) throws ServiceException
+    {
+        List<Message> messages = applyRolesX(Collections.singletonList(
+                                            studyId), roles, removeOthers);
 
-    }   //  end deleteRoleX
+        if (messages == null)
+            throw getException();
+
+        return messages;
+    }
 
     /**
-     * Describe a study's table.  A list of column definitions is associated
-     * with a study.
+     * Give users roles on several studies.  The roles are grouped by the 
+     * study identifier, which must be set in each role, and are applied to
+     * each study as by {@link #applyRoles(String, Collection)}.  The 
+     * rosters of the studies are obtained in parallel, and then all the 
+     * changes are made in parallel.
      *
-     * @param   studyId specifies the study whose table is to be described.
+     * @param   roles specifies the roles wanted.  No two roles may be for 
+     *              the same user and study.
+     *
+     * @return  a list of the Messages describing how updates of roles were
+     *          completed provisionally.
+     * @throws ServiceException if a role could not be obtained or changed.
+     */
+    public List<Message> applyRoles(Collection<Role> roles) 
+        throws ServiceException
+    {
+        List<Message> messages = applyRolesX(null, roles, false);
+
+        if (messages == null)
+            throw getException();
+
+        return messages;
+    }
+
+    /**
+     * Describe a study's predictors.  A list of column definitions is 
+     * associated with a study.
+     *
+     * @param   studyId specifies the study whose predictors are to be 
+     *              described.
      * @param   predictorList a list of the predictors (= variables = columns)
      *              for the table.
+     * @throws ServiceException
+     */
+    public void describePredictors(
+        String studyId, 
+        List<Predictor> predictorList) throws ServiceException
+    {
+        if (!describePredictorsX(studyId, predictorList))
+            throw getException();
+    }
+
+
+    /**
+     * Populate the rows of a study's table with subjects.  A list of 
+     * rows is inserted into the study's table.  A list too large for one 
+     * request is posted in several blocks, one at a time and in order, 
+     * unless parallel table loads are enabled (see {@link 
+     * #setParallelTableLoads}).  If the load fails, the blocks posted 
+     * before the one which failed have been loaded:  a prefix of the list
+     * when the blocks are posted in order, but any subset of the blocks 
+     * when they are posted in parallel.
      *
-     * @return  {@code false} means the table description failed (call 
-     *              {@code getException()} for details).
-     *          {@code true} means the study's table was successfully 
-     *              described.
+     * @param   studyId specifies the study whose table is to be populated.
+     * @param   specimenList a list of the specimens 
+     *              (= rows = observations = records) for the table.
+     * @throws ServiceException
      */
-    private boolean describePredictorsX(
+    public void loadSubjects(
         String studyId, 
-        List<Predictor> predictorList)
+        List<Specimen> specimenList) throws ServiceException
     {
-        initForOperation("describePredictors");
+        if (!loadSubjectsX(studyId, specimenList))
+            throw getException();
+    }
+
+    /**
+     * Populate the rows of a study's table with subjects, keeping a journal
+     * so that a load which fails part way can be resumed.  Each block of 
+     * specimens accepted by the server is recorded in the journal file 
+     * before the next block is posted.  If the journal file already records
+     * blocks of the list, e.g., because an earlier call failed or the 
+     * process running it died, those blocks are not posted again; the load 
+     * resumes with the first specimen not recorded.  Thus, after a failure,
+     * calling this method again with the same list and journal file 
+     * completes the load.
+     * <p>
+     * Blocks are delivered at least once, not exactly once.  A block is 
+     * recorded only after the server has accepted it, so a block which the
+     * server accepted but which was not recorded, because the answer was 
+     * lost, the journal could not be written, or the process died in 
+     * between, is posted again when the load is resumed.  The blocks are 
+     * posted one at a time, so only the block in flight at the failure can
+     * be posted twice.
+     * <p>
+     * The journal records the positions and the first and last specimen 
+     * keys of the blocks, and these keys are checked against the list 
+     * before the load resumes.  When the load is complete, the journal file
+     * may be deleted.
+     *
+     * @param   studyId specifies the study whose table is to be populated.
+     * @param   specimenList a list of the specimens 
+     *              (= rows = observations = records) for the table.
+     * @param   journal is the journal file.  It is created if it does not 
+     *              exist.
+     * @throws ServiceException
+     */
+    public void loadSubjects(
+        String         studyId, 
+        List<Specimen> specimenList,
+        File           journal) throws ServiceException
+    {
+        if (!loadSubjectsX(studyId, specimenList, journal))
+            throw getException();
+    }
+
+    /**
+     * Populate the rows of a study's table with the subjects in a 
+     * {@code SpecimenStore}.  Blocks are sent directly from the encoded 
+     * specimens held in the store, so heap use does not depend on the size 
+     * of the table.  Only the PROTOBUF DIF can be used.
+     *
+     * @param   studyId specifies the study whose table is to be populated.
+     * @param   store holds the specimens 
+     *              (= rows = observations = records) for the table.
+     * @throws ServiceException
+     */
+    public void loadSubjects(
+        String        studyId, 
+        SpecimenStore store) throws ServiceException
+    {
+        if (!loadSubjectsX(studyId, store))
+            throw getException();
+    }
+
+    /**
+     * Populate the rows of a study's table, taking the rows from an {@code 
+     * Iterator}.  The rows are gathered into blocks which are posted to the
+     * table as they fill up.  By default one block is outstanding at a 
+     * time, and the next block is gathered meanwhile, so if the load 
+     * fails, the rows loaded are a prefix of those supplied.  If parallel 
+     * table loads are enabled (see {@link #setParallelTableLoads}), up to
+     * {@code getMaxBlocksInFlight()} blocks are outstanding at one time, 
+     * and a failed load may leave any set of whole blocks loaded.  Either 
+     * way no more rows are taken from the iterator while the limit is 
+     * reached, so memory use does not depend on how many rows the iterator
+     * yields.
+     *
+     * @param   studyId specifies the study whose table is to be populated.
+     * @param   subjects supplies the specimens 
+     *              (= rows = observations = records) for the table.  The 
+     *              iterator may be unbounded.
+     * @throws ServiceException
+     */
+    public void loadSubjects(
+        String             studyId, 
+        Iterator<Specimen> subjects) throws ServiceException
+    {
+        if (!loadSubjectsX(studyId, subjects))
+            throw getException();
+    }
+
+    /**
+     * Score prospects (compute predictands) using a study's model.  
+     *
+     * @param   studyId specifies the study whose model is to be used.
+     * @param   specimenList is the list of specimens 
+     *              (= rows = observations = records) whose predictands
+     *              are to be computed.  Upon return from this method, the 
+     *              predictand member of each Specimen in the list
+     *              contains the results of the computations (the score).
+     * @throws ServiceException
+     */
+    public void scoreProspects(
+        String studyId, 
+        List<Specimen> specimenList) throws ServiceException
+    {
+        if (!scoreProspectsX(studyId, specimenList))
+            throw getException();
+    }
+
+    /**
+     * Score prospects (compute predictands) using a study's model, taking 
+     * the prospects from an {@code Iterator} and handing the scored 
+     * prospects to a {@code SpecimenConsumer}.  The prospects are gathered 
+     * into blocks which are posted to the model as they fill up; at most 
+     * {@code getMaxBlocksInFlight()} blocks are outstanding at one time, so 
+     * memory use does not depend on how many prospects the iterator yields.
+     *
+     * @param   studyId specifies the study whose model is to be used.
+     * @param   prospects supplies the specimens 
+     *              (= rows = observations = records) whose predictands
+     *              are to be computed.  The iterator may be unbounded.
+     * @param   consumer receives each specimen after it has been scored, in 
+     *              the order in which {@code prospects} supplied them.  The 
+     *              predictand member of each specimen contains the results 
+     *              of the computations (the score).
+     * @throws ServiceException
+     */
+    public void scoreProspects(
+        String             studyId, 
+        Iterator<Specimen> prospects,
+        SpecimenConsumer   consumer) throws ServiceException
+    {
+        if (!scoreProspectsX(studyId, prospects, consumer))
+            throw getException();
+    }
+
+
+    /**
+     * Obtain the user's catalog of studies.  
+     *
+     * @return  {@code null} means the user's catalog could not be obtained
+     *              (call {@code getException()} for details).
+     *          Otherwise the return value is a reference to the user's 
+     *              catalog, containing all the studies the user has a role on.
+     */
+    private Catalog obtainCatalogX()
+    {
+        cachedCatalog = null;
+
+        // The next line insures that the Get Catalog HTTP request will 
+        // get full entries for studies; if the second parameter is "off",
+        // then only partial studies are obtained
+        yRequest.setAuxHeader("x-yosokumo-full-entries", "on");
+
+        String catalogUri = "/";
+
+        if (!yRequest.getFromServer(catalogUri))
+            return (Catalog)reportProblem();
+
+        byte [] catalogAsBytes = yRequest.getEntity();
+
+        if (catalogAsBytes == null || !requestOk(Role.Privilege.GET_CATALOG))
+            return (Catalog)reportProblem();
+
+        YosokumoDIF rdif = responseDif();
+
+        Catalog catalog = rdif.makeCatalogFromBytes(catalogAsBytes);
+
+        if (catalog == null)
+        {
+            exception = rdif.getException();
+            return null;
+        }
+
+        // Obtain the panels of the studies in parallel
+
+        final List<Study> studies = 
+                            new ArrayList<Study>(catalog.getStudyCollection());
+
+        boolean merged = fanOut(studies.size(), new IndexedJob(studies.size())
+            {
+                boolean runPart(Service worker, int index)
+                {
+                    return worker.mergePanelIntoStudy(studies.get(index)) != 
+                                                                        null;
+                }
+            });
+
+        if (!merged)
+            return null;
+
+        if (catalog != null)
+            cachedCatalog = Catalog.copyCatalog(catalog);
+
+        return catalog;
+
+    }   //  end obtainCatalogX
+
+    /**
+     * Create a default study and add it to the user's catalog of studies.  
+     *
+     * @return  {@code null} means the study could not be created (call 
+     *              {@code getException()} for details).
+     *          Otherwise the return value is a reference to a newly-created 
+     *              study with default name, type, status, and visibility.
+     *              (Note that the name will be an empty string.)
+     *              The study identifier, owner identifier, and owner name 
+     *              are initialized, as well as references to study components.
+     */
+    private Study createStudyX()
+    {
+        return createStudy(new Study());
+    }
+
+    /**
+     * Create a named study and add it to the user's catalog of studies.  
+     *
+     * @param   studyName specifies the study name.
+     * @return  {@code null} means the study could not be created (call 
+     *              {@code getException()} for details).
+     *          Otherwise the return value is a reference to a newly-created 
+     *              study with name as specified by the parameter, and default
+     *              type, status, and visibility.  The study identifier, 
+     *              owner identifier, and owner name are initialized, as well 
+     *              as references to study components.
+     */
+    private Study createStudyX(String studyName)
+    {
+        Study study = new Study();
+        study.setStudyName(studyName);
+        return createStudy(study);
+    }
+
+    /**
+     * Create a study with specified name and type and add it to the user's 
+     *      catalog of studies.  
+     *
+     * @param   studyName specifies the study name.
+     * @param   studyType specifies the study type.
+     * @return  {@code null} means the study could not be created (call 
+     *              {@code getException()} for details).
+     *          Otherwise the return value is a reference to a newly-created 
+     *              study with name and type as specified by the parameters, 
+     *              and default status and visibility.  The study identifier, 
+     *              owner identifier, and owner name are initialized, as well 
+     *              as references to study components.
+     */
+    private Study createStudyX(String studyName, Study.Type studyType)
+    {
+        Study study = new Study();
+        study.setStudyName(studyName);
+        study.setType(studyType);
+        return createStudy(study);
+    }
+
+    /**
+     * Create a study with specified name, type, status, and visibility, and 
+     *      add it to the user's catalog of studies.  
+     *
+     * @param   studyName specifies the study name.
+     * @param   studyType specifies the study type.
+     * @param   studyStatus specifies the study status.
+     * @param   studyVisibility specifies the study visibility.
+     * @return  {@code null} means the study could not be created (call 
+     *              {@code getException()} for details).
+     *          Otherwise the return value is a reference to a newly-created 
+     *              study with name, type, status, and visibility as specified 
+     *              by the parameters.  The study identifier, owner identifier,
+     *              and owner name are initialized, as well as references to 
+     *              study components.
+     */
+    private Study createStudyX(
+        String           studyName,
+        Study.Type       studyType,
+        Study.Status     studyStatus,
+        Study.Visibility studyVisibility)
+    {
+        return createStudy(new Study(studyName, studyType, studyStatus, 
+                                                        studyVisibility));
+    }
+
+
+    /**
+     * Update a study, changing the study name.
+     *
+     * @param   studyId specifies the identifier of the study to update.
+     * @param   studyName is the new name to assign to the study.
+     * @return  {@code null} means the study could not be changed (call 
+     *              {@code getException()} for details).
+     *          Otherwise the return value is the {@code Study} specified by 
+     *              studyId, with its name changed to studyName.  The name 
+     *              is also changed on the server.
+     */
+    private Study updateStudyX(String studyId, String studyName)
+    {
+        initForOperation("updateStudy with name change");
+
+        if (!checkPrivilege(studyId, Role.Privilege.PUT_CONTROL))
+            return null;
+
+        Study study = mapStudyIdentifierToStudy(studyId);
+
+        if (study == null)
+            return (Study)reportProblem();
+
+        study.setStudyName(studyName);
+
+        byte [] nameAsBytes = 
+                    ydif.makeBytesFromStudyName(study.getStudyName());
+
+        if (!yRequest.putToServer(study.getNameControlLocation(), 
+                        nameAsBytes) || !requestOk(Role.Privilege.PUT_CONTROL))
+            return (Study)reportProblem();
+
+        return study;
+    }
+
+
+    /**
+     * Update a study, changing the status.
+     *
+     * @param   studyId specifies the identifier of the study to update.
+     * @param   studyStatus is the new status to assign to the study.
+     * @return  {@code null} means the study could not be changed (call 
+     *              {@code getException()} for details).
+     *          Otherwise the return value is the {@code Study} specified by 
+     *              studyId, with its status changed to studyStatus.  The 
+     *              status is also changed on the server.
+     */
+    private Study updateStudyX(String studyId, Study.Status studyStatus)
+    {
+        initForOperation("updateStudy with status change");
+
+        if (!checkPrivilege(studyId, Role.Privilege.PUT_CONTROL))
+            return null;
+
+        Study study = mapStudyIdentifierToStudy(studyId);
+
+        if (study == null)
+            return (Study)reportProblem();
+
+        study.setStatus(studyStatus);
+
+        byte [] statusAsBytes = 
+                    ydif.makeBytesFromStudyStatus(study.getStatus());
+
+        if (!yRequest.putToServer(study.getStatusControlLocation(), 
+                    statusAsBytes) || !requestOk(Role.Privilege.PUT_CONTROL))
+            return (Study)reportProblem();
+
+        return study;
+    }
+
+    /**
+     * Update a study, changing the visibility.
+     *
+     * @param   studyId specifies the identifier of the study to update.
+     * @param   studyVisibility is the new visibility to assign to the study.
+     * @return  {@code null} means the study could not be changed (call 
+     *              {@code getException()} for details).
+     *          Otherwise the return value is the {@code Study} specified by 
+     *              studyId, with its visibility changed to studyVisibility.  
+     *              The visibility is also changed on the server.
+     */
+    private Study updateStudyX(String studyId, Study.Visibility studyVisibility)
+    {
+        initForOperation("updateStudy with visibility change");
+
+        if (!checkPrivilege(studyId, Role.Privilege.PUT_CONTROL))
+            return null;
+
+        Study study = mapStudyIdentifierToStudy(studyId);
+
+        if (study == null)
+            return (Study)reportProblem();
+
+        study.setVisibility(studyVisibility);
+
+        byte [] visibilityAsBytes = 
+                    ydif.makeBytesFromStudyVisibility(study.getVisibility());
+
+        if (!yRequest.putToServer(study.getVisibilityControlLocation(), 
+                visibilityAsBytes) || !requestOk(Role.Privilege.PUT_CONTROL))
+            return (Study)reportProblem();
+
+        return study;
+    }
+
+    /**
+     * Obtain a study from the server. 
+     *
+     * @param   studyId specifies the identifier of the study to obtain.
+     * @return  {@code null} means the study could not be obtained (call 
+     *              {@code getException()} for details).
+     *          Otherwise the return value is a reference to a study obtained
+     *              from the server with study identifier == studyId.  
+     */
+    private Study obtainStudyX(String studyId)
+    {
+        initForOperation("obtainStudy");
+
+        if (!checkPrivilege(studyId, Role.Privilege.GET_STUDY))
+            return null;
+
+        Study study = mapStudyIdentifierToStudy(studyId);
+
+        if (study == null)
+            return (Study)reportProblem();
+
+        if (refreshedCachedCatalog)
+            return study;
+
+        // A study with id equal to studyId was found in the 
+        // cachedCatalog, but since the cachedCatalog was not refreshed,
+        // the study is gotten from the server
+
+        if (!yRequest.getFromServer(study.getStudyLocation()))
+            return (Study)reportProblem();
+
+        byte [] studyAsBytes = yRequest.getEntity();
+
+        if (studyAsBytes == null || !requestOk(Role.Privilege.GET_STUDY))
+            return (Study)reportProblem();
+
+        YosokumoDIF rdif = responseDif();
+
+        study = rdif.makeStudyFromBytes(studyAsBytes);
+
+        if (study == null)
+        {
+            exception = rdif.getException();
+            return null;
+        }
+
+        study = mergePanelIntoStudy(study);
+
+        return study;
+
+    }   //  end obtainStudyX
+
+
+    /**
+     * Delete a study from the server. 
+     *
+     * @param   studyId specifies the identifier of the study to delete.
+     * @return  {@code false} means the study could not be deleted (call 
+     *              {@code getException()} for details).
+     *          {@code true} means the study was deleted.
+     */
+    private boolean deleteStudyX(String studyId)
+    {
+        initForOperation("deleteStudy");
+
+        if (!checkPrivilege(studyId, Role.Privilege.DELETE_STUDY))
+            return false;
+
+        Study study = mapStudyIdentifierToStudy(studyId);
+
+        if (study == null)
+        {
+            reportProblem();
+            return false;
+        }
+
+        if (!yRequest.deleteFromServer(study.getStudyLocation()) || 
+                                    !requestOk(Role.Privilege.DELETE_STUDY))
+        {
+            reportProblem();
+            return false;
+        }
+
+        if (predictionCache != null)
+            predictionCache.invalidate(studyId);
+
+        invalidateRoster(studyId);
+
+        return true;
+
+    }   //  end deleteStudyX
+
+
+    /**
+     * Obtain the roster for a study.
+     *
+     * @param   studyId specifies the identifier of the study whose roster 
+     *              is to be obtained.
+     * @return  {@code null} means the roster could not be obtained (call 
+     *              {@code getException()} for details).
+     *          Otherwise the return value is a reference to the roster for 
+     *              the study specified by the input parameter.
+     */
+    private Roster obtainRosterX(String studyId)
+    {
+        initForOperation("obtainRoster");
+
+        Study study = mapStudyIdentifierToStudy(studyId);
+
+        if (study == null)
+            return (Roster)reportProblem();
+
+        // The next line insures that the Get Roster HTTP request will 
+        // get full entries for roles; if the second parameter is "off",
+        // then only partial roles are obtained
+        yRequest.setAuxHeader("x-yosokumo-full-entries", "on");
+
+        if (!yRequest.getFromServer(study.getRosterLocation()))
+            return (Roster)reportProblem();
+
+        byte [] rosterAsBytes = yRequest.getEntity();
+
+        if (rosterAsBytes == null || !requestOk(Role.Privilege.GET_ROSTER))
+            return (Roster)reportProblem();
+
+        YosokumoDIF rdif = responseDif();
+
+        Roster roster = rdif.makeRosterFromBytes(rosterAsBytes);
+
+        if (roster == null)
+            exception = rdif.getException();
+        else
+        {
+            if (rosterCache != null)
+                rosterCache.put(studyId, Roster.copyRoster(roster));
+
+            cacheOwnRole(studyId, roster);
+        }
+
+        return roster;
+
+    }   //  end obtainRosterX
+
+    /**
+     * Get the roster of a study in which to look up roles.  The roster is 
+     * taken from the roster cache if it holds the roster, and is obtained 
+     * from the server otherwise.  The roster must not be changed, and a 
+     * role in it must be copied before it is handed out.
+     *
+     * @param   studyId specifies the study.
+     * @return  {@code null} means the roster could not be obtained (call 
+     *              {@code getException()} for details).
+     *          Otherwise the return value is the roster of the study.
+     */
+    private Roster lookUpRoster(String studyId)
+    {
+        if (rosterCache != null)
+        {
+            Roster roster = rosterCache.get(studyId);
+
+            if (roster != null)
+                return roster;
+        }
+
+        return obtainRosterX(studyId);
+    }
+
+    /**
+     * Discard the cached roster of a study, if any, since the roles on the
+     * study have been changed.  This is done once the change has been 
+     * answered, whether or not it succeeded, so that a roster obtained 
+     * while the change was in flight is not kept.
+     *
+     * @param   studyId specifies the study.
+     */
+    private void invalidateRoster(String studyId)
+    {
+        if (rosterCache != null)
+            rosterCache.invalidate(studyId);
+
+        if (privilegeCache != null)
+            privilegeCache.invalidate(studyId);
+    }
+
+    /**
+     * Keep the role of the user of this service in the roster of a study 
+     * in the privilege cache, if privileges are checked.
+     *
+     * @param   studyId specifies the study.
+     * @param   roster is the roster of the study.
+     */
+    private void cacheOwnRole(String studyId, Roster roster)
+    {
+        if (privilegeCache == null || credentials == null)
+            return;
+
+        Roster own = new Roster(studyId, roster.getStudyName());
+        Role   role = roster.getRole(credentials.getUserId());
+
+        if (role != null)
+            own.addRole(Role.copyRole(role));
+
+        privilegeCache.put(studyId, own);
+    }
+
+    /**
+     * Check that the user of this service has a privilege on a study, if 
+     * privileges are checked (see {@link #enablePrivilegeCheck}).  The 
+     * roster of the study is obtained if the user's role on the study is 
+     * not in the privilege cache.  This is done before the operation sends
+     * any request, so the operation is then started again.  If the roster
+     * cannot be obtained, an empty roster is cached, so the privileges are
+     * unknown until it expires.
+     *
+     * @param   studyId specifies the study.
+     * @param   privilege is the privilege needed by the operation.
+     * @return  {@code false} means the user does not have the privilege 
+     *              (call {@code getException()} for details).
+     *          {@code true} means the user has the privilege, or it is not
+     *              known whether the user has it.
+     */
+    private boolean checkPrivilege(String studyId, Role.Privilege privilege)
+    {
+        if (privilegeCache == null || credentials == null)
+            return true;
+
+        Roster own = privilegeCache.get(studyId);
+
+        if (own == null)
+        {
+            String operation = methodName;
+
+            Roster roster = lookUpRoster(studyId);
+
+            if (roster != null)
+                cacheOwnRole(studyId, roster);
+            else if (yRequest.getStatusCode() == 403)
+                privilegeCache.put(studyId, new Roster(studyId, null));
+            else
+                privilegeCache.put(studyId, new Roster(studyId, null), 
+                    Math.min(UNKNOWN_PRIVILEGE_TTL, 
+                                            privilegeCache.getTtlMillis()));
+
+            initForOperation(operation);
+
+            own = privilegeCache.get(studyId);
+
+            if (own == null)
+                return true;
+        }
+
+        Role role = own.getRole(credentials.getUserId());
+
+        if (role == null || role.getPrivilege(privilege))
+            return true;
+
+        reportProblem("User " + credentials.getUserId() + " does not " +
+                "have the " + privilege + " privilege on study " + studyId);
+        return false;
+    }
+
+    /**
+     * Obtain the rosters of several studies.
+     *
+     * @param   studyIds specifies the identifiers of the studies whose 
+     *              rosters are to be obtained.
+     * @return  {@code null} means a roster could not be obtained (call 
+     *              {@code getException()} for details).
+     *          Otherwise the return value is a list of the rosters of the
+     *              studies, in the order of {@code studyIds}.
+     */
+    private List<Roster> obtainRostersX(final List<String> studyIds)
+    {
+        initForOperation("obtainRosters");
+
+        // Look up every study first, so that the workers find them all in 
+        // the catalog they copy
+
+        for (String studyId : studyIds)
+        {
+            if (mapStudyIdentifierToStudy(studyId) == null)
+            {
+                reportProblem();
+                return null;
+            }
+        }
+
+        final Roster [] rosters = new Roster[studyIds.size()];
+
+        boolean obtained = fanOut(studyIds.size(), 
+                                            new IndexedJob(studyIds.size())
+            {
+                boolean runPart(Service worker, int index)
+                {
+                    rosters[index] = worker.obtainRosterX(studyIds.get(index));
+                    return rosters[index] != null;
+                }
+            });
+
+        if (!obtained)
+            return null;
+
+        List<Roster> list = new ArrayList<Roster>(rosters.length);
+
+        for (Roster r : rosters)
+            list.add(r);
+
+        return list;
+
+    }   //  end obtainRostersX
+
+    /**
+     * Add a {@code Role} to a study's roster.
+     *
+     * @param  role  the role to add to the roster.  The user identifier 
+     *               and study identifier fields must be set.  The role 
+     *               is added to the roster of the study, specifying the 
+     *               privileges of the user on the study.
+     *
+     * @return  {@code null} means the role could not be created (call 
+     *              {@code getException()} for details).
+     *          Otherwise the return value is a reference to a newly-created
+     *              role corresponding to the input role with additional 
+     *              fields filled out by the service.
+     */
+    private Role createRoleX(Role role)
+    {
+        initForOperation("createRole");
+
+        if (!checkPrivilege(role.getStudyIdentifier(), 
+                                                Role.Privilege.POST_ROSTER))
+            return null;
+
+        Study study = mapStudyIdentifierToStudy(role.getStudyIdentifier());
+
+        if (study == null)
+            return (Role)reportProblem();
+
+        Role created = postRole(study.getRosterLocation(), role);
+
+        invalidateRoster(role.getStudyIdentifier());
+
+        return created;
+
+    }   //  end createRoleX
+
+
+    /**
+     * Add a {@code Role} to a roster on the server.
+     *
+     * @param   rosterLocation is the location of the roster.
+     * @param   role is the role to add.
+     *
+     * @return  {@code null} means the role could not be created (call 
+     *              {@code getException()} for details).
+     *          Otherwise the return value is the newly-created role.
+     */
+    private Role postRole(String rosterLocation, Role role)
+    {
+        byte [] roleAsBytes = ydif.makeBytesFromRole(role);
+
+        if (!yRequest.postToServer(rosterLocation, roleAsBytes))
+            return (Role)reportProblem();
+
+        byte [] newRoleAsBytes = yRequest.getEntity();
+
+        if (newRoleAsBytes == null || !requestOk(Role.Privilege.POST_ROSTER))
+            return (Role)reportProblem();
+
+        YosokumoDIF rdif = responseDif();
+
+        Role newRole = rdif.makeRoleFromBytes(newRoleAsBytes);
+
+        if (newRole == null)
+            exception = rdif.getException();
+
+        return newRole;
+
+    }   //  end postRole
+
+
+    /**
+     * Update a role on the server.
+     *
+     * @param   role specifies the role to change.
+     * @return  {@code null} means the role could not be changed (call 
+     *              {@code getException()} for details).
+     *          Otherwise the return value is the input parameter {@code role}
+     *              and all the fields for role have been changed on the 
+     *              server.
+     */
+    private Role updateRoleX(Role role)
+    {
+        initForOperation("updateRole");
+
+        if (!checkPrivilege(role.getStudyIdentifier(), 
+                                                Role.Privilege.PUT_ROLE))
+            return null;
+
+        Role r = getRoleHelper(role.getUserIdentifier(), 
+                                                role.getStudyIdentifier());
+
+        if (r == null)
+            return (Role)reportProblem();
+
+        boolean updated = putRole(r.getRoleLocation(), role);
+
+        invalidateRoster(role.getStudyIdentifier());
+
+        if (!updated)
+            return null;
+
+        return role;
+    }
+
+
+    /**
+     * Replace a role on the server.
+     *
+     * @param   roleLocation is the location of the role on the server.
+     * @param   role specifies the new fields of the role.
+     *
+     * @return  {@code false} means the role could not be changed (call 
+     *              {@code getException()} for details).
+     *          {@code true} means the role was changed, provisionally if 
+     *              the status code is not 204 (see {@link 
+     *              #makeProvisionalMessage}).
+     */
+    private boolean putRole(String roleLocation, Role role)
+    {
+        byte [] roleAsBytes = ydif.makeBytesFromRole(role);
+
+        if (!yRequest.putToServer(roleLocation, roleAsBytes) || 
+                                        !requestOk(Role.Privilege.PUT_ROLE))
+        {
+            reportProblem();
+            return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Make the Message in the entity of the response to an update of a 
+     * role which was completed provisionally.
+     *
+     * @return  {@code null} means there is no Message (call {@code 
+     *              getException()} for details).
+     *          Otherwise the return value is the Message.
+     */
+    private Message makeProvisionalMessage()
+    {
+        Message message = null;
+
+        byte [] messageAsBytes = yRequest.getEntity();
+        if (messageAsBytes != null)
+            message = responseDif().makeMessageFromBytes(messageAsBytes);
+
+        if (message == null)
+            reportProblem("Expected updateRole to return a Message");
+
+        return message;
+    }
+
+
+    /**
+     * Obtain a role.  The role of a specific user on a specific study is
+     * obtained.
+     *
+     * @param   userId specifies the user.
+     * @param   studyId specifies the study.
+     *
+     * @return  {@code null} means the role could not be obtained (call 
+     *              {@code getException()} for details).
+     *          Otherwise the return value is a reference to the role of 
+     *              the specified user on the specified study.
+     */
+    private Role obtainRoleX(String userId, String studyId)
+    {
+        initForOperation("obtainRole");
+
+        return getRoleHelper(userId, studyId);
+    }
+
+
+    /**
+     * Delete a role.  The role of a specific user on a specific study is
+     * deleted.
+     *
+     * @param   userId specifies the user.
+     * @param   studyId specifies the study.
+     *
+     * @return  {@code false} means the role could not be deleted (call 
+     *              {@code getException()} for details).
+     *          {@code true} means the role played on the user specified by 
+     *              userId on the study specified by studyId was deleted.
+     */
+    private boolean deleteRoleX(String userId, String studyId)
+    {
+        initForOperation("deleteRole");
+
+        if (!checkPrivilege(studyId, Role.Privilege.DELETE_ROLE))
+            return false;
+
+        Role role = getRoleHelper(userId, studyId);
+
+        if (role == null)
+            return false;
+
+        boolean deleted = deleteRoleAt(role.getRoleLocation());
+
+        invalidateRoster(studyId);
+
+        return deleted;
+
+    }   //  end deleteRoleX
+
+
+    /**
+     * Delete a role on the server.
+     *
+     * @param   roleLocation is the location of the role on the server.
+     *
+     * @return  {@code false} means the role could not be deleted (call 
+     *              {@code getException()} for details).
+     *          {@code true} means the role was deleted.
+     */
+    private boolean deleteRoleAt(String roleLocation)
+    {
+        if (!yRequest.deleteFromServer(roleLocation) || 
+                                     !requestOk(Role.Privilege.DELETE_ROLE))
+        {
+            reportProblem();
+            return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Obtain the roles of several users on a study.
+     *
+     * @param   studyId specifies the study.
+     * @param   userIds specifies the users.
+     *
+     * @return  {@code null} means a role could not be obtained (call 
+     *              {@code getException()} for details).
+     *          Otherwise the return value is a list of the roles of the 
+     *              users, in the order of {@code userIds}.
+     */
+    private List<Role> obtainRolesX(String studyId, Collection<String> userIds)
+    {
+        Roster roster = lookUpRoster(studyId);
+
+        if (roster == null)
+            return null;    // obtainRoster reports an error
+
+        initForOperation("obtainRoles");
+
+        List<Role> roles = new ArrayList<Role>(userIds.size());
+
+        for (String userId : userIds)
+        {
+            Role role = roster.getRole(userId);
+
+            if (role == null)
+            {
+                reportProblem("A Role for user " + userId + " on study " + 
+                                                studyId + " does not exist");
+                return null;
+            }
+
+            roles.add(Role.copyRole(role));
+        }
+
+        return roles;
+
+    }   //  end obtainRolesX
+
+
+    /**
+     * Give users roles on studies:  obtain the roster of each study, and 
+     * create, update, or delete the roles which differ from those wanted.
+     *
+     * @param   studyIds specifies the studies, or is {@code null} to take 
+     *              the studies from the roles.
+     * @param   roles specifies the roles wanted.
+     * @param   removeOthers specifies whether to delete the roles of users 
+     *              who have no role in {@code roles} on one of the studies.
+     *
+     * @return  {@code null} means a role could not be obtained or changed 
+     *              (call {@code getException()} for details).
+     *          Otherwise the return value is a list of the Messages 
+     *              describing how updates were completed provisionally.
+     */
+    private List<Message> applyRolesX(
+        List<String>     studyIds,
+        Collection<Role> roles,
+        boolean          removeOthers)
+    {
+        initForOperation("applyRoles");
+
+        // Group the roles by study
+
+        Map<String, Map<String, Role>> wanted = 
+                                new LinkedHashMap<String, Map<String, Role>>();
+
+        if (studyIds != null)
+        {
+            for (String studyId : studyIds)
+                wanted.put(studyId, new HashMap<String, Role>());
+        }
+
+        for (Role role : roles)
+        {
+            String studyId = role.getStudyIdentifier();
+            String userId  = role.getUserIdentifier();
+
+            if (studyIds != null && studyId == null)
+                studyId = studyIds.get(0);
+
+            Map<String, Role> studyRoles = wanted.get(studyId);
+
+            if (studyRoles == null && studyIds == null && studyId != null)
+            {
+                studyRoles = new HashMap<String, Role>();
+                wanted.put(studyId, studyRoles);
+            }
+
+            if (studyRoles == null)
+            {
+                reportProblem("The Role for user " + userId + 
+                                        " does not specify a valid study");
+                return null;
+            }
+
+            if (userId == null || studyRoles.put(userId, role) != null)
+            {
+                reportProblem("More than one Role for user " + userId + 
+                                                    " on study " + studyId);
+                return null;
+            }
+        }
+
+        List<String> ids = new ArrayList<String>(wanted.keySet());
+
+        List<Roster> rosters = obtainRostersX(ids);
+
+        if (rosters == null)
+            return null;    // obtainRosters reports an error
+
+        initForOperation("applyRoles");
+
+        // Compare each roster with the roles wanted
+
+        final List<RoleChange> changes = new ArrayList<RoleChange>();
+
+        String self = (credentials != null ? credentials.getUserId() : null);
+
+        for (int i = 0;  i < ids.size();  ++i)
+        {
+            String            studyId    = ids.get(i);
+            Roster            roster     = rosters.get(i);
+            Map<String, Role> studyRoles = wanted.get(studyId);
+
+            String rosterLocation = 
+                        mapStudyIdentifierToStudy(studyId).getRosterLocation();
+
+            for (Role role : studyRoles.values())
+            {
+                Role current = roster.getRole(role.getUserIdentifier());
+
+                if (role.getStudyIdentifier() == null)
+                    role = Role.copyRole(role).setStudyIdentifier(studyId);
+
+                if (current == null)
+                    changes.add(new RoleChange(RoleChange.Kind.CREATE, 
+                                            studyId, rosterLocation, role));
+                else if (!samePrivileges(current, role))
+                    changes.add(new RoleChange(RoleChange.Kind.UPDATE, 
+                                    studyId, current.getRoleLocation(), role));
+            }
+
+            if (!removeOthers)
+                continue;
+
+            for (Role current : roster.getRoleCollection())
+            {
+                String userId = current.getUserIdentifier();
+
+                if (!studyRoles.containsKey(userId) && !userId.equals(self))
+                    changes.add(new RoleChange(RoleChange.Kind.DELETE, 
+                                    studyId, current.getRoleLocation(), null));
+            }
+        }
+
+        for (RoleChange change : changes)
+        {
+            if (!checkPrivilege(change.studyId, change.kind.privilege))
+                return null;
+        }
+
+        // Make the changes in parallel
+
+        final Message [] messages = new Message[changes.size()];
+
+        boolean applied = fanOut(changes.size(), 
+                                            new IndexedJob(changes.size())
+            {
+                boolean runPart(Service worker, int index)
+                {
+                    return worker.applyRoleChange(changes.get(index), 
+                                                        messages, index);
+                }
+            });
+
+        for (String studyId : ids)
+            invalidateRoster(studyId);
+
+        if (!applied)
+            return null;
+
+        List<Message> provisional = new ArrayList<Message>();
+
+        for (Message m : messages)
+        {
+            if (m != null)
+                provisional.add(m);
+        }
+
+        return provisional;
+
+    }   //  end applyRolesX
+
+
+    /**
+     * Make one change to a roster.
+     *
+     * @param   change is the change to make.
+     * @param   messages receives the Message describing how an update was 
+     *              completed provisionally, if it was.
+     * @param   index is the index in {@code messages} of the change.
+     *
+     * @return  {@code false} means the change failed (call {@code 
+     *              getException()} for details).
+     */
+    private boolean applyRoleChange(
+        RoleChange  change, 
+        Message []  messages, 
+        int         index)
+    {
+        switch (change.kind)
+        {
+        case CREATE:
+            return postRole(change.location, change.role) != null;
+
+        case UPDATE:
+            if (!putRole(change.location, change.role))
+                return false;
+
+            if (yRequest.getStatusCode() != 204)
+            {
+                messages[index] = makeProvisionalMessage();
+                return messages[index] != null;
+            }
+
+            return true;
+
+        default:
+            return deleteRoleAt(change.location);
+        }
+    }
+
+
+    /**
+     * Return {@code true} if two roles have the same privileges.
+     */
+    private static boolean samePrivileges(Role a, Role b)
+    {
+        for (Role.Privilege p : Role.Privilege.values())
+        {
+            if (a.getPrivilege(p) != b.getPrivilege(p))
+                return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * A change to be made to the roster of a study:  the creation of a 
+     * role, posted to the roster, or the update or deletion of a role, at 
+     * its location.
+     */
+    private static class RoleChange
+    {
+        enum Kind
+        {
+            CREATE (Role.Privilege.POST_ROSTER),
+            UPDATE (Role.Privilege.PUT_ROLE),
+            DELETE (Role.Privilege.DELETE_ROLE);
+
+            final Role.Privilege privilege;
+
+            Kind(Role.Privilege privilege)
+            {
+                this.privilege = privilege;
+            }
+        }
+
+        final Kind   kind;
+        final String studyId;
+        final String location;
+        final Role   role;
+
+        RoleChange(Kind kind, String studyId, String location, Role role)
+        {
+            this.kind     = kind;
+            this.studyId  = studyId;
+            this.location = location;
+            this.role     = role;
+        }
+    }
+
+    /**
+     * Describe a study's table.  A list of column definitions is associated
+     * with a study.
+     *
+     * @param   studyId specifies the study whose table is to be described.
+     * @param   predictorList a list of the predictors (= variables = columns)
+     *              for the table.
+     *
+     * @return  {@code false} means the table description failed (call 
+     *              {@code getException()} for details).
+     *          {@code true} means the study's table was successfully 
+     *              described.
+     */
+    private boolean describePredictorsX(
+        String studyId, 
+        List<Predictor> predictorList)
+    {
+        initForOperation("describePredictors");
+
+        if (!checkPrivilege(studyId, Role.Privilege.POST_TABLE))
+            return false;
+
+        Study study = mapStudyIdentifierToStudy(studyId);
+
+        if (study == null)
+        {
+            reportProblem();
+            return false;
+        }
+
+        int totalToTransmit = predictorList.size();
+        String tableUri = study.getTableLocation();
+
+        if (totalToTransmit == 0)
+            return postEmptyBlock(studyId, tableUri, 
+                                                Role.Privilege.POST_TABLE);
+
+        // The input list of Predictors is transmitted to the server
+        // in batches no bigger than MAX_ITEMS_TO_SEND_VIA_HTTP.
+
+        //??? Consider removing the logic to break up into smaller blocks
+        //??? because no specimen with more than MAX_ITEMS_TO_SEND_VIA_HTTP 
+        //??? cells can be scored.
+
+        int firstIdx = 0;
+
+        while (totalToTransmit > 0)
+        {
+            int n = totalToTransmit;
+            if (n > MAX_ITEMS_TO_SEND_VIA_HTTP)
+                n = MAX_ITEMS_TO_SEND_VIA_HTTP;
+            int lastIdx = firstIdx + n;
+
+            List<Predictor> plist = predictorList.subList(firstIdx, lastIdx);
+
+            totalToTransmit -= n;
+            firstIdx = lastIdx;
+
+            PredictorBlock pblock = new PredictorBlock(studyId, plist);
+
+            byte [] blockAsBytes = ydif.makeBytesFromBlock(pblock);
+
+            if (!yRequest.postToServer(tableUri, blockAsBytes) || 
+                                    !requestOk(Role.Privilege.POST_TABLE))
+            {
+                reportProblem();
+                return false;
+            }
+        }
+
+        return true;
+
+    }   //  end describePredictorsX
+
+
+    /**
+     * Populate the rows of a study's table.  A list of rows is 
+     * inserted into a study's table.
+     *
+     * @param   studyId specifies the study whose table is to be populated.
+     * @param   specimenList a list of the specimens 
+     *              (= rows = observations = records) for the table.
+     *
+     * @return  {@code false} means the table population failed (call 
+     *              {@code getException()} for details).
+     *          {@code true} means the study's table was successfully 
+     *              populated with rows.
+     */
+    private boolean loadSubjectsX(
+        String studyId, 
+        List<Specimen> specimenList)
+    {
+        initForOperation("loadSubjects");
+
+        return postSpecimens(studyId, specimenList, true);
+
+    }   //  end loadSubjectsX
+
+
+    /**
+     * Populate the rows of a study's table, resuming from a journal.
+     *
+     * @param   studyId specifies the study whose table is to be populated.
+     * @param   specimenList a list of the specimens 
+     *              (= rows = observations = records) for the table.
+     * @param   journal is the journal file.
+     *
+     * @return  {@code false} means the table population failed (call 
+     *              {@code getException()} for details).  The journal 
+     *              records the blocks which were accepted by the server.
+     *          {@code true} means the study's table was successfully 
+     *              populated with rows.
+     */
+    private boolean loadSubjectsX(
+        String         studyId, 
+        List<Specimen> specimenList,
+        File           journal)
+    {
+        initForOperation("loadSubjects");
+
+        try
+        {
+            loadJournal = new LoadJournal(journal, studyId);
+        }
+        catch (IOException e)
+        {
+            exception = new ServiceException(e.getMessage(), e);
+            reportProblem("Cannot open load journal");
+            return false;
+        }
+
+        try
+        {
+            String mismatch = loadJournal.verify(specimenList);
+
+            if (mismatch != null)
+            {
+                reportProblem("Load journal " + journal + 
+                            " does not match the specimen list:  " + mismatch);
+                return false;
+            }
+
+            journalBase = loadJournal.getCommittedCount();
+
+            // If every specimen has been loaded, there is nothing to do; but
+            // an empty list is posted as an empty block, as usual
+
+            if (journalBase == specimenList.size() && journalBase > 0)
+                return true;
+
+            return postSpecimens(studyId, 
+                specimenList.subList(journalBase, specimenList.size()), true);
+        }
+        finally
+        {
+            loadJournal.close();
+            loadJournal = null;
+            journalBase = 0;
+        }
+
+    }   //  end loadSubjectsX
+
+
+    /**
+     * Populate the rows of a study's table from a {@code SpecimenStore}.
+     *
+     * @param   studyId specifies the study whose table is to be populated.
+     * @param   store holds the specimens for the table.
+     *
+     * @return  {@code false} means the table population failed (call 
+     *              {@code getException()} for details).
+     *          {@code true} means the study's table was successfully 
+     *              populated with rows.
+     */
+    private boolean loadSubjectsX(
+        String        studyId, 
+        SpecimenStore store)
+    {
+        initForOperation("loadSubjects");
+
+        if (dif != DIFType.PROTOBUF)
+        {
+            reportProblem("A SpecimenStore can only be loaded using the " +
+                                                                "PROTOBUF DIF");
+            return false;
+        }
+
+        if (!checkPrivilege(studyId, Role.Privilege.POST_TABLE))
+            return false;
+
+        Study study = mapStudyIdentifierToStudy(studyId);
+
+        if (study == null)
+        {
+            reportProblem();
+            return false;
+        }
+
+        int numSpecimens = store.size();
+
+        if (numSpecimens == 0)
+            return postEmptyBlock(studyId, study.getTableLocation(), 
+                                                    Role.Privilege.POST_TABLE);
+
+        // Break the store up into blocks as postSpecimens does
+
+        int firstIdx = 0;
+        int numItemsToTransmit = 0;
+        int itemLimit = blockSizer.getItemLimit();
+
+        for (int i = 0;  i < numSpecimens;  ++i)
+        {
+            int numItems = store.getItemCount(i);
+
+            if (numItems > MAX_ITEMS_TO_SEND_VIA_HTTP)
+            {
+                reportProblem("A specimen cannot be loaded because it " + 
+                    "contains more than " + MAX_ITEMS_TO_SEND_VIA_HTTP + 
+                    " cells");
+                return false;
+            }
+
+            if (i > firstIdx && numItemsToTransmit + numItems > itemLimit)
+            {
+                firstIdx = postStoreBlock(study, store, firstIdx, i);
+                if (firstIdx == -1)
+                    return false;
+
+                numItemsToTransmit = 0;
+                itemLimit = blockSizer.getItemLimit();
+            }
+
+            numItemsToTransmit += numItems;
+        }
+
+        return (-1 != postStoreBlock(study, store, firstIdx, numSpecimens));
+
+    }   //  end loadSubjectsX
+
+
+    /**
+     * Score prospects (compute predictands) using a study's model.  
+     *
+     * @param   studyId specifies the study whose model is to be used.
+     * @param   specimenList a list of specimens 
+     *              (= rows = observations = records) whose predictands
+     *              are to be computed.
+     *
+     * @return  {@code false} means the predictand computation failed (call 
+     *              {@code getException()} for details).
+     *          {@code true} means the predictand computations were succesful;
+     *              the predictand members of each Specimen in the list
+     *              contain the results of the computations.
+     */
+    private boolean scoreProspectsX(
+        String studyId, 
+        List<Specimen> specimenList)
+    {
+        initForOperation("scoreProspects");
+
+        return postSpecimens(studyId, specimenList, false);
+
+    }   //  end scoreProspectsX
+
+
+    /**
+     * Score prospects (compute predictands) taken from an {@code Iterator}.
+     *
+     * @param   studyId specifies the study whose model is to be used.
+     * @param   prospects supplies the specimens whose predictands are to be 
+     *              computed.
+     * @param   consumer receives each scored specimen, in input order.
+     *
+     * @return  {@code false} means the predictand computation failed (call 
+     *              {@code getException()} for details).  Specimens handed 
+     *              to the consumer before the failure were scored.
+     *          {@code true} means the predictand computations were succesful;
+     *              every specimen supplied by the iterator has been handed 
+     *              to the consumer.
+     */
+    private boolean scoreProspectsX(
+        String             studyId, 
+        Iterator<Specimen> prospects,
+        SpecimenConsumer   consumer)
+    {
+        initForOperation("scoreProspects");
+
+        return postSpecimenStream(studyId, prospects, false, consumer);
+
+    }   //  end scoreProspectsX
+
+
+    /**
+     * Populate the rows of a study's table, taking the rows from an {@code 
+     * Iterator}.
+     *
+     * @param   studyId specifies the study whose table is to be populated.
+     * @param   subjects supplies the specimens for the table.
+     *
+     * @return  {@code false} means the table population failed (call 
+     *              {@code getException()} for details).
+     *          {@code true} means the study's table was successfully 
+     *              populated with every specimen supplied by the iterator.
+     */
+    private boolean loadSubjectsX(
+        String             studyId, 
+        Iterator<Specimen> subjects)
+    {
+        initForOperation("loadSubjects");
+
+        return postSpecimenStream(studyId, subjects, true, null);
+
+    }   //  end loadSubjectsX
+
+
+    /**
+     * Post specimens taken from an {@code Iterator} to a study's table or 
+     * model, in blocks which are posted as they fill up, each by a worker.
+     * At most {@code maxBlocksInFlight} blocks are in flight at one time, 
+     * or only one when posting to the table unless parallel table loads 
+     * are enabled; when that many are, the oldest is waited for before 
+     * more specimens are taken from the iterator.
+     *
+     * @param   studyId specifies the study to post to.
+     * @param   specimens supplies the specimens to post.
+     * @param   postToTable indicates whether to post to the study's table or
+     *              model.
+     * @param   consumer receives each scored specimen, in input order, when
+     *              posting to the model; {@code null} when posting to the 
+     *              table.
+     *
+     * @return  {@code false} means the post operation failed (call {@code 
+     *              getException()} for details).  Specimens handed to the 
+     *              consumer before the failure were scored.
+     *          {@code true} means every specimen supplied by the iterator 
+     *              was posted (and handed to the consumer).
+     */
+    private boolean postSpecimenStream(
+        String             studyId, 
+        Iterator<Specimen> specimens,
+        boolean            postToTable,
+        SpecimenConsumer   consumer)
+    {
+        if (!checkPrivilege(studyId, (postToTable ? 
+                        Role.Privilege.POST_TABLE : Role.Privilege.POST_MODEL)))
+            return false;
+
+        Study study = mapStudyIdentifierToStudy(studyId);
+
+        if (study == null)
+        {
+            reportProblem();
+            return false;
+        }
+
+        // If the iterator is empty, post an empty block just as the list
+        // forms of loadSubjects and scoreProspects do
+
+        if (!specimens.hasNext())
+        {
+            if (postToTable)
+                return postEmptyBlock(studyId, study.getTableLocation(), 
+                                                Role.Privilege.POST_TABLE);
+            else
+                return postEmptyBlock(studyId, study.getModelLocation(), 
+                                                Role.Privilege.POST_MODEL);
+        }
+
+        ExecutorService pool = executor;
+
+        // The blocks of a table load are posted in order, one at a time, 
+        // unless the caller has asked for parallel loads
+
+        int maxInFlight = (postToTable && !parallelTableLoads ? 
+                                                    1 : maxBlocksInFlight);
+
+        Deque<BlockInFlight> inFlight = new ArrayDeque<BlockInFlight>();
+        Deque<Service> idleWorkers    = new ArrayDeque<Service>();
+
+        try
+        {
+            List<Specimen> slist = new ArrayList<Specimen>();
+            int numItemsInBlock = 0;
+
+            while (specimens.hasNext())
+            {
+                Specimen s = specimens.next();
+                int numItems = s.size() + 1;
+
+                if (numItems > MAX_ITEMS_TO_SEND_VIA_HTTP)
+                {
+                    reportProblem("A specimen cannot be scored because it " +
+                        "contains more than " + MAX_ITEMS_TO_SEND_VIA_HTTP + 
+                        " cells");
+                    return false;
+                }
+
+                if (!slist.isEmpty() && 
+                    numItemsInBlock + numItems > blockSizer.getItemLimit())
+                {
+                    if (!submitBlock(study, slist, postToTable, pool, 
+                                maxInFlight, inFlight, idleWorkers, consumer))
+                        return false;
+                    slist = new ArrayList<Specimen>();
+                    numItemsInBlock = 0;
+                }
+
+                slist.add(s);
+                numItemsInBlock += numItems;
+            }
+
+            if (!submitBlock(study, slist, postToTable, pool, maxInFlight, 
+                                        inFlight, idleWorkers, consumer))
+                return false;
+
+            while (!inFlight.isEmpty())
+            {
+                if (!consumeOldestBlock(inFlight, idleWorkers, consumer))
+                    return false;
+            }
+
+            return true;
+        }
+        finally
+        {
+            // On failure there may still be blocks in flight; they are not
+            // wanted, so interrupt them
+
+            for (BlockInFlight b : inFlight)
+                b.result.cancel(true);
+        }
+
+    }   //  end postSpecimenStream
+
+
+    /**
+     * Submit a block of specimens to be posted on a worker thread.  If the 
+     * maximum number of blocks is already in flight, the oldest block is 
+     * first waited for and handed to the consumer.
+     *
+     * @param   study specifies the study to post to.
+     * @param   slist is the block of specimens to post.
+     * @param   postToTable indicates whether to post to the study's table or
+     *              model.
+     * @param   pool runs the posting of each block.
+     * @param   maxInFlight is the maximum number of blocks in flight.
+     * @param   inFlight holds the blocks in flight, oldest first.
+     * @param   idleWorkers holds the workers not currently posting a block.
+     * @param   consumer receives each scored specimen, in input order, or
+     *              is {@code null}.
+     *
+     * @return  {@code false} means a block could not be posted (call 
+     *              {@code getException()} for details).
+     *          {@code true} means the block was submitted.
+     */
+    private boolean submitBlock(
+        Study                study,
+        List<Specimen>       slist,
+        boolean              postToTable,
+        ExecutorService      pool,
+        int                  maxInFlight,
+        Deque<BlockInFlight> inFlight,
+        Deque<Service>       idleWorkers,
+        SpecimenConsumer     consumer)
+    {
+        if (slist.isEmpty())
+            return true;
+
+        if (inFlight.size() >= maxInFlight)
+        {
+            if (!consumeOldestBlock(inFlight, idleWorkers, consumer))
+                return false;
+        }
+
+        Service worker = idleWorkers.poll();
+
+        if (worker == null)
+        {
+            try
+            {
+                worker = spawnWorker();
+            }
+            catch (ServiceException e)
+            {
+                exception = e;
+                return false;
+            }
+        }
+
+        BlockInFlight b = new BlockInFlight();
+        b.worker = worker;
+
+        try
+        {
+            b.result = pool.submit(new BlockPoster(worker, study, slist, 
+                                                postToTable, methodName));
+        }
+        catch (RejectedExecutionException e)
+        {
+            exception = new ServiceException(methodName + " failed:  the " +
+                        "executor refused a block", e, 0, methodName);
+            return false;
+        }
+
+        inFlight.addLast(b);
+
+        return true;
+
+    }   //  end submitBlock
+
+
+    /**
+     * Wait for the oldest block in flight to be posted and hand its 
+     * specimens to the consumer.
+     *
+     * @param   inFlight holds the blocks in flight, oldest first.
+     * @param   idleWorkers receives the worker which posted the block.
+     * @param   consumer receives each scored specimen, in input order, or
+     *              is {@code null}.
+     *
+     * @return  {@code false} means the block could not be posted (call 
+     *              {@code getException()} for details).
+     *          {@code true} means the block was posted and consumed.
+     */
+    private boolean consumeOldestBlock(
+        Deque<BlockInFlight> inFlight,
+        Deque<Service>       idleWorkers,
+        SpecimenConsumer     consumer)
+    {
+        BlockInFlight b = inFlight.removeFirst();
+        List<Specimen> slist;
+
+        try
+        {
+            slist = b.result.get();
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof ServiceException)
+                exception = (ServiceException)cause;
+            else
+                exception = new ServiceException(methodName + " failed", 
+                                            cause, 0, methodName);
+            return false;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            reportProblem("Interrupted while waiting for a block to be " +
+                                                                    "posted");
+            return false;
+        }
+
+        idleWorkers.addLast(b.worker);
+
+        if (consumer != null)
+        {
+            for (Specimen s : slist)
+                consumer.consume(s);
+        }
+
+        return true;
+
+    }   //  end consumeOldestBlock
+
+
+    /**
+     * Carry out a job whose parts can be carried out in parallel, each part
+     * by a worker.  Up to {@code maxBlocksInFlight} workers are run on the
+     * executor, each carrying out parts until none remains; the calling 
+     * thread waits for them all.  When a part fails, the workers stop after
+     * the parts they are carrying out.  If only one worker would be run, 
+     * this service carries out the parts itself, on the calling thread.
+     *
+     * @param   numParts is the number of parts, or an estimate of it.
+     * @param   job is the job.
+     *
+     * @return  {@code false} means a part failed (call {@code 
+     *              getException()} for details).
+     *          {@code true} means every part was carried out.
+     */
+    private boolean fanOut(int numParts, Job job)
+    {
+        int numWorkers = Math.min(numParts, maxBlocksInFlight);
+
+        if (numWorkers <= 1)
+        {
+            int result;
+
+            do
+            {
+                result = job.runNextPart(this);
+            } while (result == 1);
+
+            return (result == 0);
+        }
+
+        AtomicBoolean failed = new AtomicBoolean(false);
+        List<Future<ServiceException>> results = 
+                                new ArrayList<Future<ServiceException>>();
+        ServiceException failure = null;
+
+        try
+        {
+            for (int i = 0;  i < numWorkers;  ++i)
+                results.add(executor.submit(
+                        new JobRunner(spawnWorker(), job, failed, methodName)));
+        }
+        catch (ServiceException e)
+        {
+            failed.set(true);
+            failure = e;
+        }
+        catch (RejectedExecutionException e)
+        {
+            failed.set(true);
+            failure = new ServiceException(methodName + " failed:  the " +
+                        "executor refused a worker", e, 0, methodName);
+        }
+
+        for (Future<ServiceException> result : results)
+        {
+            try
+            {
+                ServiceException e = result.get();
+
+                if (failure == null)
+                    failure = e;
+            }
+            catch (ExecutionException e)
+            {
+                if (failure == null)
+                    failure = new ServiceException(methodName + " failed", 
+                                            e.getCause(), 0, methodName);
+            }
+            catch (InterruptedException e)
+            {
+                failed.set(true);
+
+                for (Future<ServiceException> r : results)
+                    r.cancel(true);
+
+                Thread.currentThread().interrupt();
+                reportProblem("Interrupted while waiting for workers");
+                return false;
+            }
+        }
+
+        if (failure != null)
+        {
+            exception = failure;
+            return false;
+        }
+
+        return true;
+
+    }   //  end fanOut
+
+
+    /**
+     * A job whose parts can be carried out in parallel by several workers.
+     */
+    private interface Job
+    {
+        /**
+         * Carry out the next part of the job.
+         *
+         * @param   worker is the service with which to carry out the part.
+         *
+         * @return  1 means a part was carried out.
+         *          0 means no part remains.
+         *          -1 means the part failed (call {@code 
+         *              worker.getException()} for details).
+         */
+        int runNextPart(Service worker);
+    }
 
-        Study study = mapStudyIdentifierToStudy(studyId);
+    /**
+     * A job whose parts are numbered from 0 to {@code numParts - 1}.
+     */
+    private abstract static class IndexedJob implements Job
+    {
+        private final AtomicInteger nextIndex = new AtomicInteger(0);
+        private final int           numParts;
 
-        if (study == null)
+        IndexedJob(int numParts)
         {
-            reportProblem();
-            return false;
+            this.numParts = numParts;
         }
 
-        int totalToTransmit = predictorList.size();
-        String tableUri = study.getTableLocation();
+        public int runNextPart(Service worker)
+        {
+            int index = nextIndex.getAndIncrement();
 
-        if (totalToTransmit == 0)
-            return postEmptyBlock(studyId, tableUri, 
-                                                Role.Privilege.POST_TABLE);
+            if (index >= numParts)
+                return 0;
 
-        // The input list of Predictors is transmitted to the server
-        // in batches no bigger than MAX_ITEMS_TO_SEND_VIA_HTTP.
+            return (runPart(worker, index) ? 1 : -1);
+        }
 
-        //??? Consider removing the logic to break up into smaller blocks
-        //??? because no specimen with more than MAX_ITEMS_TO_SEND_VIA_HTTP 
-        //??? cells can be scored.
+        /**
+         * Carry out part {@code index} of the job.
+         *
+         * @return  {@code false} means the part failed (call {@code 
+         *              worker.getException()} for details).
+         */
+        abstract boolean runPart(Service worker, int index);
+    }
 
-        int firstIdx = 0;
+    /**
+     * Carries out parts of a job using a worker {@code Service} until no 
+     * part remains or some part of the job has failed.  Returns the 
+     * exception describing the failure of a part, or {@code null}.
+     */
+    private static class JobRunner implements Callable<ServiceException>
+    {
+        private final Service       worker;
+        private final Job           job;
+        private final AtomicBoolean failed;
+        private final String        methodName;
+
+        JobRunner(
+            Service       worker, 
+            Job           job, 
+            AtomicBoolean failed, 
+            String        methodName)
+        {
+            this.worker     = worker;
+            this.job        = job;
+            this.failed     = failed;
+            this.methodName = methodName;
+        }
 
-        while (totalToTransmit > 0)
+        public ServiceException call()
         {
-            int n = totalToTransmit;
-            if (n > MAX_ITEMS_TO_SEND_VIA_HTTP)
-                n = MAX_ITEMS_TO_SEND_VIA_HTTP;
-            int lastIdx = firstIdx + n;
+            worker.initForOperation(methodName);
 
-            List<Predictor> plist = predictorList.subList(firstIdx, lastIdx);
+            while (!failed.get())
+            {
+                int result = job.runNextPart(worker);
 
-            totalToTransmit -= n;
-            firstIdx = lastIdx;
+                if (result == 0)
+                    break;
 
-            PredictorBlock pblock = new PredictorBlock(studyId, plist);
+                if (result == -1)
+                {
+                    failed.set(true);
 
-            byte [] blockAsBytes = ydif.makeBytesFromBlock(pblock);
+                    ServiceException e = worker.getException();
 
-            if (!yRequest.postToServer(tableUri, blockAsBytes) || 
-                                    !requestOk(Role.Privilege.POST_TABLE))
-            {
-                reportProblem();
-                return false;
+                    return (e != null ? e : 
+                            new ServiceException(methodName + " failed"));
+                }
             }
-        }
-
-        return true;
-
-    }   //  end describePredictorsX
 
+            return null;
+        }
+    }
 
     /**
-     * Populate the rows of a study's table.  A list of rows is 
-     * inserted into a study's table.
-     *
-     * @param   studyId specifies the study whose table is to be populated.
-     * @param   specimenList a list of the specimens 
-     *              (= rows = observations = records) for the table.
-     *
-     * @return  {@code false} means the table population failed (call 
-     *              {@code getException()} for details).
-     *          {@code true} means the study's table was successfully 
-     *              populated with rows.
+     * A block of specimens being posted on a worker thread.
      */
-    private boolean loadSubjectsX(
-        String studyId, 
-        List<Specimen> specimenList)
+    private static class BlockInFlight
     {
-        initForOperation("loadSubjects");
-
-        return postSpecimens(studyId, specimenList, true);
-
-    }   //  end loadSubjectsX
-
+        Service                worker;
+        Future<List<Specimen>> result;
+    }
 
     /**
-     * Score prospects (compute predictands) using a study's model.  
-     *
-     * @param   studyId specifies the study whose model is to be used.
-     * @param   specimenList a list of specimens 
-     *              (= rows = observations = records) whose predictands
-     *              are to be computed.
-     *
-     * @return  {@code false} means the predictand computation failed (call 
-     *              {@code getException()} for details).
-     *          {@code true} means the predictand computations were succesful;
-     *              the predictand members of each Specimen in the list
-     *              contain the results of the computations.
+     * Posts a block of specimens to a study's table or model using a worker
+     * {@code Service}.  When the block is posted to the model, the 
+     * predictand member of each specimen in the block is set to its score.
      */
-    private boolean scoreProspectsX(
-        String studyId, 
-        List<Specimen> specimenList)
+    private static class BlockPoster implements Callable<List<Specimen>>
     {
-        initForOperation("scoreProspects");
+        private final Service        worker;
+        private final Study          study;
+        private final List<Specimen> slist;
+        private final boolean        postToTable;
+        private final String         methodName;
+
+        BlockPoster(
+            Service        worker, 
+            Study          study, 
+            List<Specimen> slist,
+            boolean        postToTable,
+            String         methodName)
+        {
+            this.worker      = worker;
+            this.study       = study;
+            this.slist       = slist;
+            this.postToTable = postToTable;
+            this.methodName  = methodName;
+        }
 
-        return postSpecimens(studyId, specimenList, false);
+        public List<Specimen> call() throws ServiceException
+        {
+            worker.initForOperation(methodName);
 
-    }   //  end scoreProspectsX
+            if (worker.postSpecimenBlock(study, slist, 0, slist.size(), 
+                                                    postToTable) == -1)
+                throw worker.getException();
+
+            return slist;
+        }
+    }
 
 
     /**
@@ -1324,6 +3559,10 @@ public class Service
         List<Specimen> specimenList,
         boolean        postToTable)
     {
+        if (!checkPrivilege(studyId, (postToTable ? 
+                        Role.Privilege.POST_TABLE : Role.Privilege.POST_MODEL)))
+            return false;
+
         Study study = mapStudyIdentifierToStudy(studyId);
 
         if (study == null)
@@ -1353,67 +3592,161 @@ public class Service
         if (numSpecimensToTransmit == 0)
             return postEmptyBlock(studyId, uri, privilege);
 
-        // Count the total number of cells to transmit
-
-        int numCellsToTransmit = 0;
+        // Blocks recorded in a load journal must be accepted in order, so 
+        // they are posted one at a time, as are the blocks of any other 
+        // table load unless the caller has asked for parallel loads; 
+        // otherwise, if there is more than one block, the blocks are posted
+        // in parallel
 
-        for (Specimen s : specimenList)
-            numCellsToTransmit += s.size();
+        if (loadJournal == null && maxBlocksInFlight > 1 && 
+                                        (!postToTable || parallelTableLoads))
+        {
+            long numItems = 0;
 
-        int firstIdx = 0; 
+            for (Specimen s : specimenList)
+                numItems += s.size() + 1;
 
-        // If the total number of items to transmit is small enough, transmit 
-        // everything as one SpecimenBlock
+            int itemLimit = blockSizer.getItemLimit();
 
-        int numItemsToTransmit = numCellsToTransmit + numSpecimensToTransmit;
+            if (numItems > itemLimit)
+                return postSpecimensInParallel(study, specimenList, 
+                        postToTable, (int)Math.min(Integer.MAX_VALUE,  
+                                    (numItems + itemLimit - 1) / itemLimit));
+        }
 
-        if (numItemsToTransmit <= MAX_ITEMS_TO_SEND_VIA_HTTP)
-            return (-1 != postSpecimenBlock(study, specimenList, firstIdx, 
-                                    numSpecimensToTransmit, postToTable));
+        // Break the specimen list up into blocks no bigger than the block 
+        // sizer allows; the limit is looked up again for each block, since 
+        // posting a block may change it
 
-        // Due to the number of items in the specimen list, it is necessary 
-        // to break the list up into two or more SpecimenBlocks
+        int firstIdx = 0; 
+        int numItemsToTransmit = 0;
+        int itemLimit = blockSizer.getItemLimit();
 
         numSpecimensToTransmit = 0;
-        numCellsToTransmit = 0;
 
         for (Specimen s : specimenList)
         {
-            numItemsToTransmit = numCellsToTransmit + numSpecimensToTransmit;
+            int numItems = s.size() + 1;
 
-            if (numItemsToTransmit+s.size()+1 <= MAX_ITEMS_TO_SEND_VIA_HTTP)
+            if (numItems > MAX_ITEMS_TO_SEND_VIA_HTTP)
             {
-                numCellsToTransmit += s.size();
-                ++numSpecimensToTransmit;
-                continue;
-            }
+                // Specimen s contains more than MAX_ITEMS_TO_SEND_VIA_HTTP 
+                // cells, which means it cannot be handled in one HTTP request
+
+                reportProblem("A specimen cannot be scored because it " + 
+                    "contains more than " + MAX_ITEMS_TO_SEND_VIA_HTTP + 
+                    " cells");
 
-            firstIdx = postSpecimenBlock(study, specimenList, firstIdx, 
-                                    numSpecimensToTransmit, postToTable);
-            if (firstIdx == -1)
                 return false;
+            }
 
-            numSpecimensToTransmit = 1;
-            numCellsToTransmit = s.size();
+            if (numSpecimensToTransmit > 0 && 
+                                    numItemsToTransmit + numItems > itemLimit)
+            {
+                firstIdx = postSpecimenBlock(study, specimenList, firstIdx, 
+                                        numSpecimensToTransmit, postToTable);
+                if (firstIdx == -1)
+                    return false;
+
+                numSpecimensToTransmit = 0;
+                numItemsToTransmit = 0;
+                itemLimit = blockSizer.getItemLimit();
+            }
 
-            numItemsToTransmit = numCellsToTransmit + numSpecimensToTransmit;
+            ++numSpecimensToTransmit;
+            numItemsToTransmit += numItems;
+        }
 
-            if (numItemsToTransmit <= MAX_ITEMS_TO_SEND_VIA_HTTP)
-                continue;
+        return (-1 != postSpecimenBlock(study, specimenList, firstIdx, 
+                                    numSpecimensToTransmit, postToTable));
 
-            // Specimen s contains more than MAX_ITEMS_TO_SEND_VIA_HTTP cells,
-            // which means it cannot be handled in one HTTP request
+    }   //  end postSpecimens
 
-            reportProblem("A specimen cannot be scored because it contains " +
-                "more than " + MAX_ITEMS_TO_SEND_VIA_HTTP + " cells");
 
-            return false;
+    /**
+     * Post specimens to a study's table or model in blocks, as {@code 
+     * postSpecimens} does, with up to {@code maxBlocksInFlight} blocks in 
+     * flight at one time.  Each block is cut from the specimen list when a
+     * worker is ready to post it, so that it is sized by the block sizer 
+     * as it stands then.
+     *
+     * @param   study specifies the study to post to.
+     * @param   specimenList is a list of the specimens to post.
+     * @param   postToTable indicates whether to post to the study's table or
+     *              model.
+     * @param   numBlocks is the expected number of blocks.
+     *
+     * @return  false means the post operation failed (call {@code 
+     *              getException()} for details).  Blocks other than the 
+     *              one which failed may have been posted.
+     *          true means the post operation succeeded.
+     */
+    private boolean postSpecimensInParallel(
+        final Study          study,
+        final List<Specimen> specimenList,
+        final boolean        postToTable,
+        int                  numBlocks)
+    {
+        // Check every specimen before any block is posted
+
+        for (Specimen s : specimenList)
+        {
+            if (s.size() + 1 > MAX_ITEMS_TO_SEND_VIA_HTTP)
+            {
+                reportProblem("A specimen cannot be scored because it " + 
+                    "contains more than " + MAX_ITEMS_TO_SEND_VIA_HTTP + 
+                    " cells");
+                return false;
+            }
         }
 
-        return (-1 != postSpecimenBlock(study, specimenList, firstIdx, 
-                                    numSpecimensToTransmit, postToTable));
+        final int numSpecimens = specimenList.size();
 
-    }   //  end postSpecimens
+        Job job = new Job()
+        {
+            private int nextIdx = 0;
+
+            public int runNextPart(Service worker)
+            {
+                int firstIdx;
+                int numInBlock;
+
+                synchronized (this)
+                {
+                    if (nextIdx == numSpecimens)
+                        return 0;
+
+                    firstIdx = nextIdx;
+
+                    int itemLimit = blockSizer.getItemLimit();
+                    int numItems = 0;
+
+                    while (nextIdx < numSpecimens)
+                    {
+                        int n = specimenList.get(nextIdx).size() + 1;
+
+                        if (nextIdx > firstIdx && numItems + n > itemLimit)
+                            break;
+
+                        numItems += n;
+                        ++nextIdx;
+                    }
+
+                    numInBlock = nextIdx - firstIdx;
+                }
+
+                // The block is posted outside the lock
+
+                int idx = worker.postSpecimenBlock(study, specimenList, 
+                                        firstIdx, numInBlock, postToTable);
+
+                return (idx == -1 ? -1 : 1);
+            }
+        };
+
+        return fanOut(numBlocks, job);
+
+    }   //  end postSpecimensInParallel
 
 
     /**
@@ -1501,34 +3834,167 @@ public class Service
 
         List<Specimen> slist = specimenList.subList(firstIdx, lastIdx);
 
+        // When scoring with the prediction cache on, answer the prospects 
+        // found in the cache and post only the others
+
+        PredictionCache cache = (postToTable ? null : predictionCache);
+        List<PredictionCache.Key> keys = null;
+
+        if (cache != null)
+        {
+            List<Specimen> misses = new ArrayList<Specimen>();
+            keys = new ArrayList<PredictionCache.Key>();
+
+            for (Specimen s : slist)
+            {
+                PredictionCache.Key key = new PredictionCache.Key(studyId, s);
+                Value predictand = cache.get(key);
+
+                if (predictand != null)
+                    s.setPredictand(predictand);
+                else
+                {
+                    misses.add(s);
+                    keys.add(key);
+                }
+            }
+
+            if (misses.isEmpty())
+                return lastIdx;
+
+            slist = misses;
+        }
+
+        // Encode the block into a pooled array, which is given back as soon
+        // as the block has been sent; pack it if possible and wanted
+
         SpecimenBlock sblock = new SpecimenBlock(studyId, slist);
-        byte [] blockAsBytes = ydif.makeBytesFromBlock(sblock);
 
-        if (!yRequest.postToServer(uri, blockAsBytes) || !requestOk(privilege))
+        boolean packed = (dif == DIFType.PROTOBUF && packBlocks.get() && 
+                                                BlockPacker.canPack(sblock));
+        ByteBuffer blockBuffer;
+
+        if (packed)
+        {
+            blockBuffer = BlockPacker.pack(sblock, bufferPool);
+            yRequest.setEntityContentType(BlockPacker.CONTENT_TYPE);
+        }
+        else
+            blockBuffer = ydif.makeBufferFromBlock(sblock, bufferPool);
+
+        if (blockBuffer == null)
+        {
+            exception = ydif.getException();
+            return -1;
+        }
+
+        int blockSize = blockBuffer.remaining();
+
+        int numItems = 0;
+
+        for (Specimen s : slist)
+            numItems += s.size() + 1;
+
+        long startTime = System.nanoTime();
+
+        boolean posted = yRequest.postToServer(uri, blockBuffer);
+
+        long millis = (System.nanoTime() - startTime) / 1000000;
+
+        bufferPool.release(blockBuffer.array());
+
+        if (posted && packed && 
+                yRequest.getStatusCode() == UNSUPPORTED_MEDIA_TYPE)
+        {
+            // The server does not understand packed blocks, so post this 
+            // block again, and all later ones, in the usual form
+
+            packBlocks.set(false);
+
+            return postSpecimenBlock(study, specimenList, firstIdx, 
+                                    numSpecimensToTransmit, postToTable);
+        }
+
+        if (posted && 
+                yRequest.getStatusCode() == REQUEST_ENTITY_TOO_LARGE && 
+                numSpecimensToTransmit > 1)
+        {
+            // The server finds the block too large, so post the two halves 
+            // of it separately and make later blocks no larger
+
+            blockSizer.tooLarge(numItems);
+
+            int numInFirstHalf = numSpecimensToTransmit / 2;
+
+            int idx = postSpecimenBlock(study, specimenList, firstIdx, 
+                                            numInFirstHalf, postToTable);
+            if (idx == -1)
+                return -1;
+
+            return postSpecimenBlock(study, specimenList, idx, 
+                    numSpecimensToTransmit - numInFirstHalf, postToTable);
+        }
+
+        if (!posted || !requestOk(privilege))
         {
             reportProblem();
             return -1;
         }
 
+        blockSizer.observe(numItems, blockSize, millis);
+
         if (postToTable)
+        {
+            // The subjects just loaded may change the study's model
+
+            if (predictionCache != null)
+                predictionCache.invalidate(studyId);
+
+            if (loadJournal != null)
+            {
+                try
+                {
+                    loadJournal.commit(
+                        journalBase + firstIdx, 
+                        journalBase + lastIdx,
+                        specimenList.get(firstIdx  ).getSpecimenKey(),
+                        specimenList.get(lastIdx-1).getSpecimenKey());
+                }
+                catch (IOException e)
+                {
+                    exception = new ServiceException(e.getMessage(), e);
+                    reportProblem("Block was loaded but cannot be recorded " +
+                                                        "in the load journal");
+                    return -1;
+                }
+            }
+
             return lastIdx;
+        }
 
         // We are posting to a model, i.e., scoring specimens, so get the 
         // scores and stash them in the specimen list
 
-        blockAsBytes = yRequest.getEntity();
+        // Decode the block straight from the chunks of the response, 
+        // without first gathering them into one array
 
-        if (blockAsBytes == null)
+        InputStream blockStream = yRequest.getEntityStream();
+
+        if (blockStream == null)
         {
             reportProblem();
             return -1;
         }
 
-        sblock = (SpecimenBlock)ydif.makeBlockFromBytes(blockAsBytes);
+        YosokumoDIF rdif = responseDif();
+
+        sblock = (SpecimenBlock)rdif.makeBlockFromStream(blockStream);
+
+        yRequest.releaseEntity();
 
         if (sblock == null)
         {
-            exception = ydif.getException();
+            exception = rdif.getException();
             return -1;
         }
 
@@ -1558,11 +4024,94 @@ public class Service
             inSpecimen.setPredictand(s.getPredictand());
         }
 
+        if (cache != null)
+        {
+            Iterator<PredictionCache.Key> keyIter = keys.iterator();
+
+            for (Specimen s : slist)
+                cache.put(keyIter.next(), s.getPredictand());
+        }
+
         return lastIdx;
 
     }   //  end postSpecimenBlock
 
 
+    /**
+     * Post a block of the specimens in a {@code SpecimenStore} to a study's
+     * table.  If the server rejects the block as too large, the two halves 
+     * of the block are posted separately.
+     *
+     * @param   study specifies the study to post to.
+     * @param   store holds the specimens.
+     * @param   firstIdx is the position in the store of the first specimen 
+     *              of the block.
+     * @param   lastIdx is the position following the last specimen of the 
+     *              block (> firstIdx).
+     *
+     * @return  -1 means the post operation failed (call {@code 
+     *              getException()} for details).
+     *          >= 0 means the post operation succeeded, and the return value 
+     *              is {@code lastIdx}.
+     */
+    private int postStoreBlock(
+        Study         study,
+        SpecimenStore store,
+        int           firstIdx,
+        int           lastIdx)
+    {
+        String studyId = study.getStudyIdentifier(); 
+
+        ByteBuffer [] block = 
+                        store.makeBuffersFromBlock(studyId, firstIdx, lastIdx);
+
+        int numBytes = 0;
+
+        for (ByteBuffer b : block)
+            numBytes += b.remaining();
+
+        int numItems = 0;
+
+        for (int i = firstIdx;  i < lastIdx;  ++i)
+            numItems += store.getItemCount(i);
+
+        long startTime = System.nanoTime();
+
+        boolean posted = 
+                        yRequest.postToServer(study.getTableLocation(), block);
+
+        long millis = (System.nanoTime() - startTime) / 1000000;
+
+        if (posted && 
+                yRequest.getStatusCode() == REQUEST_ENTITY_TOO_LARGE && 
+                lastIdx - firstIdx > 1)
+        {
+            blockSizer.tooLarge(numItems);
+
+            int midIdx = firstIdx + (lastIdx - firstIdx) / 2;
+
+            if (postStoreBlock(study, store, firstIdx, midIdx) == -1)
+                return -1;
+
+            return postStoreBlock(study, store, midIdx, lastIdx);
+        }
+
+        if (!posted || !requestOk(Role.Privilege.POST_TABLE))
+        {
+            reportProblem();
+            return -1;
+        }
+
+        blockSizer.observe(numItems, numBytes, millis);
+
+        if (predictionCache != null)
+            predictionCache.invalidate(studyId);
+
+        return lastIdx;
+
+    }   //  end postStoreBlock
+
+
 
     /**
      * Create a study and add it to the user's catalog of studies.  
@@ -1593,10 +4142,12 @@ public class Service
         if (newStudyAsBytes == null || !requestOk(Role.Privilege.POST_CATALOG))
             return (Study)reportProblem();
 
-        Study newStudy = ydif.makeStudyFromBytes(newStudyAsBytes);
+        YosokumoDIF rdif = responseDif();
+
+        Study newStudy = rdif.makeStudyFromBytes(newStudyAsBytes);
 
         if (newStudy == null)
-            exception = ydif.getException();
+            exception = rdif.getException();
         else
             newStudy = mergePanelIntoStudy(newStudy);
 
@@ -1624,11 +4175,13 @@ public class Service
         if (panelAsBytes == null || !requestOk(Role.Privilege.GET_PANEL))
             return (Study)reportProblem();
 
-        Panel panel = ydif.makePanelFromBytes(panelAsBytes);
+        YosokumoDIF rdif = responseDif();
+
+        Panel panel = rdif.makePanelFromBytes(panelAsBytes);
 
         if (panel == null)
         {
-            exception = ydif.getException();
+            exception = rdif.getException();
             return null;
         }
 
@@ -1647,6 +4200,10 @@ public class Service
         study.setLatestBlockTime   (panel.getLatestBlockTime()   );
         study.setLatestProspectTime(panel.getLatestProspectTime());
 
+        if (predictionCache != null)
+            predictionCache.noteLatestBlockTime(study.getStudyIdentifier(), 
+                                                panel.getLatestBlockTime());
+
         return study;
 
     }   //  end mergePanelIntoStudy
@@ -1664,7 +4221,7 @@ public class Service
         String userId, 
         String studyId) 
     {
-        Roster roster = obtainRosterX(studyId);
+        Roster roster = lookUpRoster(studyId);
 
         if (roster == null)
             return (Role)reportProblem();
@@ -1675,7 +4232,7 @@ public class Service
             return (Role)reportProblem("A Role for user " + userId + 
                             " on study " + studyId + " does not exist");
 
-        return role;
+        return Role.copyRole(role);
 
     }   //  end obtainRole
 
@@ -1775,7 +4332,7 @@ public class Service
 
         byte [] messageAsBytes = yRequest.getEntity();
         if (messageAsBytes != null)
-            message = ydif.makeMessageFromBytes(messageAsBytes);
+            message = responseDif().makeMessageFromBytes(messageAsBytes);
 
         if (statusCode != 0)
             errMess = errMess + " (status code = " + statusCode + ")";
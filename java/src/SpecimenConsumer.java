@@ -0,0 +1,26 @@
+// SpecimenConsumer.java
+
+package com.yosokumo.core;
+
+/**
+ * Receives {@code Specimens} one at a time from a {@code Service} operation
+ * which produces an unbounded number of results, e.g., the streaming form
+ * of {@code Service.scoreProspects}.  The specimens are delivered in the
+ * same order as they were supplied to the operation.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+public interface SpecimenConsumer
+{
+    /**
+     * Accept one specimen.  For scoring operations the predictand member of
+     * the specimen contains the result of the computation (the score).
+     *
+     * @param  specimen  the specimen to accept.
+     */
+    void consume(Specimen specimen);
+
+}   // end interface SpecimenConsumer
+
+// end SpecimenConsumer.java
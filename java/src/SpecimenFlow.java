@@ -0,0 +1,414 @@
+// SpecimenFlow.java
+
+package com.yosokumo.core;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Loads subjects and scores prospects supplied by a {@code Flow.Publisher}
+ * (the Reactive Streams interfaces of Java 9), so that a reactive pipeline
+ * can push any number of specimens through the client without buffering
+ * them all.
+ * <p>
+ * Each operation is carried out by the iterator form of the corresponding
+ * {@code Service} method, using its own worker copy of the {@code Service}
+ * given to the constructor, on a thread of the service's executor (see
+ * {@link Service#setExecutor}).  The specimens are gathered into blocks,
+ * and at most {@code getMaxBlocksInFlight()} blocks are in flight at one
+ * time, exactly as for an iterator.  Backpressure reaches the publisher
+ * through demand:  specimens are requested {@code prefetch} at a time as
+ * they are taken into blocks, and none are taken while the maximum number
+ * of blocks is in flight.  When scoring, a scored specimen is only handed
+ * on when the subscriber has requested it, and while the subscriber
+ * requests nothing, no more blocks are posted.
+ * <p>
+ * This is the only class of the package which needs Java 9 or later.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+public class SpecimenFlow
+{
+    /**
+     * The default number of specimens requested from a publisher at a time.
+     */
+    public static final int DEFAULT_PREFETCH = 1024;
+
+    private final Service service;
+    private final int     prefetch;
+
+    // Constructors
+
+    /**
+     * Initializes a newly created {@code SpecimenFlow} object which uses a
+     * service with the default prefetch.
+     *
+     * @param  service  specifies the server, credentials, DIF, and other
+     *                  settings to use.  Each operation copies the settings
+     *                  as they are when the operation starts.
+     */
+    public SpecimenFlow(Service service)
+    {
+        this(service, DEFAULT_PREFETCH);
+    }
+
+    /**
+     * Initializes a newly created {@code SpecimenFlow} object with
+     * attributes specified by the input parameters.
+     *
+     * @param  service   specifies the server, credentials, DIF, and other
+     *                   settings to use.  Each operation copies the
+     *                   settings as they are when the operation starts.
+     * @param  prefetch  the largest number of specimens requested from a
+     *                   publisher and not yet taken into a block (>= 1).
+     */
+    public SpecimenFlow(Service service, int prefetch)
+    {
+        this.service  = service;
+        this.prefetch = (prefetch < 1 ? 1 : prefetch);
+    }
+
+    /**
+     * Populate the rows of a study's table with the specimens published by
+     * a publisher.  The load starts at once, and ends when the publisher
+     * completes and every block has been accepted by the server.
+     *
+     * @param   studyId specifies the study whose table is to be populated.
+     * @param   subjects publishes the specimens
+     *              (= rows = observations = records) for the table.
+     * @return  a future which completes when the load is done, or
+     *              completes exceptionally with the {@code
+     *              ServiceException} which stopped the load, or with the
+     *              error signalled by the publisher.  Cancelling the future
+     *              cancels the subscription to the publisher; blocks
+     *              already posted stay in the table.
+     */
+    public CompletableFuture<Void> loadSubjects(
+        final String                       studyId,
+        Flow.Publisher<? extends Specimen> subjects)
+    {
+        final CompletableFuture<Void> result = new CompletableFuture<Void>();
+        final PublisherIterator<Specimen> rows =
+                                    new PublisherIterator<Specimen>(prefetch);
+        final Service worker;
+
+        try
+        {
+            worker = service.spawnWorker();
+        }
+        catch (ServiceException e)
+        {
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        result.whenComplete(new BiConsumer<Void, Throwable>()
+            {
+                public void accept(Void v, Throwable t)
+                {
+                    if (t instanceof CancellationException)
+                        rows.cancel();
+                }
+            });
+
+        subjects.subscribe(rows);
+
+        Runnable load = new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    worker.loadSubjects(studyId, rows);
+                    result.complete(null);
+                }
+                catch (PublisherIterator.UpstreamException e)
+                {
+                    result.completeExceptionally(e.getCause());
+                }
+                catch (Exception e)
+                {
+                    rows.cancel();
+                    result.completeExceptionally(e);
+                }
+            }
+        };
+
+        try
+        {
+            worker.getExecutor().execute(load);
+        }
+        catch (RejectedExecutionException e)
+        {
+            rows.cancel();
+            result.completeExceptionally(e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Score the specimens published by a publisher using a study's model.
+     * The returned publisher accepts one subscriber.  Scoring starts when
+     * it subscribes, and the scored specimens are published in the order
+     * in which {@code prospects} published them, each with its predictand
+     * member set to the result of the computation (the score).  The
+     * subscriber receives {@code onComplete} when every prospect has been
+     * scored, or {@code onError} with the {@code ServiceException} which
+     * stopped the scoring, or with the error signalled by {@code
+     * prospects}.
+     *
+     * @param   studyId specifies the study whose model is to be used.
+     * @param   prospects publishes the specimens
+     *              (= rows = observations = records) whose predictands
+     *              are to be computed.
+     * @return  a publisher of the scored specimens.
+     */
+    public Flow.Publisher<Specimen> scoreProspects(
+        String                             studyId,
+        Flow.Publisher<? extends Specimen> prospects)
+    {
+        return new ScoredPublisher(studyId, prospects);
+    }
+
+    /**
+     * The publisher returned by {@code scoreProspects}.
+     */
+    private class ScoredPublisher implements Flow.Publisher<Specimen>
+    {
+        private final String                             studyId;
+        private final Flow.Publisher<? extends Specimen> prospects;
+        private final AtomicBoolean subscribed = new AtomicBoolean(false);
+
+        ScoredPublisher(
+            String                             studyId,
+            Flow.Publisher<? extends Specimen> prospects)
+        {
+            this.studyId   = studyId;
+            this.prospects = prospects;
+        }
+
+        public void subscribe(Flow.Subscriber<? super Specimen> subscriber)
+        {
+            if (!subscribed.compareAndSet(false, true))
+            {
+                subscriber.onSubscribe(new Flow.Subscription()
+                    {
+                        public void request(long n)
+                        {
+                        }
+
+                        public void cancel()
+                        {
+                        }
+                    });
+                subscriber.onError(new IllegalStateException(
+                        "A scoreProspects publisher accepts one subscriber"));
+                return;
+            }
+
+            Scoring scoring = new Scoring(studyId, subscriber);
+            subscriber.onSubscribe(scoring);
+
+            Service worker;
+
+            try
+            {
+                worker = service.spawnWorker();
+            }
+            catch (ServiceException e)
+            {
+                scoring.cancel();
+                subscriber.onError(e);
+                return;
+            }
+
+            scoring.worker = worker;
+            prospects.subscribe(scoring.input);
+
+            try
+            {
+                worker.getExecutor().execute(scoring);
+            }
+            catch (RejectedExecutionException e)
+            {
+                scoring.cancel();
+                subscriber.onError(e);
+            }
+        }
+    }
+
+    /**
+     * The subscription to a {@code ScoredPublisher}, which scores the
+     * prospects when run.  All signals to the subscriber after {@code
+     * onSubscribe} are sent by the thread running the scoring.  The thread
+     * waits for demand without holding a monitor.
+     */
+    private class Scoring implements Flow.Subscription, Runnable
+    {
+        private final String                            studyId;
+        private final Flow.Subscriber<? super Specimen> subscriber;
+
+        final PublisherIterator<Specimen> input =
+                                    new PublisherIterator<Specimen>(prefetch);
+
+        Service worker = null;
+
+        private final ReentrantLock lock          = new ReentrantLock();
+        private final Condition     demandChanged = lock.newCondition();
+
+        /*
+         * Guarded by lock.
+         */
+        private long      demand     = 0;
+        private boolean   cancelled  = false;
+        private Throwable badRequest = null;
+
+        Scoring(String studyId, Flow.Subscriber<? super Specimen> subscriber)
+        {
+            this.studyId    = studyId;
+            this.subscriber = subscriber;
+        }
+
+        public void request(long n)
+        {
+            lock.lock();
+
+            try
+            {
+                if (n <= 0)
+                {
+                    // Rule 3.9 of Reactive Streams
+
+                    if (badRequest == null)
+                        badRequest = new IllegalArgumentException(
+                                "Requested " + n + " specimens; must be > 0");
+                    cancelled = true;
+                }
+                else
+                    demand = (demand + n < 0 ? Long.MAX_VALUE : demand + n);
+
+                demandChanged.signalAll();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            if (n <= 0)
+                input.cancel();
+        }
+
+        public void cancel()
+        {
+            lock.lock();
+
+            try
+            {
+                cancelled = true;
+                demandChanged.signalAll();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            input.cancel();
+        }
+
+        public void run()
+        {
+            Throwable failure = null;
+
+            try
+            {
+                worker.scoreProspects(studyId, input, new SpecimenConsumer()
+                    {
+                        public void consume(Specimen specimen)
+                        {
+                            if (awaitDemand())
+                                subscriber.onNext(specimen);
+                        }
+                    });
+            }
+            catch (PublisherIterator.UpstreamException e)
+            {
+                failure = e.getCause();
+            }
+            catch (Exception e)
+            {
+                failure = e;
+                input.cancel();
+            }
+
+            Throwable error;
+            boolean   stopped;
+
+            lock.lock();
+
+            try
+            {
+                error   = badRequest;
+                stopped = cancelled;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            if (error != null)
+                subscriber.onError(error);
+            else if (stopped)
+                return;
+            else if (failure != null)
+                subscriber.onError(failure);
+            else
+                subscriber.onComplete();
+        }
+
+        /**
+         * Wait until the subscriber has requested a specimen, and count it
+         * as sent.  Return {@code false} if the subscription has been
+         * cancelled instead, in which case the specimen is dropped.
+         */
+        private boolean awaitDemand()
+        {
+            lock.lock();
+
+            try
+            {
+                while (demand == 0 && !cancelled)
+                    demandChanged.await();
+
+                if (cancelled)
+                    return false;
+
+                if (demand != Long.MAX_VALUE)
+                    --demand;
+
+                return true;
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+                input.cancel();
+                return false;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+}   //  end class SpecimenFlow
+
+// end SpecimenFlow.java
@@ -0,0 +1,385 @@
+// SpecimenStore.java
+
+package com.yosokumo.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import com.yosokumo.core.protobuf.ProtoBuf;
+
+/**
+ * A store of specimens kept outside the Java heap, for loading tables too
+ * large to hold as {@code Specimen} objects.  Each specimen added to the
+ * store is encoded at once in the form in which it is sent to the server
+ * (the Google Protocol Buffers encoding of a specimen within a block), and
+ * only the encoded bytes are kept.  The bytes are held either in direct
+ * {@code ByteBuffer}s or in a memory-mapped file, so heap use does not
+ * depend on the number of specimens in the store.  When the store is
+ * loaded into a study's table (see {@code Service.loadSubjects}), blocks
+ * are sent straight from the stored bytes, without being copied into an
+ * array first.
+ * <p>
+ * The bytes are held in chunks.  A specimen never spans two chunks; a
+ * specimen larger than the chunk size gets a chunk of its own.  An index
+ * giving the position, length, key, and number of cells of each specimen
+ * is also held in direct buffers, each holding the entries of 65536
+ * specimens, so the index grows without being copied and without any one
+ * buffer growing large.
+ * <p>
+ * A store holds at most {@code MAX_SPECIMENS} specimens, since specimens
+ * are numbered with an {@code int}.
+ * <p>
+ * A {@code SpecimenStore} may only be used with the PROTOBUF DIF.  It is
+ * not safe for use by more than one thread at a time.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+public class SpecimenStore
+{
+    /**
+     * The default size in bytes of a chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The largest number of specimens a store can hold.
+     */
+    public static final int MAX_SPECIMENS = Integer.MAX_VALUE;
+
+    /**
+     * The size in bytes of one index entry:  chunk number, offset in the
+     * chunk, record length, and number of items (all ints), and key (long).
+     */
+    private static final int INDEX_ENTRY_SIZE = 24;
+
+    /**
+     * The number of index entries in each index buffer, a power of 2.
+     */
+    private static final int INDEX_CHUNK_SHIFT   = 16;
+    private static final int INDEX_CHUNK_ENTRIES = 1 << INDEX_CHUNK_SHIFT;
+
+    /**
+     * The tag which precedes each specimen in a protobuf block.
+     */
+    private static final int SPECIMEN_TAG =
+                (ProtoBuf.Block.SPECIMEN_FIELD_NUMBER << 3) |
+                WireFormat.WIRETYPE_LENGTH_DELIMITED;
+
+    private final int chunkSize;
+
+    /**
+     * The file channel of a memory-mapped store, or {@code null} for a
+     * store in direct buffers.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The position in the file at which the next chunk is mapped.
+     */
+    private long mappedLength = 0;
+
+    private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+
+    private final List<ByteBuffer> indexChunks = new ArrayList<ByteBuffer>();
+
+    private int size = 0;
+
+    private final YosokumoProtobuf ydif = new YosokumoProtobuf();
+
+    // Constructors
+
+    /**
+     * Initializes a newly created, empty {@code SpecimenStore} object
+     * which holds specimens in direct buffers of the default chunk size.
+     */
+    public SpecimenStore()
+    {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Initializes a newly created, empty {@code SpecimenStore} object
+     * which holds specimens in direct buffers.
+     *
+     * @param  chunkSize  the size in bytes of each buffer (>= 1024).
+     */
+    public SpecimenStore(int chunkSize)
+    {
+        this.chunkSize = Math.max(1024, chunkSize);
+        this.channel   = null;
+    }
+
+    /**
+     * Initializes a newly created, empty {@code SpecimenStore} object
+     * which holds specimens in a memory-mapped file.  The file is
+     * overwritten.  It is not deleted by {@code close}.
+     *
+     * @param  file       the file in which to hold the specimens.
+     * @param  chunkSize  the size in bytes of each region of the file which
+     *                    is mapped (>= 1024).
+     * @throws IOException if the file cannot be opened.
+     */
+    public SpecimenStore(File file, int chunkSize) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+
+        this.chunkSize = Math.max(1024, chunkSize);
+        this.channel   = raf.getChannel();
+    }
+
+    /**
+     * Add a specimen to the end of the store.  The specimen is encoded at
+     * once; later changes to the {@code Specimen} object do not affect the
+     * store.
+     *
+     * @param  specimen  the specimen to add.
+     * @throws IOException if a memory-mapped store cannot be extended.
+     * @throws IllegalStateException if the store already holds {@code
+     *         MAX_SPECIMENS} specimens.
+     */
+    public void add(Specimen specimen) throws IOException
+    {
+        if (size == MAX_SPECIMENS)
+            throw new IllegalStateException("A SpecimenStore can hold at " +
+                                    "most " + MAX_SPECIMENS + " specimens");
+
+        byte [] specimenAsBytes = ydif.makeBytesFromSpecimen(specimen);
+
+        int recordLength =
+                CodedOutputStream.computeRawVarint32Size(SPECIMEN_TAG) +
+                CodedOutputStream.computeRawVarint32Size(specimenAsBytes.length) +
+                specimenAsBytes.length;
+
+        ByteBuffer chunk = chunkWithRoom(recordLength);
+        int offset = chunk.position();
+
+        byte [] prefix = new byte[recordLength - specimenAsBytes.length];
+        CodedOutputStream out = CodedOutputStream.newInstance(prefix);
+        out.writeRawVarint32(SPECIMEN_TAG);
+        out.writeRawVarint32(specimenAsBytes.length);
+        out.flush();
+
+        chunk.put(prefix);
+        chunk.put(specimenAsBytes);
+
+        if ((size & (INDEX_CHUNK_ENTRIES - 1)) == 0)
+            indexChunks.add(ByteBuffer.allocateDirect(
+                                    INDEX_CHUNK_ENTRIES * INDEX_ENTRY_SIZE));
+
+        ByteBuffer index = indexChunk(size);
+        int entry = entryOffset(size);
+
+        index.putInt (entry,      chunks.size() - 1);
+        index.putInt (entry +  4, offset);
+        index.putInt (entry +  8, recordLength);
+        index.putInt (entry + 12, specimen.size() + 1);
+        index.putLong(entry + 16, specimen.getSpecimenKey());
+
+        ++size;
+    }
+
+    /**
+     * Return the number of specimens in the store.
+     *
+     * @return the number of specimens.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Return the key of a specimen in the store.
+     *
+     * @param  i  the position of the specimen in the store (0 <= i < size).
+     * @return the specimen key.
+     */
+    public long getSpecimenKey(int i)
+    {
+        return indexChunk(i).getLong(entryOffset(i) + 16);
+    }
+
+    /**
+     * Decode a specimen in the store.
+     *
+     * @param  i  the position of the specimen in the store (0 <= i < size).
+     * @return a {@code Specimen} object equal to the one which was added.
+     */
+    public Specimen getSpecimen(int i)
+    {
+        ByteBuffer record = getRecord(i);
+        byte [] recordAsBytes = new byte[record.remaining()];
+        record.get(recordAsBytes);
+
+        // A stored record is a valid block containing just the specimen
+
+        SpecimenBlock sblock =
+                        (SpecimenBlock)ydif.makeBlockFromBytes(recordAsBytes);
+
+        return sblock.getSpecimenSequence().iterator().next();
+    }
+
+    /**
+     * Release the resources of the store.  A memory-mapped file is closed;
+     * the mapped regions are released when they are garbage collected.
+     */
+    public void close()
+    {
+        chunks.clear();
+        indexChunks.clear();
+        size = 0;
+
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                // Nothing more can be done
+            }
+        }
+    }
+
+    /**
+     * Return the number of items (the specimen plus its cells) in a
+     * specimen in the store.
+     *
+     * @param  i  the position of the specimen in the store.
+     * @return the number of items.
+     */
+    int getItemCount(int i)
+    {
+        return indexChunk(i).getInt(entryOffset(i) + 12);
+    }
+
+    /**
+     * Return the encoded bytes of a specimen, including the tag and length
+     * which precede it in a block.
+     *
+     * @param  i  the position of the specimen in the store.
+     * @return a buffer whose remaining bytes are the record.
+     */
+    ByteBuffer getRecord(int i)
+    {
+        ByteBuffer index = indexChunk(i);
+        int entry = entryOffset(i);
+
+        ByteBuffer record = chunks.get(index.getInt(entry)).duplicate();
+        int offset = index.getInt(entry + 4);
+
+        record.limit(offset + index.getInt(entry + 8));
+        record.position(offset);
+
+        return record;
+    }
+
+    /**
+     * Return the encoded bytes of a block containing some of the specimens
+     * of the store, as a sequence of buffers to be sent in order.  The
+     * first buffer holds the block header; each of the others is a slice of
+     * a chunk holding a run of consecutive specimens.  No specimen bytes
+     * are copied.
+     *
+     * @param  studyId   the identifier of the study of the block.
+     * @param  firstIdx  the position of the first specimen in the block.
+     * @param  lastIdx   the position following the last specimen in the
+     *                   block.
+     * @return the buffers whose remaining bytes make up the block.
+     */
+    ByteBuffer [] makeBuffersFromBlock(
+        String studyId,
+        int    firstIdx,
+        int    lastIdx)
+    {
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+
+        buffers.add(ByteBuffer.wrap(ProtoBuf.Block.newBuilder()
+                        .setStudyIdentifier(studyId).build().toByteArray()));
+
+        // Records are added to the chunks in order, so the records of one
+        // chunk within [firstIdx, lastIdx) are adjacent
+
+        int i = firstIdx;
+
+        while (i < lastIdx)
+        {
+            int chunkNum = indexChunk(i).getInt(entryOffset(i));
+            int start    = indexChunk(i).getInt(entryOffset(i) + 4);
+            int end      = start;
+
+            while (i < lastIdx &&
+                        indexChunk(i).getInt(entryOffset(i)) == chunkNum)
+            {
+                end += indexChunk(i).getInt(entryOffset(i) + 8);
+                ++i;
+            }
+
+            ByteBuffer run = chunks.get(chunkNum).duplicate();
+            run.limit(end);
+            run.position(start);
+            buffers.add(run);
+        }
+
+        return buffers.toArray(new ByteBuffer[buffers.size()]);
+    }
+
+    /**
+     * Return the index buffer holding the entry of a specimen.
+     */
+    private ByteBuffer indexChunk(int i)
+    {
+        return indexChunks.get(i >>> INDEX_CHUNK_SHIFT);
+    }
+
+    /**
+     * Return the position of the entry of a specimen in its index buffer.
+     */
+    private static int entryOffset(int i)
+    {
+        return (i & (INDEX_CHUNK_ENTRIES - 1)) * INDEX_ENTRY_SIZE;
+    }
+
+    /**
+     * Return the chunk into which to put the next record, starting a new
+     * chunk if the current one does not have room.
+     */
+    private ByteBuffer chunkWithRoom(int recordLength) throws IOException
+    {
+        if (!chunks.isEmpty())
+        {
+            ByteBuffer chunk = chunks.get(chunks.size()-1);
+            if (chunk.remaining() >= recordLength)
+                return chunk;
+        }
+
+        int n = Math.max(chunkSize, recordLength);
+        ByteBuffer chunk;
+
+        if (channel == null)
+            chunk = ByteBuffer.allocateDirect(n);
+        else
+        {
+            chunk = channel.map(FileChannel.MapMode.READ_WRITE, mappedLength, n);
+            mappedLength += n;
+        }
+
+        chunks.add(chunk);
+
+        return chunk;
+    }
+
+}   // end class SpecimenStore
+
+// end SpecimenStore.java
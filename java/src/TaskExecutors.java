@@ -0,0 +1,105 @@
+// TaskExecutors.java
+
+package com.yosokumo.core;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Supplies the executor on which a {@code Service} runs the parts of an
+ * operation which fan out over several workers, unless the user gives
+ * the service an executor of its own.
+ * <p>
+ * On a Java runtime with virtual threads (Java 21 and later) the default
+ * executor starts a new virtual thread for each task, so that thousands
+ * of operations blocked on the network cost little more than their
+ * buffers.  The executor is obtained by reflection, so the library also
+ * compiles and runs on runtimes without virtual threads (from Java 11, 
+ * which the library needs anyway, to Java 20), where the default executor
+ * is a cached pool of platform threads instead.  Either way the threads are
+ * daemon threads, and the executor is shared by all services and never
+ * shut down.
+ * <p>
+ * The tasks run on these threads block in socket I/O without holding any
+ * monitor, so a virtual thread blocked on the network gives up its
+ * carrier thread.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+final class TaskExecutors
+{
+    /*
+     * Set by makeDefault, so it is declared first.
+     */
+    private static boolean virtual = false;
+
+    private static final ExecutorService DEFAULT_EXECUTOR = makeDefault();
+
+    private TaskExecutors()
+    {
+    }
+
+    /**
+     * Return the default executor.
+     *
+     * @return the executor shared by all services which have not been
+     *             given an executor of their own.
+     */
+    static ExecutorService getDefault()
+    {
+        return DEFAULT_EXECUTOR;
+    }
+
+    /**
+     * Return {@code true} if the default executor runs each task on a new
+     * virtual thread, {@code false} if it runs tasks on a pool of platform
+     * threads.
+     *
+     * @return {@code true} if the default executor uses virtual threads.
+     */
+    static boolean isDefaultVirtual()
+    {
+        return virtual;
+    }
+
+    /**
+     * Make an executor which starts a virtual thread for each task if the
+     * runtime has virtual threads, or else a cached pool of platform
+     * threads.
+     */
+    private static ExecutorService makeDefault()
+    {
+        try
+        {
+            Method m = Executors.class.getMethod(
+                                        "newVirtualThreadPerTaskExecutor");
+            ExecutorService executor = (ExecutorService)m.invoke(null);
+            virtual = true;
+            return executor;
+        }
+        catch (Exception e)
+        {
+            // No virtual threads in this runtime
+        }
+
+        return Executors.newCachedThreadPool(new ThreadFactory()
+            {
+                private final AtomicInteger count = new AtomicInteger(0);
+
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "yosokumo-worker-" +
+                                                    count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    }
+
+}   //  end class TaskExecutors
+
+// end TaskExecutors.java
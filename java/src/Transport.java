@@ -0,0 +1,104 @@
+// Transport.java
+
+package com.yosokumo.core;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Carries HTTP requests to the Yosokumo server and brings back the
+ * responses.  A {@code Service} prepares and signs each request in the
+ * neutral form of a {@link TransportRequest}, and hands it to its
+ * transport (see {@link Service#setTransport}) to be sent.  These
+ * transports come with the library:
+ * <ul>
+ * <li>{@link ApacheTransport}, the default, which sends each request with
+ *         a new HttpClient 4.0 client over a new connection.
+ * <li>{@link JdkTransport}, which sends requests with the HTTP client of
+ *         the JDK, multiplexing them over HTTP/2 where the server allows.
+ * <li>{@link LoopbackTransport}, which hands requests to a handler in the
+ *         same process, without a network.
+ * </ul>
+ * The digest which authenticates a request covers its Host and
+ * Content-Length headers, so a transport must send exactly the values of
+ * these headers which it returns from {@link #getHostHeader} and {@link
+ * #getContentLengthHeader}.  The other headers of a request are to be
+ * sent as they are.
+ * <p>
+ * A transport may be used by several threads at once.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+public abstract class Transport
+{
+    /**
+     * Send a request and wait for the response.  The entity of the response
+     * is read from {@link TransportResponse#getContent}, and the response
+     * must be closed when done with, whether or not its entity has been
+     * read to the end.
+     *
+     * @param  request  the request, with all its headers set.
+     * @return the response.
+     * @throws IOException if the request could not be sent, or the response
+     *             could not be received.
+     * @throws InterruptedException if the thread was interrupted while
+     *             waiting for the response.
+     */
+    public abstract TransportResponse execute(TransportRequest request)
+        throws IOException, InterruptedException;
+
+    /**
+     * Return the value which this transport sends as the Host header of a
+     * request.  By default it is the host name the service was given,
+     * which the transport is expected to send as it is.
+     *
+     * @param  uri       the URI of the request.
+     * @param  hostName  the name of the Yosokumo server given to the
+     *                   service.
+     * @return the value of the Host header.
+     */
+    public String getHostHeader(URI uri, String hostName)
+    {
+        return hostName;
+    }
+
+    /**
+     * Return the value which this transport sends as the Content-Length
+     * header of a request.  By default it is the length of the entity of
+     * the request, and there is no such header for a request without an
+     * entity.
+     *
+     * @param  request  the request, with its entity set.
+     * @return the value of the Content-Length header, or {@code null} if
+     *             the transport sends none.
+     */
+    public String getContentLengthHeader(TransportRequest request)
+    {
+        return request.hasEntity() ?
+                            Long.toString(request.getContentLength()) : null;
+    }
+
+    /**
+     * Return {@code true} if a response shows that its request was signed
+     * over a Host or Content-Length header other than the one this
+     * transport sent, which can only be known once the request has been
+     * sent.  The request is then signed again, using the values the
+     * transport now returns, and sent once more.  By default a transport
+     * always knows in advance what it sends, and this method returns
+     * {@code false}.
+     *
+     * @param  request   the request as signed.
+     * @param  response  the response to the request.
+     * @return {@code true} if the request should be signed and sent again.
+     */
+    public boolean isSignedWrongly(
+        TransportRequest  request,
+        TransportResponse response)
+    {
+        return false;
+    }
+
+}   //  end class Transport
+
+// end Transport.java
@@ -0,0 +1,219 @@
+// TransportRequest.java
+
+package com.yosokumo.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An HTTP request to the Yosokumo server, in a form which does not depend
+ * on the HTTP client which is to send it (see {@link Transport}).  A
+ * request has a method, a URI, a list of headers in the order in which
+ * they were set, and an optional entity.  The entity can be read any
+ * number of times.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+public final class TransportRequest
+{
+    private final String       method;
+    private URI                uri;
+    private final BufferEntity entity;
+
+    /*
+     * Each header is an array of its name and value.
+     */
+    private final List<String []> headers = new ArrayList<String []>();
+
+    // Constructors
+
+    /**
+     * Initializes a newly created {@code TransportRequest} object with
+     * attributes specified by the input parameters.
+     *
+     * @param  method  the method of the request, e.g., "GET".
+     * @param  uri     the absolute URI of the request.
+     * @param  entity  the entity of the request, or {@code null} if it has
+     *                 none.
+     */
+    TransportRequest(String method, URI uri, BufferEntity entity)
+    {
+        this.method = method;
+        this.uri    = uri;
+        this.entity = entity;
+    }
+
+    /**
+     * Return the method of the request.
+     *
+     * @return the method, e.g., "GET", "POST", "PUT", or "DELETE".
+     */
+    public String getMethod()
+    {
+        return method;
+    }
+
+    /**
+     * Return the URI of the request.
+     *
+     * @return the absolute URI of the request.
+     */
+    public URI getUri()
+    {
+        return uri;
+    }
+
+    /**
+     * Set the URI of the request, e.g., to send it to another server.
+     *
+     * @param  uri  the absolute URI of the request.
+     */
+    void setUri(URI uri)
+    {
+        this.uri = uri;
+    }
+
+    /**
+     * Return the number of headers of the request.
+     *
+     * @return the number of headers.
+     */
+    public int getHeaderCount()
+    {
+        return headers.size();
+    }
+
+    /**
+     * Return the name of a header.
+     *
+     * @param  i  the index of the header (0 <= i < getHeaderCount()).
+     * @return the name of the header.
+     */
+    public String getHeaderName(int i)
+    {
+        return headers.get(i)[0];
+    }
+
+    /**
+     * Return the value of a header.
+     *
+     * @param  i  the index of the header (0 <= i < getHeaderCount()).
+     * @return the value of the header.
+     */
+    public String getHeaderValue(int i)
+    {
+        return headers.get(i)[1];
+    }
+
+    /**
+     * Return the value of the first header with a given name.  Case is
+     * ignored in comparing names.
+     *
+     * @param  name  the name of the header.
+     * @return the value of the header, or {@code null} if the request has
+     *             no such header.
+     */
+    public String getFirstHeader(String name)
+    {
+        for (String [] h : headers)
+        {
+            if (h[0].equalsIgnoreCase(name))
+                return h[1];
+        }
+
+        return null;
+    }
+
+    /**
+     * Set a header, in place of any header with the same name.
+     *
+     * @param  name   the name of the header.
+     * @param  value  the value of the header, or {@code null} to remove
+     *                the header.
+     */
+    void setHeader(String name, String value)
+    {
+        for (int i = 0;  i < headers.size();  ++i)
+        {
+            if (headers.get(i)[0].equalsIgnoreCase(name))
+            {
+                if (value == null)
+                    headers.remove(i);
+                else
+                    headers.set(i, new String [] {name, value});
+                return;
+            }
+        }
+
+        if (value != null)
+            headers.add(new String [] {name, value});
+    }
+
+    /**
+     * Return whether the request has an entity.
+     *
+     * @return {@code true} if the request has an entity.
+     */
+    public boolean hasEntity()
+    {
+        return entity != null;
+    }
+
+    /**
+     * Return the length of the entity of the request.
+     *
+     * @return the length of the entity in bytes, or 0 if there is none.
+     */
+    public long getContentLength()
+    {
+        return entity == null ? 0 : entity.getContentLength();
+    }
+
+    /**
+     * Return a new stream supplying the bytes of the entity.
+     *
+     * @return the stream, or {@code null} if the request has no entity.
+     * @throws IOException if the entity cannot be read.
+     */
+    public InputStream getContent() throws IOException
+    {
+        return entity == null ? null : entity.getContent();
+    }
+
+    /**
+     * Write the bytes of the entity to a stream, as directly as possible:
+     * see {@code BufferEntity}.  Nothing is written if the request has no
+     * entity.
+     *
+     * @param  out  the stream to write to.
+     * @throws IOException if the entity cannot be read or written.
+     */
+    public void writeContentTo(OutputStream out) throws IOException
+    {
+        if (entity != null)
+            entity.writeTo(out);
+    }
+
+    /**
+     * Return the request line of the request, as sent over HTTP/1.1.
+     *
+     * @return the request line, e.g., "GET /S1/panel HTTP/1.1".
+     */
+    public String getRequestLine()
+    {
+        String target = uri.getRawPath();
+
+        if (uri.getRawQuery() != null)
+            target += "?" + uri.getRawQuery();
+
+        return method + " " + target + " HTTP/1.1";
+    }
+
+}   //  end class TransportRequest
+
+// end TransportRequest.java
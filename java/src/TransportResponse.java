@@ -0,0 +1,140 @@
+// TransportResponse.java
+
+package com.yosokumo.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The response to a {@link TransportRequest}, in a form which does not
+ * depend on the HTTP client which received it.  The entity of the
+ * response is read from a stream, and the response must be closed when
+ * it is no longer needed; closing it before the entity has been read to
+ * the end abandons the rest of the entity.
+ * <p>
+ * A transport which does not use a network, such as a {@link
+ * LoopbackTransport}, can make a response with {@link #of}.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+public abstract class TransportResponse implements Closeable
+{
+    /**
+     * Return the status code of the response.
+     *
+     * @return the HTTP status code, e.g., 200.
+     */
+    public abstract int getStatusCode();
+
+    /**
+     * Return the value of the first header of the response with a given
+     * name.  Case is ignored in comparing names.
+     *
+     * @param  name  the name of the header.
+     * @return the value of the header, or {@code null} if the response has
+     *             no such header.
+     */
+    public abstract String getFirstHeader(String name);
+
+    /**
+     * Return the length of the entity of the response.
+     *
+     * @return the length of the entity in bytes, or -1 if it is not known.
+     */
+    public abstract long getContentLength();
+
+    /**
+     * Return the stream supplying the entity of the response.
+     *
+     * @return the stream, or {@code null} if the response has no entity.
+     * @throws IOException if the entity cannot be read.
+     */
+    public abstract InputStream getContent() throws IOException;
+
+    /**
+     * Return the version of HTTP with which the response was received.
+     *
+     * @return the version, e.g., "HTTP/1.1" (the default) or "HTTP/2".
+     */
+    public String getProtocol()
+    {
+        return "HTTP/1.1";
+    }
+
+    /**
+     * Release the resources held by the response, such as its connection.
+     * By default there are none.
+     *
+     * @throws IOException if the resources could not be released.
+     */
+    public void close() throws IOException
+    {
+    }
+
+    /**
+     * Return a description of the response for trace output:  its status
+     * line, and the headers the transport can list.
+     *
+     * @return a description of the response.
+     */
+    public String toString()
+    {
+        return getProtocol() + " " + getStatusCode();
+    }
+
+    /**
+     * Make a response whose entity is held in an array.
+     *
+     * @param  statusCode   the HTTP status code of the response.
+     * @param  contentType  the value of the Content-Type header of the
+     *                      response, or {@code null} if it has none.
+     * @param  entity       the entity of the response, or {@code null} if
+     *                      it has none.
+     * @return the response.
+     */
+    public static TransportResponse of(
+        final int     statusCode,
+        final String  contentType,
+        final byte [] entity)
+    {
+        return new TransportResponse()
+        {
+            public int getStatusCode()
+            {
+                return statusCode;
+            }
+
+            public String getFirstHeader(String name)
+            {
+                if (name.equalsIgnoreCase("Content-Type"))
+                    return contentType;
+
+                if (name.equalsIgnoreCase("Content-Length") && entity != null)
+                    return Integer.toString(entity.length);
+
+                return null;
+            }
+
+            public long getContentLength()
+            {
+                return entity == null ? -1 : entity.length;
+            }
+
+            public InputStream getContent()
+            {
+                return entity == null ? null : new ByteArrayInputStream(entity);
+            }
+
+            public String toString()
+            {
+                return super.toString() + "\n    Content-Type: " + contentType;
+            }
+        };
+    }
+
+}   //  end class TransportResponse
+
+// end TransportResponse.java
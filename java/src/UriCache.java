@@ -0,0 +1,82 @@
+// UriCache.java
+
+package com.yosokumo.core;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the resource URIs requested by a service in their normalized,
+ * parsed form, so that a URI which is requested again and again, such as
+ * the table or model location of a study while prospects are scored, is
+ * normalized and parsed only once.  An entry is indexed by the URI as the
+ * service was given it, e.g., a location in a {@code Study}.
+ * <p>
+ * The normalized form of a URI depends on the host name and port of the
+ * service, and on its balancer if it has one, so each service has a cache
+ * of its own, which is cleared when the balancer changes.  The workers of
+ * a service share its cache, so it is safe for use by several threads.
+ * The locations of the studies and roles of a catalog are few, but in case
+ * of a service which requests a great many distinct URIs, the cache is
+ * simply cleared when it holds {@link #MAX_ENTRIES} URIs.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+final class UriCache
+{
+    /**
+     * The most URIs held at once.
+     */
+    static final int MAX_ENTRIES = 4096;
+
+    private final ConcurrentHashMap<String, URI> uris =
+                                        new ConcurrentHashMap<String, URI>();
+
+    /**
+     * Return the normalized form of a resource URI.
+     *
+     * @param  resourceUri  the URI as given to the service.
+     * @return the normalized, parsed URI, or {@code null} if the cache does
+     *             not hold it.
+     */
+    URI get(String resourceUri)
+    {
+        return uris.get(resourceUri);
+    }
+
+    /**
+     * Remember the normalized form of a resource URI.
+     *
+     * @param  resourceUri  the URI as given to the service.
+     * @param  uri          the normalized, parsed URI.
+     */
+    void put(String resourceUri, URI uri)
+    {
+        if (uris.size() >= MAX_ENTRIES)
+            uris.clear();
+
+        uris.put(resourceUri, uri);
+    }
+
+    /**
+     * Return the number of URIs held.
+     *
+     * @return the number of URIs.
+     */
+    int size()
+    {
+        return uris.size();
+    }
+
+    /**
+     * Forget all URIs.
+     */
+    void clear()
+    {
+        uris.clear();
+    }
+
+}   //  end class UriCache
+
+// end UriCache.java
@@ -0,0 +1,1352 @@
+// YosokumoAsn1.java
+
+package com.yosokumo.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Implements all functionality for transforming HTTP entity bytes in ASN.1
+ * form into Yosokumo Java objects (e.g., {@code Catalog} and {@code Study})
+ * and vice versa.
+ * <p>
+ * The ASN.1 definition of the objects is in yosokumo.asn.  It follows the
+ * Google Protocol Buffers definition (see yosokumo.proto) field for field:
+ * each field has a context-specific tag equal to its field number, each
+ * enumeration has the same values, and a repeated field is a SEQUENCE OF.
+ * Objects are encoded with the Distinguished Encoding Rules (DER).  Fields
+ * with unknown tags are ignored.
+ * <p>
+ * Objects are converted with a streaming reader and writer (see {@code
+ * DerReader} and {@code DerWriter}), straight between the bytes and the
+ * Yosokumo objects, without an intermediate tree.  In general there are
+ * four functions for each Yosokumo class, illustrated here for {@code
+ * Specimen}:
+ * <pre>
+ *   public  Specimen makeSpecimenFromBytes(byte [] specimenAsBytes)
+ *   private Specimen readSpecimen         (DerReader r)
+ *   public  byte []  makeBytesFromSpecimen(Specimen specimen)
+ *   private void     writeSpecimen        (DerWriter w, Specimen specimen)
+ * </pre>
+ * Because {@code DerWriter} writes backwards, the write functions write the
+ * fields of an object from last to first.
+ */
+class YosokumoAsn1 implements YosokumoDIF
+{
+    private ServiceException exception = null;
+
+    public String getContentType()
+    {
+        return "application/yosokumo+der";
+    }
+
+    public ServiceException getException()
+    {
+        return exception;
+    }
+
+    /**
+     * Record that decoding the DER encoding of an object failed.
+     */
+    private void parseFailed(String what, IOException e)
+    {
+        exception = new ServiceException("Parse of DER " + what + " failed", e);
+    }
+
+
+    public Catalog makeCatalogFromBytes(byte [] catalogAsBytes)
+    {
+        try
+        {
+            DerReader r = new DerReader(catalogAsBytes);
+            Catalog catalog = readCatalog(r);
+            r.endDocument();
+            return catalog;
+        }
+        catch (IOException e)
+        {
+            parseFailed("catalog", e);
+            return null;
+        }
+
+    }   //  end makeCatalogFromBytes
+
+
+    private Catalog readCatalog(DerReader r) throws IOException
+    {
+        Catalog catalog = new Catalog();
+
+        // Note that if any of the following fields are missing, they will
+        // be empty strings
+
+        catalog.setUserIdentifier ("");
+        catalog.setUserName       ("");
+        catalog.setCatalogLocation("");
+
+        boolean duplicate = false;
+
+        r.beginSequence();
+
+        while (r.hasNext())
+        {
+            switch (r.nextField())
+            {
+            case 1:                                 // userIdentifier
+                catalog.setUserIdentifier(r.readUtf8());
+                break;
+            case 102:                               // userName
+                catalog.setUserName(r.readUtf8());
+                break;
+            case 103:                               // location
+                catalog.setCatalogLocation(r.readUtf8());
+                break;
+            case 4:                                 // study
+                r.beginConstructed();
+                while (r.hasNext())
+                {
+                    if (catalog.addStudy(readStudy(r)) != null)
+                        duplicate = true;
+                }
+                r.end();
+                break;
+            default:
+                r.skip();
+            }
+        }
+
+        r.end();
+
+        if (duplicate)
+        {
+            exception = new ServiceException("Yosokumo Catalog contains" +
+                                    " two studies with the same identifier");
+            return null;
+        }
+
+        return catalog;
+
+    }   //  end readCatalog
+
+
+    public Study makeStudyFromBytes(byte [] studyAsBytes)
+    {
+        try
+        {
+            DerReader r = new DerReader(studyAsBytes);
+            Study study = readStudy(r);
+            r.endDocument();
+            return study;
+        }
+        catch (IOException e)
+        {
+            parseFailed("study", e);
+            return null;
+        }
+
+    }   //  end makeStudyFromBytes
+
+
+    private Study readStudy(DerReader r) throws IOException
+    {
+        Study study = new Study();
+
+        // Note that if any of the following fields are missing, they will
+        // be empty strings or the first value of their enumeration
+
+        study.setStudyIdentifier("");
+        study.setStudyName      ("");
+        study.setStudyLocation  ("");
+        study.setType           (Study.Type.CLASS);
+        study.setStatus         (Study.Status.RUNNING);
+        study.setVisibility     (Study.Visibility.PRIVATE);
+        study.setOwnerIdentifier("");
+        study.setOwnerName      ("");
+        study.setTableLocation  ("");
+        study.setModelLocation  ("");
+        study.setPanelLocation  ("");
+        study.setRosterLocation ("");
+
+        r.beginSequence();
+
+        while (r.hasNext())
+        {
+            switch (r.nextField())
+            {
+            case 1:                                 // studyIdentifier
+                study.setStudyIdentifier(r.readUtf8());
+                break;
+            case 102:                               // studyName
+                study.setStudyName(r.readUtf8());
+                break;
+            case 103:                               // type
+                study.setType(numberToStudyType(r.readInteger()));
+                break;
+            case 104:                               // status
+                study.setStatus(numberToStudyStatus(r.readInteger()));
+                break;
+            case 105:                               // visibility
+                study.setVisibility(numberToVisibility(r.readInteger()));
+                break;
+            case 106:                               // location
+                study.setStudyLocation(r.readUtf8());
+                break;
+            case 107:                               // owner
+                r.beginConstructed();
+                while (r.hasNext())
+                {
+                    switch (r.nextField())
+                    {
+                    case 1:
+                        study.setOwnerIdentifier(r.readUtf8());
+                        break;
+                    case 102:
+                        study.setOwnerName(r.readUtf8());
+                        break;
+                    default:
+                        r.skip();
+                    }
+                }
+                r.end();
+                break;
+            case 108:                               // table
+                study.setTableLocation(readLocation(r, 101));
+                break;
+            case 109:                               // model
+                study.setModelLocation(readLocation(r, 101));
+                break;
+            case 110:                               // panel
+                study.setPanelLocation(readLocation(r, 101));
+                break;
+            case 111:                               // roster
+                study.setRosterLocation(readLocation(r, 101));
+                break;
+            default:
+                r.skip();
+            }
+        }
+
+        r.end();
+
+        return study;
+
+    }   //  end readStudy
+
+
+    public byte [] makeBytesFromStudy(Study study)
+    {
+        DerWriter w = new DerWriter();
+        int end = w.mark();
+
+        w.writeInteger(105, visibilityToNumber (study.getVisibility()));
+        w.writeInteger(104, studyStatusToNumber(study.getStatus()));
+        w.writeInteger(103, studyTypeToNumber  (study.getType()));
+        w.writeUtf8   (102, study.getStudyName());
+        w.writeUtf8   (1,   study.getStudyIdentifier());
+
+        w.endSequence(end);
+
+        return w.toByteArray();
+    }
+
+    private Study.Type numberToStudyType(long n) throws IOException
+    {
+        if (n == 1)  return Study.Type.CLASS;
+        if (n == 2)  return Study.Type.RANK;
+        if (n == 3)  return Study.Type.NUMBER;
+        if (n == 4)  return Study.Type.CHANCE;
+
+        throw new IOException("Unknown study type:  " + n);
+    }
+
+    private int studyTypeToNumber(Study.Type type)
+    {
+        switch (type)
+        {
+        case CLASS :  return 1;
+        case RANK  :  return 2;
+        case NUMBER:  return 3;
+        case CHANCE:  return 4;
+        }
+        return 0;
+    }
+
+    private Study.Status numberToStudyStatus(long n) throws IOException
+    {
+        if (n == 1)  return Study.Status.RUNNING;
+        if (n == 2)  return Study.Status.STANDBY;
+        if (n == 3)  return Study.Status.STOPPED;
+
+        throw new IOException("Unknown study status:  " + n);
+    }
+
+    private int studyStatusToNumber(Study.Status status)
+    {
+        switch (status)
+        {
+        case RUNNING:  return 1;
+        case STANDBY:  return 2;
+        case STOPPED:  return 3;
+        }
+        return 0;
+    }
+
+    private Study.Visibility numberToVisibility(long n) throws IOException
+    {
+        if (n == 1)  return Study.Visibility.PRIVATE;
+        if (n == 2)  return Study.Visibility.PUBLIC;
+
+        throw new IOException("Unknown study visibility:  " + n);
+    }
+
+    private int visibilityToNumber(Study.Visibility visibility)
+    {
+        switch (visibility)
+        {
+        case PRIVATE:  return 1;
+        case PUBLIC :  return 2;
+        }
+        return 0;
+    }
+
+    public byte [] makeBytesFromStudyName(String name)
+    {
+        DerWriter w = new DerWriter();
+        int end = w.mark();
+        w.writeUtf8(102, name);
+        w.endSequence(end);
+        return w.toByteArray();
+    }
+
+    public byte [] makeBytesFromStudyStatus(Study.Status status)
+    {
+        DerWriter w = new DerWriter();
+        int end = w.mark();
+        w.writeInteger(104, studyStatusToNumber(status));
+        w.endSequence(end);
+        return w.toByteArray();
+    }
+
+    public byte [] makeBytesFromStudyVisibility(Study.Visibility visibility)
+    {
+        DerWriter w = new DerWriter();
+        int end = w.mark();
+        w.writeInteger(105, visibilityToNumber(visibility));
+        w.endSequence(end);
+        return w.toByteArray();
+    }
+
+
+    public Panel makePanelFromBytes(byte [] panelAsBytes)
+    {
+        try
+        {
+            DerReader r = new DerReader(panelAsBytes);
+            Panel panel = readPanel(r);
+            r.endDocument();
+            return panel;
+        }
+        catch (IOException e)
+        {
+            parseFailed("panel", e);
+            return null;
+        }
+
+    }   //  end makePanelFromBytes
+
+
+    private Panel readPanel(DerReader r) throws IOException
+    {
+        Panel panel = new Panel();
+
+        panel.setNameControlLocation      ("");
+        panel.setStatusControlLocation    ("");
+        panel.setVisibilityControlLocation("");
+        panel.setCreationTime             ("");
+        panel.setLatestBlockTime          ("");
+        panel.setLatestProspectTime       ("");
+
+        r.beginSequence();
+
+        while (r.hasNext())
+        {
+            switch (r.nextField())
+            {
+            case 103:                               // studyNameControl
+                panel.setNameControlLocation(readLocation(r, 103));
+                break;
+            case 105:                               // statusControl
+                panel.setStatusControlLocation(readLocation(r, 103));
+                break;
+            case 106:                               // visibilityControl
+                panel.setVisibilityControlLocation(readLocation(r, 103));
+                break;
+            case 107:                               // blockCountControl
+                panel.setBlockCount(readCount(r));
+                break;
+            case 108:                               // cellCountControl
+                panel.setCellCount(readCount(r));
+                break;
+            case 109:                               // prospectCountControl
+                panel.setProspectCount(readCount(r));
+                break;
+            case 110:                               // creationTimeControl
+                panel.setCreationTime(readTime(r));
+                break;
+            case 111:                               // latestBlockTimeControl
+                panel.setLatestBlockTime(readTime(r));
+                break;
+            case 112:                               // latestProspectTimeControl
+                panel.setLatestProspectTime(readTime(r));
+                break;
+            default:
+                r.skip();
+            }
+        }
+
+        r.end();
+
+        return panel;
+
+    }   //  end readPanel
+
+
+    /**
+     * Read a panel count control and return the count which it holds, or 0
+     * if it holds none.
+     */
+    private long readCount(DerReader r) throws IOException
+    {
+        long count = 0;
+
+        r.beginConstructed();
+        while (r.hasNext())
+        {
+            if (r.nextField() == 1)
+                count = r.readUnsigned();
+            else
+                r.skip();
+        }
+        r.end();
+
+        return count;
+    }
+
+    /**
+     * Read a panel time control and return the time which it holds, or an
+     * empty string if it holds none.
+     */
+    private String readTime(DerReader r) throws IOException
+    {
+        String time = "";
+
+        r.beginConstructed();
+        while (r.hasNext())
+        {
+            if (r.nextField() == 1)
+                time = r.readUtf8();
+            else
+                r.skip();
+        }
+        r.end();
+
+        return time;
+    }
+
+
+    public Roster makeRosterFromBytes(byte [] rosterAsBytes)
+    {
+        try
+        {
+            DerReader r = new DerReader(rosterAsBytes);
+            Roster roster = readRoster(r);
+            r.endDocument();
+            return roster;
+        }
+        catch (IOException e)
+        {
+            parseFailed("roster", e);
+            return null;
+        }
+
+    }   //  end makeRosterFromBytes
+
+
+    private Roster readRoster(DerReader r) throws IOException
+    {
+        Roster roster = new Roster();
+
+        roster.setStudyIdentifier("");
+        roster.setStudyName      ("");
+        roster.setRosterLocation ("");
+
+        boolean duplicate = false;
+
+        r.beginSequence();
+
+        while (r.hasNext())
+        {
+            switch (r.nextField())
+            {
+            case 1:                                 // studyIdentifier
+                roster.setStudyIdentifier(r.readUtf8());
+                break;
+            case 102:                               // studyName
+                roster.setStudyName(r.readUtf8());
+                break;
+            case 103:                               // location
+                roster.setRosterLocation(r.readUtf8());
+                break;
+            case 4:                                 // role
+                r.beginConstructed();
+                while (r.hasNext())
+                {
+                    if (roster.addRole(readRole(r)) != null)
+                        duplicate = true;
+                }
+                r.end();
+                break;
+            default:
+                r.skip();
+            }
+        }
+
+        r.end();
+
+        if (duplicate)
+        {
+            exception = new ServiceException("Yosokumo Roster contains" +
+                                    " two roles with the same identifier");
+            return null;
+        }
+
+        return roster;
+
+    }   //  end readRoster
+
+
+    public Role makeRoleFromBytes(byte [] roleAsBytes)
+    {
+        try
+        {
+            DerReader r = new DerReader(roleAsBytes);
+            Role role = readRole(r);
+            r.endDocument();
+            return role;
+        }
+        catch (IOException e)
+        {
+            parseFailed("role", e);
+            return null;
+        }
+
+    }   //  end makeRoleFromBytes
+
+
+    private Role readRole(DerReader r) throws IOException
+    {
+        Role role = new Role("", "");
+
+        // Note that if any of the following fields are missing, they will
+        // be empty strings
+
+        role.setRoleLocation("");
+        role.setUserName    ("");
+        role.setStudyName   ("");
+
+        r.beginSequence();
+
+        while (r.hasNext())
+        {
+            switch (r.nextField())
+            {
+            case 101:                               // location
+                role.setRoleLocation(r.readUtf8());
+                break;
+            case 102:                               // roleholder
+                r.beginConstructed();
+                while (r.hasNext())
+                {
+                    switch (r.nextField())
+                    {
+                    case 1:
+                        role.setUserIdentifier(r.readUtf8());
+                        break;
+                    case 102:
+                        role.setUserName(r.readUtf8());
+                        break;
+                    default:
+                        r.skip();
+                    }
+                }
+                r.end();
+                break;
+            case 103:                               // privileges
+                r.beginConstructed();
+                while (r.hasNext())
+                {
+                    Role.Privilege p = Role.Privilege.valueOf(r.nextField());
+                    if (p == null)
+                        r.skip();
+                    else if (r.readBoolean())
+                        role.addPrivilege(p);
+                }
+                r.end();
+                break;
+            case 104:                               // study
+                r.beginConstructed();
+                while (r.hasNext())
+                {
+                    switch (r.nextField())
+                    {
+                    case 1:
+                        role.setStudyIdentifier(r.readUtf8());
+                        break;
+                    case 102:
+                        role.setStudyName(r.readUtf8());
+                        break;
+                    default:
+                        r.skip();
+                    }
+                }
+                r.end();
+                break;
+            default:
+                r.skip();
+            }
+        }
+
+        r.end();
+
+        return role;
+
+    }   //  end readRole
+
+
+    public byte [] makeBytesFromRole(Role role)
+    {
+        DerWriter w = new DerWriter();
+        int end = w.mark();
+
+        int study = w.mark();
+        w.writeUtf8(102, role.getStudyName());
+        w.writeUtf8(1,   role.getStudyIdentifier());
+        w.endConstructed(104, study);
+
+        int privileges = w.mark();
+        for (int n = Role.Privilege.numberOfPrivileges();  n >= 1;  --n)
+            w.writeBoolean(n, role.getPrivilege(Role.Privilege.valueOf(n)));
+        w.endConstructed(103, privileges);
+
+        int roleholder = w.mark();
+        w.writeUtf8(102, role.getUserName());
+        w.writeUtf8(1,   role.getUserIdentifier());
+        w.endConstructed(102, roleholder);
+
+        w.endSequence(end);
+
+        return w.toByteArray();
+    }
+
+
+    public Predictor makePredictorFromBytes(byte [] predictorAsBytes)
+    {
+        try
+        {
+            DerReader r = new DerReader(predictorAsBytes);
+            Predictor predictor = readPredictor(r);
+            r.endDocument();
+            return predictor;
+        }
+        catch (IOException e)
+        {
+            parseFailed("predictor", e);
+            return null;
+        }
+
+    }   //  end makePredictorFromBytes
+
+
+    private Predictor readPredictor(DerReader r) throws IOException
+    {
+        Predictor predictor = new Predictor(0);
+
+        predictor.setStatus(Predictor.Status.ACTIVE);
+        predictor.setType  (Predictor.Type.CATEGORICAL);
+        predictor.setLevel (Predictor.Level.NOMINAL);
+
+        r.beginSequence();
+
+        while (r.hasNext())
+        {
+            switch (r.nextField())
+            {
+            case 1:                                 // name
+                predictor.setPredictorName(r.readUnsigned());
+                break;
+            case 2:                                 // status
+                predictor.setStatus(numberToPredictorStatus(r.readInteger()));
+                break;
+            case 3:                                 // type
+                predictor.setType(numberToPredictorType(r.readInteger()));
+                break;
+            case 4:                                 // level
+                predictor.setLevel(numberToLevel(r.readInteger()));
+                break;
+            default:
+                r.skip();
+            }
+        }
+
+        r.end();
+
+        return predictor;
+
+    }   //  end readPredictor
+
+
+    public byte [] makeBytesFromPredictor(Predictor predictor)
+    {
+        DerWriter w = new DerWriter();
+        writePredictor(w, predictor);
+        return w.toByteArray();
+    }
+
+    private void writePredictor(DerWriter w, Predictor predictor)
+    {
+        int end = w.mark();
+
+        w.writeInteger (4, levelToNumber          (predictor.getLevel()));
+        w.writeInteger (3, predictorTypeToNumber  (predictor.getType()));
+        w.writeInteger (2, predictorStatusToNumber(predictor.getStatus()));
+        w.writeUnsigned(1, predictor.getPredictorName());
+
+        w.endSequence(end);
+    }
+
+    // Enum conversions:  Predictor <-> ASN.1
+
+    private Predictor.Status numberToPredictorStatus(long n)
+        throws IOException
+    {
+        if (n == 1)  return Predictor.Status.ACTIVE;
+        if (n == 2)  return Predictor.Status.INACTIVE;
+
+        throw new IOException("Unknown predictor status:  " + n);
+    }
+
+    private int predictorStatusToNumber(Predictor.Status status)
+    {
+        switch (status)
+        {
+        case ACTIVE:    return 1;
+        case INACTIVE:  return 2;
+        }
+        return 0;
+    }
+
+    private Predictor.Type numberToPredictorType(long n) throws IOException
+    {
+        if (n == 1)  return Predictor.Type.CATEGORICAL;
+        if (n == 2)  return Predictor.Type.CONTINUOUS;
+
+        throw new IOException("Unknown predictor type:  " + n);
+    }
+
+    private int predictorTypeToNumber(Predictor.Type type)
+    {
+        switch (type)
+        {
+        case CATEGORICAL:  return 1;
+        case CONTINUOUS:   return 2;
+        }
+        return 0;
+    }
+
+    private Predictor.Level numberToLevel(long n) throws IOException
+    {
+        if (n == 1)  return Predictor.Level.NOMINAL;
+        if (n == 2)  return Predictor.Level.ORDINAL;
+        if (n == 3)  return Predictor.Level.INTERVAL;
+        if (n == 4)  return Predictor.Level.RATIO;
+
+        throw new IOException("Unknown predictor level:  " + n);
+    }
+
+    private int levelToNumber(Predictor.Level level)
+    {
+        switch (level)
+        {
+        case NOMINAL:   return 1;
+        case ORDINAL:   return 2;
+        case INTERVAL:  return 3;
+        case RATIO:     return 4;
+        }
+        return 0;
+    }
+
+
+    public Specimen makeSpecimenFromBytes(byte [] specimenAsBytes)
+    {
+        try
+        {
+            DerReader r = new DerReader(specimenAsBytes);
+            Specimen specimen = readSpecimen(r);
+            r.endDocument();
+            return specimen;
+        }
+        catch (IOException e)
+        {
+            parseFailed("specimen", e);
+            return null;
+        }
+
+    }   //  end makeSpecimenFromBytes
+
+
+    private Specimen readSpecimen(DerReader r) throws IOException
+    {
+        List<Cell> noCells = Collections.emptyList();
+        Specimen specimen = new Specimen(0, noCells);
+
+        specimen.setWeight(0);
+
+        List<Cell> cells = new ArrayList<Cell>();
+        Value value = null;
+        boolean badCell = false;
+
+        r.beginSequence();
+
+        while (r.hasNext())
+        {
+            int field = r.nextField();
+
+            switch (field)
+            {
+            case 1:                                 // key
+                specimen.setSpecimenKey(r.readUnsigned());
+                break;
+            case 2:                                 // status
+                specimen.setStatus(numberToSpecimenStatus(r.readInteger()));
+                break;
+            case 3:                                 // weight
+                specimen.setWeight(r.readUnsigned());
+                break;
+            case 8:                                 // cell
+                r.beginConstructed();
+                while (r.hasNext())
+                {
+                    Cell c = readCell(r);
+                    if (c == null)
+                        badCell = true;
+                    cells.add(c);
+                }
+                r.end();
+                break;
+            default:
+                Value v = readValue(r, field - SPECIMEN_VALUE_FIELD, false);
+                if (v != null)
+                    value = v;
+            }
+        }
+
+        r.end();
+
+        if (badCell)
+            return null;
+
+        if (value == null)
+        {
+            exception = new ServiceException("DER specimen has no value");
+            return null;
+        }
+
+        specimen.setPredictand(value);
+        specimen.setCells(cells);
+
+        return specimen;
+
+    }   //  end readSpecimen
+
+
+    public byte [] makeBytesFromSpecimen(Specimen specimen)
+    {
+        DerWriter w = new DerWriter();
+        writeSpecimen(w, specimen);
+        return w.toByteArray();
+    }
+
+    private void writeSpecimen(DerWriter w, Specimen specimen)
+    {
+        int end = w.mark();
+
+        List<Cell> cells = specimen.getCells();
+
+        if (!cells.isEmpty())
+        {
+            int cellEnd = w.mark();
+            for (int i = cells.size() - 1;  i >= 0;  --i)
+                writeCell(w, cells.get(i));
+            w.endConstructed(8, cellEnd);
+        }
+
+        if (!writeValue(w, specimen.getPredictand(), SPECIMEN_VALUE_FIELD,
+                                                                        false))
+            exception =
+                new ServiceException("Yosokumo specimen predictand value " +
+                                                        "has unknown type");
+
+        w.writeUnsigned(3, specimen.getWeight());
+        w.writeInteger (2, specimenStatusToNumber(specimen.getStatus()));
+        w.writeUnsigned(1, specimen.getSpecimenKey());
+
+        w.endSequence(end);
+    }
+
+    // Enum conversions:  Specimen <-> ASN.1
+
+    private Specimen.Status numberToSpecimenStatus(long n) throws IOException
+    {
+        if (n == 1)  return Specimen.Status.ACTIVE;
+        if (n == 2)  return Specimen.Status.INACTIVE;
+
+        throw new IOException("Unknown specimen status:  " + n);
+    }
+
+    private int specimenStatusToNumber(Specimen.Status status)
+    {
+        switch (status)
+        {
+        case ACTIVE:    return 1;
+        case INACTIVE:  return 2;
+        }
+        return 0;
+    }
+
+
+    public Cell makeCellFromBytes(byte [] cellAsBytes)
+    {
+        try
+        {
+            DerReader r = new DerReader(cellAsBytes);
+            Cell cell = readCell(r);
+            r.endDocument();
+            return cell;
+        }
+        catch (IOException e)
+        {
+            parseFailed("cell", e);
+            return null;
+        }
+
+    }   //  end makeCellFromBytes
+
+
+    private Cell readCell(DerReader r) throws IOException
+    {
+        long cellName = 0;
+        long cellKey  = 0;
+        boolean hasName = false;
+        boolean hasKey  = false;
+        Value value = null;
+
+        r.beginSequence();
+
+        while (r.hasNext())
+        {
+            int field = r.nextField();
+
+            switch (field)
+            {
+            case 1:                                 // name
+                cellName = r.readUnsigned();
+                hasName  = true;
+                break;
+            case 2:                                 // key
+                cellKey = r.readUnsigned();
+                hasKey  = true;
+                break;
+            default:
+                Value v = readValue(r, field - CELL_VALUE_FIELD, true);
+                if (v != null)
+                    value = v;
+            }
+        }
+
+        r.end();
+
+        if (!hasKey && !hasName)
+        {
+            exception = new ServiceException("DER cell has neither name " +
+                                             "nor key");
+            return null;
+        }
+
+        if (value == null)
+        {
+            exception = new ServiceException("DER cell has no value");
+            return null;
+        }
+
+        return new Cell(hasKey ? cellKey : cellName, value);
+
+    }   //  end readCell
+
+
+    public byte [] makeBytesFromCell(Cell cell)
+    {
+        DerWriter w = new DerWriter();
+        writeCell(w, cell);
+        return w.toByteArray();
+    }
+
+    private void writeCell(DerWriter w, Cell cell)
+    {
+        int end = w.mark();
+
+        if (!writeValue(w, cell.getValue(), CELL_VALUE_FIELD, true))
+            exception =
+                new ServiceException("Yosokumo cell value has unknown type");
+
+        w.writeUnsigned(1, cell.getName());
+
+        w.endSequence(end);
+    }
+
+    /*
+     * The value fields of a specimen and of a cell have the same order:
+     * empty, natural, integer, real, and (in a cell only) special.  These
+     * are the tag numbers of the empty fields; the others follow.
+     */
+    private static final int SPECIMEN_VALUE_FIELD = 4;
+    private static final int CELL_VALUE_FIELD     = 3;
+
+    private static final int EMPTY   = 0;
+    private static final int NATURAL = 1;
+    private static final int INTEGER = 2;
+    private static final int REAL    = 3;
+    private static final int SPECIAL = 4;
+
+    /**
+     * Read a field which may hold the value of a specimen or cell, given
+     * as its offset from the empty field.  Return the value, or null
+     * (having skipped the field) if the field does not hold a value.
+     * Special values are allowed only in cells.
+     */
+    private Value readValue(DerReader r, int which, boolean allowSpecial)
+        throws IOException
+    {
+        switch (which)
+        {
+        case EMPTY:
+            r.readBoolean();
+            return new EmptyValue();
+        case NATURAL:
+            return new NaturalValue(r.readUnsigned());
+        case INTEGER:
+            return new IntegerValue(r.readInteger());
+        case REAL:
+            return new RealValue(r.readReal());
+        case SPECIAL:
+            if (allowSpecial)
+                return new SpecialValue(r.readUnsigned());
+            break;
+        default:
+            break;
+        }
+
+        r.skip();
+        return null;
+    }
+
+    /**
+     * Write the field holding the value of a specimen or cell, whose empty
+     * field has a given tag number.  Return false if the value has an
+     * unknown type, in which case an empty value is written.
+     */
+    private boolean writeValue(DerWriter w, Value v, int emptyField,
+                               boolean allowSpecial)
+    {
+        switch (v.getType())
+        {
+        case EMPTY:
+            w.writeBoolean(emptyField + EMPTY, true);
+            break;
+        case NATURAL:
+            w.writeUnsigned(emptyField + NATURAL,
+                                            ((NaturalValue)v).getValue());
+            break;
+        case INTEGER:
+            w.writeInteger(emptyField + INTEGER,
+                                            ((IntegerValue)v).getValue());
+            break;
+        case REAL:
+            w.writeReal(emptyField + REAL, ((RealValue)v).getValue());
+            break;
+        case SPECIAL:
+            if (!allowSpecial)
+            {
+                w.writeBoolean(emptyField + EMPTY, true);
+                return false;
+            }
+            w.writeUnsigned(emptyField + SPECIAL,
+                                            ((SpecialValue)v).getValue());
+            break;
+        default:
+            w.writeBoolean(emptyField + EMPTY, true);
+            return false;
+        }
+
+        return true;
+    }
+
+
+    public Block makeBlockFromBytes(byte [] blockAsBytes)
+    {
+        try
+        {
+            DerReader r = new DerReader(blockAsBytes);
+            Block block = readBlock(r);
+            r.endDocument();
+            return block;
+        }
+        catch (IOException e)
+        {
+            parseFailed("block", e);
+            return null;
+        }
+
+    }   //  end makeBlockFromBytes
+
+
+    public Block makeBlockFromStream(InputStream blockStream)
+    {
+        try
+        {
+            DerReader r = new DerReader(blockStream);
+            Block block = readBlock(r);
+            r.endDocument();
+            return block;
+        }
+        catch (IOException e)
+        {
+            parseFailed("block", e);
+            return null;
+        }
+
+    }   //  end makeBlockFromStream
+
+
+    private Block readBlock(DerReader r) throws IOException
+    {
+        String id = "";
+        boolean empty = false;
+        List<Predictor> predictors = new ArrayList<Predictor>();
+        List<Specimen>  specimens  = new ArrayList<Specimen>();
+        boolean bad = false;
+
+        r.beginSequence();
+
+        while (r.hasNext())
+        {
+            switch (r.nextField())
+            {
+            case 1:                                 // studyIdentifier
+                id = r.readUtf8();
+                break;
+            case 2:                                 // empty
+                empty = r.readBoolean();
+                break;
+            case 3:                                 // predictor
+                r.beginConstructed();
+                while (r.hasNext())
+                    predictors.add(readPredictor(r));
+                r.end();
+                break;
+            case 4:                                 // specimen
+                r.beginConstructed();
+                while (r.hasNext())
+                {
+                    Specimen s = readSpecimen(r);
+                    if (s == null)
+                        bad = true;
+                    specimens.add(s);
+                }
+                r.end();
+                break;
+            default:
+                r.skip();
+            }
+        }
+
+        r.end();
+
+        if (bad)
+            return null;
+
+        // Create a Yosokumo Block of the type shown by the fields present
+
+        if (empty)
+            return new EmptyBlock(id);
+
+        if (!predictors.isEmpty())
+        {
+            PredictorBlock pblock = new PredictorBlock(id);
+            pblock.addPredictors(predictors);
+            return pblock;
+        }
+
+        SpecimenBlock sblock = new SpecimenBlock(id);
+        sblock.addSpecimens(specimens);
+        return sblock;
+
+    }   //  end readBlock
+
+
+    public byte [] makeBytesFromBlock(Block block)
+    {
+        DerWriter w = new DerWriter();
+        writeBlock(w, block);
+        return w.toByteArray();
+    }
+
+    public ByteBuffer makeBufferFromBlock(Block block, BufferPool pool)
+    {
+        DerWriter w = new DerWriter(pool);
+        writeBlock(w, block);
+        return w.toBuffer();
+    }
+
+    private void writeBlock(DerWriter w, Block block)
+    {
+        int end = w.mark();
+
+        switch (block.getType())
+        {
+        case EMPTY:
+            w.writeBoolean(2, true);
+            break;
+
+        case PREDICTOR:
+        {
+            List<Predictor> predictors =
+                            ((PredictorBlock)block).getPredictorSequence();
+            int seqEnd = w.mark();
+            for (int i = predictors.size() - 1;  i >= 0;  --i)
+                writePredictor(w, predictors.get(i));
+            w.endConstructed(3, seqEnd);
+            break;
+        }
+
+        case SPECIMEN:
+        {
+            List<Specimen> specimens =
+                            ((SpecimenBlock)block).getSpecimenSequence();
+            int seqEnd = w.mark();
+            for (int i = specimens.size() - 1;  i >= 0;  --i)
+                writeSpecimen(w, specimens.get(i));
+            w.endConstructed(4, seqEnd);
+            break;
+        }
+
+        default:
+            w.writeBoolean(2, true);
+            exception =
+                new ServiceException("Yosokumo block has unknown type");
+        }
+
+        w.writeUtf8(1, block.getStudyIdentifier());
+
+        w.endSequence(end);
+    }
+
+
+    public Message makeMessageFromBytes(byte [] messageAsBytes)
+    {
+        try
+        {
+            DerReader r = new DerReader(messageAsBytes);
+            Message message = readMessage(r);
+            r.endDocument();
+            return message;
+        }
+        catch (IOException e)
+        {
+            parseFailed("message", e);
+            return null;
+        }
+
+    }   //  end makeMessageFromBytes
+
+
+    private Message readMessage(DerReader r) throws IOException
+    {
+        Message.Type type = Message.Type.INFORMATION;
+        String text = "";
+
+        r.beginSequence();
+
+        while (r.hasNext())
+        {
+            switch (r.nextField())
+            {
+            case 101:                               // type
+            {
+                long n = r.readInteger();
+                if      (n == 1)
+                    type = Message.Type.INFORMATION;
+                else if (n == 2)
+                    type = Message.Type.ERROR;
+                else
+                    throw new IOException("Unknown message type:  " + n);
+                break;
+            }
+            case 102:                               // text
+                text = r.readUtf8();
+                break;
+            default:
+                r.skip();
+            }
+        }
+
+        r.end();
+
+        Message m = new Message(type, text);
+
+        return (m.getText().trim().isEmpty() ? null : m);
+
+    }   //  end readMessage
+
+
+    /**
+     * Read a constructed field holding a location, e.g., the table field of
+     * a study, and return the location, or an empty string if there is
+     * none.
+     *
+     * @param  locationField  the tag number of the location in the field.
+     */
+    private String readLocation(DerReader r, int locationField)
+        throws IOException
+    {
+        String location = "";
+
+        r.beginConstructed();
+        while (r.hasNext())
+        {
+            if (r.nextField() == locationField)
+                location = r.readUtf8();
+            else
+                r.skip();
+        }
+        r.end();
+
+        return location;
+    }
+
+
+}   //  end class YosokumoAsn1
+
+// end YosokumoAsn1.java
@@ -2,6 +2,9 @@
 
 package com.yosokumo.core;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
 /**
  * Defines methods which transform bytes obtained from HTTP requests into 
  * Yosokumo Java objects (such as {@code Catalog} and {@code Study}) and 
@@ -215,6 +218,18 @@ interface YosokumoDIF
      */
     Block makeBlockFromBytes(byte [] blockAsBytes);
 
+    /**
+     * Make a Yosokumo {@code Block} object out of an HTTP Entity read from 
+     * a stream.  This avoids gathering a large entity into one array.
+     *
+     * @param  blockStream a stream supplying the bytes of a block from an 
+     *         HTTP Entity.
+     *
+     * @return the Yosokumo {@code Block} object represented by the bytes 
+     *         read from the stream.
+     */
+    Block makeBlockFromStream(InputStream blockStream);
+
     /**
      * Make the bytes for an HTTP Entity out of a Yosokumo {@code Block} 
      * object.
@@ -226,6 +241,20 @@ interface YosokumoDIF
      */
     byte [] makeBytesFromBlock(Block block);
 
+    /**
+     * Make the bytes for an HTTP Entity out of a Yosokumo {@code Block} 
+     * object, encoding them into an array obtained from a pool.  The caller
+     * gives the array back to the pool when the entity has been sent.
+     *
+     * @param  block  a Yosokumo {@code Block} object.
+     * @param  pool   the pool from which to obtain the array.
+     *
+     * @return a buffer whose remaining bytes represent the input Yosokumo 
+     *         {@code Block} object.  The buffer's backing array is the one
+     *         obtained from the pool.
+     */
+    ByteBuffer makeBufferFromBlock(Block block, BufferPool pool);
+
 
     /**
      * Make a Yosokumo {@code Message} object out of the bytes of an HTTP 
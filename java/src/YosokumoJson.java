@@ -0,0 +1,1367 @@
+// YosokumoJson.java
+
+package com.yosokumo.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Implements all functionality for transforming HTTP entity bytes in JSON
+ * form into Yosokumo Java objects (e.g., {@code Catalog} and {@code Study})
+ * and vice versa.
+ * <p>
+ * The JSON form of each object follows the Google Protocol Buffers
+ * definition of the object (see yosokumo.proto):  an object is a JSON
+ * object whose members have the names of the fields of the message, and
+ * a repeated field is an array.  Enumerated values are the strings of the
+ * definition (e.g., "Running"), 64-bit integers are numbers, and an absent
+ * member has the default value it has in a Protocol Buffer.  For example,
+ * a specimen block is:
+ * <pre>
+ *   {"study_identifier":"7C3A9E2B40F15D86",
+ *    "specimen":[{"key":1,"status":"Active","weight":1,"real":2.5,
+ *                 "cell":[{"name":3,"natural":4}, ...]}, ...]}
+ * </pre>
+ * Members with unknown names are ignored.
+ * <p>
+ * Objects are converted with a streaming parser and generator (see
+ * {@code JsonReader} and {@code JsonWriter}), straight between the bytes
+ * and the Yosokumo objects, without an intermediate tree or map.  In
+ * general there are four functions for each Yosokumo class, illustrated
+ * here for {@code Specimen}:
+ * <pre>
+ *   public  Specimen makeSpecimenFromBytes(byte [] specimenAsBytes)
+ *   private Specimen readSpecimen         (JsonReader r)
+ *   public  byte []  makeBytesFromSpecimen(Specimen specimen)
+ *   private void     writeSpecimen        (JsonWriter w, Specimen specimen)
+ * </pre>
+ * The read functions are also used for objects nested in other objects,
+ * e.g., the specimens of a block.
+ */
+class YosokumoJson implements YosokumoDIF
+{
+    private ServiceException exception = null;
+
+    public String getContentType()
+    {
+        return "application/yosokumo+json";
+    }
+
+    public ServiceException getException()
+    {
+        return exception;
+    }
+
+    /**
+     * Record that parsing the JSON text of an object failed.
+     */
+    private void parseFailed(String what, IOException e)
+    {
+        exception = new ServiceException("Parse of JSON " + what + " failed", e);
+    }
+
+
+    public Catalog makeCatalogFromBytes(byte [] catalogAsBytes)
+    {
+        try
+        {
+            JsonReader r = new JsonReader(catalogAsBytes);
+            Catalog catalog = readCatalog(r);
+            r.endDocument();
+            return catalog;
+        }
+        catch (IOException e)
+        {
+            parseFailed("catalog", e);
+            return null;
+        }
+
+    }   //  end makeCatalogFromBytes
+
+
+    private Catalog readCatalog(JsonReader r) throws IOException
+    {
+        Catalog catalog = new Catalog();
+
+        // Note that if any of the following members are missing, they will
+        // be empty strings
+
+        catalog.setUserIdentifier ("");
+        catalog.setUserName       ("");
+        catalog.setCatalogLocation("");
+
+        boolean duplicate = false;
+
+        r.beginObject();
+
+        while (r.hasNext())
+        {
+            String name = r.nextName();
+
+            if (skipNull(r))
+                continue;
+
+            if      (name.equals("user_identifier"))
+                catalog.setUserIdentifier(r.nextString());
+            else if (name.equals("user_name"))
+                catalog.setUserName(r.nextString());
+            else if (name.equals("location"))
+                catalog.setCatalogLocation(r.nextString());
+            else if (name.equals("study"))
+            {
+                r.beginArray();
+                while (r.hasNext())
+                {
+                    if (catalog.addStudy(readStudy(r)) != null)
+                        duplicate = true;
+                }
+                r.endArray();
+            }
+            else
+                r.skipValue();
+        }
+
+        r.endObject();
+
+        if (duplicate)
+        {
+            exception = new ServiceException("Yosokumo Catalog contains" +
+                                    " two studies with the same identifier");
+            return null;
+        }
+
+        return catalog;
+
+    }   //  end readCatalog
+
+
+    public Study makeStudyFromBytes(byte [] studyAsBytes)
+    {
+        try
+        {
+            JsonReader r = new JsonReader(studyAsBytes);
+            Study study = readStudy(r);
+            r.endDocument();
+            return study;
+        }
+        catch (IOException e)
+        {
+            parseFailed("study", e);
+            return null;
+        }
+
+    }   //  end makeStudyFromBytes
+
+
+    private Study readStudy(JsonReader r) throws IOException
+    {
+        Study study = new Study();
+
+        // Note that if any of the following members are missing, they will
+        // be empty strings or the first value of their enumeration
+
+        study.setStudyIdentifier("");
+        study.setStudyName      ("");
+        study.setStudyLocation  ("");
+        study.setType           (Study.Type.CLASS);
+        study.setStatus         (Study.Status.RUNNING);
+        study.setVisibility     (Study.Visibility.PRIVATE);
+        study.setOwnerIdentifier("");
+        study.setOwnerName      ("");
+        study.setTableLocation  ("");
+        study.setModelLocation  ("");
+        study.setPanelLocation  ("");
+        study.setRosterLocation ("");
+
+        r.beginObject();
+
+        while (r.hasNext())
+        {
+            String name = r.nextName();
+
+            if (skipNull(r))
+                continue;
+
+            if      (name.equals("study_identifier"))
+                study.setStudyIdentifier(r.nextString());
+            else if (name.equals("study_name"))
+                study.setStudyName(r.nextString());
+            else if (name.equals("type"))
+                study.setType(stringToStudyType(r.nextString()));
+            else if (name.equals("status"))
+                study.setStatus(stringToStudyStatus(r.nextString()));
+            else if (name.equals("visibility"))
+                study.setVisibility(stringToVisibility(r.nextString()));
+            else if (name.equals("location"))
+                study.setStudyLocation(r.nextString());
+            else if (name.equals("owner"))
+            {
+                r.beginObject();
+                while (r.hasNext())
+                {
+                    String member = r.nextName();
+                    if (skipNull(r))
+                        continue;
+                    if      (member.equals("user_identifier"))
+                        study.setOwnerIdentifier(r.nextString());
+                    else if (member.equals("user_name"))
+                        study.setOwnerName(r.nextString());
+                    else
+                        r.skipValue();
+                }
+                r.endObject();
+            }
+            else if (name.equals("table"))
+                study.setTableLocation(readLocation(r));
+            else if (name.equals("model"))
+                study.setModelLocation(readLocation(r));
+            else if (name.equals("panel"))
+                study.setPanelLocation(readLocation(r));
+            else if (name.equals("roster"))
+                study.setRosterLocation(readLocation(r));
+            else
+                r.skipValue();
+        }
+
+        r.endObject();
+
+        return study;
+
+    }   //  end readStudy
+
+
+    public byte [] makeBytesFromStudy(Study study)
+    {
+        JsonWriter w = new JsonWriter();
+
+        w.beginObject();
+        writeString(w, "study_identifier", study.getStudyIdentifier());
+        writeString(w, "study_name",       study.getStudyName());
+        w.name("type"      ).value(studyTypeToString  (study.getType()));
+        w.name("status"    ).value(studyStatusToString(study.getStatus()));
+        w.name("visibility").value(visibilityToString (study.getVisibility()));
+        w.endObject();
+
+        return w.toByteArray();
+    }
+
+    private Study.Type stringToStudyType(String s) throws IOException
+    {
+        if (s.equals("Class"))   return Study.Type.CLASS;
+        if (s.equals("Rank"))    return Study.Type.RANK;
+        if (s.equals("Number"))  return Study.Type.NUMBER;
+        if (s.equals("Chance"))  return Study.Type.CHANCE;
+
+        throw new IOException("Unknown study type:  " + s);
+    }
+
+    private String studyTypeToString(Study.Type type)
+    {
+        switch (type)
+        {
+        case CLASS :  return "Class";
+        case RANK  :  return "Rank";
+        case NUMBER:  return "Number";
+        case CHANCE:  return "Chance";
+        }
+        return null;
+    }
+
+    private Study.Status stringToStudyStatus(String s) throws IOException
+    {
+        if (s.equals("Running"))  return Study.Status.RUNNING;
+        if (s.equals("Standby"))  return Study.Status.STANDBY;
+        if (s.equals("Stopped"))  return Study.Status.STOPPED;
+
+        throw new IOException("Unknown study status:  " + s);
+    }
+
+    private String studyStatusToString(Study.Status status)
+    {
+        switch (status)
+        {
+        case RUNNING:  return "Running";
+        case STANDBY:  return "Standby";
+        case STOPPED:  return "Stopped";
+        }
+        return null;
+    }
+
+    private Study.Visibility stringToVisibility(String s) throws IOException
+    {
+        if (s.equals("Private"))  return Study.Visibility.PRIVATE;
+        if (s.equals("Public"))   return Study.Visibility.PUBLIC;
+
+        throw new IOException("Unknown study visibility:  " + s);
+    }
+
+    private String visibilityToString(Study.Visibility visibility)
+    {
+        switch (visibility)
+        {
+        case PRIVATE:  return "Private";
+        case PUBLIC :  return "Public";
+        }
+        return null;
+    }
+
+    public byte [] makeBytesFromStudyName(String name)
+    {
+        JsonWriter w = new JsonWriter();
+
+        w.beginObject();
+        writeString(w, "study_name", name);
+        w.endObject();
+
+        return w.toByteArray();
+    }
+
+    public byte [] makeBytesFromStudyStatus(Study.Status status)
+    {
+        JsonWriter w = new JsonWriter();
+
+        w.beginObject();
+        w.name("status").value(studyStatusToString(status));
+        w.endObject();
+
+        return w.toByteArray();
+    }
+
+    public byte [] makeBytesFromStudyVisibility(Study.Visibility visibility)
+    {
+        JsonWriter w = new JsonWriter();
+
+        w.beginObject();
+        w.name("visibility").value(visibilityToString(visibility));
+        w.endObject();
+
+        return w.toByteArray();
+    }
+
+
+    public Panel makePanelFromBytes(byte [] panelAsBytes)
+    {
+        try
+        {
+            JsonReader r = new JsonReader(panelAsBytes);
+            Panel panel = readPanel(r);
+            r.endDocument();
+            return panel;
+        }
+        catch (IOException e)
+        {
+            parseFailed("panel", e);
+            return null;
+        }
+
+    }   //  end makePanelFromBytes
+
+
+    private Panel readPanel(JsonReader r) throws IOException
+    {
+        Panel panel = new Panel();
+
+        panel.setNameControlLocation      ("");
+        panel.setStatusControlLocation    ("");
+        panel.setVisibilityControlLocation("");
+        panel.setCreationTime             ("");
+        panel.setLatestBlockTime          ("");
+        panel.setLatestProspectTime       ("");
+
+        r.beginObject();
+
+        while (r.hasNext())
+        {
+            String name = r.nextName();
+
+            if (skipNull(r))
+                continue;
+
+            if      (name.equals("study_name_control"))
+                panel.setNameControlLocation(readLocation(r));
+            else if (name.equals("status_control"))
+                panel.setStatusControlLocation(readLocation(r));
+            else if (name.equals("visibility_control"))
+                panel.setVisibilityControlLocation(readLocation(r));
+            else if (name.equals("block_count_control"))
+                panel.setBlockCount(readCount(r, "block_count"));
+            else if (name.equals("cell_count_control"))
+                panel.setCellCount(readCount(r, "cell_count"));
+            else if (name.equals("prospect_count_control"))
+                panel.setProspectCount(readCount(r, "prospect_count"));
+            else if (name.equals("creation_time_control"))
+                panel.setCreationTime(readTime(r, "creation_time"));
+            else if (name.equals("latest_block_time_control"))
+                panel.setLatestBlockTime(readTime(r, "latest_block_time"));
+            else if (name.equals("latest_prospect_time_control"))
+                panel.setLatestProspectTime(
+                                    readTime(r, "latest_prospect_time"));
+            else
+                r.skipValue();
+        }
+
+        r.endObject();
+
+        return panel;
+
+    }   //  end readPanel
+
+
+    /**
+     * Read a panel control and return the count which it holds, or 0 if it
+     * holds none.
+     */
+    private long readCount(JsonReader r, String countName) throws IOException
+    {
+        long count = 0;
+
+        r.beginObject();
+        while (r.hasNext())
+        {
+            String name = r.nextName();
+            if (skipNull(r))
+                continue;
+            if (name.equals(countName))
+                count = r.nextUnsignedLong();
+            else
+                r.skipValue();
+        }
+        r.endObject();
+
+        return count;
+    }
+
+    /**
+     * Read a panel control and return the time which it holds, or an empty
+     * string if it holds none.
+     */
+    private String readTime(JsonReader r, String timeName) throws IOException
+    {
+        String time = "";
+
+        r.beginObject();
+        while (r.hasNext())
+        {
+            String name = r.nextName();
+            if (skipNull(r))
+                continue;
+            if (name.equals(timeName))
+                time = r.nextString();
+            else
+                r.skipValue();
+        }
+        r.endObject();
+
+        return time;
+    }
+
+
+    public Roster makeRosterFromBytes(byte [] rosterAsBytes)
+    {
+        try
+        {
+            JsonReader r = new JsonReader(rosterAsBytes);
+            Roster roster = readRoster(r);
+            r.endDocument();
+            return roster;
+        }
+        catch (IOException e)
+        {
+            parseFailed("roster", e);
+            return null;
+        }
+
+    }   //  end makeRosterFromBytes
+
+
+    private Roster readRoster(JsonReader r) throws IOException
+    {
+        Roster roster = new Roster();
+
+        roster.setStudyIdentifier("");
+        roster.setStudyName      ("");
+        roster.setRosterLocation ("");
+
+        boolean duplicate = false;
+
+        r.beginObject();
+
+        while (r.hasNext())
+        {
+            String name = r.nextName();
+
+            if (skipNull(r))
+                continue;
+
+            if      (name.equals("study_identifier"))
+                roster.setStudyIdentifier(r.nextString());
+            else if (name.equals("study_name"))
+                roster.setStudyName(r.nextString());
+            else if (name.equals("location"))
+                roster.setRosterLocation(r.nextString());
+            else if (name.equals("role"))
+            {
+                r.beginArray();
+                while (r.hasNext())
+                {
+                    if (roster.addRole(readRole(r)) != null)
+                        duplicate = true;
+                }
+                r.endArray();
+            }
+            else
+                r.skipValue();
+        }
+
+        r.endObject();
+
+        if (duplicate)
+        {
+            exception = new ServiceException("Yosokumo Roster contains" +
+                                    " two roles with the same identifier");
+            return null;
+        }
+
+        return roster;
+
+    }   //  end readRoster
+
+
+    public Role makeRoleFromBytes(byte [] roleAsBytes)
+    {
+        try
+        {
+            JsonReader r = new JsonReader(roleAsBytes);
+            Role role = readRole(r);
+            r.endDocument();
+            return role;
+        }
+        catch (IOException e)
+        {
+            parseFailed("role", e);
+            return null;
+        }
+
+    }   //  end makeRoleFromBytes
+
+
+    private Role readRole(JsonReader r) throws IOException
+    {
+        Role role = new Role("", "");
+
+        // Note that if any of the following members are missing, they will
+        // be empty strings
+
+        role.setRoleLocation("");
+        role.setUserName    ("");
+        role.setStudyName   ("");
+
+        r.beginObject();
+
+        while (r.hasNext())
+        {
+            String name = r.nextName();
+
+            if (skipNull(r))
+                continue;
+
+            if (name.equals("location"))
+                role.setRoleLocation(r.nextString());
+            else if (name.equals("roleholder"))
+            {
+                r.beginObject();
+                while (r.hasNext())
+                {
+                    String member = r.nextName();
+                    if (skipNull(r))
+                        continue;
+                    if      (member.equals("user_identifier"))
+                        role.setUserIdentifier(r.nextString());
+                    else if (member.equals("user_name"))
+                        role.setUserName(r.nextString());
+                    else
+                        r.skipValue();
+                }
+                r.endObject();
+            }
+            else if (name.equals("study"))
+            {
+                r.beginObject();
+                while (r.hasNext())
+                {
+                    String member = r.nextName();
+                    if (skipNull(r))
+                        continue;
+                    if      (member.equals("study_identifier"))
+                        role.setStudyIdentifier(r.nextString());
+                    else if (member.equals("study_name"))
+                        role.setStudyName(r.nextString());
+                    else
+                        r.skipValue();
+                }
+                r.endObject();
+            }
+            else if (name.equals("privileges"))
+            {
+                r.beginObject();
+                while (r.hasNext())
+                {
+                    Role.Privilege p = nameToPrivilege(r.nextName());
+                    if (skipNull(r))
+                        continue;
+                    if (p == null)
+                        r.skipValue();
+                    else if (r.nextBoolean())
+                        role.addPrivilege(p);
+                }
+                r.endObject();
+            }
+            else
+                r.skipValue();
+        }
+
+        r.endObject();
+
+        return role;
+
+    }   //  end readRole
+
+
+    public byte [] makeBytesFromRole(Role role)
+    {
+        JsonWriter w = new JsonWriter();
+
+        w.beginObject();
+
+        w.name("roleholder").beginObject();
+        writeString(w, "user_identifier", role.getUserIdentifier());
+        writeString(w, "user_name",       role.getUserName());
+        w.endObject();
+
+        w.name("privileges").beginObject();
+        for (Role.Privilege p : Role.Privilege.values())
+            w.name(privilegeToName(p)).value(role.getPrivilege(p));
+        w.endObject();
+
+        w.name("study").beginObject();
+        writeString(w, "study_identifier", role.getStudyIdentifier());
+        writeString(w, "study_name",       role.getStudyName());
+        w.endObject();
+
+        w.endObject();
+
+        return w.toByteArray();
+    }
+
+    /**
+     * Return the privilege with a given member name in the privileges of a
+     * role (e.g., "get_study" for GET_STUDY), or null if there is none.
+     */
+    private Role.Privilege nameToPrivilege(String name)
+    {
+        for (Role.Privilege p : Role.Privilege.values())
+        {
+            if (p.name().equalsIgnoreCase(name))
+                return p;
+        }
+        return null;
+    }
+
+    private String privilegeToName(Role.Privilege p)
+    {
+        return p.name().toLowerCase();
+    }
+
+
+    public Predictor makePredictorFromBytes(byte [] predictorAsBytes)
+    {
+        try
+        {
+            JsonReader r = new JsonReader(predictorAsBytes);
+            Predictor predictor = readPredictor(r);
+            r.endDocument();
+            return predictor;
+        }
+        catch (IOException e)
+        {
+            parseFailed("predictor", e);
+            return null;
+        }
+
+    }   //  end makePredictorFromBytes
+
+
+    private Predictor readPredictor(JsonReader r) throws IOException
+    {
+        Predictor predictor = new Predictor(0);
+
+        predictor.setStatus(Predictor.Status.ACTIVE);
+        predictor.setType  (Predictor.Type.CATEGORICAL);
+        predictor.setLevel (Predictor.Level.NOMINAL);
+
+        r.beginObject();
+
+        while (r.hasNext())
+        {
+            String name = r.nextName();
+
+            if (skipNull(r))
+                continue;
+
+            if      (name.equals("name"))
+                predictor.setPredictorName(r.nextUnsignedLong());
+            else if (name.equals("status"))
+                predictor.setStatus(stringToPredictorStatus(r.nextString()));
+            else if (name.equals("type"))
+                predictor.setType(stringToPredictorType(r.nextString()));
+            else if (name.equals("level"))
+                predictor.setLevel(stringToLevel(r.nextString()));
+            else
+                r.skipValue();
+        }
+
+        r.endObject();
+
+        return predictor;
+
+    }   //  end readPredictor
+
+
+    public byte [] makeBytesFromPredictor(Predictor predictor)
+    {
+        JsonWriter w = new JsonWriter();
+        writePredictor(w, predictor);
+        return w.toByteArray();
+    }
+
+    private void writePredictor(JsonWriter w, Predictor predictor)
+    {
+        w.beginObject();
+        w.name("name"  ).unsignedValue(predictor.getPredictorName());
+        w.name("status").value(predictorStatusToString(predictor.getStatus()));
+        w.name("type"  ).value(predictorTypeToString  (predictor.getType()));
+        w.name("level" ).value(levelToString          (predictor.getLevel()));
+        w.endObject();
+    }
+
+    // Enum conversions:  Predictor <-> JSON
+
+    private Predictor.Status stringToPredictorStatus(String s)
+        throws IOException
+    {
+        if (s.equals("Active"))    return Predictor.Status.ACTIVE;
+        if (s.equals("Inactive"))  return Predictor.Status.INACTIVE;
+
+        throw new IOException("Unknown predictor status:  " + s);
+    }
+
+    private String predictorStatusToString(Predictor.Status status)
+    {
+        switch (status)
+        {
+        case ACTIVE:    return "Active";
+        case INACTIVE:  return "Inactive";
+        }
+        return null;
+    }
+
+    private Predictor.Type stringToPredictorType(String s) throws IOException
+    {
+        if (s.equals("Categorical"))  return Predictor.Type.CATEGORICAL;
+        if (s.equals("Continuous"))   return Predictor.Type.CONTINUOUS;
+
+        throw new IOException("Unknown predictor type:  " + s);
+    }
+
+    private String predictorTypeToString(Predictor.Type type)
+    {
+        switch (type)
+        {
+        case CATEGORICAL:  return "Categorical";
+        case CONTINUOUS:   return "Continuous";
+        }
+        return null;
+    }
+
+    private Predictor.Level stringToLevel(String s) throws IOException
+    {
+        if (s.equals("Nominal"))   return Predictor.Level.NOMINAL;
+        if (s.equals("Ordinal"))   return Predictor.Level.ORDINAL;
+        if (s.equals("Interval"))  return Predictor.Level.INTERVAL;
+        if (s.equals("Ratio"))     return Predictor.Level.RATIO;
+
+        throw new IOException("Unknown predictor level:  " + s);
+    }
+
+    private String levelToString(Predictor.Level level)
+    {
+        switch (level)
+        {
+        case NOMINAL:   return "Nominal";
+        case ORDINAL:   return "Ordinal";
+        case INTERVAL:  return "Interval";
+        case RATIO:     return "Ratio";
+        }
+        return null;
+    }
+
+
+    public Specimen makeSpecimenFromBytes(byte [] specimenAsBytes)
+    {
+        try
+        {
+            JsonReader r = new JsonReader(specimenAsBytes);
+            Specimen specimen = readSpecimen(r);
+            r.endDocument();
+            return specimen;
+        }
+        catch (IOException e)
+        {
+            parseFailed("specimen", e);
+            return null;
+        }
+
+    }   //  end makeSpecimenFromBytes
+
+
+    private Specimen readSpecimen(JsonReader r) throws IOException
+    {
+        List<Cell> noCells = Collections.emptyList();
+        Specimen specimen = new Specimen(0, noCells);
+
+        specimen.setWeight(0);
+
+        List<Cell> cells = new ArrayList<Cell>();
+        Value value = null;
+        boolean badCell = false;
+
+        r.beginObject();
+
+        while (r.hasNext())
+        {
+            String name = r.nextName();
+
+            if (skipNull(r))
+                continue;
+
+            if      (name.equals("key"))
+                specimen.setSpecimenKey(r.nextUnsignedLong());
+            else if (name.equals("status"))
+                specimen.setStatus(stringToSpecimenStatus(r.nextString()));
+            else if (name.equals("weight"))
+                specimen.setWeight(r.nextUnsignedLong());
+            else if (name.equals("cell"))
+            {
+                r.beginArray();
+                while (r.hasNext())
+                {
+                    Cell c = readCell(r);
+                    if (c == null)
+                        badCell = true;
+                    cells.add(c);
+                }
+                r.endArray();
+            }
+            else
+            {
+                Value v = readValue(r, name, false);
+                if (v != null)
+                    value = v;
+            }
+        }
+
+        r.endObject();
+
+        if (badCell)
+            return null;
+
+        if (value == null)
+        {
+            exception = new ServiceException("JSON specimen has no value");
+            return null;
+        }
+
+        specimen.setPredictand(value);
+        specimen.setCells(cells);
+
+        return specimen;
+
+    }   //  end readSpecimen
+
+
+    public byte [] makeBytesFromSpecimen(Specimen specimen)
+    {
+        JsonWriter w = new JsonWriter();
+        writeSpecimen(w, specimen);
+        return w.toByteArray();
+    }
+
+    private void writeSpecimen(JsonWriter w, Specimen specimen)
+    {
+        w.beginObject();
+
+        w.name("key"   ).unsignedValue(specimen.getSpecimenKey());
+        w.name("status").value(specimenStatusToString(specimen.getStatus()));
+        w.name("weight").unsignedValue(specimen.getWeight());
+
+        if (!writeValue(w, specimen.getPredictand(), false))
+            exception =
+                new ServiceException("Yosokumo specimen predictand value " +
+                                                        "has unknown type");
+
+        List<Cell> cells = specimen.getCells();
+
+        if (!cells.isEmpty())
+        {
+            w.name("cell").beginArray();
+            for (Cell c : cells)
+                writeCell(w, c);
+            w.endArray();
+        }
+
+        w.endObject();
+    }
+
+    // Enum conversions:  Specimen <-> JSON
+
+    private Specimen.Status stringToSpecimenStatus(String s)
+        throws IOException
+    {
+        if (s.equals("Active"))    return Specimen.Status.ACTIVE;
+        if (s.equals("Inactive"))  return Specimen.Status.INACTIVE;
+
+        throw new IOException("Unknown specimen status:  " + s);
+    }
+
+    private String specimenStatusToString(Specimen.Status status)
+    {
+        switch (status)
+        {
+        case ACTIVE:    return "Active";
+        case INACTIVE:  return "Inactive";
+        }
+        return null;
+    }
+
+
+    public Cell makeCellFromBytes(byte [] cellAsBytes)
+    {
+        try
+        {
+            JsonReader r = new JsonReader(cellAsBytes);
+            Cell cell = readCell(r);
+            r.endDocument();
+            return cell;
+        }
+        catch (IOException e)
+        {
+            parseFailed("cell", e);
+            return null;
+        }
+
+    }   //  end makeCellFromBytes
+
+
+    private Cell readCell(JsonReader r) throws IOException
+    {
+        long cellName = 0;
+        long cellKey  = 0;
+        boolean hasName = false;
+        boolean hasKey  = false;
+        Value value = null;
+
+        r.beginObject();
+
+        while (r.hasNext())
+        {
+            String name = r.nextName();
+
+            if (skipNull(r))
+                continue;
+
+            if (name.equals("name"))
+            {
+                cellName = r.nextUnsignedLong();
+                hasName  = true;
+            }
+            else if (name.equals("key"))
+            {
+                cellKey = r.nextUnsignedLong();
+                hasKey  = true;
+            }
+            else
+            {
+                Value v = readValue(r, name, true);
+                if (v != null)
+                    value = v;
+            }
+        }
+
+        r.endObject();
+
+        if (!hasKey && !hasName)
+        {
+            exception = new ServiceException("JSON cell has neither name " +
+                                             "nor key");
+            return null;
+        }
+
+        if (value == null)
+        {
+            exception = new ServiceException("JSON cell has no value");
+            return null;
+        }
+
+        return new Cell(hasKey ? cellKey : cellName, value);
+
+    }   //  end readCell
+
+
+    public byte [] makeBytesFromCell(Cell cell)
+    {
+        JsonWriter w = new JsonWriter();
+        writeCell(w, cell);
+        return w.toByteArray();
+    }
+
+    private void writeCell(JsonWriter w, Cell cell)
+    {
+        w.beginObject();
+        w.name("name").unsignedValue(cell.getName());
+
+        if (!writeValue(w, cell.getValue(), true))
+            exception =
+                new ServiceException("Yosokumo cell value has unknown type");
+
+        w.endObject();
+    }
+
+    /**
+     * Read the value of a member which may hold the value of a specimen or
+     * cell.  Return the value, or null (having skipped the member) if the
+     * member does not hold a value.  Special values are allowed only in
+     * cells.
+     */
+    private Value readValue(JsonReader r, String name, boolean allowSpecial)
+        throws IOException
+    {
+        if (name.equals("empty"))
+        {
+            r.nextBoolean();
+            return new EmptyValue();
+        }
+        if (name.equals("natural"))
+            return new NaturalValue(r.nextUnsignedLong());
+        if (name.equals("integer"))
+            return new IntegerValue(r.nextLong());
+        if (name.equals("real"))
+            return new RealValue(r.nextDouble());
+        if (allowSpecial && name.equals("special"))
+            return new SpecialValue(r.nextUnsignedLong());
+
+        r.skipValue();
+        return null;
+    }
+
+    /**
+     * Write the member holding the value of a specimen or cell.  Return
+     * false if the value has an unknown type, in which case an empty value
+     * is written.
+     */
+    private boolean writeValue(JsonWriter w, Value v, boolean allowSpecial)
+    {
+        switch (v.getType())
+        {
+        case EMPTY:    w.name("empty"  ).value(true);                     break;
+        case NATURAL:  w.name("natural").unsignedValue(
+                                            ((NaturalValue)v).getValue()); break;
+        case INTEGER:  w.name("integer").value(((IntegerValue)v).getValue());
+                                                                          break;
+        case REAL:     w.name("real"   ).value(((RealValue)v).getValue());  break;
+        case SPECIAL:
+            if (!allowSpecial)
+            {
+                w.name("empty").value(true);
+                return false;
+            }
+            w.name("special").unsignedValue(((SpecialValue)v).getValue());
+            break;
+        default:
+            w.name("empty").value(true);
+            return false;
+        }
+
+        return true;
+    }
+
+
+    public Block makeBlockFromBytes(byte [] blockAsBytes)
+    {
+        try
+        {
+            JsonReader r = new JsonReader(blockAsBytes);
+            Block block = readBlock(r);
+            r.endDocument();
+            return block;
+        }
+        catch (IOException e)
+        {
+            parseFailed("block", e);
+            return null;
+        }
+
+    }   //  end makeBlockFromBytes
+
+
+    public Block makeBlockFromStream(InputStream blockStream)
+    {
+        try
+        {
+            JsonReader r = new JsonReader(blockStream);
+            Block block = readBlock(r);
+            r.endDocument();
+            return block;
+        }
+        catch (IOException e)
+        {
+            parseFailed("block", e);
+            return null;
+        }
+
+    }   //  end makeBlockFromStream
+
+
+    private Block readBlock(JsonReader r) throws IOException
+    {
+        String id = "";
+        boolean empty = false;
+        List<Predictor> predictors = new ArrayList<Predictor>();
+        List<Specimen>  specimens  = new ArrayList<Specimen>();
+        boolean bad = false;
+
+        r.beginObject();
+
+        while (r.hasNext())
+        {
+            String name = r.nextName();
+
+            if (skipNull(r))
+                continue;
+
+            if      (name.equals("study_identifier"))
+                id = r.nextString();
+            else if (name.equals("empty"))
+                empty = r.nextBoolean();
+            else if (name.equals("predictor"))
+            {
+                r.beginArray();
+                while (r.hasNext())
+                    predictors.add(readPredictor(r));
+                r.endArray();
+            }
+            else if (name.equals("specimen"))
+            {
+                r.beginArray();
+                while (r.hasNext())
+                {
+                    Specimen s = readSpecimen(r);
+                    if (s == null)
+                        bad = true;
+                    specimens.add(s);
+                }
+                r.endArray();
+            }
+            else
+                r.skipValue();
+        }
+
+        r.endObject();
+
+        if (bad)
+            return null;
+
+        // Create a Yosokumo Block of the type shown by the members present
+
+        if (empty)
+            return new EmptyBlock(id);
+
+        if (!predictors.isEmpty())
+        {
+            PredictorBlock pblock = new PredictorBlock(id);
+            pblock.addPredictors(predictors);
+            return pblock;
+        }
+
+        SpecimenBlock sblock = new SpecimenBlock(id);
+        sblock.addSpecimens(specimens);
+        return sblock;
+
+    }   //  end readBlock
+
+
+    public byte [] makeBytesFromBlock(Block block)
+    {
+        JsonWriter w = new JsonWriter();
+        writeBlock(w, block);
+        return w.toByteArray();
+    }
+
+    public ByteBuffer makeBufferFromBlock(Block block, BufferPool pool)
+    {
+        JsonWriter w = new JsonWriter(pool);
+        writeBlock(w, block);
+        return w.toBuffer();
+    }
+
+    private void writeBlock(JsonWriter w, Block block)
+    {
+        w.beginObject();
+        writeString(w, "study_identifier", block.getStudyIdentifier());
+
+        switch (block.getType())
+        {
+        case EMPTY:
+            w.name("empty").value(true);
+            break;
+
+        case PREDICTOR:
+        {
+            PredictorBlock pblock = (PredictorBlock)block;
+            w.name("predictor").beginArray();
+            for (Predictor p : pblock.getPredictorSequence())
+                writePredictor(w, p);
+            w.endArray();
+            break;
+        }
+
+        case SPECIMEN:
+        {
+            SpecimenBlock sblock = (SpecimenBlock)block;
+            w.name("specimen").beginArray();
+            for (Specimen s : sblock.getSpecimenSequence())
+                writeSpecimen(w, s);
+            w.endArray();
+            break;
+        }
+
+        default:
+            w.name("empty").value(true);
+            exception =
+                new ServiceException("Yosokumo block has unknown type");
+        }
+
+        w.endObject();
+    }
+
+
+    public Message makeMessageFromBytes(byte [] messageAsBytes)
+    {
+        try
+        {
+            JsonReader r = new JsonReader(messageAsBytes);
+            Message message = readMessage(r);
+            r.endDocument();
+            return message;
+        }
+        catch (IOException e)
+        {
+            parseFailed("message", e);
+            return null;
+        }
+
+    }   //  end makeMessageFromBytes
+
+
+    private Message readMessage(JsonReader r) throws IOException
+    {
+        Message.Type type = Message.Type.INFORMATION;
+        String text = "";
+
+        r.beginObject();
+
+        while (r.hasNext())
+        {
+            String name = r.nextName();
+
+            if (skipNull(r))
+                continue;
+
+            if (name.equals("type"))
+            {
+                String s = r.nextString();
+                if      (s.equals("Information"))
+                    type = Message.Type.INFORMATION;
+                else if (s.equals("Error"))
+                    type = Message.Type.ERROR;
+                else
+                    throw new IOException("Unknown message type:  " + s);
+            }
+            else if (name.equals("text"))
+                text = r.nextString();
+            else
+                r.skipValue();
+        }
+
+        r.endObject();
+
+        Message m = new Message(type, text);
+
+        return (m.getText().trim().isEmpty() ? null : m);
+
+    }   //  end readMessage
+
+
+    /**
+     * Read an object holding just a location, e.g., the table member of a
+     * study, and return the location, or an empty string if there is none.
+     */
+    private String readLocation(JsonReader r) throws IOException
+    {
+        String location = "";
+
+        r.beginObject();
+        while (r.hasNext())
+        {
+            String name = r.nextName();
+            if (skipNull(r))
+                continue;
+            if (name.equals("location"))
+                location = r.nextString();
+            else
+                r.skipValue();
+        }
+        r.endObject();
+
+        return location;
+    }
+
+    /**
+     * If the next value is null, consume it and return true.  A member
+     * whose value is null is treated as though it were absent.
+     */
+    private static boolean skipNull(JsonReader r) throws IOException
+    {
+        if (r.peek() != JsonReader.Token.NULL)
+            return false;
+
+        r.nextNull();
+        return true;
+    }
+
+    /**
+     * Write a member with a string value, unless the value is null.
+     */
+    private static void writeString(JsonWriter w, String name, String value)
+    {
+        if (value != null)
+            w.name(name).value(value);
+    }
+
+
+}   //  end class YosokumoJson
+
+// end YosokumoJson.java
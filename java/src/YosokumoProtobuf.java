@@ -2,10 +2,14 @@
 
 package com.yosokumo.core;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
 
 import com.yosokumo.core.protobuf.*;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
 
 /**
@@ -1015,6 +1019,28 @@ class YosokumoProtobuf implements YosokumoDIF
     }   //  end makeBlockFromBytes
 
 
+    public Block makeBlockFromStream(InputStream blockStream)
+    {
+        // Parse the bytes from the stream into a Protobuf block object
+
+        ProtoBuf.Block protoBlock = null; 
+
+        try
+        {
+            protoBlock = ProtoBuf.Block.parseFrom(blockStream);
+        }
+        catch (IOException e)
+        {
+            exception = new ServiceException(
+                                "parseFrom stream to Protobuf block failed", e);
+            return null;
+        }
+
+        return makeBlockFromProtobufBlock(protoBlock);
+
+    }   //  end makeBlockFromStream
+
+
     private ProtoBuf.Block makeProtobufBlockFromBytes(byte [] blockAsBytes)
     {
         // Parse the input bytes into a Protobuf block object
@@ -1129,6 +1155,30 @@ class YosokumoProtobuf implements YosokumoDIF
         return protoBlock.toByteArray();
     }
 
+    public ByteBuffer makeBufferFromBlock(Block block, BufferPool pool)
+    {
+        ProtoBuf.Block protoBlock = makeProtobufBlockFromBlock(block);
+
+        int size = protoBlock.getSerializedSize();
+        byte [] array = pool.acquire(size);
+
+        try
+        {
+            CodedOutputStream out = CodedOutputStream.newInstance(array, 0, size);
+            protoBlock.writeTo(out);
+            out.checkNoSpaceLeft();
+        }
+        catch (IOException e)
+        {
+            // Cannot happen:  the array is exactly large enough
+
+            pool.release(array);
+            throw new IllegalStateException(e);
+        }
+
+        return ByteBuffer.wrap(array, 0, size);
+    }
+
     public Message makeMessageFromBytes(byte [] messageAsBytes)
     {
         ProtoBuf.Message protoMessage = makeProtobufMessageFromBytes(messageAsBytes);
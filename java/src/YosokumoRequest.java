@@ -2,24 +2,12 @@
 
 package com.yosokumo.core;
 
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpDelete;
-import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpPut;
-import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.Header; 
-import org.apache.http.HeaderIterator;  // Only needed for debug output
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpRequest;
-import org.apache.http.HttpResponse;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.cookie.DateUtils; 
-
 import java.io.*;
-import java.util.Date;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Implements all HTTP requests to the Yosokumo web service.  These are the 
@@ -37,6 +25,11 @@ import java.util.Date;
  * <li>getEntity()
  * <li>getException()
  * </ul>
+ * Each request is signed with the user's key and sent by a {@link 
+ * Transport}, which is HttpClient 4.0 unless another is set, to the 
+ * server, or to one of several servers chosen by an {@link 
+ * EndpointBalancer}.
+ *
  * @author  Roger House
  * @version 0.9
  */
@@ -53,10 +46,86 @@ class YosokumoRequest
     private String      auxHeaderName  = null;    // Auxiliary header name
     private String      auxHeaderValue = null;    //   and value
 
+    private String      entityContentType = null; // Content type of the
+                                                  //   next entity sent
+
+    /**
+     * The value of the Accept header:  by default the content type given 
+     * to the constructor.
+     */
+    private String      accept;
+
+    /**
+     * The content type of the entity of the last response, or {@code null}
+     * if the response did not give one.
+     */
+    private String      responseContentType = null;
+
     private int statusCode             = 0;
     private byte [] entity             = null;
     private ServiceException exception = null;
 
+    /*
+     * The entity of a response is read into a list of chunks.  All chunks
+     * but the last are full; entityLength is the total number of bytes.  
+     * The entity is only gathered into the single array {@code entity} if 
+     * getEntity is called.
+     */
+    private List<byte []> entityChunks = null;
+    private int           entityLength = 0;
+
+    /**
+     * The size of the chunks into which a response entity of unknown 
+     * length is read.
+     */
+    private static final int ENTITY_CHUNK_SIZE = 65536;
+
+    /**
+     * The HTTP status code with which the server refuses a request whose 
+     * digest does not match.
+     */
+    private static final int UNAUTHORIZED = 401;
+
+    /**
+     * The lowest HTTP status code with which a server reports that it 
+     * failed, rather than that the request was wrong.
+     */
+    private static final int SERVER_ERROR = 500;
+
+    /**
+     * The largest response entity accepted, in bytes.
+     */
+    private int maxEntitySize = Integer.MAX_VALUE;
+
+    /**
+     * The pool from which the chunks of a response entity are obtained, or
+     * {@code null} if chunks are simply allocated.
+     */
+    private BufferPool bufferPool = null;
+
+    /**
+     * Sends the requests and brings back the responses.
+     */
+    private Transport transport = ApacheTransport.DEFAULT;
+
+    /**
+     * Spreads the requests over several servers, or {@code null} if they 
+     * all go to hostName and port.
+     */
+    private EndpointBalancer balancer = null;
+
+    /**
+     * The resource URIs requested, normalized and parsed.
+     */
+    private UriCache uriCache = new UriCache();
+
+    /**
+     * Signs the requests with the key of the credentials, or {@code null} 
+     * if no request has been signed since the credentials were set.  A 
+     * request is only used by one thread at a time.
+     */
+    private RequestSigner signer = null;
+
     /**
      * Initializes a newly created {@code YosokumoRequest} object with 
      * attributes specified by the input parameters.
@@ -77,6 +146,7 @@ class YosokumoRequest
         this.hostName    = hostName;
         this.port        = port;
         this.contentType = contentType;
+        this.accept      = contentType;
     }
 
     /**
@@ -87,8 +157,10 @@ class YosokumoRequest
     {
     	auxHeaderName  = null;
     	auxHeaderValue = null;
+        entityContentType = null;
+        responseContentType = null;
         statusCode     = 0;
-        entity         = null;
+        releaseEntity();
      	exception      = null;
     }
 
@@ -101,6 +173,7 @@ class YosokumoRequest
     public void setCredentials(Credentials credentials)
     {
         this.credentials = credentials;
+        this.signer      = null;
     }
 
     /**
@@ -117,6 +190,40 @@ class YosokumoRequest
         auxHeaderValue = value;
     }
 
+    /**
+     * Set the value of the Accept header of every request, e.g., a list of
+     * content types with qualities.
+     *
+     * @param  accept is the value of the Accept header.
+     */
+    public void setAccept(String accept)
+    {
+        this.accept = accept;
+    }
+
+    /**
+     * Return the value of the Accept header of every request.
+     *
+     * @return the value of the Accept header.
+     */
+    public String getAccept()
+    {
+        return accept;
+    }
+
+    /**
+     * Set the content type of the entity sent by the next request, in place
+     * of the content type given to the constructor.  Responses are still 
+     * accepted only in that content type.
+     *
+     * @param  type is the content type of the entity, e.g., 
+     *             "application/yosokumo-packed+protobuf".
+     */
+    public void setEntityContentType(String type)
+    {
+        entityContentType = type;
+    }
+
     /**
      * Set the trace flag.  When trace is on, text is written to System.out 
      * showing the progress of HTTP requests and reponses.
@@ -128,6 +235,134 @@ class YosokumoRequest
         this.trace = traceOn;
     }
 
+    /**
+     * Set the largest response entity which is accepted.  A response with a
+     * larger entity fails, and reading it stops as soon as the limit is 
+     * exceeded.
+     *
+     * @param  maxSize is the maximum entity size in bytes (>= 0).
+     */
+    public void setMaxEntitySize(int maxSize)
+    {
+        this.maxEntitySize = (maxSize < 0 ? 0 : maxSize);
+    }
+
+    /**
+     * Return the largest response entity which is accepted.
+     *
+     * @return  the maximum entity size in bytes.
+     */
+    public int getMaxEntitySize()
+    {
+        return maxEntitySize;
+    }
+
+    /**
+     * Set the pool from which the chunks of response entities are obtained.
+     * The chunks are given back to the pool by {@link #releaseEntity}, 
+     * which is also done at the start of each request.
+     *
+     * @param  pool  the pool to use; {@code null} means chunks are simply 
+     *               allocated.
+     */
+    void setBufferPool(BufferPool pool)
+    {
+        this.bufferPool = pool;
+    }
+
+    /**
+     * Return the pool from which the chunks of response entities are 
+     * obtained.
+     *
+     * @return the pool, or {@code null} if there is none.
+     */
+    BufferPool getBufferPool()
+    {
+        return bufferPool;
+    }
+
+    /**
+     * Give back the chunks holding the entity of the last response to the
+     * buffer pool.  After this the entity is no longer available, and any 
+     * stream obtained from {@link #getEntityStream} must not be read.  An 
+     * array returned by {@link #getEntity} remains valid.
+     */
+    public void releaseEntity()
+    {
+        if (entityChunks != null && bufferPool != null)
+        {
+            for (byte [] chunk : entityChunks)
+            {
+                if (chunk != entity)
+                    bufferPool.release(chunk);
+            }
+        }
+
+        entity       = null;
+        entityChunks = null;
+        entityLength = 0;
+    }
+
+    /**
+     * Set the transport which sends the requests to the server.
+     *
+     * @param  transport  the transport to use; {@code null} means the 
+     *                    default transport, an {@code ApacheTransport}.
+     */
+    public void setTransport(Transport transport)
+    {
+        this.transport = (transport != null ? transport : 
+                                                    ApacheTransport.DEFAULT);
+    }
+
+    /**
+     * Return the transport which sends the requests to the server.
+     *
+     * @return the transport.
+     */
+    public Transport getTransport()
+    {
+        return transport;
+    }
+
+    /**
+     * Set the balancer which spreads the requests over several servers.
+     *
+     * @param  balancer  the balancer to use, or {@code null} to send all 
+     *                   the requests to the host name and port given to 
+     *                   the constructor.
+     */
+    public void setBalancer(EndpointBalancer balancer)
+    {
+        // The balancer takes part in normalizing URIs
+
+        if (balancer != this.balancer)
+            uriCache.clear();
+
+        this.balancer = balancer;
+    }
+
+    /**
+     * Set the cache of normalized resource URIs, e.g., to share the cache
+     * of another request for the same service.
+     *
+     * @param  uriCache  the cache to use.
+     */
+    void setUriCache(UriCache uriCache)
+    {
+        this.uriCache = uriCache;
+    }
+
+    /**
+     * Return the balancer which spreads the requests over several servers.
+     *
+     * @return the balancer, or {@code null} if there is none.
+     */
+    public EndpointBalancer getBalancer()
+    {
+        return balancer;
+    }
+
     /**
      * Return the trace flag.
      *
@@ -149,15 +384,103 @@ class YosokumoRequest
     }
 
     /**
-     * Return the entity from an HTTP response.
+     * Return the content type of the entity of an HTTP response.
+     *
+     * @return the value of the Content-Type header of the response, or 
+     *             {@code null} if it had none.
+     */
+    public String getResponseContentType()
+    {
+        return responseContentType;
+    }
+
+    /**
+     * Return the entity from an HTTP response.  If the entity was read in 
+     * more than one chunk, it is gathered into one array the first time 
+     * this method is called; {@link #getEntityStream} avoids this.
      *
      * @return the entity from an HTTP response.
      */
     public byte [] getEntity()
     {
+        if (entity != null || entityChunks == null)
+            return entity;
+
+        if (entityChunks.size() == 1 && 
+                                entityChunks.get(0).length == entityLength)
+        {
+            entity = entityChunks.get(0);
+            return entity;
+        }
+
+        entity = new byte[entityLength];
+
+        int offset = 0;
+
+        for (byte [] chunk : entityChunks)
+        {
+            int n = Math.min(chunk.length, entityLength - offset);
+            System.arraycopy(chunk, 0, entity, offset, n);
+            offset += n;
+        }
+
         return entity;
     }
 
+    /**
+     * Return a stream which reads the entity from an HTTP response directly
+     * from the chunks into which it was read, without gathering it into 
+     * one array.
+     *
+     * @return {@code null} if the response had no entity.  Otherwise a 
+     *             stream supplying the bytes of the entity.
+     */
+    public InputStream getEntityStream()
+    {
+        if (entityChunks == null)
+            return null;
+
+        return new InputStream()
+        {
+            private int chunkIdx = 0;
+            private int offset   = 0;
+            private int left     = entityLength;
+
+            public int read()
+            {
+                byte [] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xff);
+            }
+
+            public int read(byte [] b, int off, int len)
+            {
+                if (left == 0)
+                    return -1;
+
+                byte [] chunk = entityChunks.get(chunkIdx);
+
+                int n = Math.min(len, Math.min(left, chunk.length - offset));
+                System.arraycopy(chunk, offset, b, off, n);
+
+                offset += n;
+                left   -= n;
+
+                if (offset == chunk.length)
+                {
+                    ++chunkIdx;
+                    offset = 0;
+                }
+
+                return n;
+            }
+
+            public int available()
+            {
+                return left;
+            }
+        };
+    }
+
     /**
      * Return the exception from an HTTP process.
      *
@@ -182,9 +505,7 @@ class YosokumoRequest
      */
     public boolean getFromServer(String resourceUri)
     {
-        resourceUri = normalizeResourceUri(resourceUri, hostName, port);
-    
-        return makeRequest(new HttpGet(resourceUri), null, 
+        return makeRequest("GET", resolveResourceUri(resourceUri), null, 
                                                         "getFromServer");
     }
 
@@ -201,9 +522,66 @@ class YosokumoRequest
      */
     public boolean postToServer(String resourceUri, byte [] entityToPost)
     {
-        resourceUri = normalizeResourceUri(resourceUri, hostName, port);
-        return makeRequest(new HttpPost(resourceUri), entityToPost, 
-                                                            "postToServer");
+        return postEntityToServer(resourceUri, (entityToPost == null) ? null : 
+                            new BufferEntity(ByteBuffer.wrap(entityToPost)));
+    }
+
+    /**
+     * Issue an HTTP POST request whose entity is the remaining bytes of a 
+     * sequence of buffers, sent in order without being copied into one 
+     * array first.  The positions of the buffers are not changed.
+     *
+     * @param  resourceUri is the URI of the resource to post to.
+     * @param  entityToPost holds the entity to post to the server.
+     * @return {@code false} means there was a problem (call 
+     *             {@code getStatusCode()}, {@code getEntity()}, and
+     *             {@code getException()} for more information).
+     *         {@code true} means the request was successful.  Call 
+     *             {@code getStatusCode()} and {@code getEntity()}
+     *             to obtain the data returned from the server.
+     */
+    public boolean postToServer(
+        String          resourceUri, 
+        ByteBuffer ...  entityToPost)
+    {
+        return postEntityToServer(resourceUri, new BufferEntity(entityToPost));
+    }
+
+    /**
+     * Issue an HTTP POST request whose entity is a region of a file, sent 
+     * using {@code FileChannel.transferTo}.  The position of the channel is
+     * not changed.
+     *
+     * @param  resourceUri is the URI of the resource to post to.
+     * @param  channel is the file holding the entity to post to the server.
+     * @param  position is the position in the file of the entity.
+     * @param  count is the length in bytes of the entity.
+     * @return {@code false} means there was a problem (call 
+     *             {@code getStatusCode()}, {@code getEntity()}, and
+     *             {@code getException()} for more information).
+     *         {@code true} means the request was successful.  Call 
+     *             {@code getStatusCode()} and {@code getEntity()}
+     *             to obtain the data returned from the server.
+     */
+    public boolean postToServer(
+        String      resourceUri, 
+        FileChannel channel,
+        long        position,
+        long        count)
+    {
+        return postEntityToServer(resourceUri, 
+                                new BufferEntity(channel, position, count));
+    }
+
+    /**
+     * Issue an HTTP POST request with any kind of entity.
+     */
+    private boolean postEntityToServer(
+        String       resourceUri, 
+        BufferEntity entityToPost)
+    {
+        return makeRequest("POST", resolveResourceUri(resourceUri), 
+                                                entityToPost, "postToServer");
     }
 
     /**
@@ -219,9 +597,7 @@ class YosokumoRequest
      */
     public boolean deleteFromServer(String resourceUri)
     {
-        resourceUri = normalizeResourceUri(resourceUri, hostName, port);
-    
-        return makeRequest(new HttpDelete(resourceUri), null, 
+        return makeRequest("DELETE", resolveResourceUri(resourceUri), null, 
                                                         "deleteFromServer");
     }
 
@@ -239,18 +615,75 @@ class YosokumoRequest
      */
     public boolean putToServer(String resourceUri, byte [] entityToPut)
     {
-        resourceUri = normalizeResourceUri(resourceUri, hostName, port);
-    
-        return makeRequest(new HttpPut(resourceUri), entityToPut, 
-                                                            "putToServer");
+        return putEntityToServer(resourceUri, (entityToPut == null) ? null : 
+                            new BufferEntity(ByteBuffer.wrap(entityToPut)));
+    }
+
+    /**
+     * Issue an HTTP PUT request whose entity is the remaining bytes of a 
+     * sequence of buffers.  See {@link #postToServer(String, ByteBuffer...)}.
+     *
+     * @param  resourceUri is the URI where to put the resource.
+     * @param  entityToPut holds the entity to put to the server.
+     * @return {@code false} means there was a problem (call 
+     *             {@code getStatusCode()}, {@code getEntity()}, and
+     *             {@code getException()} for more information).
+     *         {@code true} means the request was successful.  Call 
+     *             {@code getStatusCode()} and {@code getEntity()}
+     *             for more information.
+     */
+    public boolean putToServer(
+        String          resourceUri, 
+        ByteBuffer ...  entityToPut)
+    {
+        return putEntityToServer(resourceUri, new BufferEntity(entityToPut));
+    }
+
+    /**
+     * Issue an HTTP PUT request whose entity is a region of a file.  See 
+     * {@link #postToServer(String, FileChannel, long, long)}.
+     *
+     * @param  resourceUri is the URI where to put the resource.
+     * @param  channel is the file holding the entity to put to the server.
+     * @param  position is the position in the file of the entity.
+     * @param  count is the length in bytes of the entity.
+     * @return {@code false} means there was a problem (call 
+     *             {@code getStatusCode()}, {@code getEntity()}, and
+     *             {@code getException()} for more information).
+     *         {@code true} means the request was successful.  Call 
+     *             {@code getStatusCode()} and {@code getEntity()}
+     *             for more information.
+     */
+    public boolean putToServer(
+        String      resourceUri, 
+        FileChannel channel,
+        long        position,
+        long        count)
+    {
+        return putEntityToServer(resourceUri, 
+                                new BufferEntity(channel, position, count));
+    }
+
+    /**
+     * Issue an HTTP PUT request with any kind of entity.
+     */
+    private boolean putEntityToServer(
+        String       resourceUri, 
+        BufferEntity entityToPut)
+    {
+        return makeRequest("PUT", resolveResourceUri(resourceUri), 
+                                                entityToPut, "putToServer");
     }
 
     /**
      * Make an HTTP request.  This is the workhorse method which does all the 
-     * work of making an HTTP request and processing the response.
+     * work of making an HTTP request, signing it, sending it by the 
+     * transport, and processing the response.
      *
-     * @param  httpRequest is HttpGet, HttpPut, HttpPost, or HttpDelete.
-     * @param  entityToSend is an entity to put to the server.
+     * @param  method is "GET", "PUT", "POST", or "DELETE".
+     * @param  uri is the normalized URI of the request.
+     * @param  entityToSend is an entity to send to the server, or 
+     *             {@code null} if there is none.
      * @param  traceName is the name of the request to be used in trace output.
      * @return {@code false} means there was a problem (call 
      *             {@code getStatusCode()}, {@code getEntity()}, and
@@ -260,9 +693,10 @@ class YosokumoRequest
      *             for more information.
      */
     private boolean makeRequest(
-        HttpRequestBase httpRequest, 
-        byte [] entityToSend,
-        String traceName)
+        String       method,
+        URI          uri, 
+        BufferEntity entityToSend,
+        String       traceName)
     {
         if (trace)
         {
@@ -270,71 +704,187 @@ class YosokumoRequest
             System.out.println(credentials.toString());
         }
 
-        statusCode = 0;
-        entity     = null;
-        exception  = null;
+        statusCode   = 0;
+        exception    = null;
+        responseContentType = null;
+        releaseEntity();
+
+        TransportRequest request = new TransportRequest(method, uri, 
+                                                                entityToSend);
+
+        // A request to the server of the service, or to one of the 
+        // endpoints of the balancer, goes to an endpoint the balancer 
+        // chooses
+
+        List<Endpoint> tried = null;
 
-        // Add headers to the request
+        if (balancer != null && (balancer.names(uri) || (uri.getPort() == 
+                        port && hostName.equalsIgnoreCase(uri.getHost()))))
+            tried = new ArrayList<Endpoint>(balancer.size());
 
-        httpRequest.addHeader("Host",   hostName);
-        httpRequest.addHeader("Date",   DateUtils.formatDate(new Date()));
-        httpRequest.addHeader("Accept", contentType);
+        // Add headers to the request.  The transport decides what it sends 
+        // as the Host header, and the digest must cover the value sent.
+
+        request.setHeader("Host",   
+                        transport.getHostHeader(request.getUri(), hostName));
+        request.setHeader("Date",   RequestSigner.currentDate());
+        request.setHeader("Accept", accept);
 
         if (auxHeaderName != null && !auxHeaderName.isEmpty())
         {
-            httpRequest.addHeader(auxHeaderName, auxHeaderValue);
+            request.setHeader(auxHeaderName, auxHeaderValue);
             auxHeaderName  = null;
             auxHeaderValue = null;
         }
 
         if (entityToSend != null)
         {
-            httpRequest.addHeader("Content-Type", contentType);
-            httpRequest.addHeader("Content-Length", 
-                                    Integer.toString(entityToSend.length));
+            request.setHeader("Content-Type", 
+                entityContentType != null ? entityContentType : contentType);
         }
 
-        String requestDigest = makeDigest(httpRequest);
-        if (requestDigest == null)
-            return false;
+        entityContentType = null;
 
-        httpRequest.addHeader("Authorization", "yosokumo " + 
-                            credentials.getUserId() + ":" + requestDigest);
+        // Sign and send the request.  If the transport could only tell from
+        // the response that it sent a Content-Length header other than the 
+        // one signed, sign and send the request once more.  If a balanced 
+        // request fails on one endpoint, and may be repeated, sign it for 
+        // another endpoint and send it there.
 
-        if (entityToSend != null)
-        {
-            // We need the Content-Length header to compute the digest, but 
-            // we can't keep it as a header because the call of setEntity 
-            // below causes a Content-Length header to be automatically 
-            // generated, and if there are two of them, an exception is 
-            // thrown.
-
-            httpRequest.removeHeaders("Content-Length");
-            ByteArrayEntity baEntity = new ByteArrayEntity(entityToSend);
-            ((HttpEntityEnclosingRequestBase)httpRequest).setEntity(baEntity);
-        }
+        TransportResponse response;
+        Endpoint          endpoint = null;
+        boolean           resigned = false;
 
-        if (trace)
+        for (;;)
         {
-            System.out.println("  Request:");
-            System.out.println("    Request line: " + 
-                                                httpRequest.getRequestLine());
-            HeaderIterator it = httpRequest.headerIterator(null);
-            while (it.hasNext())
-                System.out.println("    " + it.next());
-        }
+            if (tried != null && endpoint == null)
+            {
+                endpoint = balancer.acquire(tried);
+                request.setUri(endpoint.resolve(uri));
+                request.setHeader("Host", transport.getHostHeader(
+                                    request.getUri(), endpoint.getHostName()));
+            }
 
-        // Execute the request and get the response
+            request.setHeader("Content-Length", 
+                                    transport.getContentLengthHeader(request));
 
-        return getResponse(httpRequest, traceName);
-        
+            String requestDigest = makeDigest(request);
+            if (requestDigest == null)
+            {
+                if (endpoint != null)
+                    balancer.release(endpoint, false, transport);
+                return false;
+            }
+
+            request.setHeader("Authorization", "yosokumo " + 
+                                credentials.getUserId() + ":" + requestDigest);
+
+            if (trace)
+                traceRequest(request);
+
+            // Execute the request and get the response
+
+            try
+            {
+                response = transport.execute(request);
+            }
+            catch (IOException e)
+            {
+                if (endpoint != null)
+                {
+                    balancer.release(endpoint, true, transport);
+                    tried.add(endpoint);
+                    endpoint = null;
+
+                    if (canFailOver(method, tried))
+                        continue;
+                }
+
+                exception = new ServiceException("Fatal transport error in " + 
+                                                                traceName, e);
+                return false;
+            }
+            catch (InterruptedException e)
+            {
+                if (endpoint != null)
+                    balancer.release(endpoint, false, transport);
+
+                Thread.currentThread().interrupt();
+                exception = new ServiceException("Interrupted in " + 
+                                                                traceName, e);
+                return false;
+            }
+
+            int status = response.getStatusCode();
+
+            if (endpoint != null && status >= SERVER_ERROR)
+            {
+                balancer.release(endpoint, true, transport);
+                tried.add(endpoint);
+                endpoint = null;
+
+                if (!canFailOver(method, tried))
+                    break;
+
+                closeQuietly(response);
+                continue;
+            }
+
+            if (!resigned && status == UNAUTHORIZED && 
+                transport.isSignedWrongly(request, response))
+            {
+                // Sign again for the same endpoint, which stays outstanding
+
+                resigned = true;
+                closeQuietly(response);
+                continue;
+            }
+
+            if (endpoint != null)
+                balancer.release(endpoint, false, transport);
+            break;
+        }
+
+        return getResponse(response, traceName);
 
     }   //  end makeRequest
 
     /**
-     * Execute an HTTP request and process the response.
+     * Return {@code true} if a balanced request which failed may be sent to
+     * another endpoint:  if it may be repeated without harm, and there is 
+     * an endpoint it has not been sent to.  A POST may have been carried 
+     * out before it failed, so it is never sent twice.
+     *
+     * @param  method  the method of the request.
+     * @param  tried   the endpoints the request has been sent to.
+     * @return {@code true} if the request is to be sent again.
+     */
+    private boolean canFailOver(String method, List<Endpoint> tried)
+    {
+        boolean idempotent = method.equals("GET") || method.equals("PUT") ||
+                             method.equals("DELETE");
+
+        return idempotent && tried.size() < balancer.size();
+    }
+
+    /**
+     * Write the request line and headers of a request to System.out.
+     *
+     * @param  request is the request, ready to be executed.
+     */
+    private void traceRequest(TransportRequest request)
+    {
+        System.out.println("  Request:");
+        System.out.println("    Request line: " + request.getRequestLine());
+        for (int i = 0;  i < request.getHeaderCount();  ++i)
+            System.out.println("    " + request.getHeaderName(i) + ": " + 
+                                                request.getHeaderValue(i));
+    }
+
+    /**
+     * Process the response to an HTTP request, and close it.
      *
-     * @param  httpRequest is an HTTP request, ready to be executed
+     * @param  response is the response to a request.
      * @param  traceName is the name of the request to be used in trace output.
      * @return {@code false} means there was a problem (call 
      *             {@code getStatusCode()}, {@code getEntity()}, and
@@ -343,84 +893,21 @@ class YosokumoRequest
      *             {@code getStatusCode()} and {@code getEntity()}
      *             for more information.
      */
-    private boolean getResponse(HttpRequestBase httpRequest, String traceName) 
+    private boolean getResponse(TransportResponse response, String traceName) 
     {
-        HttpClient httpclient = new DefaultHttpClient();
-    
         try
         {
-            HttpResponse response = httpclient.execute(httpRequest);
-    
-            statusCode = response.getStatusLine().getStatusCode();
-    
-            HttpEntity theEntity = response.getEntity();
-    
-            if (theEntity != null)
-            { 
-                int contentLen = (int)theEntity.getContentLength();
-    
-                if (contentLen < 0)
-                {
-                    //  Content length unknown so reading content is awkward
-                    final int BUFF_SIZE = 16384;
-                    byte [] buffer = new byte[BUFF_SIZE];
-                    int totalBytesRead = 0;
-                    InputStream is = theEntity.getContent();
-                    while (true)
-                    {
-                        if (totalBytesRead == buffer.length)
-                        {
-                            byte [] tempArray = new byte[4*buffer.length];
-                            System.arraycopy(buffer, 0, tempArray, 0,  
-                                                            totalBytesRead);
-                            buffer = tempArray;
-                        }
-    
-                        int numRead = is.read(buffer, totalBytesRead, 
-                                                buffer.length-totalBytesRead);
-                        if (numRead == -1)
-                            break;
-                        totalBytesRead += numRead;
-                    }
-                    if (totalBytesRead > 0)
-                    {
-                        entity = new byte[totalBytesRead];
-                        System.arraycopy(buffer, 0, entity, 0, totalBytesRead);
-                    }
-                }
+            statusCode = response.getStatusCode();
+            responseContentType = response.getFirstHeader("Content-Type");
     
-                if (contentLen >= 0)
-                {
-                    // Content length is known so reading content is easy
-                    entity = new byte[contentLen];
-                    InputStream is = theEntity.getContent();
-                    int offset = 0;
-                    while (contentLen > 0)
-                    {
-                        int numRead = is.read(entity, offset, contentLen);
-                        if (numRead == -1)
-                            break;
-                        offset += numRead;
-                        contentLen -= numRead;
-                    }
-                    if (contentLen > 0)
-                    {
-                        exception = new ServiceException("Attempt to read " + 
-                            "last " + contentLen + " bytes of entity failed"); 
-                        return false;
-                    }
-                }
-            }
+            if (!readEntity(response))
+                return false;
+
             if (trace)
             {
                 System.out.println("  Response:");
-                System.out.println("    Status line: " + 
-                                                response.getStatusLine());
-                HeaderIterator it = response.headerIterator(null);
-                while (it.hasNext())
-                    System.out.println("    " + it.next());
+                System.out.println("    Status line: " + response);
             }
-    
         }
         catch (IOException e)
         {
@@ -430,17 +917,212 @@ class YosokumoRequest
         }
         finally
         {
-            // When the HttpClient instance is no longer needed, shut down the 
-            // connection manager to ensure immediate deallocation of all 
-            // system resources
-    
-            httpclient.getConnectionManager().shutdown();
+            // Closing the response releases its connection, and abandons 
+            // an entity which was not read to the end
+
+            closeQuietly(response);
         }
 
         return true;
 
     }   //  end getResponse
 
+    /**
+     * Close a response, ignoring any failure to release its resources.
+     */
+    private static void closeQuietly(TransportResponse response)
+    {
+        try
+        {
+            response.close();
+        }
+        catch (IOException e)
+        {
+            // Nothing more will be read
+        }
+    }
+
+    /**
+     * Read the entity of a response into {@code entityChunks}.  An entity
+     * whose length is known is read into one chunk of that size.  An 
+     * entity of unknown length is read into chunks of a fixed size, so the
+     * bytes read are never copied.
+     *
+     * @param  response is the response whose entity is to be read.
+     * @return {@code false} means the entity could not be read, or was 
+     *             larger than the maximum entity size; {@code exception} is
+     *             set.  {@code true} means the entity was read.
+     * @throws IOException if reading the entity fails.
+     */
+    private boolean readEntity(TransportResponse response) throws IOException
+    {
+        long contentLen = response.getContentLength();
+
+        if (contentLen > maxEntitySize)
+        {
+            exception = new ServiceException("Response entity of " + 
+                contentLen + " bytes exceeds the maximum of " + 
+                maxEntitySize + " bytes");
+            return false;
+        }
+
+        InputStream is = response.getContent();
+
+        if (is == null)
+            return true;
+
+        List<byte []> chunks = new ArrayList<byte []>();
+        int length = -1;
+
+        try
+        {
+            length = readChunks(is, contentLen, chunks);
+        }
+        finally
+        {
+            // Give back the chunks of an entity which failed or was empty
+
+            if (length <= 0 && bufferPool != null)
+            {
+                for (byte [] chunk : chunks)
+                    bufferPool.release(chunk);
+            }
+        }
+
+        if (length == -1)
+            return false;
+
+        if (length == 0)
+        {
+            // An empty entity of unknown length is treated as no entity
+
+            if (contentLen < 0)
+                return true;
+
+            chunks.clear();
+        }
+
+        entityChunks = chunks;
+        entityLength = length;
+
+        return true;
+
+    }   //  end readEntity
+
+
+    /**
+     * Read an entity from a stream into chunks.
+     *
+     * @param  is is the stream supplying the entity.
+     * @param  contentLen is the length of the entity, or a negative number if
+     *             the length is unknown.
+     * @param  chunks is the list to which the chunks are added.
+     * @return the number of bytes read, or -1 if the entity could not be 
+     *             read or was too large, in which case {@code exception} is
+     *             set.
+     * @throws IOException if reading the stream fails.
+     */
+    private int readChunks(
+        InputStream   is, 
+        long          contentLen, 
+        List<byte []> chunks) throws IOException
+    {
+        int length = 0;
+
+        if (contentLen >= 0)
+        {
+            // Content length is known so reading content is easy
+
+            byte [] chunk = newChunk((int)contentLen);
+            chunks.add(chunk);
+            int left = (int)contentLen;
+
+            while (left > 0)
+            {
+                int numRead = is.read(chunk, length, left);
+                if (numRead == -1)
+                    break;
+                length += numRead;
+                left   -= numRead;
+            }
+
+            if (left > 0)
+            {
+                exception = new ServiceException("Attempt to read " + 
+                    "last " + left + " bytes of entity failed"); 
+                return -1;
+            }
+        }
+        else
+        {
+            // Content length unknown, so read until end of stream, one 
+            // chunk at a time
+
+            byte [] chunk = null;
+            int offset = ENTITY_CHUNK_SIZE;
+
+            while (true)
+            {
+                if (offset == ENTITY_CHUNK_SIZE)
+                {
+                    chunk = newChunk(ENTITY_CHUNK_SIZE);
+                    chunks.add(chunk);
+                    offset = 0;
+                }
+
+                int numRead = is.read(chunk, offset, chunk.length - offset);
+                if (numRead == -1)
+                    break;
+
+                if (numRead > maxEntitySize - length)
+                {
+                    exception = new ServiceException("Response entity " + 
+                        "exceeds the maximum of " + maxEntitySize + " bytes");
+                    return -1;
+                }
+
+                offset += numRead;
+                length += numRead;
+            }
+        }
+
+        return length;
+
+    }   //  end readChunks
+
+
+    /**
+     * Return an array to hold part of a response entity, taken from the 
+     * buffer pool if there is one.  The array may be longer than requested.
+     */
+    private byte [] newChunk(int minLength)
+    {
+        return bufferPool != null ? bufferPool.acquire(minLength) : 
+                                                        new byte[minLength];
+    }
+
+
+    /**
+     * Return the normalized, parsed form of a resource URI (see {@link 
+     * #normalizeResourceUri}).  A URI is normalized and parsed only the 
+     * first time it is requested, and then found in the URI cache.
+     *
+     * @param   resourceUri  the URI as given.
+     * @return  the normalized URI.
+     */
+    private URI resolveResourceUri(String resourceUri)
+    {
+        URI uri = uriCache.get(resourceUri);
+
+        if (uri == null)
+        {
+            uri = URI.create(normalizeResourceUri(resourceUri, hostName, port));
+            uriCache.put(resourceUri, uri);
+        }
+
+        return uri;
+    }
+
 
     /**
      * Normalize a resource URI.  There are several cases:
@@ -454,6 +1136,10 @@ class YosokumoRequest
      * <li>None of the above:  Return the URI with 
      *          {@code "http://"+hostName+":"+port} prepended.
      * </ul>
+     * If there is a balancer, a URI which begins with {@code "http://"} and
+     * the host name of one of its endpoints, but gives no port, is also 
+     * returned with the port of the endpoint inserted, so that the 
+     * balancer recognizes it.
      * One reason this method exists is that the HttpClient classes HttpGet, 
      * HttpPost, etc., require that the resource URIs passed to their 
      * constructors have the {@code "http://"+hostName} prefix, despite the 
@@ -478,7 +1164,8 @@ class YosokumoRequest
         {
             String schemeHostName = scheme + hostName;
             if (!resourceUri.startsWith(schemeHostName))
-                return resourceUri;
+                return balancer != null ? addEndpointPort(resourceUri) : 
+                                                                resourceUri;
             int len = schemeHostName.length();
             return resourceUri.substring(0, len) + ":" + port + 
                    resourceUri.substring(len);
@@ -495,6 +1182,32 @@ class YosokumoRequest
     }
 
 
+    /**
+     * Insert the port of an endpoint of the balancer after the host name in
+     * a URI which begins with {@code "http://"} and the host name of the 
+     * endpoint, followed by {@code "/"} or nothing.
+     *
+     * @param   resourceUri  the URI to normalize.
+     * @return  the URI with the port inserted, or the input URI if it does
+     *              not name the host of an endpoint without a port.
+     */
+    private String addEndpointPort(String resourceUri)
+    {
+        for (Endpoint e : balancer.getEndpoints())
+        {
+            String schemeHostName = "http://" + e.getHostName();
+            int    len            = schemeHostName.length();
+
+            if (resourceUri.regionMatches(true, 0, schemeHostName, 0, len) &&
+                (resourceUri.length() == len || resourceUri.charAt(len) == '/'))
+                return resourceUri.substring(0, len) + ":" + e.getPort() + 
+                       resourceUri.substring(len);
+        }
+
+        return resourceUri;
+    }
+
+
     /**
      * Make a digest of an HTTP request.
      *
@@ -503,76 +1216,31 @@ class YosokumoRequest
      *              is set.  Otherwise the return value is a digest of the 
      *              input request.
      */
-    private String makeDigest(HttpRequestBase request)
+    private String makeDigest(TransportRequest request)
     {
-        String requestString = makeRequestString(request);
-
-        if (trace)
-            System.out.println("    requestString: " + requestString);
-
         String requestDigest;
 
         try
         {
-            requestDigest = DigestRequest.makeDigest(requestString, 
-                                                     credentials.getKey());
+            if (signer == null)
+                signer = new RequestSigner(credentials.getKey());
+
+            requestDigest = signer.sign(request);
         }
         catch (ServiceException e)
         {
             exception = e;
-            requestDigest = null;
+            return null;
         }
 
+        if (trace)
+            System.out.println("    requestString: " + 
+                                                signer.getRequestString());
+
         return requestDigest; 
 
     }   //  end makeDigest
 
-
-    /**
-     * Make a string from an HTTP request.  This string is used for Yosokumo
-     * authentication.
-     *
-     * @param   r is the input HTTP request.
-     * @return  is a string containing a number of fields from r. 
-     */
-    private String makeRequestString(HttpRequestBase r)
-    {
-        StringBuilder s = new StringBuilder();
-        Header h;
-
-        s.append(r.getRequestLine().getMethod());       // method
-        appendHeaderValue(r, "Host", s);                // host
-        s.append("+" + r.getURI().getPath());           // uri 
-        appendHeaderValue(r, "Date",             s);    // date
-        appendHeaderValue(r, "Content-Type",     s);    // content type
-        appendHeaderValue(r, "Content-Length",   s);    // content length
-        appendHeaderValue(r, "Content-Encoding", s);    // content encoding
-        appendHeaderValue(r, "Content-MD5",      s);    // content MD5
-        return s.toString();
-
-    }   //  end makeRequestString
-
-    /**
-     * Append an HTTP header value.  This is a helper method for 
-     * makeRequestString.
-     *
-     * @param   r is the input HTTP request.
-     * @param   headerName is the name of the header whose value is wanted.
-     * @param   s is the string to append the header value to.
-     */
-    private void appendHeaderValue(
-        HttpRequest   r,
-        String        headerName,
-        StringBuilder s)
-    {
-        Header h;
-
-        s.append("+");
-        h = r.getFirstHeader(headerName);
-        if (h != null)
-            s.append(h.getValue());
-    }
-
 }   //  end YosokumoRequest
 
 // end YosokumoRequest.java
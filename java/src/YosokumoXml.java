@@ -0,0 +1,1654 @@
+// YosokumoXml.java
+
+package com.yosokumo.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Implements all functionality for transforming HTTP entity bytes in XML
+ * form into Yosokumo Java objects (e.g., {@code Catalog} and {@code Study})
+ * and vice versa.
+ * <p>
+ * The XML form of each object follows the Google Protocol Buffers
+ * definition of the object (see yosokumo.proto), in the same way as the
+ * JSON form (see {@code YosokumoJson}):  an object is an element whose
+ * child elements have the names of the fields of the message, and a
+ * repeated field is a sequence of elements with the same name.  The root
+ * element of a document has the name of the message in lower case.  For
+ * example, a specimen block is:
+ * <pre>
+ *   &lt;block&gt;
+ *     &lt;study_identifier&gt;7C3A9E2B40F15D86&lt;/study_identifier&gt;
+ *     &lt;specimen&gt;
+ *       &lt;key&gt;1&lt;/key&gt;&lt;status&gt;Active&lt;/status&gt;&lt;weight&gt;1&lt;/weight&gt;
+ *       &lt;real&gt;2.5&lt;/real&gt;
+ *       &lt;cell&gt;&lt;name&gt;3&lt;/name&gt;&lt;natural&gt;4&lt;/natural&gt;&lt;/cell&gt;
+ *       ...
+ *     &lt;/specimen&gt;
+ *     ...
+ *   &lt;/block&gt;
+ * </pre>
+ * Booleans are "true" or "false", and the reals which are not numbers are
+ * "NaN", "INF", and "-INF", as in XML Schema.  Elements are matched by
+ * local name, so a namespace may be used; elements with unknown names are
+ * ignored.
+ * <p>
+ * Objects are converted with the StAX streaming reader and writer,
+ * straight between the bytes and the Yosokumo objects, without building a
+ * document tree.  A block read from a stream is parsed as the bytes
+ * arrive, and a block written into a pool is encoded directly into pooled
+ * arrays.  In general there are four functions for each Yosokumo class,
+ * illustrated here for {@code Specimen}:
+ * <pre>
+ *   public  Specimen makeSpecimenFromBytes(byte [] specimenAsBytes)
+ *   private Specimen readSpecimen         (XMLStreamReader r)
+ *   public  byte []  makeBytesFromSpecimen(Specimen specimen)
+ *   private void     writeSpecimen        (XMLStreamWriter w, Specimen s)
+ * </pre>
+ * The read functions start with the reader on the start tag of the
+ * object's element and leave it on the end tag.
+ */
+class YosokumoXml implements YosokumoDIF
+{
+    /*
+     * The factories are configured once and shared; creating readers and
+     * writers from them is safe in any number of threads.  DTDs are not
+     * supported, so a document cannot make the parser fetch or expand
+     * external entities.
+     */
+    private static final XMLInputFactory  inputFactory  = newInputFactory();
+    private static final XMLOutputFactory outputFactory =
+                                                XMLOutputFactory.newInstance();
+
+    private static XMLInputFactory newInputFactory()
+    {
+        XMLInputFactory f = XMLInputFactory.newInstance();
+
+        f.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                                                                Boolean.FALSE);
+        f.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+
+        return f;
+    }
+
+    private ServiceException exception = null;
+
+    public String getContentType()
+    {
+        return "application/yosokumo+xml";
+    }
+
+    public ServiceException getException()
+    {
+        return exception;
+    }
+
+    /**
+     * Record that parsing the XML text of an object failed.
+     */
+    private void parseFailed(String what, XMLStreamException e)
+    {
+        exception = new ServiceException("Parse of XML " + what + " failed", e);
+    }
+
+    /**
+     * Record that writing the XML text of an object failed.
+     */
+    private void writeFailed(String what, XMLStreamException e)
+    {
+        exception = new ServiceException("Write of XML " + what + " failed", e);
+    }
+
+
+    public Catalog makeCatalogFromBytes(byte [] catalogAsBytes)
+    {
+        try
+        {
+            XMLStreamReader r = beginDocument(catalogAsBytes, "catalog");
+            Catalog catalog = readCatalog(r);
+            endDocument(r);
+            return catalog;
+        }
+        catch (XMLStreamException e)
+        {
+            parseFailed("catalog", e);
+            return null;
+        }
+
+    }   //  end makeCatalogFromBytes
+
+
+    private Catalog readCatalog(XMLStreamReader r) throws XMLStreamException
+    {
+        Catalog catalog = new Catalog();
+
+        // Note that if any of the following elements are missing, they will
+        // be empty strings
+
+        catalog.setUserIdentifier ("");
+        catalog.setUserName       ("");
+        catalog.setCatalogLocation("");
+
+        boolean duplicate = false;
+
+        while (nextChild(r))
+        {
+            String name = r.getLocalName();
+
+            if      (name.equals("user_identifier"))
+                catalog.setUserIdentifier(r.getElementText());
+            else if (name.equals("user_name"))
+                catalog.setUserName(r.getElementText());
+            else if (name.equals("location"))
+                catalog.setCatalogLocation(r.getElementText());
+            else if (name.equals("study"))
+            {
+                if (catalog.addStudy(readStudy(r)) != null)
+                    duplicate = true;
+            }
+            else
+                skipElement(r);
+        }
+
+        if (duplicate)
+        {
+            exception = new ServiceException("Yosokumo Catalog contains" +
+                                    " two studies with the same identifier");
+            return null;
+        }
+
+        return catalog;
+
+    }   //  end readCatalog
+
+
+    public Study makeStudyFromBytes(byte [] studyAsBytes)
+    {
+        try
+        {
+            XMLStreamReader r = beginDocument(studyAsBytes, "study");
+            Study study = readStudy(r);
+            endDocument(r);
+            return study;
+        }
+        catch (XMLStreamException e)
+        {
+            parseFailed("study", e);
+            return null;
+        }
+
+    }   //  end makeStudyFromBytes
+
+
+    private Study readStudy(XMLStreamReader r) throws XMLStreamException
+    {
+        Study study = new Study();
+
+        // Note that if any of the following elements are missing, they will
+        // be empty strings or the first value of their enumeration
+
+        study.setStudyIdentifier("");
+        study.setStudyName      ("");
+        study.setStudyLocation  ("");
+        study.setType           (Study.Type.CLASS);
+        study.setStatus         (Study.Status.RUNNING);
+        study.setVisibility     (Study.Visibility.PRIVATE);
+        study.setOwnerIdentifier("");
+        study.setOwnerName      ("");
+        study.setTableLocation  ("");
+        study.setModelLocation  ("");
+        study.setPanelLocation  ("");
+        study.setRosterLocation ("");
+
+        while (nextChild(r))
+        {
+            String name = r.getLocalName();
+
+            if      (name.equals("study_identifier"))
+                study.setStudyIdentifier(r.getElementText());
+            else if (name.equals("study_name"))
+                study.setStudyName(r.getElementText());
+            else if (name.equals("type"))
+                study.setType(stringToStudyType(r, r.getElementText()));
+            else if (name.equals("status"))
+                study.setStatus(stringToStudyStatus(r, r.getElementText()));
+            else if (name.equals("visibility"))
+                study.setVisibility(stringToVisibility(r, r.getElementText()));
+            else if (name.equals("location"))
+                study.setStudyLocation(r.getElementText());
+            else if (name.equals("owner"))
+            {
+                while (nextChild(r))
+                {
+                    String child = r.getLocalName();
+                    if      (child.equals("user_identifier"))
+                        study.setOwnerIdentifier(r.getElementText());
+                    else if (child.equals("user_name"))
+                        study.setOwnerName(r.getElementText());
+                    else
+                        skipElement(r);
+                }
+            }
+            else if (name.equals("table"))
+                study.setTableLocation(readLocation(r));
+            else if (name.equals("model"))
+                study.setModelLocation(readLocation(r));
+            else if (name.equals("panel"))
+                study.setPanelLocation(readLocation(r));
+            else if (name.equals("roster"))
+                study.setRosterLocation(readLocation(r));
+            else
+                skipElement(r);
+        }
+
+        return study;
+
+    }   //  end readStudy
+
+
+    public byte [] makeBytesFromStudy(Study study)
+    {
+        try
+        {
+            ArrayOutput out = new ArrayOutput(null);
+            XMLStreamWriter w = beginDocument(out, "study");
+            writeText(w, "study_identifier", study.getStudyIdentifier());
+            writeText(w, "study_name",       study.getStudyName());
+            writeText(w, "type",       studyTypeToString  (study.getType()));
+            writeText(w, "status",     studyStatusToString(study.getStatus()));
+            writeText(w, "visibility", visibilityToString (study.getVisibility()));
+            endDocument(w);
+            return out.toByteArray();
+        }
+        catch (XMLStreamException e)
+        {
+            writeFailed("study", e);
+            return null;
+        }
+    }
+
+    private Study.Type stringToStudyType(XMLStreamReader r, String s)
+        throws XMLStreamException
+    {
+        if (s.equals("Class"))   return Study.Type.CLASS;
+        if (s.equals("Rank"))    return Study.Type.RANK;
+        if (s.equals("Number"))  return Study.Type.NUMBER;
+        if (s.equals("Chance"))  return Study.Type.CHANCE;
+
+        throw error(r, "Unknown study type:  " + s);
+    }
+
+    private String studyTypeToString(Study.Type type)
+    {
+        switch (type)
+        {
+        case CLASS :  return "Class";
+        case RANK  :  return "Rank";
+        case NUMBER:  return "Number";
+        case CHANCE:  return "Chance";
+        }
+        return null;
+    }
+
+    private Study.Status stringToStudyStatus(XMLStreamReader r, String s)
+        throws XMLStreamException
+    {
+        if (s.equals("Running"))  return Study.Status.RUNNING;
+        if (s.equals("Standby"))  return Study.Status.STANDBY;
+        if (s.equals("Stopped"))  return Study.Status.STOPPED;
+
+        throw error(r, "Unknown study status:  " + s);
+    }
+
+    private String studyStatusToString(Study.Status status)
+    {
+        switch (status)
+        {
+        case RUNNING:  return "Running";
+        case STANDBY:  return "Standby";
+        case STOPPED:  return "Stopped";
+        }
+        return null;
+    }
+
+    private Study.Visibility stringToVisibility(XMLStreamReader r, String s)
+        throws XMLStreamException
+    {
+        if (s.equals("Private"))  return Study.Visibility.PRIVATE;
+        if (s.equals("Public"))   return Study.Visibility.PUBLIC;
+
+        throw error(r, "Unknown study visibility:  " + s);
+    }
+
+    private String visibilityToString(Study.Visibility visibility)
+    {
+        switch (visibility)
+        {
+        case PRIVATE:  return "Private";
+        case PUBLIC :  return "Public";
+        }
+        return null;
+    }
+
+    public byte [] makeBytesFromStudyName(String name)
+    {
+        return makeBytesFromStudyField("study_name", name);
+    }
+
+    public byte [] makeBytesFromStudyStatus(Study.Status status)
+    {
+        return makeBytesFromStudyField("status", studyStatusToString(status));
+    }
+
+    public byte [] makeBytesFromStudyVisibility(Study.Visibility visibility)
+    {
+        return makeBytesFromStudyField("visibility",
+                                                visibilityToString(visibility));
+    }
+
+    /**
+     * Return the bytes of a study holding just one field.
+     */
+    private byte [] makeBytesFromStudyField(String name, String value)
+    {
+        try
+        {
+            ArrayOutput out = new ArrayOutput(null);
+            XMLStreamWriter w = beginDocument(out, "study");
+            writeText(w, name, value);
+            endDocument(w);
+            return out.toByteArray();
+        }
+        catch (XMLStreamException e)
+        {
+            writeFailed("study", e);
+            return null;
+        }
+    }
+
+
+    public Panel makePanelFromBytes(byte [] panelAsBytes)
+    {
+        try
+        {
+            XMLStreamReader r = beginDocument(panelAsBytes, "panel");
+            Panel panel = readPanel(r);
+            endDocument(r);
+            return panel;
+        }
+        catch (XMLStreamException e)
+        {
+            parseFailed("panel", e);
+            return null;
+        }
+
+    }   //  end makePanelFromBytes
+
+
+    private Panel readPanel(XMLStreamReader r) throws XMLStreamException
+    {
+        Panel panel = new Panel();
+
+        panel.setNameControlLocation      ("");
+        panel.setStatusControlLocation    ("");
+        panel.setVisibilityControlLocation("");
+        panel.setCreationTime             ("");
+        panel.setLatestBlockTime          ("");
+        panel.setLatestProspectTime       ("");
+
+        while (nextChild(r))
+        {
+            String name = r.getLocalName();
+
+            if      (name.equals("study_name_control"))
+                panel.setNameControlLocation(readLocation(r));
+            else if (name.equals("status_control"))
+                panel.setStatusControlLocation(readLocation(r));
+            else if (name.equals("visibility_control"))
+                panel.setVisibilityControlLocation(readLocation(r));
+            else if (name.equals("block_count_control"))
+                panel.setBlockCount(readCount(r, "block_count"));
+            else if (name.equals("cell_count_control"))
+                panel.setCellCount(readCount(r, "cell_count"));
+            else if (name.equals("prospect_count_control"))
+                panel.setProspectCount(readCount(r, "prospect_count"));
+            else if (name.equals("creation_time_control"))
+                panel.setCreationTime(readTime(r, "creation_time"));
+            else if (name.equals("latest_block_time_control"))
+                panel.setLatestBlockTime(readTime(r, "latest_block_time"));
+            else if (name.equals("latest_prospect_time_control"))
+                panel.setLatestProspectTime(
+                                    readTime(r, "latest_prospect_time"));
+            else
+                skipElement(r);
+        }
+
+        return panel;
+
+    }   //  end readPanel
+
+
+    /**
+     * Read a panel control and return the count which it holds, or 0 if it
+     * holds none.
+     */
+    private long readCount(XMLStreamReader r, String countName)
+        throws XMLStreamException
+    {
+        long count = 0;
+
+        while (nextChild(r))
+        {
+            if (r.getLocalName().equals(countName))
+                count = readUnsignedLong(r);
+            else
+                skipElement(r);
+        }
+
+        return count;
+    }
+
+    /**
+     * Read a panel control and return the time which it holds, or an empty
+     * string if it holds none.
+     */
+    private String readTime(XMLStreamReader r, String timeName)
+        throws XMLStreamException
+    {
+        String time = "";
+
+        while (nextChild(r))
+        {
+            if (r.getLocalName().equals(timeName))
+                time = r.getElementText();
+            else
+                skipElement(r);
+        }
+
+        return time;
+    }
+
+
+    public Roster makeRosterFromBytes(byte [] rosterAsBytes)
+    {
+        try
+        {
+            XMLStreamReader r = beginDocument(rosterAsBytes, "roster");
+            Roster roster = readRoster(r);
+            endDocument(r);
+            return roster;
+        }
+        catch (XMLStreamException e)
+        {
+            parseFailed("roster", e);
+            return null;
+        }
+
+    }   //  end makeRosterFromBytes
+
+
+    private Roster readRoster(XMLStreamReader r) throws XMLStreamException
+    {
+        Roster roster = new Roster();
+
+        roster.setStudyIdentifier("");
+        roster.setStudyName      ("");
+        roster.setRosterLocation ("");
+
+        boolean duplicate = false;
+
+        while (nextChild(r))
+        {
+            String name = r.getLocalName();
+
+            if      (name.equals("study_identifier"))
+                roster.setStudyIdentifier(r.getElementText());
+            else if (name.equals("study_name"))
+                roster.setStudyName(r.getElementText());
+            else if (name.equals("location"))
+                roster.setRosterLocation(r.getElementText());
+            else if (name.equals("role"))
+            {
+                if (roster.addRole(readRole(r)) != null)
+                    duplicate = true;
+            }
+            else
+                skipElement(r);
+        }
+
+        if (duplicate)
+        {
+            exception = new ServiceException("Yosokumo Roster contains" +
+                                    " two roles with the same identifier");
+            return null;
+        }
+
+        return roster;
+
+    }   //  end readRoster
+
+
+    public Role makeRoleFromBytes(byte [] roleAsBytes)
+    {
+        try
+        {
+            XMLStreamReader r = beginDocument(roleAsBytes, "role");
+            Role role = readRole(r);
+            endDocument(r);
+            return role;
+        }
+        catch (XMLStreamException e)
+        {
+            parseFailed("role", e);
+            return null;
+        }
+
+    }   //  end makeRoleFromBytes
+
+
+    private Role readRole(XMLStreamReader r) throws XMLStreamException
+    {
+        Role role = new Role("", "");
+
+        // Note that if any of the following elements are missing, they will
+        // be empty strings
+
+        role.setRoleLocation("");
+        role.setUserName    ("");
+        role.setStudyName   ("");
+
+        while (nextChild(r))
+        {
+            String name = r.getLocalName();
+
+            if (name.equals("location"))
+                role.setRoleLocation(r.getElementText());
+            else if (name.equals("roleholder"))
+            {
+                while (nextChild(r))
+                {
+                    String child = r.getLocalName();
+                    if      (child.equals("user_identifier"))
+                        role.setUserIdentifier(r.getElementText());
+                    else if (child.equals("user_name"))
+                        role.setUserName(r.getElementText());
+                    else
+                        skipElement(r);
+                }
+            }
+            else if (name.equals("study"))
+            {
+                while (nextChild(r))
+                {
+                    String child = r.getLocalName();
+                    if      (child.equals("study_identifier"))
+                        role.setStudyIdentifier(r.getElementText());
+                    else if (child.equals("study_name"))
+                        role.setStudyName(r.getElementText());
+                    else
+                        skipElement(r);
+                }
+            }
+            else if (name.equals("privileges"))
+            {
+                while (nextChild(r))
+                {
+                    Role.Privilege p = nameToPrivilege(r.getLocalName());
+                    if (p == null)
+                        skipElement(r);
+                    else if (readBoolean(r))
+                        role.addPrivilege(p);
+                }
+            }
+            else
+                skipElement(r);
+        }
+
+        return role;
+
+    }   //  end readRole
+
+
+    public byte [] makeBytesFromRole(Role role)
+    {
+        try
+        {
+            ArrayOutput out = new ArrayOutput(null);
+            XMLStreamWriter w = beginDocument(out, "role");
+
+            w.writeStartElement("roleholder");
+            writeText(w, "user_identifier", role.getUserIdentifier());
+            writeText(w, "user_name",       role.getUserName());
+            w.writeEndElement();
+
+            w.writeStartElement("privileges");
+            for (Role.Privilege p : Role.Privilege.values())
+                writeText(w, privilegeToName(p),
+                                        role.getPrivilege(p) ? "true" : "false");
+            w.writeEndElement();
+
+            w.writeStartElement("study");
+            writeText(w, "study_identifier", role.getStudyIdentifier());
+            writeText(w, "study_name",       role.getStudyName());
+            w.writeEndElement();
+
+            endDocument(w);
+            return out.toByteArray();
+        }
+        catch (XMLStreamException e)
+        {
+            writeFailed("role", e);
+            return null;
+        }
+    }
+
+    /**
+     * Return the privilege with a given element name in the privileges of
+     * a role (e.g., "get_study" for GET_STUDY), or null if there is none.
+     */
+    private Role.Privilege nameToPrivilege(String name)
+    {
+        for (Role.Privilege p : Role.Privilege.values())
+        {
+            if (p.name().equalsIgnoreCase(name))
+                return p;
+        }
+        return null;
+    }
+
+    private String privilegeToName(Role.Privilege p)
+    {
+        return p.name().toLowerCase();
+    }
+
+
+    public Predictor makePredictorFromBytes(byte [] predictorAsBytes)
+    {
+        try
+        {
+            XMLStreamReader r = beginDocument(predictorAsBytes, "predictor");
+            Predictor predictor = readPredictor(r);
+            endDocument(r);
+            return predictor;
+        }
+        catch (XMLStreamException e)
+        {
+            parseFailed("predictor", e);
+            return null;
+        }
+
+    }   //  end makePredictorFromBytes
+
+
+    private Predictor readPredictor(XMLStreamReader r)
+        throws XMLStreamException
+    {
+        Predictor predictor = new Predictor(0);
+
+        predictor.setStatus(Predictor.Status.ACTIVE);
+        predictor.setType  (Predictor.Type.CATEGORICAL);
+        predictor.setLevel (Predictor.Level.NOMINAL);
+
+        while (nextChild(r))
+        {
+            String name = r.getLocalName();
+
+            if      (name.equals("name"))
+                predictor.setPredictorName(readUnsignedLong(r));
+            else if (name.equals("status"))
+                predictor.setStatus(
+                            stringToPredictorStatus(r, r.getElementText()));
+            else if (name.equals("type"))
+                predictor.setType(stringToPredictorType(r, r.getElementText()));
+            else if (name.equals("level"))
+                predictor.setLevel(stringToLevel(r, r.getElementText()));
+            else
+                skipElement(r);
+        }
+
+        return predictor;
+
+    }   //  end readPredictor
+
+
+    public byte [] makeBytesFromPredictor(Predictor predictor)
+    {
+        try
+        {
+            ArrayOutput out = new ArrayOutput(null);
+            XMLStreamWriter w = beginDocument(out, null);
+            writePredictor(w, predictor);
+            endDocument(w);
+            return out.toByteArray();
+        }
+        catch (XMLStreamException e)
+        {
+            writeFailed("predictor", e);
+            return null;
+        }
+    }
+
+    private void writePredictor(XMLStreamWriter w, Predictor predictor)
+        throws XMLStreamException
+    {
+        w.writeStartElement("predictor");
+        writeText(w, "name",  unsignedToString(predictor.getPredictorName()));
+        writeText(w, "status", predictorStatusToString(predictor.getStatus()));
+        writeText(w, "type",   predictorTypeToString  (predictor.getType()));
+        writeText(w, "level",  levelToString          (predictor.getLevel()));
+        w.writeEndElement();
+    }
+
+    // Enum conversions:  Predictor <-> XML
+
+    private Predictor.Status stringToPredictorStatus(XMLStreamReader r,
+                                            String s) throws XMLStreamException
+    {
+        if (s.equals("Active"))    return Predictor.Status.ACTIVE;
+        if (s.equals("Inactive"))  return Predictor.Status.INACTIVE;
+
+        throw error(r, "Unknown predictor status:  " + s);
+    }
+
+    private String predictorStatusToString(Predictor.Status status)
+    {
+        switch (status)
+        {
+        case ACTIVE:    return "Active";
+        case INACTIVE:  return "Inactive";
+        }
+        return null;
+    }
+
+    private Predictor.Type stringToPredictorType(XMLStreamReader r, String s)
+        throws XMLStreamException
+    {
+        if (s.equals("Categorical"))  return Predictor.Type.CATEGORICAL;
+        if (s.equals("Continuous"))   return Predictor.Type.CONTINUOUS;
+
+        throw error(r, "Unknown predictor type:  " + s);
+    }
+
+    private String predictorTypeToString(Predictor.Type type)
+    {
+        switch (type)
+        {
+        case CATEGORICAL:  return "Categorical";
+        case CONTINUOUS:   return "Continuous";
+        }
+        return null;
+    }
+
+    private Predictor.Level stringToLevel(XMLStreamReader r, String s)
+        throws XMLStreamException
+    {
+        if (s.equals("Nominal"))   return Predictor.Level.NOMINAL;
+        if (s.equals("Ordinal"))   return Predictor.Level.ORDINAL;
+        if (s.equals("Interval"))  return Predictor.Level.INTERVAL;
+        if (s.equals("Ratio"))     return Predictor.Level.RATIO;
+
+        throw error(r, "Unknown predictor level:  " + s);
+    }
+
+    private String levelToString(Predictor.Level level)
+    {
+        switch (level)
+        {
+        case NOMINAL:   return "Nominal";
+        case ORDINAL:   return "Ordinal";
+        case INTERVAL:  return "Interval";
+        case RATIO:     return "Ratio";
+        }
+        return null;
+    }
+
+
+    public Specimen makeSpecimenFromBytes(byte [] specimenAsBytes)
+    {
+        try
+        {
+            XMLStreamReader r = beginDocument(specimenAsBytes, "specimen");
+            Specimen specimen = readSpecimen(r);
+            endDocument(r);
+            return specimen;
+        }
+        catch (XMLStreamException e)
+        {
+            parseFailed("specimen", e);
+            return null;
+        }
+
+    }   //  end makeSpecimenFromBytes
+
+
+    private Specimen readSpecimen(XMLStreamReader r) throws XMLStreamException
+    {
+        List<Cell> noCells = Collections.emptyList();
+        Specimen specimen = new Specimen(0, noCells);
+
+        specimen.setWeight(0);
+
+        List<Cell> cells = new ArrayList<Cell>();
+        Value value = null;
+        boolean badCell = false;
+
+        while (nextChild(r))
+        {
+            String name = r.getLocalName();
+
+            if      (name.equals("key"))
+                specimen.setSpecimenKey(readUnsignedLong(r));
+            else if (name.equals("status"))
+                specimen.setStatus(
+                            stringToSpecimenStatus(r, r.getElementText()));
+            else if (name.equals("weight"))
+                specimen.setWeight(readUnsignedLong(r));
+            else if (name.equals("cell"))
+            {
+                Cell c = readCell(r);
+                if (c == null)
+                    badCell = true;
+                cells.add(c);
+            }
+            else
+            {
+                Value v = readValue(r, name, false);
+                if (v != null)
+                    value = v;
+            }
+        }
+
+        if (badCell)
+            return null;
+
+        if (value == null)
+        {
+            exception = new ServiceException("XML specimen has no value");
+            return null;
+        }
+
+        specimen.setPredictand(value);
+        specimen.setCells(cells);
+
+        return specimen;
+
+    }   //  end readSpecimen
+
+
+    public byte [] makeBytesFromSpecimen(Specimen specimen)
+    {
+        try
+        {
+            ArrayOutput out = new ArrayOutput(null);
+            XMLStreamWriter w = beginDocument(out, null);
+            writeSpecimen(w, specimen);
+            endDocument(w);
+            return out.toByteArray();
+        }
+        catch (XMLStreamException e)
+        {
+            writeFailed("specimen", e);
+            return null;
+        }
+    }
+
+    private void writeSpecimen(XMLStreamWriter w, Specimen specimen)
+        throws XMLStreamException
+    {
+        w.writeStartElement("specimen");
+
+        writeText(w, "key",    unsignedToString(specimen.getSpecimenKey()));
+        writeText(w, "status", specimenStatusToString(specimen.getStatus()));
+        writeText(w, "weight", unsignedToString(specimen.getWeight()));
+
+        if (!writeValue(w, specimen.getPredictand(), false))
+            exception =
+                new ServiceException("Yosokumo specimen predictand value " +
+                                                        "has unknown type");
+
+        for (Cell c : specimen.getCells())
+            writeCell(w, c);
+
+        w.writeEndElement();
+    }
+
+    // Enum conversions:  Specimen <-> XML
+
+    private Specimen.Status stringToSpecimenStatus(XMLStreamReader r,
+                                            String s) throws XMLStreamException
+    {
+        if (s.equals("Active"))    return Specimen.Status.ACTIVE;
+        if (s.equals("Inactive"))  return Specimen.Status.INACTIVE;
+
+        throw error(r, "Unknown specimen status:  " + s);
+    }
+
+    private String specimenStatusToString(Specimen.Status status)
+    {
+        switch (status)
+        {
+        case ACTIVE:    return "Active";
+        case INACTIVE:  return "Inactive";
+        }
+        return null;
+    }
+
+
+    public Cell makeCellFromBytes(byte [] cellAsBytes)
+    {
+        try
+        {
+            XMLStreamReader r = beginDocument(cellAsBytes, "cell");
+            Cell cell = readCell(r);
+            endDocument(r);
+            return cell;
+        }
+        catch (XMLStreamException e)
+        {
+            parseFailed("cell", e);
+            return null;
+        }
+
+    }   //  end makeCellFromBytes
+
+
+    private Cell readCell(XMLStreamReader r) throws XMLStreamException
+    {
+        long cellName = 0;
+        long cellKey  = 0;
+        boolean hasName = false;
+        boolean hasKey  = false;
+        Value value = null;
+
+        while (nextChild(r))
+        {
+            String name = r.getLocalName();
+
+            if (name.equals("name"))
+            {
+                cellName = readUnsignedLong(r);
+                hasName  = true;
+            }
+            else if (name.equals("key"))
+            {
+                cellKey = readUnsignedLong(r);
+                hasKey  = true;
+            }
+            else
+            {
+                Value v = readValue(r, name, true);
+                if (v != null)
+                    value = v;
+            }
+        }
+
+        if (!hasKey && !hasName)
+        {
+            exception = new ServiceException("XML cell has neither name " +
+                                             "nor key");
+            return null;
+        }
+
+        if (value == null)
+        {
+            exception = new ServiceException("XML cell has no value");
+            return null;
+        }
+
+        return new Cell(hasKey ? cellKey : cellName, value);
+
+    }   //  end readCell
+
+
+    public byte [] makeBytesFromCell(Cell cell)
+    {
+        try
+        {
+            ArrayOutput out = new ArrayOutput(null);
+            XMLStreamWriter w = beginDocument(out, null);
+            writeCell(w, cell);
+            endDocument(w);
+            return out.toByteArray();
+        }
+        catch (XMLStreamException e)
+        {
+            writeFailed("cell", e);
+            return null;
+        }
+    }
+
+    private void writeCell(XMLStreamWriter w, Cell cell)
+        throws XMLStreamException
+    {
+        w.writeStartElement("cell");
+        writeText(w, "name", unsignedToString(cell.getName()));
+
+        if (!writeValue(w, cell.getValue(), true))
+            exception =
+                new ServiceException("Yosokumo cell value has unknown type");
+
+        w.writeEndElement();
+    }
+
+    /**
+     * Read an element which may hold the value of a specimen or cell.
+     * Return the value, or null (having skipped the element) if the element
+     * does not hold a value.  Special values are allowed only in cells.
+     */
+    private Value readValue(XMLStreamReader r, String name,
+                            boolean allowSpecial) throws XMLStreamException
+    {
+        if (name.equals("empty"))
+        {
+            readBoolean(r);
+            return new EmptyValue();
+        }
+        if (name.equals("natural"))
+            return new NaturalValue(readUnsignedLong(r));
+        if (name.equals("integer"))
+            return new IntegerValue(readLong(r));
+        if (name.equals("real"))
+            return new RealValue(readDouble(r));
+        if (allowSpecial && name.equals("special"))
+            return new SpecialValue(readUnsignedLong(r));
+
+        skipElement(r);
+        return null;
+    }
+
+    /**
+     * Write the element holding the value of a specimen or cell.  Return
+     * false if the value has an unknown type, in which case an empty value
+     * is written.
+     */
+    private boolean writeValue(XMLStreamWriter w, Value v,
+                               boolean allowSpecial) throws XMLStreamException
+    {
+        switch (v.getType())
+        {
+        case EMPTY:
+            writeText(w, "empty", "true");
+            break;
+        case NATURAL:
+            writeText(w, "natural",
+                            unsignedToString(((NaturalValue)v).getValue()));
+            break;
+        case INTEGER:
+            writeText(w, "integer",
+                            Long.toString(((IntegerValue)v).getValue()));
+            break;
+        case REAL:
+            writeText(w, "real", doubleToString(((RealValue)v).getValue()));
+            break;
+        case SPECIAL:
+            if (!allowSpecial)
+            {
+                writeText(w, "empty", "true");
+                return false;
+            }
+            writeText(w, "special",
+                            unsignedToString(((SpecialValue)v).getValue()));
+            break;
+        default:
+            writeText(w, "empty", "true");
+            return false;
+        }
+
+        return true;
+    }
+
+
+    public Block makeBlockFromBytes(byte [] blockAsBytes)
+    {
+        try
+        {
+            XMLStreamReader r = beginDocument(blockAsBytes, "block");
+            Block block = readBlock(r);
+            endDocument(r);
+            return block;
+        }
+        catch (XMLStreamException e)
+        {
+            parseFailed("block", e);
+            return null;
+        }
+
+    }   //  end makeBlockFromBytes
+
+
+    public Block makeBlockFromStream(InputStream blockStream)
+    {
+        try
+        {
+            XMLStreamReader r = inputFactory.createXMLStreamReader(blockStream);
+            beginDocument(r, "block");
+            Block block = readBlock(r);
+            endDocument(r);
+            return block;
+        }
+        catch (XMLStreamException e)
+        {
+            parseFailed("block", e);
+            return null;
+        }
+
+    }   //  end makeBlockFromStream
+
+
+    private Block readBlock(XMLStreamReader r) throws XMLStreamException
+    {
+        String id = "";
+        boolean empty = false;
+        List<Predictor> predictors = new ArrayList<Predictor>();
+        List<Specimen>  specimens  = new ArrayList<Specimen>();
+        boolean bad = false;
+
+        while (nextChild(r))
+        {
+            String name = r.getLocalName();
+
+            if      (name.equals("study_identifier"))
+                id = r.getElementText();
+            else if (name.equals("empty"))
+                empty = readBoolean(r);
+            else if (name.equals("predictor"))
+                predictors.add(readPredictor(r));
+            else if (name.equals("specimen"))
+            {
+                Specimen s = readSpecimen(r);
+                if (s == null)
+                    bad = true;
+                specimens.add(s);
+            }
+            else
+                skipElement(r);
+        }
+
+        if (bad)
+            return null;
+
+        // Create a Yosokumo Block of the type shown by the elements present
+
+        if (empty)
+            return new EmptyBlock(id);
+
+        if (!predictors.isEmpty())
+        {
+            PredictorBlock pblock = new PredictorBlock(id);
+            pblock.addPredictors(predictors);
+            return pblock;
+        }
+
+        SpecimenBlock sblock = new SpecimenBlock(id);
+        sblock.addSpecimens(specimens);
+        return sblock;
+
+    }   //  end readBlock
+
+
+    public byte [] makeBytesFromBlock(Block block)
+    {
+        ArrayOutput out = new ArrayOutput(null);
+
+        if (!writeBlock(out, block))
+            return null;
+
+        return out.toByteArray();
+    }
+
+    public ByteBuffer makeBufferFromBlock(Block block, BufferPool pool)
+    {
+        ArrayOutput out = new ArrayOutput(pool);
+
+        if (!writeBlock(out, block))
+        {
+            out.release();
+            return null;
+        }
+
+        return out.toBuffer();
+    }
+
+    /**
+     * Write the XML document of a block.  Return false if the document
+     * could not be written.
+     */
+    private boolean writeBlock(ArrayOutput out, Block block)
+    {
+        try
+        {
+            XMLStreamWriter w = beginDocument(out, "block");
+            writeText(w, "study_identifier", block.getStudyIdentifier());
+
+            switch (block.getType())
+            {
+            case EMPTY:
+                writeText(w, "empty", "true");
+                break;
+
+            case PREDICTOR:
+            {
+                PredictorBlock pblock = (PredictorBlock)block;
+                for (Predictor p : pblock.getPredictorSequence())
+                    writePredictor(w, p);
+                break;
+            }
+
+            case SPECIMEN:
+            {
+                SpecimenBlock sblock = (SpecimenBlock)block;
+                for (Specimen s : sblock.getSpecimenSequence())
+                    writeSpecimen(w, s);
+                break;
+            }
+
+            default:
+                writeText(w, "empty", "true");
+                exception =
+                    new ServiceException("Yosokumo block has unknown type");
+            }
+
+            endDocument(w);
+            return true;
+        }
+        catch (XMLStreamException e)
+        {
+            writeFailed("block", e);
+            return false;
+        }
+    }
+
+
+    public Message makeMessageFromBytes(byte [] messageAsBytes)
+    {
+        try
+        {
+            XMLStreamReader r = beginDocument(messageAsBytes, "message");
+            Message message = readMessage(r);
+            endDocument(r);
+            return message;
+        }
+        catch (XMLStreamException e)
+        {
+            parseFailed("message", e);
+            return null;
+        }
+
+    }   //  end makeMessageFromBytes
+
+
+    private Message readMessage(XMLStreamReader r) throws XMLStreamException
+    {
+        Message.Type type = Message.Type.INFORMATION;
+        String text = "";
+
+        while (nextChild(r))
+        {
+            String name = r.getLocalName();
+
+            if (name.equals("type"))
+            {
+                String s = r.getElementText();
+                if      (s.equals("Information"))
+                    type = Message.Type.INFORMATION;
+                else if (s.equals("Error"))
+                    type = Message.Type.ERROR;
+                else
+                    throw error(r, "Unknown message type:  " + s);
+            }
+            else if (name.equals("text"))
+                text = r.getElementText();
+            else
+                skipElement(r);
+        }
+
+        Message m = new Message(type, text);
+
+        return (m.getText().trim().isEmpty() ? null : m);
+
+    }   //  end readMessage
+
+
+    /**
+     * Read an element holding just a location, e.g., the table element of
+     * a study, and return the location, or an empty string if there is
+     * none.
+     */
+    private String readLocation(XMLStreamReader r) throws XMLStreamException
+    {
+        String location = "";
+
+        while (nextChild(r))
+        {
+            if (r.getLocalName().equals("location"))
+                location = r.getElementText();
+            else
+                skipElement(r);
+        }
+
+        return location;
+    }
+
+    // Reading:  the reader moves from the start tag of an element through
+    // its children to its end tag
+
+    /**
+     * Create a reader of the XML text in an array, and move it to the start
+     * tag of the root element, which must have a given name.
+     */
+    private static XMLStreamReader beginDocument(byte [] text, String root)
+        throws XMLStreamException
+    {
+        XMLStreamReader r =
+            inputFactory.createXMLStreamReader(new ByteArrayInputStream(text));
+        beginDocument(r, root);
+        return r;
+    }
+
+    private static void beginDocument(XMLStreamReader r, String root)
+        throws XMLStreamException
+    {
+        r.nextTag();
+
+        if (!r.getLocalName().equals(root))
+            throw error(r, "Expected element " + root + ", found " +
+                                                            r.getLocalName());
+    }
+
+    /**
+     * Read from the end tag of the root element to the end of the document.
+     * The reader rejects anything but comments and white space.
+     */
+    private static void endDocument(XMLStreamReader r)
+        throws XMLStreamException
+    {
+        while (r.next() != XMLStreamConstants.END_DOCUMENT)
+            ;
+        r.close();
+    }
+
+    /**
+     * Move to the next child of the current element.  Return true if the
+     * reader is on the start tag of a child, or false if it is on the end
+     * tag of the current element.
+     */
+    private static boolean nextChild(XMLStreamReader r)
+        throws XMLStreamException
+    {
+        return r.nextTag() == XMLStreamConstants.START_ELEMENT;
+    }
+
+    /**
+     * Move from the start tag of an element to its end tag, skipping
+     * everything in between.
+     */
+    private static void skipElement(XMLStreamReader r)
+        throws XMLStreamException
+    {
+        int depth = 1;
+
+        while (depth > 0)
+        {
+            int event = r.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT)
+                ++depth;
+            else if (event == XMLStreamConstants.END_ELEMENT)
+                --depth;
+        }
+    }
+
+    private static XMLStreamException error(XMLStreamReader r, String message)
+    {
+        return new XMLStreamException(message, r.getLocation());
+    }
+
+    private static boolean readBoolean(XMLStreamReader r)
+        throws XMLStreamException
+    {
+        String s = r.getElementText().trim();
+
+        if (s.equals("true")  || s.equals("1"))
+            return true;
+        if (s.equals("false") || s.equals("0"))
+            return false;
+
+        throw error(r, "Not a boolean:  " + s);
+    }
+
+    private static long readLong(XMLStreamReader r) throws XMLStreamException
+    {
+        String s = r.getElementText().trim();
+
+        try
+        {
+            return Long.parseLong(s);
+        }
+        catch (NumberFormatException e)
+        {
+            throw error(r, "Not a 64-bit integer:  " + s);
+        }
+    }
+
+    /**
+     * Read an unsigned 64-bit integer, returning its bits as a long.
+     */
+    private static long readUnsignedLong(XMLStreamReader r)
+        throws XMLStreamException
+    {
+        String s = r.getElementText().trim();
+
+        try
+        {
+            if (s.length() < 19)
+            {
+                long value = Long.parseLong(s);
+                if (value >= 0)
+                    return value;
+            }
+            else
+            {
+                BigInteger b = new BigInteger(s);
+                if (b.signum() >= 0 && b.bitLength() <= 64)
+                    return b.longValue();
+            }
+        }
+        catch (NumberFormatException e)
+        {
+        }
+
+        throw error(r, "Not an unsigned 64-bit integer:  " + s);
+    }
+
+    private static double readDouble(XMLStreamReader r)
+        throws XMLStreamException
+    {
+        String s = r.getElementText().trim();
+
+        if (s.equals("INF"))
+            return Double.POSITIVE_INFINITY;
+        if (s.equals("-INF"))
+            return Double.NEGATIVE_INFINITY;
+
+        try
+        {
+            return Double.parseDouble(s);
+        }
+        catch (NumberFormatException e)
+        {
+            throw error(r, "Not a real number:  " + s);
+        }
+    }
+
+    // Writing
+
+    /**
+     * Create a writer of UTF-8 XML text, write the XML declaration, and
+     * write the start tag of the root element, if it is given.
+     */
+    private static XMLStreamWriter beginDocument(OutputStream out, String root)
+        throws XMLStreamException
+    {
+        XMLStreamWriter w = outputFactory.createXMLStreamWriter(out, "UTF-8");
+
+        w.writeStartDocument("UTF-8", "1.0");
+        if (root != null)
+            w.writeStartElement(root);
+
+        return w;
+    }
+
+    /**
+     * Close all open elements and flush the text to the output stream.
+     */
+    private static void endDocument(XMLStreamWriter w)
+        throws XMLStreamException
+    {
+        w.writeEndDocument();
+        w.close();
+    }
+
+    /**
+     * Write an element holding just text, unless the text is null.
+     */
+    private static void writeText(XMLStreamWriter w, String name, String text)
+        throws XMLStreamException
+    {
+        if (text == null)
+            return;
+
+        w.writeStartElement(name);
+        w.writeCharacters(text);
+        w.writeEndElement();
+    }
+
+    /**
+     * Return the decimal digits of a long taken as an unsigned 64-bit
+     * number, as for the uint64 fields of a block.
+     */
+    private static String unsignedToString(long value)
+    {
+        if (value >= 0)
+            return Long.toString(value);
+
+        return BigInteger.valueOf(value).add(BigInteger.ONE.shiftLeft(64))
+                                                                .toString();
+    }
+
+    private static String doubleToString(double value)
+    {
+        if (value == Double.POSITIVE_INFINITY)
+            return "INF";
+        if (value == Double.NEGATIVE_INFINITY)
+            return "-INF";
+
+        return Double.toString(value);
+    }
+
+    /**
+     * An output stream which collects the bytes written to it in an array,
+     * obtained from a pool if one is given.  When the bytes outgrow the
+     * array, they are moved to a larger array and the smaller array is
+     * given back to the pool.  Unlike {@code ByteArrayOutputStream}, it is
+     * not synchronized, and the final array can be handed over without a
+     * copy.
+     */
+    private static class ArrayOutput extends OutputStream
+    {
+        private final BufferPool pool;
+
+        private byte [] buf;
+        private int     count = 0;
+
+        ArrayOutput(BufferPool pool)
+        {
+            this.pool = pool;
+            this.buf  = (pool == null ? new byte[256]
+                                      : pool.acquire(BufferPool.MIN_CLASS_SIZE));
+        }
+
+        @Override
+        public void write(int b)
+        {
+            if (count == buf.length)
+                grow(1);
+            buf[count++] = (byte)b;
+        }
+
+        @Override
+        public void write(byte [] b, int off, int len)
+        {
+            if (count + len > buf.length)
+                grow(len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        /**
+         * Return the bytes in an array of their exact length.
+         */
+        byte [] toByteArray()
+        {
+            byte [] bytes = new byte[count];
+            System.arraycopy(buf, 0, bytes, 0, count);
+            return bytes;
+        }
+
+        /**
+         * Return a buffer wrapping the array holding the bytes.  The caller
+         * gives the array back to the pool when it is no longer needed.
+         */
+        ByteBuffer toBuffer()
+        {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        /**
+         * Give the array back to the pool, discarding the bytes.
+         */
+        void release()
+        {
+            if (pool != null)
+                pool.release(buf);
+            buf   = null;
+            count = 0;
+        }
+
+        private void grow(int n)
+        {
+            int newLength = Math.max(count + n, 2 * buf.length);
+            byte [] bigger;
+
+            if (pool == null)
+                bigger = new byte[newLength];
+            else
+                bigger = pool.acquire(newLength);
+
+            System.arraycopy(buf, 0, bigger, 0, count);
+
+            if (pool != null)
+                pool.release(buf);
+
+            buf = bigger;
+        }
+    }
+
+
+}   //  end class YosokumoXml
+
+// end YosokumoXml.java
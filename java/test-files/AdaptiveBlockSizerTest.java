@@ -0,0 +1,59 @@
+// AdaptiveBlockSizerTest.java  -  Test the AdaptiveBlockSizer class with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class AdaptiveBlockSizerTest
+{
+    @Test
+    public void defaultsOnlyReactToTooLarge()
+    {
+        AdaptiveBlockSizer sizer = new AdaptiveBlockSizer(1000);
+
+        assertTrue(sizer.getItemLimit() == 1000);
+
+        sizer.observe(1000, 50000, 100000);
+        sizer.observe(10,   500,   0);
+        assertTrue(sizer.getItemLimit() == 1000);
+
+        sizer.tooLarge(600);
+        assertTrue(sizer.getItemLimit() == 300);
+
+        sizer.tooLarge(1);
+        assertTrue(sizer.getItemLimit() == 1);
+    }
+
+    @Test
+    public void sizeTargetLimitsItems()
+    {
+        AdaptiveBlockSizer sizer = 
+                        new AdaptiveBlockSizer(1000, 2000, 0, Long.MAX_VALUE);
+
+        sizer.observe(100, 1000, 5);    // 10 bytes per item
+
+        assertTrue(sizer.getItemLimit() == 200);
+    }
+
+    @Test
+    public void latencyWindowShrinksAndGrows()
+    {
+        AdaptiveBlockSizer sizer = 
+                        new AdaptiveBlockSizer(1000, Long.MAX_VALUE, 10, 100);
+
+        sizer.observe(800, 8000, 400);  // Four times too slow
+        assertTrue(sizer.getItemLimit() == 200);
+
+        sizer.observe(50, 500, 1);      // Fast, but block was small
+        assertTrue(sizer.getItemLimit() == 200);
+
+        sizer.observe(200, 2000, 1);
+        assertTrue(sizer.getItemLimit() == 400);
+
+        sizer.observe(400, 4000, 1);
+        sizer.observe(800, 8000, 1);
+        assertTrue(sizer.getItemLimit() == 1000);
+    }
+
+}   //  end class AdaptiveBlockSizerTest
@@ -0,0 +1,158 @@
+// BlockPackerTest.java  -  Test the BlockPacker class with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.yosokumo.core.protobuf.ProtoBuf;
+
+public class BlockPackerTest
+{
+    /**
+     * Make a dense block:  cell 1 real, cell 2 integer, cell 7 natural,
+     * cell 9 empty.
+     */
+    private static SpecimenBlock makeBlock(int numSpecimens)
+    {
+        List<Specimen> list = new ArrayList<Specimen>();
+
+        for (int i = 0;  i < numSpecimens;  ++i)
+        {
+            List<Cell> cells = new ArrayList<Cell>();
+            cells.add(new Cell(1, new RealValue(i * 0.25 - 3)));
+            cells.add(new Cell(2, new IntegerValue(-i * 1000L)));
+            cells.add(new Cell(7, new NaturalValue(Long.MAX_VALUE - i)));
+            cells.add(new Cell(9, new EmptyValue()));
+
+            list.add(new Specimen(500 + i, Specimen.Status.INACTIVE, 3,
+                                        new RealValue(i / 7.0), cells));
+        }
+
+        return new SpecimenBlock("S1", list);
+    }
+
+    private static byte [] pack(SpecimenBlock block)
+    {
+        ByteBuffer buffer = BlockPacker.pack(block, new BufferPool());
+        byte [] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void packAndUnpack() throws Exception
+    {
+        SpecimenBlock block = makeBlock(300);
+        assertTrue(BlockPacker.canPack(block));
+
+        byte [] bytes = pack(block);
+        SpecimenBlock copy = BlockPacker.unpack(bytes);
+
+        assertTrue(copy.getStudyIdentifier().equals("S1"));
+        assertTrue(copy.toString().equals(block.toString()));
+
+        // Packing saves the names and tags of the cells
+
+        byte [] rows = new YosokumoProtobuf().makeBytesFromBlock(block);
+        assertTrue(bytes.length < rows.length);
+    }
+
+    @Test
+    public void packedFormIsPackedBlock() throws Exception
+    {
+        // The bytes written directly are those of the generated message
+
+        SpecimenBlock block = makeBlock(3);
+
+        ProtoBuf.PackedBlock.Builder b = ProtoBuf.PackedBlock.newBuilder()
+            .setStudyIdentifier("S1")
+            .setStatus(ProtoBuf.Specimen.Status.Inactive)
+            .setWeight(3);
+
+        ProtoBuf.PackedBlock.Column.Builder predictand =
+                                    ProtoBuf.PackedBlock.Column.newBuilder();
+        ProtoBuf.PackedBlock.Column.Builder c1 =
+                        ProtoBuf.PackedBlock.Column.newBuilder().setName(1);
+        ProtoBuf.PackedBlock.Column.Builder c2 =
+                        ProtoBuf.PackedBlock.Column.newBuilder().setName(2);
+        ProtoBuf.PackedBlock.Column.Builder c7 =
+                        ProtoBuf.PackedBlock.Column.newBuilder().setName(7);
+        ProtoBuf.PackedBlock.Column.Builder c9 =
+                        ProtoBuf.PackedBlock.Column.newBuilder().setName(9);
+
+        for (int i = 0;  i < 3;  ++i)
+        {
+            b.addKey(500 + i);
+            predictand.addReal(i / 7.0);
+            c1.addReal(i * 0.25 - 3);
+            c2.addInteger(-i * 1000L);
+            c7.addNatural(Long.MAX_VALUE - i);
+        }
+
+        b.setPredictand(predictand).addColumn(c1).addColumn(c2)
+                                   .addColumn(c7).addColumn(c9);
+
+        assertTrue(Arrays.equals(pack(block), b.build().toByteArray()));
+    }
+
+    @Test
+    public void onlyUniformBlocksArePacked()
+    {
+        assertFalse(BlockPacker.canPack(makeBlock(1)));
+        assertTrue (BlockPacker.canPack(makeBlock(2)));
+
+        // A different weight
+
+        SpecimenBlock block = makeBlock(5);
+        block.getSpecimenSequence().get(3).setWeight(4);
+        assertFalse(BlockPacker.canPack(block));
+
+        // A missing cell
+
+        block = makeBlock(5);
+        block.getSpecimenSequence().get(4).getCells().remove(1);
+        assertFalse(BlockPacker.canPack(block));
+
+        // Cells in another order
+
+        block = makeBlock(5);
+        List<Cell> cells = block.getSpecimenSequence().get(2).getCells();
+        cells.add(cells.remove(0));
+        assertFalse(BlockPacker.canPack(block));
+
+        // An integer in a column of reals
+
+        block = makeBlock(5);
+        block.getSpecimenSequence().get(1).getCells()
+                                        .set(0, new Cell(1, new IntegerValue(2)));
+        assertFalse(BlockPacker.canPack(block));
+
+        // Special values
+
+        block = makeBlock(5);
+        for (Specimen s : block.getSpecimenSequence())
+            s.getCells().set(3, new Cell(9, new SpecialValue(1)));
+        assertFalse(BlockPacker.canPack(block));
+    }
+
+    @Test(expected=java.io.IOException.class)
+    public void shortColumnIsRejected() throws Exception
+    {
+        ProtoBuf.PackedBlock packed = ProtoBuf.PackedBlock.newBuilder()
+            .addKey(1).addKey(2)
+            .setPredictand(ProtoBuf.PackedBlock.Column.newBuilder()
+                                            .addReal(1.0).addReal(2.0))
+            .addColumn(ProtoBuf.PackedBlock.Column.newBuilder()
+                                            .setName(1).addReal(1.0))
+            .build();
+
+        BlockPacker.unpack(packed.toByteArray());
+    }
+
+}   //  end class BlockPackerTest
@@ -0,0 +1,109 @@
+// BlockPackingTest.java  -  Test the posting of packed blocks with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BlockPackingTest
+{
+    /*
+     * A specimen with one cell is two items, so a block holds 50000 of 
+     * them, and this many specimens are posted in three blocks.
+     */
+    private static final int NUM_SPECIMENS = 150000;
+
+    private static List<Long> keys(long first, int n)
+    {
+        List<Long> keys = new ArrayList<Long>(n);
+
+        for (long key = first;  key < first + n;  ++key)
+            keys.add(key);
+
+        return keys;
+    }
+
+    private static void assertScored(List<Specimen> prospects)
+    {
+        for (Specimen s : prospects)
+            assertEquals(s.getSpecimenKey(), 
+                        ((RealValue)s.getPredictand()).getValue(), 0.0);
+    }
+
+    @Test
+    public void packedBlocksAreLoadedAndScored() throws Exception
+    {
+        StudyServer server = new StudyServer();
+        Service service = server.makeService();
+        service.setBlockPacking(true);
+
+        service.loadSubjects("S1", StudyServer.makeSpecimens(0, 1000));
+
+        assertEquals(1, server.packedPosts.get());
+        assertEquals(keys(0, 1000), server.tableKeys());
+
+        List<Specimen> prospects = StudyServer.makeSpecimens(0, 1000);
+        service.scoreProspects("S1", prospects);
+
+        assertEquals(2, server.packedPosts.get());
+        assertScored(prospects);
+        assertTrue(service.isBlockPackingEnabled());
+    }
+
+    @Test
+    public void refusedPackedTableLoadIsPostedAsRows() throws Exception
+    {
+        StudyServer server = new StudyServer();
+        server.refusePacked = true;
+        Service service = server.makeService();
+        service.setBlockPacking(true);
+
+        service.loadSubjects("S1", 
+                            StudyServer.makeSpecimens(0, NUM_SPECIMENS));
+
+        // Only the first block is refused; it and the later blocks are 
+        // posted as rows
+
+        assertEquals(1, server.packedPosts.get());
+        assertEquals(3, server.posts.get());
+        assertEquals(keys(0, NUM_SPECIMENS), server.tableKeys());
+        assertFalse(service.isBlockPackingEnabled());
+    }
+
+    @Test
+    public void refusedPackedScoringIsPostedAsRows() throws Exception
+    {
+        StudyServer server = new StudyServer();
+        server.refusePacked = true;
+        Service service = server.makeService();
+        service.setBlockPacking(true);
+
+        // The blocks are posted in parallel, so any of them may have been 
+        // packed before the first refusal was seen
+
+        List<Specimen> prospects = 
+                            StudyServer.makeSpecimens(0, NUM_SPECIMENS);
+        service.scoreProspects("S1", prospects);
+
+        int refused = server.packedPosts.get();
+
+        assertTrue(refused >= 1 && refused <= 3);
+        assertEquals(3, server.posts.get());
+        assertEquals(3, server.modelBlocks.size());
+        assertScored(prospects);
+
+        // Packing is off for the service and for its workers
+
+        assertFalse(service.isBlockPackingEnabled());
+        assertFalse(service.spawnWorker().isBlockPackingEnabled());
+
+        service.loadSubjects("S1", StudyServer.makeSpecimens(0, 1000));
+
+        assertEquals(refused, server.packedPosts.get());
+        assertEquals(keys(0, 1000), server.tableKeys());
+    }
+
+}   //  end class BlockPackingTest
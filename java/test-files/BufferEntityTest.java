@@ -0,0 +1,84 @@
+// BufferEntityTest.java  -  Test the BufferEntity class with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+public class BufferEntityTest
+{
+    private static byte [] makeBytes(int n)
+    {
+        byte [] b = new byte[n];
+        for (int i = 0;  i < n;  ++i)
+            b[i] = (byte)(i * 7);
+        return b;
+    }
+
+    private static byte [] written(BufferEntity e) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        e.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static byte [] read(BufferEntity e) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = e.getContent();
+        byte [] b = new byte[100];
+        int n;
+        while ((n = in.read(b, 0, b.length)) != -1)
+            out.write(b, 0, n);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void gathersBuffers() throws IOException
+    {
+        byte [] bytes = makeBytes(30000);
+
+        ByteBuffer heap = ByteBuffer.wrap(bytes, 0, 10000).slice();
+        ByteBuffer direct = ByteBuffer.allocateDirect(20000);
+        direct.put(bytes, 10000, 20000);
+        direct.flip();
+
+        BufferEntity e = new BufferEntity(heap, direct);
+
+        assertTrue(e.getContentLength() == 30000);
+        assertTrue(Arrays.equals(bytes, written(e)));
+        assertTrue(Arrays.equals(bytes, written(e)));   // Repeatable
+        assertTrue(Arrays.equals(bytes, read(e)));
+        assertTrue(heap.position() == 0 && direct.position() == 0);
+    }
+
+    @Test
+    public void sendsFileRegion() throws IOException
+    {
+        byte [] bytes = makeBytes(50000);
+        File file = File.createTempFile("BufferEntityTest", ".dat");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.write(bytes);
+        FileChannel channel = raf.getChannel();
+
+        BufferEntity e = new BufferEntity(channel, 1000, 40000);
+        byte [] expected = Arrays.copyOfRange(bytes, 1000, 41000);
+
+        assertTrue(e.getContentLength() == 40000);
+        assertTrue(Arrays.equals(expected, written(e)));
+        assertTrue(Arrays.equals(expected, read(e)));
+
+        raf.close();
+        file.delete();
+    }
+
+}   //  end class BufferEntityTest
@@ -0,0 +1,58 @@
+// BufferPoolTest.java  -  Test the BufferPool class with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class BufferPoolTest
+{
+    @Test
+    public void arraysComeInSizeClasses()
+    {
+        BufferPool pool = new BufferPool();
+
+        assertTrue(pool.acquire(0   ).length == BufferPool.MIN_CLASS_SIZE);
+        assertTrue(pool.acquire(4096).length == 4096);
+        assertTrue(pool.acquire(4097).length == 8192);
+        assertTrue(pool.acquire(100000).length == 131072);
+
+        int big = BufferPool.MAX_CLASS_SIZE + 1;
+        assertTrue(pool.acquire(big).length == big);
+    }
+
+    @Test
+    public void releasedArraysAreReused()
+    {
+        BufferPool pool = new BufferPool();
+
+        byte [] a = pool.acquire(5000);
+        pool.release(a);
+        assertTrue(pool.getRetainedBytes() == 8192);
+
+        assertSame(a, pool.acquire(6000));
+        assertTrue(pool.getRetainedBytes() == 0);
+
+        pool.release(a);
+        assertNotSame(a, pool.acquire(3000));   // Different size class
+        assertSame   (a, pool.acquire(8192));
+    }
+
+    @Test
+    public void foreignAndExcessArraysAreNotKept()
+    {
+        BufferPool pool = new BufferPool(10000);
+
+        pool.release(new byte[5000]);           // Not a size class
+        pool.release(new byte[1024]);           // Below the smallest class
+        assertTrue(pool.getRetainedBytes() == 0);
+
+        pool.release(new byte[8192]);
+        pool.release(new byte[4096]);           // Would exceed the limit
+        assertTrue(pool.getRetainedBytes() == 8192);
+
+        pool.clear();
+        assertTrue(pool.getRetainedBytes() == 0);
+    }
+
+}   //  end class BufferPoolTest
@@ -0,0 +1,268 @@
+// DifBenchmark.java
+
+package com.yosokumo.core;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compare the Data Interchange Formats (DIFs) on specimen blocks:  the
+ * size of the encoded block, and the rates at which it is encoded and
+ * decoded.  Two blocks are used:  the housing data set, repeated to make
+ * a block of a useful size, and a synthetic wide table of random values.
+ * <p>
+ * The packed columnar form of a protobuf block (see {@code BlockPacker})
+ * is measured as well, when the block can be packed.
+ * <p>
+ * Each measurement is the best of several runs, after a warm-up, so that
+ * the rates are those of compiled code.
+ *
+ * @author  Roger House
+ * @version 0.9
+ */
+public class DifBenchmark
+{
+    private static final int RUNS = 25;
+
+    private static void displayUsage()
+    {
+        System.out.println();
+        System.out.println("Usage:");
+        System.out.println();
+        System.out.println("        DifBenchmark  housing-data-filename  [copies]");
+        System.out.println();
+        System.out.println("where");
+        System.out.println();
+        System.out.println("    housing-data-filename is data-sets/housing/housing.data");
+        System.out.println("    copies                is the number of copies of the data set");
+        System.out.println("                          in the housing block (default 40)");
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1 || args.length > 2)
+        {
+            displayUsage();
+            return;
+        }
+
+        int copies = (args.length == 2 ? Integer.parseInt(args[1]) : 40);
+
+        SpecimenBlock housing = loadHousing(args[0], copies);
+        SpecimenBlock wide    = makeWideTable(2000, 500);
+
+        YosokumoDIF [] difs =
+        {
+            new YosokumoProtobuf(),
+            new YosokumoAsn1(),
+            new YosokumoJson(),
+            new YosokumoXml()
+        };
+
+        System.out.println();
+        System.out.println("Housing:  " + housing.size() + " specimens of 13 cells");
+        benchmark(housing, difs);
+
+        System.out.println();
+        System.out.println("Wide table:  " + wide.size() + " specimens of 500 cells");
+        benchmark(wide, difs);
+    }
+
+    private static void benchmark(SpecimenBlock block, YosokumoDIF [] difs)
+    {
+        System.out.println();
+        System.out.println(
+            "    DIF                     bytes   encode MB/s   decode MB/s");
+
+        BufferPool pool = new BufferPool();
+
+        for (YosokumoDIF ydif : difs)
+        {
+            byte [] bytes = ydif.makeBytesFromBlock(block);
+
+            long bestEncode = Long.MAX_VALUE;
+            long bestDecode = Long.MAX_VALUE;
+
+            for (int run = 0;  run < RUNS;  ++run)
+            {
+                long start = System.nanoTime();
+                pool.release(ydif.makeBufferFromBlock(block, pool).array());
+                long middle = System.nanoTime();
+                Block copy = ydif.makeBlockFromStream(
+                                            new ByteArrayInputStream(bytes));
+                long end = System.nanoTime();
+
+                if (copy == null || ((SpecimenBlock)copy).size() != block.size())
+                {
+                    System.out.println("    " + ydif.getContentType() +
+                                                        ":  decode failed");
+                    return;
+                }
+
+                bestEncode = Math.min(bestEncode, middle - start);
+                bestDecode = Math.min(bestDecode, end - middle);
+            }
+
+            System.out.println(String.format("    %-20s %10d %13.1f %13.1f",
+                ydif.getClass().getSimpleName(),
+                bytes.length,
+                rate(bytes.length, bestEncode),
+                rate(bytes.length, bestDecode)));
+        }
+
+        if (!BlockPacker.canPack(block))
+            return;
+
+        ByteBuffer packed = BlockPacker.pack(block, pool);
+        byte [] bytes = new byte[packed.remaining()];
+        packed.get(bytes);
+        pool.release(packed.array());
+
+        long bestEncode = Long.MAX_VALUE;
+        long bestDecode = Long.MAX_VALUE;
+
+        try
+        {
+            for (int run = 0;  run < RUNS;  ++run)
+            {
+                long start = System.nanoTime();
+                pool.release(BlockPacker.pack(block, pool).array());
+                long middle = System.nanoTime();
+                SpecimenBlock copy = BlockPacker.unpack(bytes);
+                long end = System.nanoTime();
+
+                if (copy.size() != block.size())
+                {
+                    System.out.println("    packed:  decode failed");
+                    return;
+                }
+
+                bestEncode = Math.min(bestEncode, middle - start);
+                bestDecode = Math.min(bestDecode, end - middle);
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("    packed:  " + e.getMessage());
+            return;
+        }
+
+        System.out.println(String.format("    %-20s %10d %13.1f %13.1f",
+            "BlockPacker",
+            bytes.length,
+            rate(bytes.length, bestEncode),
+            rate(bytes.length, bestDecode)));
+    }
+
+    /**
+     * Return the rate in MB/s of processing a number of bytes in a number
+     * of nanoseconds.
+     */
+    private static double rate(int numBytes, long nanos)
+    {
+        return (numBytes / 1e6) / (nanos / 1e9);
+    }
+
+    /**
+     * Read the housing data set, and return a block holding a number of
+     * copies of it.  The cells are those of YosokumoPredictionTest.
+     */
+    private static SpecimenBlock loadHousing(String fileName, int copies)
+        throws IOException
+    {
+        List<double []> rows = new ArrayList<double []>();
+
+        BufferedReader is = new BufferedReader(new FileReader(fileName));
+
+        try
+        {
+            String inLine;
+
+            while ((inLine = is.readLine()) != null)
+            {
+                inLine = inLine.trim();
+                if (inLine.isEmpty())
+                    continue;
+
+                String [] fields = inLine.split("\\s+");
+                double [] row = new double[fields.length];
+                for (int i = 0;  i < fields.length;  ++i)
+                    row[i] = Double.parseDouble(fields[i]);
+                rows.add(row);
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+
+        List<Specimen> slist = new ArrayList<Specimen>();
+        long key = 0;
+
+        for (int c = 0;  c < copies;  ++c)
+        {
+            for (double [] row : rows)
+            {
+                List<Cell> cells = new ArrayList<Cell>();
+
+                for (int i = 0;  i < 13;  ++i)
+                {
+                    // Fields 4 and 9 (boundsRiver and accessHwy) are
+                    // integers
+
+                    Value v = (i == 3 || i == 8 ?
+                                    new IntegerValue((long)row[i]) :
+                                    new RealValue(row[i]));
+                    cells.add(new Cell(i + 1, v));
+                }
+
+                slist.add(new Specimen(++key, new RealValue(row[13]), cells));
+            }
+        }
+
+        return new SpecimenBlock("HOUSING", slist);
+    }
+
+    /**
+     * Return a block of random specimens, each with the same number of
+     * cells:  mostly reals, with some integers and empty cells, as in a
+     * table of measurements.
+     */
+    private static SpecimenBlock makeWideTable(int numSpecimens, int numCells)
+    {
+        Random random = new Random(1);
+        List<Specimen> slist = new ArrayList<Specimen>();
+
+        for (int s = 0;  s < numSpecimens;  ++s)
+        {
+            List<Cell> cells = new ArrayList<Cell>();
+
+            for (int c = 1;  c <= numCells;  ++c)
+            {
+                Value v;
+
+                switch (c % 10)
+                {
+                case 0:   v = new EmptyValue();                          break;
+                case 1:
+                case 2:   v = new IntegerValue(random.nextInt(1000));    break;
+                default:  v = new RealValue(random.nextGaussian() * 100); break;
+                }
+
+                cells.add(new Cell(c, v));
+            }
+
+            slist.add(new Specimen(s + 1, new RealValue(random.nextDouble()),
+                                                                    cells));
+        }
+
+        return new SpecimenBlock("WIDE", slist);
+    }
+
+}   //  end class DifBenchmark
@@ -0,0 +1,127 @@
+// DifRegistryTest.java  -  Test the DifRegistry class with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class DifRegistryTest
+{
+    /**
+     * A DIF for a content type of its own.
+     */
+    public static class TestDif extends YosokumoJson
+    {
+        public String getContentType()
+        {
+            return "application/x-yosokumo-test";
+        }
+    }
+
+    /**
+     * Another DIF for the XML content type.
+     */
+    public static class OtherXml extends YosokumoXml
+    {
+    }
+
+    /**
+     * A DIF which cannot be instantiated without arguments.
+     */
+    public static class NoDefaultConstructor extends YosokumoJson
+    {
+        public NoDefaultConstructor(int unused)
+        {
+        }
+    }
+
+    @Test
+    public void builtInDifsAreRegistered()
+    {
+        List<String> types = DifRegistry.getContentTypes();
+
+        assertTrue(types.indexOf("application/yosokumo+protobuf") == 0);
+        assertTrue(types.contains("application/yosokumo+xml"));
+        assertTrue(types.contains("application/yosokumo+json"));
+        assertTrue(types.contains("application/yosokumo+der"));
+
+        assertTrue(DifRegistry.newDif("application/yosokumo+json")
+                                                instanceof YosokumoJson);
+        assertTrue(DifRegistry.newDif("text/html") == null);
+        assertFalse(DifRegistry.isRegistered("text/html"));
+    }
+
+    @Test
+    public void mediaTypesIgnoreCaseAndParameters()
+    {
+        assertTrue(DifRegistry.mediaType(
+                    " Application/Yosokumo+XML; charset=UTF-8").equals(
+                    "application/yosokumo+xml"));
+
+        assertTrue(DifRegistry.isRegistered(
+                            "application/yosokumo+xml;charset=utf-8"));
+        assertTrue(DifRegistry.newDif("APPLICATION/YOSOKUMO+XML")
+                                                instanceof YosokumoXml);
+    }
+
+    @Test
+    public void acceptHeaderListsQualities()
+    {
+        assertTrue(DifRegistry.makeAcceptHeader(
+                                Arrays.asList("a/b")).equals("a/b"));
+
+        assertTrue(DifRegistry.makeAcceptHeader(
+                                Arrays.asList("a/b", "c/d", "e/f")).equals(
+                                "a/b, c/d;q=0.9, e/f;q=0.8"));
+
+        String [] many = new String[12];
+        for (int i = 0;  i < many.length;  ++i)
+            many[i] = "t/" + i;
+
+        String header = DifRegistry.makeAcceptHeader(Arrays.asList(many));
+        assertTrue(header.endsWith("t/9;q=0.1, t/10;q=0.1, t/11;q=0.1"));
+    }
+
+    @Test
+    public void registerAddsAndReplaces()
+    {
+        DifRegistry.register(TestDif.class);
+
+        assertTrue(DifRegistry.isRegistered("application/x-yosokumo-test"));
+        assertTrue(DifRegistry.newDif("application/x-yosokumo-test")
+                                                    instanceof TestDif);
+
+        List<String> types = DifRegistry.getContentTypes();
+        int xml = types.indexOf("application/yosokumo+xml");
+
+        try
+        {
+            DifRegistry.register(OtherXml.class);
+
+            assertTrue(DifRegistry.newDif("application/yosokumo+xml")
+                                                    instanceof OtherXml);
+
+            // A replacement keeps the place of the DIF it replaces
+
+            assertTrue(DifRegistry.getContentTypes().indexOf(
+                                        "application/yosokumo+xml") == xml);
+        }
+        finally
+        {
+            DifRegistry.register(YosokumoXml.class);
+        }
+
+        assertFalse(DifRegistry.newDif("application/yosokumo+xml")
+                                                    instanceof OtherXml);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void unusableDifIsRejected()
+    {
+        DifRegistry.register(NoDefaultConstructor.class);
+    }
+
+}   //  end class DifRegistryTest
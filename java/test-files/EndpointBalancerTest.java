@@ -0,0 +1,241 @@
+// EndpointBalancerTest.java  -  Test the EndpointBalancer class with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EndpointBalancerTest
+{
+    private static final byte [] KEY = new byte[Credentials.KEY_LEN];
+
+    private static final Endpoint A = new Endpoint("a.invalid", 8001);
+    private static final Endpoint B = new Endpoint("b.invalid", 8002);
+    private static final Endpoint C = new Endpoint("c.invalid", 8003);
+
+    /**
+     * Stands in for several servers, told apart by the port of the URI.
+     * A server which is down fails every request; one which is up refuses
+     * every request with a 403.
+     */
+    private static class Servers implements LoopbackTransport.Handler
+    {
+        final ConcurrentHashMap<Integer, AtomicInteger> counts =
+                            new ConcurrentHashMap<Integer, AtomicInteger>();
+        final ConcurrentHashMap<Integer, Integer> downStatus =
+                            new ConcurrentHashMap<Integer, Integer>();
+        volatile boolean balanced = true;
+
+        public TransportResponse serve(TransportRequest request)
+            throws IOException
+        {
+            URI uri  = request.getUri();
+            int port = uri.getPort();
+
+            // A balanced request is signed for the endpoint it is sent to
+
+            if (balanced)
+                assertEquals(uri.getHost(), request.getFirstHeader("Host"));
+
+            counts.putIfAbsent(port, new AtomicInteger(0));
+            counts.get(port).incrementAndGet();
+
+            Integer status = downStatus.get(port);
+
+            if (status == null)
+                return TransportResponse.of(403, "text/plain",
+                                                    "refused".getBytes());
+            if (status == 0)
+                throw new IOException("connection refused");
+
+            return TransportResponse.of(status, "text/plain",
+                                                    "failed".getBytes());
+        }
+
+        int count(Endpoint e)
+        {
+            AtomicInteger n = counts.get(e.getPort());
+            return n == null ? 0 : n.get();
+        }
+    }
+
+    private static Service makeService(Servers servers, Endpoint... e)
+        throws ServiceException
+    {
+        Service service = new Service(new Credentials("U1", KEY),
+                                                    "yosokumo.invalid", 8080);
+        service.setTransport(new LoopbackTransport(servers));
+
+        EndpointBalancer balancer = new EndpointBalancer(Arrays.asList(e));
+        balancer.setProbeInterval(60000);
+        service.setBalancer(balancer);
+
+        return service;
+    }
+
+    private static void obtainRefusedCatalog(Service service)
+    {
+        try
+        {
+            service.obtainCatalog();
+            fail("A refused request succeeded");
+        }
+        catch (ServiceException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().indexOf("403") >= 0);
+        }
+    }
+
+    @Test
+    public void requestsAreSpreadOverTheEndpoints() throws Exception
+    {
+        Servers servers = new Servers();
+        Service service = makeService(servers, A, B, C);
+
+        for (int i = 0;  i < 60;  ++i)
+            obtainRefusedCatalog(service);
+
+        assertEquals(0, servers.count(new Endpoint("yosokumo.invalid", 8080)));
+        assertTrue(servers.count(A) > 0);
+        assertTrue(servers.count(B) > 0);
+        assertTrue(servers.count(C) > 0);
+        assertEquals(60, servers.count(A) + servers.count(B) +
+                                                        servers.count(C));
+        assertEquals(0, service.getBalancer().getOutstanding(A));
+    }
+
+    @Test
+    public void getFailsOverFromAnEndpointWhichIsDown() throws Exception
+    {
+        Servers servers = new Servers();
+        servers.downStatus.put(A.getPort(), 0);
+        servers.downStatus.put(B.getPort(), 503);
+
+        Service service = makeService(servers, A, B, C);
+
+        for (int i = 0;  i < 10;  ++i)
+            obtainRefusedCatalog(service);
+
+        // Each endpoint which is down was tried once before it was taken
+        // to be down
+
+        assertTrue(servers.count(A) <= 1);
+        assertTrue(servers.count(B) <= 1);
+        assertEquals(10, servers.count(C));
+
+        EndpointBalancer balancer = service.getBalancer();
+
+        assertEquals(servers.count(A) == 0, balancer.isUp(A));
+        assertEquals(servers.count(B) == 0, balancer.isUp(B));
+        assertTrue(balancer.isUp(C));
+    }
+
+    @Test
+    public void postIsNotSentTwice() throws Exception
+    {
+        Servers servers = new Servers();
+        servers.downStatus.put(A.getPort(), 503);
+
+        YosokumoRequest request = new YosokumoRequest(
+                                    new Credentials("U1", KEY),
+                                    "yosokumo.invalid", 8080, "text/plain");
+        request.setTransport(new LoopbackTransport(servers));
+
+        EndpointBalancer balancer = new EndpointBalancer(Arrays.asList(A, B));
+        balancer.setProbeInterval(60000);
+        request.setBalancer(balancer);
+
+        // The first POST to A fails, and is not sent to B
+
+        int failed = 0;
+
+        for (int i = 0;  i < 20;  ++i)
+        {
+            request.initForOperation();
+            request.postToServer("/S1/table", new byte[10]);
+            if (request.getStatusCode() == 503)
+                ++failed;
+        }
+
+        assertEquals(1, servers.count(A));
+        assertEquals(1, failed);
+        assertEquals(20, servers.count(A) + servers.count(B));
+    }
+
+    @Test
+    public void uriOfAnEndpointIsBalanced() throws Exception
+    {
+        Servers servers = new Servers();
+        Service service = makeService(servers, A, B);
+
+        YosokumoRequest request = new YosokumoRequest(
+                                    new Credentials("U1", KEY),
+                                    "yosokumo.invalid", 8080, "text/plain");
+        request.setTransport(new LoopbackTransport(servers));
+        request.setBalancer(service.getBalancer());
+
+        for (int i = 0;  i < 20;  ++i)
+        {
+            request.getFromServer("http://a.invalid/S1");
+            request.getFromServer("http://b.invalid:8002/S1");
+        }
+
+        assertTrue(servers.count(A) > 0);
+        assertTrue(servers.count(B) > 0);
+        assertEquals(40, servers.count(A) + servers.count(B));
+
+        // Any other server is not balanced
+
+        servers.balanced = false;
+        request.getFromServer("http://c.invalid:8003/S1");
+        assertEquals(1, servers.count(C));
+    }
+
+    @Test
+    public void endpointWhichIsDownIsProbedUntilItIsUp() throws Exception
+    {
+        Servers servers = new Servers();
+        servers.downStatus.put(A.getPort(), 0);
+
+        Service service = makeService(servers, A);
+        EndpointBalancer balancer = service.getBalancer();
+        balancer.setProbeInterval(20);
+
+        try
+        {
+            service.obtainCatalog();
+            fail("A failed request succeeded");
+        }
+        catch (ServiceException e)
+        {
+            assertTrue(e.getCause().getCause() instanceof IOException);
+        }
+
+        assertFalse(balancer.isUp(A));
+
+        servers.downStatus.remove(A.getPort());
+
+        for (int i = 0;  i < 250 && !balancer.isUp(A);  ++i)
+            Thread.sleep(20);
+
+        assertTrue(balancer.isUp(A));
+    }
+
+    @Test
+    public void workersShareTheBalancer() throws Exception
+    {
+        Service service = makeService(new Servers(), A, B);
+
+        assertTrue(service.spawnWorker().getBalancer() ==
+                                                    service.getBalancer());
+        assertEquals(Arrays.asList(A, B),
+                                    service.getBalancer().getEndpoints());
+    }
+
+}   //  end class EndpointBalancerTest
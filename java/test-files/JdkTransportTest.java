@@ -0,0 +1,109 @@
+// JdkTransportTest.java  -  Test the JdkTransport class with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+public class JdkTransportTest
+{
+    private static final URI SERVER =
+                                    URI.create("http://unknown.invalid:8080/");
+
+    private static String host(String uri)
+    {
+        return new JdkTransport().getHostHeader(URI.create(uri), "ignored");
+    }
+
+    @Test
+    public void hostLeavesOutTheDefaultPort()
+    {
+        assertEquals("yosokumo.com",      host("http://yosokumo.com/S1"));
+        assertEquals("yosokumo.com",      host("http://yosokumo.com:80/S1"));
+        assertEquals("yosokumo.com",      host("https://yosokumo.com:443/"));
+        assertEquals("yosokumo.com:8080", host("http://yosokumo.com:8080/"));
+        assertEquals("yosokumo.com:80",   host("https://yosokumo.com:80/"));
+        assertEquals("[::1]:8080",        host("http://[::1]:8080/"));
+    }
+
+    @Test
+    public void contentLengthOfAnEntityIsItsLength()
+    {
+        TransportRequest post = new TransportRequest("POST",
+                SERVER.resolve("/S1/table"),
+                new BufferEntity(ByteBuffer.allocate(5)));
+
+        assertEquals("5", new JdkTransport().getContentLengthHeader(post));
+    }
+
+    @Test
+    public void contentLengthWithoutAnEntityOverHttp11()
+    {
+        // No response has come from the server, so HTTP/1.1 is assumed
+
+        JdkTransport transport = new JdkTransport();
+
+        TransportRequest post = new TransportRequest("POST",
+                SERVER.resolve("/S1/table"),
+                new BufferEntity(ByteBuffer.allocate(0)));
+        assertEquals("0", transport.getContentLengthHeader(post));
+
+        String expected = Runtime.version().feature() < 19 ? "0" : null;
+
+        assertEquals(expected, transport.getContentLengthHeader(
+                            new TransportRequest("GET", SERVER, null)));
+        assertEquals(expected, transport.getContentLengthHeader(
+                            new TransportRequest("DELETE", SERVER, null)));
+    }
+
+    @Test
+    public void requestSignedForTheWrongVersionIsSignedAgain()
+    {
+        JdkTransport transport = new JdkTransport();
+
+        TransportRequest get = new TransportRequest("GET", SERVER, null);
+        get.setHeader("Content-Length", transport.getContentLengthHeader(get));
+
+        TransportResponse overHttp2 = new TransportResponse()
+            {
+                public int getStatusCode()
+                {
+                    return 401;
+                }
+
+                public String getFirstHeader(String name)
+                {
+                    return null;
+                }
+
+                public long getContentLength()
+                {
+                    return -1;
+                }
+
+                public InputStream getContent()
+                {
+                    return null;
+                }
+
+                public String getProtocol()
+                {
+                    return "HTTP/2";
+                }
+            };
+
+        // Over HTTP/2 no Content-Length is sent for a request without an
+        // entity, so only a request signed with one was signed wrongly
+
+        assertEquals(get.getFirstHeader("Content-Length") != null,
+                                transport.isSignedWrongly(get, overHttp2));
+
+        get.setHeader("Content-Length", null);
+        assertFalse(transport.isSignedWrongly(get, overHttp2));
+    }
+
+}   //  end class JdkTransportTest
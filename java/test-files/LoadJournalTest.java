@@ -0,0 +1,99 @@
+// LoadJournalTest.java  -  Test the LoadJournal class with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LoadJournalTest
+{
+    private File file;
+
+    @Before
+    public void makeFile() throws IOException
+    {
+        file = File.createTempFile("LoadJournalTest", ".txt");
+        file.delete();
+    }
+
+    @After
+    public void deleteFile()
+    {
+        file.delete();
+    }
+
+    private static List<Specimen> makeList(int n)
+    {
+        List<Specimen> list = new ArrayList<Specimen>();
+        for (int i = 0;  i < n;  ++i)
+            list.add(new Specimen(100 + i));
+        return list;
+    }
+
+    @Test
+    public void commitsSurviveReopen() throws IOException
+    {
+        List<Specimen> list = makeList(10);
+
+        LoadJournal journal = new LoadJournal(file, "S1");
+        assertTrue(journal.getCommittedCount() == 0);
+        journal.commit(0, 4, 100, 103);
+        journal.commit(4, 7, 104, 106);
+        journal.close();
+
+        journal = new LoadJournal(file, "S1");
+        assertTrue(journal.getCommittedCount() == 7);
+        assertTrue(journal.verify(list) == null);
+        journal.close();
+    }
+
+    @Test
+    public void partialLineIsDiscarded() throws IOException
+    {
+        LoadJournal journal = new LoadJournal(file, "S1");
+        journal.commit(0, 4, 100, 103);
+        journal.close();
+
+        FileWriter w = new FileWriter(file, true);
+        w.write("block 4 7 10");
+        w.close();
+
+        journal = new LoadJournal(file, "S1");
+        assertTrue(journal.getCommittedCount() == 4);
+        journal.commit(4, 7, 104, 106);
+        journal.close();
+
+        journal = new LoadJournal(file, "S1");
+        assertTrue(journal.getCommittedCount() == 7);
+        journal.close();
+    }
+
+    @Test
+    public void mismatchesAreFound() throws IOException
+    {
+        LoadJournal journal = new LoadJournal(file, "S1");
+        journal.commit(0, 4, 100, 103);
+
+        assertTrue(journal.verify(makeList(4)) == null);
+        assertTrue(journal.verify(makeList(3)) != null);
+
+        List<Specimen> list = makeList(10);
+        list.get(3).setSpecimenKey(999);
+        assertTrue(journal.verify(list) != null);
+        journal.close();
+    }
+
+    @Test(expected=IOException.class)
+    public void otherStudyIsRejected() throws IOException
+    {
+        new LoadJournal(file, "S1").close();
+        new LoadJournal(file, "S2");
+    }
+
+}   //  end class LoadJournalTest
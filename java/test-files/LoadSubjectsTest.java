@@ -0,0 +1,259 @@
+// LoadSubjectsTest.java  -  Test loadSubjects of Service with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class LoadSubjectsTest
+{
+    /*
+     * A specimen with one cell is two items, so a block holds 50000 of 
+     * them, and this many specimens are posted in three blocks.
+     */
+    private static final int NUM_SPECIMENS = 150000;
+
+    private File journal;
+
+    @Before
+    public void makeJournal() throws IOException
+    {
+        journal = File.createTempFile("LoadSubjectsTest", ".txt");
+        journal.delete();
+    }
+
+    @After
+    public void deleteJournal()
+    {
+        journal.delete();
+    }
+
+    /**
+     * Cut the journal down to its first {@code n} lines.
+     */
+    private void truncateJournal(int n) throws IOException
+    {
+        BufferedReader in = new BufferedReader(new FileReader(journal));
+        StringBuilder text = new StringBuilder();
+
+        for (int i = 0;  i < n;  ++i)
+            text.append(in.readLine()).append('\n');
+
+        in.close();
+
+        FileWriter out = new FileWriter(journal);
+        out.write(text.toString());
+        out.close();
+    }
+
+    private static List<Long> keys(long first, int n)
+    {
+        List<Long> keys = new ArrayList<Long>(n);
+
+        for (long key = first;  key < first + n;  ++key)
+            keys.add(key);
+
+        return keys;
+    }
+
+    @Test
+    public void blocksAreLoadedInOrderByDefault() throws Exception
+    {
+        StudyServer server = new StudyServer();
+        Service service = server.makeService();
+
+        assertFalse(service.isParallelTableLoadsEnabled());
+
+        service.loadSubjects("S1", 
+                            StudyServer.makeSpecimens(0, NUM_SPECIMENS));
+
+        assertEquals(3, server.tableBlocks.size());
+        assertEquals(1, server.maxInFlight.get());
+        assertEquals(keys(0, NUM_SPECIMENS), server.tableKeys());
+    }
+
+    @Test
+    public void failedLoadLeavesAPrefix() throws Exception
+    {
+        StudyServer server = new StudyServer();
+        server.failPost = 2;
+        Service service = server.makeService();
+
+        try
+        {
+            service.loadSubjects("S1", 
+                            StudyServer.makeSpecimens(0, NUM_SPECIMENS));
+            fail("A failed load succeeded");
+        }
+        catch (ServiceException e)
+        {
+            assertEquals(503, e.getStatusCode());
+        }
+
+        // The block after the one which failed was not posted
+
+        assertEquals(2, server.posts.get());
+        assertEquals(keys(0, NUM_SPECIMENS / 3), server.tableKeys());
+    }
+
+    @Test
+    public void parallelLoadPostsTheBlocksAtOnce() throws Exception
+    {
+        StudyServer server = new StudyServer();
+        server.rendezvous = new CountDownLatch(3);
+        Service service = server.makeService();
+        service.setParallelTableLoads(true);
+
+        service.loadSubjects("S1", 
+                            StudyServer.makeSpecimens(0, NUM_SPECIMENS));
+
+        assertEquals(3, server.maxInFlight.get());
+
+        List<Long> loaded = server.tableKeys();
+        Collections.sort(loaded);
+
+        assertEquals(keys(0, NUM_SPECIMENS), loaded);
+    }
+
+    @Test
+    public void failedIteratorLoadLeavesAPrefix() throws Exception
+    {
+        StudyServer server = new StudyServer();
+        server.failPost = 2;
+        Service service = server.makeService();
+
+        try
+        {
+            service.loadSubjects("S1", 
+                StudyServer.makeSpecimens(0, NUM_SPECIMENS).iterator());
+            fail("A failed load succeeded");
+        }
+        catch (ServiceException e)
+        {
+            assertEquals(503, e.getStatusCode());
+        }
+
+        // The blocks were posted one at a time, and the one after the one
+        // which failed was not posted
+
+        assertEquals(1, server.maxInFlight.get());
+        assertEquals(2, server.posts.get());
+        assertEquals(keys(0, NUM_SPECIMENS / 3), server.tableKeys());
+    }
+
+    @Test
+    public void parallelIteratorLoadPostsTheBlocksAtOnce() throws Exception
+    {
+        StudyServer server = new StudyServer();
+        server.rendezvous = new CountDownLatch(3);
+        Service service = server.makeService();
+        service.setParallelTableLoads(true);
+
+        service.loadSubjects("S1", 
+                StudyServer.makeSpecimens(0, NUM_SPECIMENS).iterator());
+
+        assertEquals(3, server.maxInFlight.get());
+
+        List<Long> loaded = server.tableKeys();
+        Collections.sort(loaded);
+
+        assertEquals(keys(0, NUM_SPECIMENS), loaded);
+    }
+
+    @Test
+    public void failedLoadIsResumedFromTheJournal() throws Exception
+    {
+        StudyServer server = new StudyServer();
+        server.failPost = 2;
+        Service service = server.makeService();
+        List<Specimen> specimens = StudyServer.makeSpecimens(0, NUM_SPECIMENS);
+
+        try
+        {
+            service.loadSubjects("S1", specimens, journal);
+            fail("A failed load succeeded");
+        }
+        catch (ServiceException e)
+        {
+            assertEquals(503, e.getStatusCode());
+        }
+
+        // Only the blocks not recorded in the journal are posted again
+
+        server.failPost = 0;
+        service.loadSubjects("S1", specimens, journal);
+
+        assertEquals(4, server.posts.get());
+        assertEquals(3, server.tableBlocks.size());
+        assertEquals(keys(0, NUM_SPECIMENS), server.tableKeys());
+
+        // A completed load posts nothing
+
+        service.loadSubjects("S1", specimens, journal);
+
+        assertEquals(4, server.posts.get());
+    }
+
+    @Test
+    public void blockNotRecordedIsPostedAgain() throws Exception
+    {
+        StudyServer server = new StudyServer();
+        Service service = server.makeService();
+        List<Specimen> specimens = StudyServer.makeSpecimens(0, NUM_SPECIMENS);
+
+        service.loadSubjects("S1", specimens, journal);
+
+        // Lose the records of the last two blocks, as if the process had 
+        // died after the server accepted them
+
+        truncateJournal(2);
+        service.loadSubjects("S1", specimens, journal);
+
+        List<Long> expected = keys(0, NUM_SPECIMENS);
+        expected.addAll(keys(NUM_SPECIMENS / 3, 2 * NUM_SPECIMENS / 3));
+
+        assertEquals(5, server.tableBlocks.size());
+        assertEquals(expected, server.tableKeys());
+
+        // The resumed blocks were recorded at their places in the list
+
+        service.loadSubjects("S1", specimens, journal);
+
+        assertEquals(5, server.posts.get());
+    }
+
+    @Test
+    public void journalOfAnotherListIsRefused() throws Exception
+    {
+        StudyServer server = new StudyServer();
+        Service service = server.makeService();
+
+        service.loadSubjects("S1", 
+                        StudyServer.makeSpecimens(0, NUM_SPECIMENS), journal);
+
+        try
+        {
+            service.loadSubjects("S1", 
+                        StudyServer.makeSpecimens(1, NUM_SPECIMENS), journal);
+            fail("A journal of another list was used");
+        }
+        catch (ServiceException e)
+        {
+            assertTrue(e.getMessage(), 
+                        e.getMessage().indexOf("does not match") >= 0);
+        }
+
+        assertEquals(3, server.posts.get());
+    }
+
+}   //  end class LoadSubjectsTest
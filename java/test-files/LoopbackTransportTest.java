@@ -0,0 +1,117 @@
+// LoopbackTransportTest.java  -  Test the LoopbackTransport class with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LoopbackTransportTest
+{
+    private static final byte [] KEY = new byte[Credentials.KEY_LEN];
+
+    /**
+     * Answers every request with the same status, and keeps the requests.
+     */
+    private static class Recorder implements LoopbackTransport.Handler
+    {
+        final List<TransportRequest> requests =
+                                        new ArrayList<TransportRequest>();
+        final int status;
+
+        Recorder(int status)
+        {
+            this.status = status;
+        }
+
+        public synchronized TransportResponse serve(TransportRequest request)
+        {
+            requests.add(request);
+            return TransportResponse.of(status, "text/plain",
+                                                    "refused".getBytes());
+        }
+    }
+
+    private static Service makeService(LoopbackTransport.Handler handler)
+        throws ServiceException
+    {
+        Service service = new Service(new Credentials("U1", KEY),
+                                                    "yosokumo.invalid", 8080);
+        service.setTransport(new LoopbackTransport(handler));
+        return service;
+    }
+
+    @Test
+    public void requestIsSignedOverTheHeadersSent() throws Exception
+    {
+        Recorder recorder = new Recorder(403);
+        Service service = makeService(recorder);
+
+        try
+        {
+            service.obtainCatalog();
+            fail("A refused request succeeded");
+        }
+        catch (ServiceException e)
+        {
+            assertTrue(e.getMessage().indexOf("403") >= 0);
+        }
+
+        assertTrue(recorder.requests.size() == 1);
+
+        TransportRequest r = recorder.requests.get(0);
+
+        assertEquals("GET", r.getMethod());
+        assertEquals("http://yosokumo.invalid:8080/", r.getUri().toString());
+        assertEquals("yosokumo.invalid", r.getFirstHeader("Host"));
+        assertNull(r.getFirstHeader("Content-Length"));
+        assertFalse(r.hasEntity());
+
+        String signed = r.getMethod() + "+" + r.getFirstHeader("Host") +
+                        "+" + r.getUri().getPath() +
+                        "+" + r.getFirstHeader("Date") + "++++";
+
+        assertEquals("yosokumo U1:" + DigestRequest.makeDigest(signed, KEY),
+                                        r.getFirstHeader("Authorization"));
+    }
+
+    @Test
+    public void failureOfTheHandlerIsATransportError() throws Exception
+    {
+        Service service = makeService(new LoopbackTransport.Handler()
+            {
+                public TransportResponse serve(TransportRequest request)
+                    throws IOException
+                {
+                    throw new IOException("connection reset");
+                }
+            });
+
+        try
+        {
+            service.obtainCatalog();
+            fail("A failed request succeeded");
+        }
+        catch (ServiceException e)
+        {
+            assertTrue(e.getCause() instanceof ServiceException);
+            assertTrue(e.getCause().getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void workersShareTheTransport() throws Exception
+    {
+        Service service = makeService(new Recorder(200));
+
+        assertTrue(service.spawnWorker().getTransport() ==
+                                                    service.getTransport());
+
+        service.setTransport(null);
+        assertTrue(service.getTransport() instanceof ApacheTransport);
+    }
+
+}   //  end class LoopbackTransportTest
@@ -0,0 +1,143 @@
+// PredictionCacheTest.java  -  Test the PredictionCache class with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PredictionCacheTest
+{
+    private static Specimen makeSpecimen(long key, double x, long n)
+    {
+        List<Cell> cells = new ArrayList<Cell>();
+        cells.add(new Cell(1, new RealValue(x)));
+        cells.add(new Cell(2, new NaturalValue(n)));
+        return new Specimen(key, cells);
+    }
+
+    private static PredictionCache.Key makeKey(String studyId, Specimen s)
+    {
+        return new PredictionCache.Key(studyId, s);
+    }
+
+    @Test
+    public void keysCompareCells()
+    {
+        Specimen a = makeSpecimen(1, 2.5, 7);
+        Specimen b = makeSpecimen(2, 2.5, 7);   // Same cells, other key
+        Specimen c = makeSpecimen(3, 2.5, 8);
+
+        assertTrue(makeKey("S1", a).equals(makeKey("S1", b)));
+        assertTrue(makeKey("S1", a).hashCode() == makeKey("S1", b).hashCode());
+        assertFalse(makeKey("S1", a).equals(makeKey("S2", a)));
+        assertFalse(makeKey("S1", a).equals(makeKey("S1", c)));
+
+        // A value of another type with the same bits is a different cell
+
+        List<Cell> cells = new ArrayList<Cell>();
+        cells.add(new Cell(1, new RealValue(2.5)));
+        cells.add(new Cell(2, new IntegerValue(7)));
+        Specimen d = new Specimen(4, cells);
+
+        assertFalse(makeKey("S1", a).equals(makeKey("S1", d)));
+    }
+
+    @Test
+    public void getAndPut()
+    {
+        PredictionCache cache = new PredictionCache(10, 60000);
+        PredictionCache.Key key = makeKey("S1", makeSpecimen(1, 1.0, 1));
+
+        assertTrue(cache.get(key) == null);
+
+        Value v = new RealValue(3.0);
+        cache.put(key, v);
+
+        assertTrue(cache.get(key) == v);
+        assertTrue(cache.get(makeKey("S1", makeSpecimen(9, 1.0, 1))) == v);
+        assertTrue(cache.size() == 1);
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted()
+    {
+        PredictionCache cache = new PredictionCache(2, 60000);
+        PredictionCache.Key k1 = makeKey("S1", makeSpecimen(1, 1.0, 1));
+        PredictionCache.Key k2 = makeKey("S1", makeSpecimen(2, 2.0, 1));
+        PredictionCache.Key k3 = makeKey("S1", makeSpecimen(3, 3.0, 1));
+
+        cache.put(k1, new RealValue(1.0));
+        cache.put(k2, new RealValue(2.0));
+        cache.get(k1);
+        cache.put(k3, new RealValue(3.0));
+
+        assertTrue(cache.size() == 2);
+        assertTrue(cache.get(k1) != null);
+        assertTrue(cache.get(k2) == null);
+        assertTrue(cache.get(k3) != null);
+    }
+
+    @Test
+    public void entriesExpire() throws InterruptedException
+    {
+        PredictionCache cache = new PredictionCache(10, 20);
+        PredictionCache.Key key = makeKey("S1", makeSpecimen(1, 1.0, 1));
+
+        cache.put(key, new RealValue(1.0));
+        Thread.sleep(50);
+
+        assertTrue(cache.get(key) == null);
+        assertTrue(cache.size() == 0);
+    }
+
+    @Test
+    public void newBlockTimeInvalidatesStudy()
+    {
+        PredictionCache cache = new PredictionCache(10, 60000);
+        PredictionCache.Key k1 = makeKey("S1", makeSpecimen(1, 1.0, 1));
+        PredictionCache.Key k2 = makeKey("S2", makeSpecimen(1, 1.0, 1));
+
+        cache.noteLatestBlockTime("S1", "t1");
+        cache.noteLatestBlockTime("S2", "t1");
+        cache.put(k1, new RealValue(1.0));
+        cache.put(k2, new RealValue(2.0));
+
+        cache.noteLatestBlockTime("S1", "t1");
+        assertTrue(cache.get(k1) != null);
+
+        cache.noteLatestBlockTime("S1", "t2");
+        assertTrue(cache.get(k1) == null);
+        assertTrue(cache.get(k2) != null);
+
+        cache.invalidate("S2");
+        assertTrue(cache.size() == 0);
+    }
+
+    @Test
+    public void invalidateDiscardsOnlyItsStudy()
+    {
+        PredictionCache cache = new PredictionCache(2, 60000);
+        PredictionCache.Key k1 = makeKey("S1", makeSpecimen(1, 1.0, 1));
+        PredictionCache.Key k2 = makeKey("S2", makeSpecimen(2, 2.0, 1));
+        PredictionCache.Key k3 = makeKey("S2", makeSpecimen(3, 3.0, 1));
+
+        cache.put(k1, new RealValue(1.0));
+        cache.put(k2, new RealValue(2.0));
+        cache.put(k3, new RealValue(3.0));     // Evicts k1
+
+        cache.invalidate("S1");
+        assertTrue(cache.size() == 2);
+
+        cache.put(k1, new RealValue(1.0));     // Evicts k2
+        cache.invalidate("S2");
+        assertTrue(cache.size() == 1);
+        assertTrue(cache.get(k1) != null);
+
+        cache.invalidate("S1");
+        assertTrue(cache.size() == 0);
+    }
+
+}   //  end class PredictionCacheTest
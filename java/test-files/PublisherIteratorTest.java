@@ -0,0 +1,139 @@
+// PublisherIteratorTest.java  -  Test the PublisherIterator class with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Flow;
+
+public class PublisherIteratorTest
+{
+    /**
+     * Publishes the numbers from 0 to count-1 on the thread which requests
+     * them, and keeps track of the demand which has not been met.
+     */
+    private static class Counter implements Flow.Publisher<Integer>
+    {
+        final int              count;
+        final RuntimeException error;
+
+        Flow.Subscriber<? super Integer> subscriber;
+        int     sent      = 0;
+        long    unmet     = 0;
+        boolean cancelled = false;
+
+        Counter(int count, RuntimeException error)
+        {
+            this.count = count;
+            this.error = error;
+        }
+
+        public void subscribe(Flow.Subscriber<? super Integer> s)
+        {
+            subscriber = s;
+            s.onSubscribe(new Flow.Subscription()
+                {
+                    public void request(long n)
+                    {
+                        unmet += n;
+                        while (unmet > 0 && sent < count && !cancelled)
+                        {
+                            subscriber.onNext(sent++);
+                            --unmet;
+                        }
+
+                        if (sent == count && !cancelled)
+                        {
+                            cancelled = true;
+                            if (error != null)
+                                subscriber.onError(error);
+                            else
+                                subscriber.onComplete();
+                        }
+                    }
+
+                    public void cancel()
+                    {
+                        cancelled = true;
+                    }
+                });
+        }
+    }
+
+    @Test
+    public void itemsArriveInOrderWithBoundedDemand()
+    {
+        Counter publisher = new Counter(1000, null);
+        PublisherIterator<Integer> iter = new PublisherIterator<Integer>(16);
+        publisher.subscribe(iter);
+
+        int expected = 0;
+        int maxBuffered = 0;
+
+        while (iter.hasNext())
+        {
+            // Items sent but not yet taken, plus demand not yet met
+
+            maxBuffered = Math.max(maxBuffered,
+                            publisher.sent - expected + (int)publisher.unmet);
+            assertTrue(iter.next() == expected++);
+        }
+
+        assertTrue(expected == 1000);
+        assertTrue(maxBuffered <= 16);
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void errorIsThrownAfterTheItems()
+    {
+        RuntimeException error = new IllegalStateException("source failed");
+        Counter publisher = new Counter(5, error);
+        PublisherIterator<Integer> iter = new PublisherIterator<Integer>(2);
+        publisher.subscribe(iter);
+
+        for (int i = 0;  i < 5;  ++i)
+            assertTrue(iter.next() == i);
+
+        try
+        {
+            iter.hasNext();
+            fail("The error of the publisher was not thrown");
+        }
+        catch (PublisherIterator.UpstreamException e)
+        {
+            assertTrue(e.getCause() == error);
+        }
+    }
+
+    @Test
+    public void cancelEndsTheIteration()
+    {
+        Counter publisher = new Counter(Integer.MAX_VALUE, null);
+        PublisherIterator<Integer> iter = new PublisherIterator<Integer>(8);
+        publisher.subscribe(iter);
+
+        assertTrue(iter.next() == 0);
+        iter.cancel();
+
+        assertTrue(publisher.cancelled);
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void secondSubscriptionIsCancelled()
+    {
+        PublisherIterator<Integer> iter = new PublisherIterator<Integer>(8);
+        Counter first  = new Counter(3, null);
+        Counter second = new Counter(3, null);
+
+        first.subscribe(iter);
+        second.subscribe(iter);
+
+        assertFalse(first.cancelled && first.sent < 3);
+        assertTrue(second.cancelled);
+        assertTrue(second.sent == 0);
+    }
+
+}   //  end class PublisherIteratorTest
@@ -0,0 +1,137 @@
+// RequestSignerTest.java  -  Test the RequestSigner class with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+public class RequestSignerTest
+{
+    private static final byte [] KEY = new byte[Credentials.KEY_LEN];
+
+    static
+    {
+        for (int i = 0;  i < KEY.length;  ++i)
+            KEY[i] = (byte)(7 * i);
+    }
+
+    private static final String DATE = "Sun, 06 Nov 1994 08:49:37 GMT";
+
+    private static TransportRequest makeRequest(String method, String uri)
+    {
+        TransportRequest r = new TransportRequest(method, URI.create(uri),
+                                new BufferEntity(ByteBuffer.allocate(12)));
+        r.setHeader("Host",           "yosokumo.ws");
+        r.setHeader("Date",           DATE);
+        r.setHeader("Accept",         "text/plain");
+        r.setHeader("Content-Type",   "text/plain");
+        r.setHeader("Content-Length", "12");
+        return r;
+    }
+
+    private static void assertSignedOver(
+        String           expected,
+        RequestSigner    signer,
+        TransportRequest r) throws Exception
+    {
+        assertEquals(DigestRequest.makeDigest(expected, KEY), signer.sign(r));
+        assertEquals(expected, signer.getRequestString());
+    }
+
+    @Test
+    public void requestStringHasTheSignedHeadersInOrder() throws Exception
+    {
+        RequestSigner signer = new RequestSigner(KEY);
+
+        TransportRequest r = makeRequest("POST",
+                                        "http://yosokumo.ws:80/S1/table");
+
+        // The names of headers are not case-sensitive
+
+        r.setHeader("content-md5", "abc");
+        r.setHeader("X-Other",     "ignored");
+
+        assertSignedOver("POST+yosokumo.ws+/S1/table+" + DATE +
+                         "+text/plain+12++abc", signer, r);
+    }
+
+    @Test
+    public void missingHeadersAreEmpty() throws Exception
+    {
+        RequestSigner signer = new RequestSigner(KEY);
+
+        TransportRequest r = new TransportRequest("GET",
+                                    URI.create("http://yosokumo.ws/"), null);
+
+        assertSignedOver("GET++/+++++", signer, r);
+
+        r.setHeader("Host", "yosokumo.ws");
+        assertSignedOver("GET+yosokumo.ws+/+++++", signer, r);
+    }
+
+    @Test
+    public void signerIsReusedForRequestsOfAnyLength() throws Exception
+    {
+        RequestSigner signer = new RequestSigner(KEY);
+
+        StringBuilder longPath = new StringBuilder();
+        while (longPath.length() < 1000)
+            longPath.append("/S1");
+
+        TransportRequest shortRequest = makeRequest("GET",
+                                                "http://yosokumo.ws/S1");
+        TransportRequest longRequest = makeRequest("GET",
+                                        "http://yosokumo.ws" + longPath);
+
+        String tail = "+" + DATE + "+text/plain+12++";
+
+        for (int i = 0;  i < 3;  ++i)
+        {
+            assertSignedOver("GET+yosokumo.ws+/S1" + tail, signer,
+                                                            shortRequest);
+            assertSignedOver("GET+yosokumo.ws+" + longPath + tail, signer,
+                                                            longRequest);
+        }
+    }
+
+    @Test
+    public void pathWhichIsNotAsciiIsSignedAsBefore() throws Exception
+    {
+        RequestSigner signer = new RequestSigner(KEY);
+
+        TransportRequest r = makeRequest("DELETE",
+                                    "http://yosokumo.ws/S%C3%A9/table");
+
+        // The request string is encoded with the default charset, which
+        // may not be able to encode the path, so only the digest is checked
+
+        assertEquals(DigestRequest.makeDigest("DELETE+yosokumo.ws+/S\u00e9" +
+                                "/table+" + DATE + "+text/plain+12++", KEY),
+                     signer.sign(r));
+    }
+
+    @Test(expected=ServiceException.class)
+    public void keyOfTheWrongLengthIsRefused() throws Exception
+    {
+        new RequestSigner(new byte[10]);
+    }
+
+    @Test
+    public void dateIsFormattedOncePerSecond()
+    {
+        long millis = 784111777000L;
+
+        String date = RequestSigner.formatDate(millis);
+
+        assertEquals(DATE, date);
+        assertSame(date, RequestSigner.formatDate(millis + 999));
+        assertEquals("Sun, 06 Nov 1994 08:49:38 GMT",
+                                    RequestSigner.formatDate(millis + 1000));
+        assertEquals("Thu, 01 Jan 1970 00:00:00 GMT",
+                                    RequestSigner.formatDate(0));
+    }
+
+}   //  end class RequestSignerTest
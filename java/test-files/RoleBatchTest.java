@@ -0,0 +1,451 @@
+// RoleBatchTest.java  -  Test applyRoles and obtainRoles of Service with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.yosokumo.core.protobuf.ProtoBuf;
+
+public class RoleBatchTest
+{
+    private static final String CONTENT_TYPE = 
+                                        "application/yosokumo+protobuf";
+
+    /**
+     * Stands in for a server with studies S1 and S2, keeping the roles on
+     * their rosters, and a log of the requests.
+     */
+    private static class RosterServer implements LoopbackTransport.Handler
+    {
+        final Map<String, ProtoBuf.Role> roles =
+                                new LinkedHashMap<String, ProtoBuf.Role>();
+        final List<String> log = new ArrayList<String>();
+
+        /**
+         * If set, run (once) when a role change arrives, before the change
+         * is made.
+         */
+        Runnable duringChange = null;
+
+        /**
+         * The status with which requests for a roster are answered, if it
+         * is not 200.
+         */
+        int rosterStatus = 200;
+
+        void add(Role role) throws Exception
+        {
+            byte [] bytes = new YosokumoProtobuf().makeBytesFromRole(role);
+            String  path  = "/" + role.getStudyIdentifier() + "/role/" + 
+                                                    role.getUserIdentifier();
+
+            roles.put(path, ProtoBuf.Role.parseFrom(bytes).toBuilder()
+                                                .setLocation(path).build());
+        }
+
+        int count(String method)
+        {
+            int n = 0;
+
+            for (String s : log)
+            {
+                if (s.startsWith(method + " "))
+                    ++n;
+            }
+
+            return n;
+        }
+
+        public synchronized TransportResponse serve(TransportRequest request)
+            throws IOException
+        {
+            String method = request.getMethod();
+            String path   = request.getUri().getPath();
+            String [] parts = path.split("/");
+
+            log.add(method + " " + path);
+
+            if (duringChange != null && !method.equals("GET"))
+            {
+                Runnable r = duringChange;
+                duringChange = null;
+                r.run();
+            }
+
+            if (method.equals("GET") && path.equals("/"))
+                return ok(200, ProtoBuf.Catalog.newBuilder()
+                                .setUserIdentifier("U1")
+                                .addStudy(study("S1")).addStudy(study("S2"))
+                                .build().toByteArray());
+
+            if (method.equals("GET") && path.endsWith("/panel"))
+                return ok(200, ProtoBuf.Panel.newBuilder()
+                                .setStudyIdentifier(parts[1])
+                                .build().toByteArray());
+
+            if (method.equals("GET") && path.endsWith("/roster") &&
+                                                        rosterStatus != 200)
+                return ok(rosterStatus, null);
+
+            if (method.equals("GET") && path.endsWith("/roster"))
+            {
+                ProtoBuf.Roster.Builder roster = ProtoBuf.Roster.newBuilder()
+                                                .setStudyIdentifier(parts[1]);
+
+                for (String p : roles.keySet())
+                {
+                    if (p.startsWith("/" + parts[1] + "/"))
+                        roster.addRole(roles.get(p));
+                }
+
+                return ok(200, roster.build().toByteArray());
+            }
+
+            if (method.equals("POST") && path.endsWith("/roster"))
+            {
+                ProtoBuf.Role role = ProtoBuf.Role.parseFrom(
+                                                    request.getContent());
+                String p = "/" + parts[1] + "/role/" + 
+                                    role.getRoleholder().getUserIdentifier();
+                role = role.toBuilder().setLocation(p).build();
+                roles.put(p, role);
+                return ok(201, role.toByteArray());
+            }
+
+            if (method.equals("PUT") && roles.containsKey(path))
+            {
+                roles.put(path, ProtoBuf.Role.parseFrom(request.getContent())
+                                        .toBuilder().setLocation(path).build());
+                return ok(204, null);
+            }
+
+            if (method.equals("DELETE") && roles.remove(path) != null)
+                return ok(204, null);
+
+            return ok(404, null);
+        }
+
+        private static TransportResponse ok(int status, byte [] entity)
+        {
+            return TransportResponse.of(status, CONTENT_TYPE, entity);
+        }
+
+        private static ProtoBuf.Study study(String id)
+        {
+            return ProtoBuf.Study.newBuilder()
+                .setStudyIdentifier(id).setStudyName("n" + id)
+                .setType(ProtoBuf.Study.Type.Number)
+                .setStatus(ProtoBuf.Study.Status.Running)
+                .setVisibility(ProtoBuf.Study.Visibility.Private)
+                .setLocation("/" + id)
+                .setOwner(ProtoBuf.Study.Owner.newBuilder()
+                                                .setUserIdentifier("U1"))
+                .setPanel(ProtoBuf.Study.Panel.newBuilder()
+                                            .setLocation("/" + id + "/panel"))
+                .setRoster(ProtoBuf.Study.Roster.newBuilder()
+                                            .setLocation("/" + id + "/roster"))
+                .build();
+        }
+    }
+
+    private static Role role(String userId, String studyId, 
+                                            Role.Privilege... privileges)
+    {
+        Role role = new Role(userId, studyId);
+
+        for (Role.Privilege p : privileges)
+            role.addPrivilege(p);
+
+        return role;
+    }
+
+    private static Service makeService(RosterServer server) throws Exception
+    {
+        Service service = new Service(
+                        new Credentials("U1", new byte[Credentials.KEY_LEN]),
+                        "yosokumo.invalid", 8080);
+        service.setTransport(new LoopbackTransport(server));
+        service.obtainCatalog();
+        server.log.clear();
+        return service;
+    }
+
+    private static RosterServer makeServer() throws Exception
+    {
+        RosterServer server = new RosterServer();
+        server.add(role("U1", "S1", Role.Privilege.GET_STUDY, 
+                                                Role.Privilege.POST_ROSTER));
+        server.add(role("U2", "S1", Role.Privilege.GET_STUDY));
+        server.add(role("U3", "S1", Role.Privilege.GET_MODEL));
+        server.add(role("U4", "S1", Role.Privilege.GET_STUDY));
+        return server;
+    }
+
+    @Test
+    public void onlyTheRolesWhichDifferAreChanged() throws Exception
+    {
+        RosterServer server = makeServer();
+        Service service = makeService(server);
+
+        List<Message> messages = service.applyRoles("S1", Arrays.asList(
+                role("U2", null, Role.Privilege.GET_STUDY),
+                role("U3", "S1", Role.Privilege.GET_MODEL, 
+                                                    Role.Privilege.POST_MODEL),
+                role("U5", "S1", Role.Privilege.GET_STUDY)));
+
+        assertTrue(messages.isEmpty());
+        assertEquals(1, server.count("GET"));
+        assertEquals(1, server.count("PUT"));
+        assertEquals(1, server.count("POST"));
+        assertEquals(0, server.count("DELETE"));
+        assertTrue(server.log.contains("PUT /S1/role/U3"));
+
+        List<Role> roles = service.obtainRoles("S1", 
+                                            Arrays.asList("U5", "U3", "U4"));
+
+        assertEquals("U5", roles.get(0).getUserIdentifier());
+        assertTrue(roles.get(0).getPrivilege(Role.Privilege.GET_STUDY));
+        assertTrue(roles.get(1).getPrivilege(Role.Privilege.POST_MODEL));
+        assertFalse(roles.get(2).getPrivilege(Role.Privilege.POST_MODEL));
+        assertEquals(2, server.count("GET"));
+    }
+
+    @Test
+    public void othersAreRemovedExceptTheUserOfTheService() throws Exception
+    {
+        RosterServer server = makeServer();
+        Service service = makeService(server);
+        service.setMaxBlocksInFlight(3);
+
+        service.applyRoles("S1", Arrays.asList(
+                role("U2", "S1", Role.Privilege.GET_STUDY)), true);
+
+        assertEquals(2, server.count("DELETE"));
+        assertEquals(Arrays.asList("/S1/role/U1", "/S1/role/U2"), 
+                            new ArrayList<String>(server.roles.keySet()));
+    }
+
+    @Test
+    public void rolesOnSeveralStudiesAreApplied() throws Exception
+    {
+        RosterServer server = makeServer();
+        Service service = makeService(server);
+
+        service.applyRoles(Arrays.asList(
+                role("U2", "S1", Role.Privilege.GET_STUDY),
+                role("U2", "S2", Role.Privilege.GET_STUDY)));
+
+        assertEquals(2, server.count("GET"));
+        assertEquals(1, server.count("POST"));
+        assertTrue(server.log.contains("POST /S2/roster"));
+    }
+
+    @Test
+    public void twoRolesForOneUserAreRefused() throws Exception
+    {
+        RosterServer server = makeServer();
+        Service service = makeService(server);
+
+        try
+        {
+            service.applyRoles("S1", Arrays.asList(
+                                role("U2", "S1", Role.Privilege.GET_STUDY),
+                                role("U2", null, Role.Privilege.GET_MODEL)));
+            fail("Two roles for one user were applied");
+        }
+        catch (ServiceException e)
+        {
+            assertTrue(e.getMessage(), 
+                            e.getMessage().indexOf("More than one") >= 0);
+        }
+
+        assertTrue(server.log.isEmpty());
+    }
+
+    @Test
+    public void cachedRosterIsUsedUntilARoleChanges() throws Exception
+    {
+        RosterServer server = makeServer();
+        Service service = makeService(server);
+        service.enableRosterCache(60000);
+
+        for (int i = 0;  i < 3;  ++i)
+            assertTrue(service.obtainRole("U2", "S1")
+                                    .getPrivilege(Role.Privilege.GET_STUDY));
+
+        assertEquals(1, server.count("GET"));
+
+        // A role handed out is a copy of the one in the cache
+
+        Role role = service.obtainRole("U3", "S1");
+        role.addPrivilege(Role.Privilege.POST_MODEL);
+
+        assertFalse(service.obtainRole("U3", "S1")
+                                .getPrivilege(Role.Privilege.POST_MODEL));
+        assertEquals(1, server.count("GET"));
+
+        // Updating a role discards the cached roster
+
+        service.updateRole(role);
+
+        assertTrue(service.obtainRole("U3", "S1")
+                                .getPrivilege(Role.Privilege.POST_MODEL));
+        assertEquals(2, server.count("GET"));
+
+        service.deleteRole("U4", "S1");
+
+        assertEquals(2, server.count("GET"));
+        assertEquals(1, server.count("DELETE"));
+        assertEquals(3, service.obtainRoles("S1", 
+                            Arrays.asList("U1", "U2", "U3")).size());
+        assertEquals(3, server.count("GET"));
+
+        service.disableRosterCache();
+        service.obtainRole("U2", "S1");
+
+        assertEquals(4, server.count("GET"));
+    }
+
+    /**
+     * Make a task which looks up a role on S1 through a worker of a 
+     * service, so that the roster of S1 is cached as it is at that moment.
+     */
+    private static Runnable lookUp(Service service) throws Exception
+    {
+        final Service worker = service.spawnWorker();
+
+        return new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    worker.obtainRole("U2", "S1");
+                }
+                catch (ServiceException e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    @Test
+    public void rosterCachedDuringAChangeIsDiscarded() throws Exception
+    {
+        RosterServer server = makeServer();
+        Service service = makeService(server);
+        service.enableRosterCache(60000);
+
+        // The roster is obtained while each change is in flight, so the 
+        // roster cached then lacks the change
+
+        server.duringChange = lookUp(service);
+        service.createRole(role("U5", "S1", Role.Privilege.GET_STUDY));
+
+        assertEquals("U5", service.obtainRole("U5", "S1")
+                                                    .getUserIdentifier());
+
+        server.duringChange = lookUp(service);
+        service.applyRoles("S1", Arrays.asList(
+                role("U6", "S1", Role.Privilege.GET_STUDY)));
+
+        assertEquals("U6", service.obtainRole("U6", "S1")
+                                                    .getUserIdentifier());
+    }
+
+    @Test
+    public void operationWithoutThePrivilegeIsNotSent() throws Exception
+    {
+        RosterServer server = makeServer();
+        Service service = makeService(server);
+        service.enablePrivilegeCheck(60000);
+
+        try
+        {
+            service.scoreProspects("S1", Collections.singletonList(
+                new Specimen(1, Arrays.asList(
+                                    new Cell(1, new RealValue(0.5))))));
+            fail("Prospects were scored without the privilege");
+        }
+        catch (ServiceException e)
+        {
+            assertTrue(e.getMessage(), 
+                                e.getMessage().indexOf("POST_MODEL") >= 0);
+        }
+
+        assertEquals(Arrays.asList("GET /S1/roster"), server.log);
+
+        // The user has the POST_ROSTER privilege but not DELETE_ROLE
+
+        service.createRole(role("U5", "S1", Role.Privilege.GET_STUDY));
+
+        assertEquals(1, server.count("POST"));
+
+        try
+        {
+            service.deleteRole("U5", "S1");
+            fail("A role was deleted without the privilege");
+        }
+        catch (ServiceException e)
+        {
+            assertTrue(e.getMessage(), 
+                                e.getMessage().indexOf("DELETE_ROLE") >= 0);
+        }
+
+        assertEquals(0, server.count("DELETE"));
+        assertEquals(2, server.count("GET"));
+
+        service.disablePrivilegeCheck();
+        service.deleteRole("U5", "S1");
+
+        assertEquals(1, server.count("DELETE"));
+    }
+
+    @Test
+    public void unavailableRosterIsNotRequestedForEachOperation() 
+        throws Exception
+    {
+        RosterServer server = makeServer();
+        server.rosterStatus = 503;
+        Service service = makeService(server);
+        service.enablePrivilegeCheck(60000);
+
+        // The privileges are unknown, so each operation is sent to the 
+        // server, which refuses it since it knows no study locations
+
+        for (int i = 0;  i < 3;  ++i)
+        {
+            try
+            {
+                service.obtainStudy("S1");
+                fail("A study was obtained from a server without it");
+            }
+            catch (ServiceException e)
+            {
+                assertEquals(404, e.getStatusCode());
+            }
+        }
+
+        assertEquals(1, Collections.frequency(server.log, "GET /S1/roster"));
+        assertEquals(3, Collections.frequency(server.log, "GET /S1"));
+    }
+
+    @Test(expected=ServiceException.class)
+    public void missingRoleIsNotObtained() throws Exception
+    {
+        Service service = makeService(makeServer());
+
+        service.obtainRoles("S1", Collections.singletonList("U9"));
+    }
+
+}   //  end class RoleBatchTest
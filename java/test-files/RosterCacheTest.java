@@ -0,0 +1,85 @@
+// RosterCacheTest.java  -  Test the RosterCache class with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class RosterCacheTest
+{
+    private static Roster makeRoster(String studyId)
+    {
+        Roster roster = new Roster(studyId, "n" + studyId);
+        roster.addRole(new Role("U1", studyId)
+                                    .addPrivilege(Role.Privilege.GET_STUDY));
+        return roster;
+    }
+
+    @Test
+    public void rosterIsHeldUntilItIsInvalidated()
+    {
+        RosterCache cache = new RosterCache(60000);
+        Roster s1 = makeRoster("S1");
+
+        cache.put("S1", s1);
+        cache.put("S2", makeRoster("S2"));
+
+        assertSame(s1, cache.get("S1"));
+        assertNull(cache.get("S3"));
+        assertEquals(2, cache.size());
+
+        cache.invalidate("S1");
+
+        assertNull(cache.get("S1"));
+        assertNotNull(cache.get("S2"));
+
+        cache.clear();
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void rosterExpires() throws Exception
+    {
+        RosterCache cache = new RosterCache(20);
+
+        cache.put("S1", makeRoster("S1"));
+        Thread.sleep(40);
+
+        assertNull(cache.get("S1"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void rosterStoredForAShortTimeExpiresFirst() throws Exception
+    {
+        RosterCache cache = new RosterCache(60000);
+
+        cache.put("S1", makeRoster("S1"), 20);
+        cache.put("S2", makeRoster("S2"));
+        Thread.sleep(40);
+
+        assertNull(cache.get("S1"));
+        assertNotNull(cache.get("S2"));
+    }
+
+    @Test
+    public void copyOfARosterSharesNoRoles()
+    {
+        Roster roster = makeRoster("S1");
+        roster.getRole("U1").setRoleLocation("/S1/role/U1");
+
+        Roster copy = Roster.copyRoster(roster);
+        Role   role = copy.getRole("U1");
+
+        assertNotSame(roster.getRole("U1"), role);
+        assertEquals("/S1/role/U1", role.getRoleLocation());
+        assertTrue(role.getPrivilege(Role.Privilege.GET_STUDY));
+
+        role.addPrivilege(Role.Privilege.POST_MODEL);
+
+        assertFalse(roster.getRole("U1")
+                                .getPrivilege(Role.Privilege.POST_MODEL));
+    }
+
+}   //  end class RosterCacheTest
@@ -0,0 +1,202 @@
+// ScoreProspectsTest.java  -  Test streaming scoreProspects with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class ScoreProspectsTest
+{
+    /*
+     * A specimen with one cell is two items, so a block holds this many
+     * of them.
+     */
+    private static final int BLOCK = 50000;
+
+    /**
+     * Supplies specimens with keys 0 to n-1, each with one real cell whose
+     * value is the key, counting how many have been taken.
+     */
+    private static class Prospects implements Iterator<Specimen>
+    {
+        private final int n;
+        volatile int taken = 0;
+
+        Prospects(int n)
+        {
+            this.n = n;
+        }
+
+        public boolean hasNext()
+        {
+            return taken < n;
+        }
+
+        public Specimen next()
+        {
+            long key = taken++;
+            return new Specimen(key, Collections.singletonList(
+                                        new Cell(1, new RealValue(key))));
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Keeps the keys of the specimens consumed, and counts those whose 
+     * predictand is not the sum of their cells.
+     */
+    private static class Results implements SpecimenConsumer
+    {
+        final List<Long> keys = new ArrayList<Long>();
+        int wrong = 0;
+
+        public void consume(Specimen specimen)
+        {
+            long key = specimen.getSpecimenKey();
+
+            keys.add(key);
+
+            if (((RealValue)specimen.getPredictand()).getValue() != key)
+                ++wrong;
+        }
+    }
+
+    /**
+     * Score prospects on a thread of its own.
+     */
+    private static class Scorer extends Thread
+    {
+        private final Service   service;
+        private final Prospects prospects;
+        final Results           results = new Results();
+        volatile ServiceException failure = null;
+
+        Scorer(Service service, Prospects prospects)
+        {
+            this.service   = service;
+            this.prospects = prospects;
+        }
+
+        public void run()
+        {
+            try
+            {
+                service.scoreProspects("S1", prospects, results);
+            }
+            catch (ServiceException e)
+            {
+                failure = e;
+            }
+        }
+    }
+
+    private static void waitFor(StudyServer server, int inFlight) 
+        throws InterruptedException
+    {
+        for (int i = 0;  i < 500 && server.inFlight.get() != inFlight;  ++i)
+            Thread.sleep(10);
+
+        assertEquals(inFlight, server.inFlight.get());
+    }
+
+    @Test
+    public void resultsAreDeliveredInOrder() throws Exception
+    {
+        // The first three blocks are all in flight before any is answered,
+        // so they may be answered in any order
+
+        StudyServer server = new StudyServer();
+        server.rendezvous = new CountDownLatch(3);
+        Service service = server.makeService();
+        service.setMaxBlocksInFlight(3);
+
+        Results results = new Results();
+        service.scoreProspects("S1", new Prospects(4 * BLOCK), results);
+
+        assertEquals(4, server.posts.get());
+        assertEquals(3, server.maxInFlight.get());
+        assertEquals(4 * BLOCK, results.keys.size());
+        assertEquals(0, results.wrong);
+
+        for (int i = 0;  i < results.keys.size();  ++i)
+            assertEquals(i, results.keys.get(i).longValue());
+    }
+
+    @Test
+    public void prospectsAreNotTakenWhileTheBlocksAreInFlight() 
+        throws Exception
+    {
+        StudyServer server = new StudyServer();
+        server.gate = new CountDownLatch(1);
+        Service service = server.makeService();
+        service.setMaxBlocksInFlight(2);
+
+        Prospects prospects = new Prospects(5 * BLOCK);
+        Scorer scorer = new Scorer(service, prospects);
+        scorer.start();
+
+        waitFor(server, 2);
+
+        // The third block is gathered, and the first prospect of the 
+        // fourth shows that it is full; then nothing more is taken until a
+        // block is answered
+
+        for (int i = 0;  i < 500 && prospects.taken < 3 * BLOCK + 1;  ++i)
+            Thread.sleep(10);
+
+        Thread.sleep(200);
+
+        assertEquals(3 * BLOCK + 1, prospects.taken);
+        assertEquals(2, server.inFlight.get());
+
+        server.gate.countDown();
+        scorer.join(10000);
+
+        assertNull(scorer.failure);
+        assertEquals(2, server.maxInFlight.get());
+        assertEquals(5, server.posts.get());
+        assertEquals(5 * BLOCK, scorer.results.keys.size());
+    }
+
+    @Test
+    public void blocksInFlightAreCancelledOnFailure() throws Exception
+    {
+        // The first block fails at once, while the second and third are 
+        // held at the server
+
+        StudyServer server = new StudyServer();
+        server.failKey = 0;
+        server.gate = new CountDownLatch(1);
+        Service service = server.makeService();
+        service.setMaxBlocksInFlight(3);
+
+        try
+        {
+            service.scoreProspects("S1", new Prospects(5 * BLOCK), 
+                                                            new Results());
+            fail("A failed scoring succeeded");
+        }
+        catch (ServiceException e)
+        {
+            assertEquals(503, e.getStatusCode());
+        }
+
+        // The held blocks are interrupted, so they finish although the 
+        // gate is never opened
+
+        waitFor(server, 0);
+
+        assertEquals(3, server.posts.get());
+    }
+
+}   //  end class ScoreProspectsTest
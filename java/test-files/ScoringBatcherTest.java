@@ -0,0 +1,275 @@
+// ScoringBatcherTest.java  -  Test ScoringBatcher with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ScoringBatcherTest
+{
+    /*
+     * Long enough that a batch is never sent by its linger timer during a
+     * test unless the test means it to be.
+     */
+    private static final long FOREVER = 600000;
+
+    private static double result(Future<Value> f) throws Exception
+    {
+        return ((RealValue)f.get(10, TimeUnit.SECONDS)).getValue();
+    }
+
+    /**
+     * Make a prospect whose one cell is the same for every key, so that 
+     * the prospects made with different keys are identical.
+     */
+    private static Specimen identical(long key)
+    {
+        return new Specimen(key, Collections.singletonList(
+                                            new Cell(1, new RealValue(5))));
+    }
+
+    private static List<Future<Value>> scoreAll(
+        ScoringBatcher batcher, List<Specimen> prospects)
+    {
+        List<Future<Value>> futures = new ArrayList<Future<Value>>();
+
+        for (Specimen s : prospects)
+            futures.add(batcher.score("S1", s));
+
+        return futures;
+    }
+
+    @Test
+    public void fullBatchIsSentAtOnce() throws Exception
+    {
+        StudyServer server = new StudyServer();
+        ScoringBatcher batcher = 
+                        new ScoringBatcher(server.makeService(), 3, FOREVER);
+
+        List<Specimen> prospects = StudyServer.makeSpecimens(1, 3);
+        List<Future<Value>> futures = scoreAll(batcher, prospects);
+
+        for (int i = 0;  i < 3;  ++i)
+        {
+            assertEquals(i + 1, result(futures.get(i)), 0.0);
+            assertEquals(i + 1, ((RealValue)prospects.get(i)
+                                        .getPredictand()).getValue(), 0.0);
+        }
+
+        assertEquals(1, server.modelBlocks.size());
+        assertEquals(Arrays.asList(1L, 2L, 3L), server.modelBlocks.get(0));
+
+        batcher.close();
+    }
+
+    @Test
+    public void partialBatchIsSentAfterTheLingerTime() throws Exception
+    {
+        StudyServer server = new StudyServer();
+        ScoringBatcher batcher = 
+                        new ScoringBatcher(server.makeService(), 100, 50);
+
+        List<Future<Value>> futures = 
+                        scoreAll(batcher, StudyServer.makeSpecimens(1, 2));
+
+        assertEquals(1, result(futures.get(0)), 0.0);
+        assertEquals(2, result(futures.get(1)), 0.0);
+
+        assertEquals(1, server.modelBlocks.size());
+        assertEquals(Arrays.asList(1L, 2L), server.modelBlocks.get(0));
+
+        batcher.close();
+    }
+
+    @Test
+    public void closeSendsWhatIsLeft() throws Exception
+    {
+        StudyServer server = new StudyServer();
+        ScoringBatcher batcher = 
+                        new ScoringBatcher(server.makeService(), 100, FOREVER);
+
+        List<Future<Value>> futures = 
+                        scoreAll(batcher, StudyServer.makeSpecimens(1, 2));
+
+        assertEquals(0, server.posts.get());
+
+        batcher.close();
+
+        for (Future<Value> f : futures)
+            assertTrue(f.isDone());
+
+        assertEquals(1, server.modelBlocks.size());
+        assertEquals(2, result(futures.get(1)), 0.0);
+
+        try
+        {
+            batcher.score("S1", StudyServer.makeSpecimens(3, 1).get(0));
+            fail("A closed batcher accepted a prospect");
+        }
+        catch (IllegalStateException e)
+        {
+        }
+    }
+
+    @Test
+    public void batchIsOneRequest() throws Exception
+    {
+        StudyServer server = new StudyServer();
+        ScoringBatcher batcher = 
+                        new ScoringBatcher(server.makeService(), 2, FOREVER);
+
+        List<Future<Value>> futures = 
+                        scoreAll(batcher, StudyServer.makeSpecimens(1, 10));
+
+        batcher.close();
+
+        for (int i = 0;  i < 10;  ++i)
+            assertEquals(i + 1, result(futures.get(i)), 0.0);
+
+        // The catalog and the panel of the study are obtained once, for 
+        // the first batch; after that each batch is a single post
+
+        assertEquals(5, server.posts.get());
+        assertEquals(5 + 2, server.requests.get());
+    }
+
+    @Test
+    public void failedPostReachesEveryFuture() throws Exception
+    {
+        StudyServer server = new StudyServer();
+        server.failPost = 1;
+        ScoringBatcher batcher = 
+                        new ScoringBatcher(server.makeService(), 3, FOREVER);
+
+        List<Future<Value>> futures = 
+                        scoreAll(batcher, StudyServer.makeSpecimens(1, 3));
+
+        for (Future<Value> f : futures)
+        {
+            try
+            {
+                f.get(10, TimeUnit.SECONDS);
+                fail("A prospect of a failed batch was scored");
+            }
+            catch (ExecutionException e)
+            {
+                assertTrue(e.getCause() instanceof ServiceException);
+                assertEquals(503, 
+                        ((ServiceException)e.getCause()).getStatusCode());
+            }
+        }
+
+        batcher.close();
+    }
+
+    @Test
+    public void batchesAreSentAtOnce() throws Exception
+    {
+        // Each batch is one prospect, and the server holds each post until
+        // both are in flight, so the second batch is not held up behind 
+        // the first
+
+        StudyServer server = new StudyServer();
+        server.rendezvous = new CountDownLatch(2);
+        ScoringBatcher batcher = 
+                        new ScoringBatcher(server.makeService(), 1, FOREVER);
+
+        List<Future<Value>> futures = 
+                        scoreAll(batcher, StudyServer.makeSpecimens(1, 2));
+
+        assertEquals(1, result(futures.get(0)), 0.0);
+        assertEquals(2, result(futures.get(1)), 0.0);
+        assertEquals(2, server.maxInFlight.get());
+
+        batcher.close();
+    }
+
+    @Test
+    public void identicalProspectsAreScoredOnce() throws Exception
+    {
+        StudyServer server = new StudyServer();
+        ScoringBatcher batcher = 
+                        new ScoringBatcher(server.makeService(), 100, FOREVER);
+
+        List<Specimen> prospects = Arrays.asList(
+                                identical(10), identical(11), identical(12));
+        List<Future<Value>> futures = scoreAll(batcher, prospects);
+
+        assertSame(futures.get(0), futures.get(1));
+        assertSame(futures.get(0), futures.get(2));
+
+        batcher.close();
+
+        assertEquals(5, result(futures.get(0)), 0.0);
+
+        for (Specimen s : prospects)
+            assertEquals(5, ((RealValue)s.getPredictand()).getValue(), 0.0);
+
+        assertEquals(1, server.posts.get());
+        assertEquals(Arrays.asList(10L), server.modelBlocks.get(0));
+    }
+
+    @Test
+    public void prospectInFlightIsShared() throws Exception
+    {
+        // The first prospect is held at the server while the second one, 
+        // identical to it, is queued
+
+        StudyServer server = new StudyServer();
+        server.gate = new CountDownLatch(1);
+        ScoringBatcher batcher = 
+                        new ScoringBatcher(server.makeService(), 1, FOREVER);
+
+        Specimen first  = identical(10);
+        Specimen second = identical(11);
+
+        Future<Value> f = batcher.score("S1", first);
+
+        for (int i = 0;  i < 1000 && server.posts.get() == 0;  ++i)
+            Thread.sleep(10);
+
+        assertSame(f, batcher.score("S1", second));
+
+        server.gate.countDown();
+
+        assertEquals(5, result(f), 0.0);
+        assertEquals(5, ((RealValue)second.getPredictand()).getValue(), 0.0);
+        assertEquals(1, server.posts.get());
+
+        batcher.close();
+    }
+
+    @Test
+    public void prospectQueuedAfterItsTwinIsScoredIsScoredAgain() 
+        throws Exception
+    {
+        StudyServer server = new StudyServer();
+        ScoringBatcher batcher = 
+                        new ScoringBatcher(server.makeService(), 1, FOREVER);
+
+        Future<Value> f = batcher.score("S1", identical(10));
+
+        assertEquals(5, result(f), 0.0);
+
+        Specimen again = identical(11);
+        Future<Value> g = batcher.score("S1", again);
+
+        assertNotSame(f, g);
+        assertEquals(5, result(g), 0.0);
+        assertEquals(5, ((RealValue)again.getPredictand()).getValue(), 0.0);
+        assertEquals(2, server.posts.get());
+        assertEquals(Arrays.asList(11L), server.modelBlocks.get(1));
+
+        batcher.close();
+    }
+
+}   //  end class ScoringBatcherTest
@@ -0,0 +1,154 @@
+// SpecimenStoreTest.java  -  Test the SpecimenStore class with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SpecimenStoreTest
+{
+    private static List<Specimen> makeList(int n)
+    {
+        List<Specimen> list = new ArrayList<Specimen>();
+
+        for (int i = 0;  i < n;  ++i)
+        {
+            List<Cell> cells = new ArrayList<Cell>();
+            for (int j = 0;  j < i % 7;  ++j)
+                cells.add(new Cell(j+1, new RealValue(i * 0.5 + j)));
+            cells.add(new Cell(99, new IntegerValue(-i)));
+
+            Specimen s = new Specimen(1000 + i, cells);
+            s.setWeight(i % 3 + 1);
+            list.add(s);
+        }
+
+        return list;
+    }
+
+    private static void checkStore(SpecimenStore store, List<Specimen> list)
+    {
+        assertTrue(store.size() == list.size());
+
+        for (int i = 0;  i < list.size();  ++i)
+        {
+            assertTrue(store.getSpecimenKey(i) == list.get(i).getSpecimenKey());
+            assertTrue(store.getItemCount(i) == list.get(i).size() + 1);
+            assertTrue(store.getSpecimen(i).toString().equals(
+                                                    list.get(i).toString()));
+        }
+
+        // Blocks made from the store are the same as blocks made from the
+        // specimens by the DIF
+
+        YosokumoProtobuf ydif = new YosokumoProtobuf();
+
+        byte [] expected = ydif.makeBytesFromBlock(
+                        new SpecimenBlock("S1", list.subList(10, 90)));
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+
+        try
+        {
+            new BufferEntity(store.makeBuffersFromBlock("S1", 10, 90))
+                                                            .writeTo(actual);
+        }
+        catch (IOException e)
+        {
+            fail(e.toString());
+        }
+
+        assertTrue(Arrays.equals(expected, actual.toByteArray()));
+    }
+
+    @Test
+    public void directBuffers() throws IOException
+    {
+        List<Specimen> list = makeList(2000);
+        SpecimenStore store = new SpecimenStore(1024);
+
+        for (Specimen s : list)
+            store.add(s);
+
+        checkStore(store, list);
+        store.close();
+        assertTrue(store.size() == 0);
+    }
+
+    @Test
+    public void memoryMappedFile() throws IOException
+    {
+        File file = File.createTempFile("SpecimenStoreTest", ".dat");
+        List<Specimen> list = makeList(500);
+        SpecimenStore store = new SpecimenStore(file, 4096);
+
+        for (Specimen s : list)
+            store.add(s);
+
+        checkStore(store, list);
+        store.close();
+        file.delete();
+    }
+
+    @Test
+    public void specimenLargerThanChunk() throws IOException
+    {
+        List<Cell> cells = new ArrayList<Cell>();
+        for (int j = 0;  j < 500;  ++j)
+            cells.add(new Cell(j+1, new RealValue(j)));
+
+        List<Specimen> list = makeList(100);
+        list.set(50, new Specimen(7, cells));
+
+        SpecimenStore store = new SpecimenStore(1024);
+
+        for (Specimen s : list)
+            store.add(s);
+
+        checkStore(store, list);
+    }
+
+    @Test
+    public void indexSpansSeveralBuffers() throws IOException
+    {
+        // The index holds 65536 entries per buffer
+
+        List<Specimen> list = makeList(140000);
+        SpecimenStore store = new SpecimenStore();
+
+        for (Specimen s : list)
+            store.add(s);
+
+        assertTrue(store.size() == list.size());
+
+        for (int i = 65530;  i < 65542;  ++i)
+        {
+            assertTrue(store.getSpecimenKey(i) == list.get(i).getSpecimenKey());
+            assertTrue(store.getItemCount(i) == list.get(i).size() + 1);
+            assertTrue(store.getSpecimen(i).toString().equals(
+                                                    list.get(i).toString()));
+        }
+
+        assertTrue(store.getSpecimenKey(139999) == 1000 + 139999);
+
+        YosokumoProtobuf ydif = new YosokumoProtobuf();
+
+        byte [] expected = ydif.makeBytesFromBlock(
+                        new SpecimenBlock("S1", list.subList(65000, 66000)));
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        new BufferEntity(store.makeBuffersFromBlock("S1", 65000, 66000))
+                                                            .writeTo(actual);
+
+        assertTrue(Arrays.equals(expected, actual.toByteArray()));
+        store.close();
+    }
+
+}   //  end class SpecimenStoreTest
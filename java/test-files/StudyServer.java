@@ -0,0 +1,284 @@
+// StudyServer.java  -  A stand-in for the Yosokumo server, for tests
+
+package com.yosokumo.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.yosokumo.core.protobuf.ProtoBuf;
+
+/**
+ * Stands in for a server with one study, S1, for tests which load 
+ * subjects into its table or score prospects with its model.  The 
+ * predictand of a prospect is the sum of its real cells.  The server keeps
+ * the keys of the specimens of each block posted, and counts the blocks 
+ * in flight.  It accepts blocks in the usual form and in packed form (see
+ * {@code BlockPacker}).
+ */
+class StudyServer implements LoopbackTransport.Handler
+{
+    static final String CONTENT_TYPE = "application/yosokumo+protobuf";
+
+    /**
+     * The keys of the specimens of each block accepted by the table, in 
+     * the order in which the blocks were accepted.
+     */
+    final List<List<Long>> tableBlocks = 
+                    Collections.synchronizedList(new ArrayList<List<Long>>());
+
+    /**
+     * The keys of the specimens of each block scored by the model, in the
+     * order in which the blocks were scored.
+     */
+    final List<List<Long>> modelBlocks = 
+                    Collections.synchronizedList(new ArrayList<List<Long>>());
+
+    final AtomicInteger requests    = new AtomicInteger(0);
+    final AtomicInteger posts       = new AtomicInteger(0);
+    final AtomicInteger inFlight    = new AtomicInteger(0);
+    final AtomicInteger maxInFlight = new AtomicInteger(0);
+
+    /**
+     * The number, counting from 1, of the block post which is answered at
+     * once with status 503, or 0 if none is.
+     */
+    volatile int failPost = 0;
+
+    /**
+     * The key of the first specimen of the block which is answered at once
+     * with status 503, or -1 if none is.  Unlike {@code failPost}, this 
+     * does not depend on the order in which blocks posted in parallel 
+     * arrive.
+     */
+    volatile long failKey = -1;
+
+    /**
+     * The number of block posts in packed form, including those refused.
+     */
+    final AtomicInteger packedPosts = new AtomicInteger(0);
+
+    /**
+     * If set, blocks in packed form are refused with status 415, as by a 
+     * server which does not understand them.
+     */
+    volatile boolean refusePacked = false;
+
+    /**
+     * If set, each block post counts it down and then waits (for at most 
+     * 10 seconds) until it reaches 0, so that the posts are all in flight 
+     * at once.
+     */
+    volatile CountDownLatch rendezvous = null;
+
+    /**
+     * If set, each block post waits (for at most 10 seconds) until it is 
+     * opened.
+     */
+    volatile CountDownLatch gate = null;
+
+    public TransportResponse serve(TransportRequest request)
+        throws IOException
+    {
+        String method = request.getMethod();
+        String path   = request.getUri().getPath();
+
+        requests.incrementAndGet();
+
+        if (method.equals("GET") && path.equals("/"))
+            return answer(200, ProtoBuf.Catalog.newBuilder()
+                                .setUserIdentifier("U1").addStudy(study())
+                                .build().toByteArray());
+
+        if (method.equals("GET") && path.equals("/S1/panel"))
+            return answer(200, ProtoBuf.Panel.newBuilder()
+                                .setStudyIdentifier("S1")
+                                .build().toByteArray());
+
+        if (method.equals("POST") && 
+                    (path.equals("/S1/table") || path.equals("/S1/model")))
+        {
+            boolean packed = BlockPacker.CONTENT_TYPE.equals(
+                                    request.getFirstHeader("Content-Type"));
+
+            if (packed)
+            {
+                packedPosts.incrementAndGet();
+
+                if (refusePacked)
+                    return answer(415, null);
+            }
+
+            int n = inFlight.incrementAndGet();
+
+            synchronized (maxInFlight)
+            {
+                if (n > maxInFlight.get())
+                    maxInFlight.set(n);
+            }
+
+            try
+            {
+                InputStream content = request.getContent();
+
+                return post(path.endsWith("table"), (packed ? 
+                        unpack(content) : ProtoBuf.Block.parseFrom(content)));
+            }
+            finally
+            {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        return answer(404, null);
+    }
+
+    private TransportResponse post(boolean toTable, ProtoBuf.Block block)
+    {
+        if (posts.incrementAndGet() == failPost)
+            return answer(503, null);
+
+        if (block.getSpecimenCount() > 0 && 
+                                block.getSpecimen(0).getKey() == failKey)
+            return answer(503, null);
+
+        await(rendezvous, true);
+        await(gate, false);
+
+        List<Long> keys = new ArrayList<Long>();
+        ProtoBuf.Block.Builder scored = ProtoBuf.Block.newBuilder()
+                                .setStudyIdentifier("S1").clearEmpty();
+
+        for (ProtoBuf.Specimen s : block.getSpecimenList())
+        {
+            double sum = 0;
+
+            for (ProtoBuf.Cell c : s.getCellList())
+                sum += c.getReal();
+
+            keys.add(s.getKey());
+            scored.addSpecimen(ProtoBuf.Specimen.newBuilder()
+                                            .setKey(s.getKey()).setReal(sum));
+        }
+
+        if (toTable)
+        {
+            tableBlocks.add(keys);
+            return answer(202, null);
+        }
+
+        modelBlocks.add(keys);
+        return answer(200, scored.build().toByteArray());
+    }
+
+    /**
+     * Unpack a block posted in packed form into the usual form.
+     */
+    private static ProtoBuf.Block unpack(InputStream is) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte [] b = new byte[8192];
+        int n;
+
+        while ((n = is.read(b, 0, b.length)) != -1)
+            bytes.write(b, 0, n);
+
+        return ProtoBuf.Block.parseFrom(new YosokumoProtobuf()
+                .makeBytesFromBlock(BlockPacker.unpack(bytes.toByteArray())));
+    }
+
+    private static void await(CountDownLatch latch, boolean countDown)
+    {
+        if (latch == null)
+            return;
+
+        if (countDown)
+            latch.countDown();
+
+        try
+        {
+            latch.await(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Return the keys of all specimens accepted by the table, in the order
+     * in which they were accepted.
+     */
+    List<Long> tableKeys()
+    {
+        List<Long> keys = new ArrayList<Long>();
+
+        synchronized (tableBlocks)
+        {
+            for (List<Long> block : tableBlocks)
+                keys.addAll(block);
+        }
+
+        return keys;
+    }
+
+    /**
+     * Make a service which sends its requests to this server.
+     */
+    Service makeService() throws ServiceException
+    {
+        Service service = new Service(
+                        new Credentials("U1", new byte[Credentials.KEY_LEN]),
+                        "yosokumo.invalid", 8080);
+        service.setTransport(new LoopbackTransport(this));
+        return service;
+    }
+
+    /**
+     * Make specimens with keys {@code first} to {@code first + n - 1}, each
+     * with one real cell whose value is the key.
+     */
+    static List<Specimen> makeSpecimens(long first, int n)
+    {
+        List<Specimen> list = new ArrayList<Specimen>(n);
+
+        for (long key = first;  key < first + n;  ++key)
+            list.add(new Specimen(key, Collections.singletonList(
+                                        new Cell(1, new RealValue(key)))));
+
+        return list;
+    }
+
+    private static TransportResponse answer(int status, byte [] entity)
+    {
+        return TransportResponse.of(status, CONTENT_TYPE, entity);
+    }
+
+    private static ProtoBuf.Study study()
+    {
+        return ProtoBuf.Study.newBuilder()
+            .setStudyIdentifier("S1").setStudyName("nS1")
+            .setType(ProtoBuf.Study.Type.Number)
+            .setStatus(ProtoBuf.Study.Status.Running)
+            .setVisibility(ProtoBuf.Study.Visibility.Private)
+            .setLocation("/S1")
+            .setOwner(ProtoBuf.Study.Owner.newBuilder()
+                                                .setUserIdentifier("U1"))
+            .setTable(ProtoBuf.Study.Table.newBuilder()
+                                                .setLocation("/S1/table"))
+            .setModel(ProtoBuf.Study.Model.newBuilder()
+                                                .setLocation("/S1/model"))
+            .setPanel(ProtoBuf.Study.Panel.newBuilder()
+                                                .setLocation("/S1/panel"))
+            .setRoster(ProtoBuf.Study.Roster.newBuilder()
+                                                .setLocation("/S1/roster"))
+            .build();
+    }
+
+}   //  end class StudyServer
@@ -0,0 +1,96 @@
+// TaskExecutorsTest.java  -  Test the TaskExecutors class with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class TaskExecutorsTest
+{
+    @Test
+    public void defaultIsSharedAndDaemon() throws Exception
+    {
+        ExecutorService executor = TaskExecutors.getDefault();
+
+        assertTrue(executor == TaskExecutors.getDefault());
+        assertFalse(executor.isShutdown());
+
+        // Virtual threads are always daemon threads
+
+        Future<Boolean> daemon = executor.submit(new Callable<Boolean>()
+            {
+                public Boolean call()
+                {
+                    return Thread.currentThread().isDaemon();
+                }
+            });
+
+        assertTrue(daemon.get());
+    }
+
+    @Test
+    public void blockedTasksDoNotHoldUpOthers() throws Exception
+    {
+        // Many tasks blocked at once, as when many operations wait on the
+        // network, each get a thread
+
+        final int numTasks = 200;
+        final CountDownLatch allStarted = new CountDownLatch(numTasks);
+        final CountDownLatch release    = new CountDownLatch(1);
+
+        ExecutorService executor = TaskExecutors.getDefault();
+        List<Future<?>> results = new ArrayList<Future<?>>();
+
+        for (int i = 0;  i < numTasks;  ++i)
+        {
+            results.add(executor.submit(new Callable<Void>()
+                {
+                    public Void call() throws InterruptedException
+                    {
+                        allStarted.countDown();
+                        release.await();
+                        return null;
+                    }
+                }));
+        }
+
+        assertTrue(allStarted.await(30, TimeUnit.SECONDS));
+        release.countDown();
+
+        for (Future<?> f : results)
+            f.get();
+    }
+
+    @Test
+    public void serviceUsesDefaultUnlessGivenAnExecutor() throws Exception
+    {
+        Service service = new Service();
+
+        assertTrue(service.getExecutor() == TaskExecutors.getDefault());
+
+        ExecutorService mine = Executors.newFixedThreadPool(1);
+
+        try
+        {
+            service.setExecutor(mine);
+            assertTrue(service.getExecutor() == mine);
+
+            service.setExecutor(null);
+            assertTrue(service.getExecutor() == TaskExecutors.getDefault());
+        }
+        finally
+        {
+            mine.shutdown();
+        }
+    }
+
+}   //  end class TaskExecutorsTest
@@ -0,0 +1,131 @@
+// UriCacheTest.java  -  Test the UriCache class with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class UriCacheTest
+{
+    /**
+     * Keeps the URI of each request, and refuses it.
+     */
+    private static class Recorder implements LoopbackTransport.Handler
+    {
+        final List<URI> uris = new ArrayList<URI>();
+
+        public synchronized TransportResponse serve(TransportRequest request)
+        {
+            uris.add(request.getUri());
+            return TransportResponse.of(403, "text/plain",
+                                                    "refused".getBytes());
+        }
+    }
+
+    private static YosokumoRequest makeRequest(Recorder recorder)
+        throws ServiceException
+    {
+        YosokumoRequest request = new YosokumoRequest(
+                        new Credentials("U1", new byte[Credentials.KEY_LEN]),
+                        "yosokumo.invalid", 8080, "text/plain");
+        request.setTransport(new LoopbackTransport(recorder));
+        return request;
+    }
+
+    @Test
+    public void locationIsParsedOnce() throws Exception
+    {
+        Recorder recorder = new Recorder();
+        YosokumoRequest request = makeRequest(recorder);
+
+        request.getFromServer("/S1/table");
+        request.postToServer("/S1/table", new byte[1]);
+        request.getFromServer("http://yosokumo.invalid/S1/model");
+        request.deleteFromServer("http://yosokumo.invalid/S1/model");
+
+        assertEquals(URI.create("http://yosokumo.invalid:8080/S1/table"),
+                                                    recorder.uris.get(0));
+        assertSame(recorder.uris.get(0), recorder.uris.get(1));
+
+        assertEquals(URI.create("http://yosokumo.invalid:8080/S1/model"),
+                                                    recorder.uris.get(2));
+        assertSame(recorder.uris.get(2), recorder.uris.get(3));
+    }
+
+    @Test
+    public void balancerChangesTheNormalizedUris() throws Exception
+    {
+        Recorder recorder = new Recorder();
+        YosokumoRequest request = makeRequest(recorder);
+
+        request.getFromServer("http://a.invalid/S1");
+
+        request.setBalancer(new EndpointBalancer(
+                            Arrays.asList(new Endpoint("a.invalid", 8001))));
+        request.getFromServer("http://a.invalid/S1");
+
+        assertEquals(URI.create("http://a.invalid/S1"), recorder.uris.get(0));
+        assertEquals(URI.create("http://a.invalid:8001/S1"),
+                                                    recorder.uris.get(1));
+    }
+
+    @Test
+    public void fullCacheIsCleared()
+    {
+        UriCache cache = new UriCache();
+
+        for (int i = 0;  i < UriCache.MAX_ENTRIES;  ++i)
+            cache.put("/S" + i, URI.create("http://h:1/S" + i));
+
+        assertEquals(UriCache.MAX_ENTRIES, cache.size());
+        assertNotNull(cache.get("/S0"));
+
+        cache.put("/T", URI.create("http://h:1/T"));
+
+        assertEquals(1, cache.size());
+        assertNull(cache.get("/S0"));
+        assertEquals(URI.create("http://h:1/T"), cache.get("/T"));
+    }
+
+    @Test
+    public void workersShareTheCache() throws Exception
+    {
+        final List<URI> uris = new ArrayList<URI>();
+
+        Service service = new Service(
+                        new Credentials("U1", new byte[Credentials.KEY_LEN]),
+                        "yosokumo.invalid", 8080);
+        service.setTransport(new LoopbackTransport(
+            new LoopbackTransport.Handler()
+            {
+                public TransportResponse serve(TransportRequest request)
+                {
+                    uris.add(request.getUri());
+                    return TransportResponse.of(403, "text/plain",
+                                                    "refused".getBytes());
+                }
+            }));
+
+        for (int i = 0;  i < 2;  ++i)
+        {
+            try
+            {
+                service.spawnWorker().obtainCatalog();
+                fail("A refused request succeeded");
+            }
+            catch (ServiceException e)
+            {
+                // Refused
+            }
+        }
+
+        assertEquals(2, uris.size());
+        assertSame(uris.get(0), uris.get(1));
+    }
+
+}   //  end class UriCacheTest
@@ -0,0 +1,260 @@
+// YosokumoAsn1Test.java  -  Test the YosokumoAsn1 class with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class YosokumoAsn1Test
+{
+    /**
+     * A stream which hands out its bytes one at a time, so that every
+     * value read crosses the end of the reader's buffer.
+     */
+    private static InputStream trickle(byte [] bytes)
+    {
+        return new ByteArrayInputStream(bytes)
+        {
+            @Override
+            public synchronized int read(byte [] b, int off, int len)
+            {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+    }
+
+    private static SpecimenBlock makeBlock()
+    {
+        List<Specimen> list = new ArrayList<Specimen>();
+
+        Value [] values =
+        {
+            new EmptyValue(),
+            new NaturalValue(Long.MAX_VALUE),
+            new IntegerValue(Long.MIN_VALUE),
+            new RealValue(2.5),
+            new RealValue(-Double.MIN_VALUE),
+            new RealValue(Double.MAX_VALUE),
+            new RealValue(Double.NaN),
+            new RealValue(Double.NEGATIVE_INFINITY),
+            new RealValue(-0.0),
+            new RealValue(0.1)
+        };
+
+        for (int i = 0;  i < values.length;  ++i)
+        {
+            List<Cell> cells = new ArrayList<Cell>();
+            cells.add(new Cell(1, values[(i + 1) % values.length]));
+            cells.add(new Cell(2, new SpecialValue(i)));
+            cells.add(new Cell(Long.MAX_VALUE, new IntegerValue(-i * 1000)));
+
+            Specimen s = new Specimen(1000 + i, values[i], cells);
+            s.setWeight(i * 300);
+            if (i % 2 == 1)
+                s.setStatus(Specimen.Status.INACTIVE);
+            list.add(s);
+        }
+
+        return new SpecimenBlock("S \u00e9\u4e2d\ud83d\ude00", list);
+    }
+
+    @Test
+    public void specimenBlockRoundTrip()
+    {
+        YosokumoAsn1 ydif = new YosokumoAsn1();
+        SpecimenBlock block = makeBlock();
+
+        byte [] bytes = ydif.makeBytesFromBlock(block);
+        assertTrue(ydif.getException() == null);
+
+        SpecimenBlock copy = (SpecimenBlock)ydif.makeBlockFromBytes(bytes);
+        assertTrue(copy != null);
+        assertTrue(copy.getStudyIdentifier().equals(block.getStudyIdentifier()));
+        assertTrue(copy.toString().equals(block.toString()));
+
+        // The same block decoded from a stream and encoded into a pool
+
+        copy = (SpecimenBlock)ydif.makeBlockFromStream(trickle(bytes));
+        assertTrue(copy != null);
+        assertTrue(copy.toString().equals(block.toString()));
+
+        BufferPool pool = new BufferPool();
+        ByteBuffer buffer = ydif.makeBufferFromBlock(block, pool);
+        byte [] pooled = new byte[buffer.remaining()];
+        buffer.get(pooled);
+        assertTrue(Arrays.equals(pooled, bytes));
+    }
+
+    @Test
+    public void largeBlockRoundTrip()
+    {
+        // Long lengths, and growth of the pooled array
+
+        List<Specimen> list = new ArrayList<Specimen>();
+
+        for (int i = 0;  i < 5000;  ++i)
+        {
+            List<Cell> cells = new ArrayList<Cell>();
+            for (int j = 1;  j <= 20;  ++j)
+                cells.add(new Cell(j, new RealValue(i * 0.5 + j)));
+            list.add(new Specimen(i + 1, new IntegerValue(i), cells));
+        }
+
+        SpecimenBlock block = new SpecimenBlock("S1", list);
+        YosokumoAsn1 ydif = new YosokumoAsn1();
+
+        ByteBuffer buffer = ydif.makeBufferFromBlock(block, new BufferPool());
+        byte [] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+
+        Block copy = ydif.makeBlockFromStream(new ByteArrayInputStream(bytes));
+        assertTrue(copy.toString().equals(block.toString()));
+    }
+
+    @Test
+    public void encodingIsDer()
+    {
+        YosokumoAsn1 ydif = new YosokumoAsn1();
+
+        // Cell ::= SEQUENCE { name [1] 300, real [6] 2.5 }, where 2.5 is
+        // 5 * 2^-1
+
+        byte [] cell = ydif.makeBytesFromCell(new Cell(300, new RealValue(2.5)));
+        byte [] expected =
+        {
+            0x30, 0x09,
+            (byte)0x81, 0x02, 0x01, 0x2c,
+            (byte)0x86, 0x03, (byte)0x80, (byte)0xff, 0x05
+        };
+        assertTrue(Arrays.equals(cell, expected));
+
+        // Study status [104] takes the high-tag-number form
+
+        byte [] status = ydif.makeBytesFromStudyStatus(Study.Status.STOPPED);
+        byte [] expectedStatus =
+        {
+            0x30, 0x04, (byte)0x9f, 0x68, 0x01, 0x03
+        };
+        assertTrue(Arrays.equals(status, expectedStatus));
+    }
+
+    @Test
+    public void parseServerEncoding()
+    {
+        // The server sends a catalog; build its encoding field by field
+
+        DerWriter w = new DerWriter();
+        int end = w.mark();
+
+        int studies = w.mark();
+        int s2 = w.mark();
+        w.writeUtf8(1, "S2");
+        w.endSequence(s2);
+        int s1 = w.mark();
+        int table = w.mark();
+        w.writeUtf8(101, "http://h/tbl");
+        w.endConstructed(108, table);
+        int owner = w.mark();
+        w.writeUtf8(1, "U1");
+        w.endConstructed(107, owner);
+        w.writeInteger(999, 42);                    // unknown field
+        w.writeInteger(105, 2);
+        w.writeInteger(104, 2);
+        w.writeInteger(103, 3);
+        w.writeUtf8(102, "Caf\u00e9");
+        w.writeUtf8(1, "S1");
+        w.endSequence(s1);
+        w.endConstructed(4, studies);
+
+        w.writeUtf8(1, "U1");
+        w.endSequence(end);
+
+        YosokumoAsn1 ydif = new YosokumoAsn1();
+        Catalog catalog = ydif.makeCatalogFromBytes(w.toByteArray());
+
+        assertTrue(catalog != null);
+        assertTrue(catalog.getUserIdentifier().equals("U1"));
+        assertTrue(catalog.getUserName().equals(""));
+        assertTrue(catalog.size() == 2);
+
+        Study study = catalog.getStudy("S1");
+        assertTrue(study.getStudyName().equals("Caf\u00e9"));
+        assertTrue(study.getType() == Study.Type.NUMBER);
+        assertTrue(study.getStatus() == Study.Status.STANDBY);
+        assertTrue(study.getVisibility() == Study.Visibility.PUBLIC);
+        assertTrue(study.getOwnerIdentifier().equals("U1"));
+        assertTrue(study.getTableLocation().equals("http://h/tbl"));
+
+        assertTrue(catalog.getStudy("S2").getType() == Study.Type.CLASS);
+    }
+
+    @Test
+    public void roleRoundTrip()
+    {
+        YosokumoAsn1 ydif = new YosokumoAsn1();
+
+        Role role = new Role("U7", "S9");
+        role.setUserName("Name");
+        role.setStudyName("Study");
+        role.addPrivilege(Role.Privilege.GET_STUDY);
+        role.addPrivilege(Role.Privilege.POST_MODEL);
+
+        Role copy = ydif.makeRoleFromBytes(ydif.makeBytesFromRole(role));
+
+        assertTrue(copy.getUserIdentifier().equals("U7"));
+        assertTrue(copy.getStudyIdentifier().equals("S9"));
+        assertTrue(copy.getUserName().equals("Name"));
+
+        for (Role.Privilege p : Role.Privilege.values())
+            assertTrue(copy.getPrivilege(p) == role.getPrivilege(p));
+    }
+
+    @Test
+    public void malformedEncodingIsReported()
+    {
+        YosokumoAsn1 ydif = new YosokumoAsn1();
+        byte [] bytes = ydif.makeBytesFromBlock(makeBlock());
+
+        byte [] truncated = Arrays.copyOf(bytes, bytes.length - 1);
+        assertTrue(ydif.makeBlockFromBytes(truncated) == null);
+        assertTrue(ydif.getException().getCause().getMessage()
+                                                    .contains("at byte"));
+
+        ydif = new YosokumoAsn1();
+        assertTrue(ydif.makeBlockFromStream(trickle(truncated)) == null);
+        assertTrue(ydif.getException() != null);
+
+        // Indefinite length (BER) is not DER
+
+        ydif = new YosokumoAsn1();
+        byte [] indefinite = { 0x30, (byte)0x80, 0x00, 0x00 };
+        assertTrue(ydif.makeBlockFromBytes(indefinite) == null);
+        assertTrue(ydif.getException().getCause().getMessage()
+                                                    .contains("Indefinite"));
+
+        // A specimen with no value
+
+        ydif = new YosokumoAsn1();
+        byte [] noValue =
+        {
+            0x30, 0x07, (byte)0xa4, 0x05, 0x30, 0x03, (byte)0x81, 0x01, 0x01
+        };
+        assertTrue(ydif.makeBlockFromBytes(noValue) == null);
+        assertTrue(ydif.getException().getMessage().contains("no value"));
+
+        // Trailing bytes
+
+        ydif = new YosokumoAsn1();
+        byte [] trailing = Arrays.copyOf(bytes, bytes.length + 1);
+        assertTrue(ydif.makeBlockFromBytes(trailing) == null);
+        assertTrue(ydif.getException() != null);
+    }
+
+}   //  end class YosokumoAsn1Test
@@ -0,0 +1,251 @@
+// YosokumoRequestTest.java  -  Test reading response entities with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+public class YosokumoRequestTest
+{
+    private static final String CONTENT_TYPE = "application/octet-stream";
+
+    /*
+     * The size of the chunks into which an entity of unknown length is 
+     * read.
+     */
+    private static final int CHUNK = 65536;
+
+    /**
+     * A response whose entity is supplied a piece at a time by a stream,
+     * with no Content-Length header.  The stream may fail part way.
+     */
+    private static class Streamed extends TransportResponse
+    {
+        private final byte [] entity;
+        private final long    contentLength;
+
+        /**
+         * The number of bytes after which the stream fails, or -1 if it 
+         * does not fail.
+         */
+        int failAfter = -1;
+
+        /**
+         * The number of bytes supplied by the stream.
+         */
+        int supplied = 0;
+
+        Streamed(byte [] entity, long contentLength)
+        {
+            this.entity        = entity;
+            this.contentLength = contentLength;
+        }
+
+        public int getStatusCode()
+        {
+            return 200;
+        }
+
+        public String getFirstHeader(String name)
+        {
+            return name.equalsIgnoreCase("Content-Type") ? CONTENT_TYPE 
+                                                         : null;
+        }
+
+        public long getContentLength()
+        {
+            return contentLength;
+        }
+
+        public InputStream getContent()
+        {
+            return new InputStream()
+            {
+                public int read()
+                {
+                    throw new UnsupportedOperationException();
+                }
+
+                public int read(byte [] b, int off, int len) 
+                    throws IOException
+                {
+                    if (supplied == failAfter)
+                        throw new IOException("connection reset");
+
+                    if (supplied == entity.length)
+                        return -1;
+
+                    int n = Math.min(len, 
+                                Math.min(1000, entity.length - supplied));
+
+                    if (failAfter >= 0)
+                        n = Math.min(n, failAfter - supplied);
+
+                    System.arraycopy(entity, supplied, b, off, n);
+                    supplied += n;
+                    return n;
+                }
+            };
+        }
+    }
+
+    /**
+     * Answers every request with the response it is given.
+     */
+    private static class Responder implements LoopbackTransport.Handler
+    {
+        TransportResponse response;
+
+        public TransportResponse serve(TransportRequest request)
+        {
+            return response;
+        }
+    }
+
+    private final Responder  responder = new Responder();
+    private final BufferPool pool      = new BufferPool();
+
+    private YosokumoRequest makeRequest() throws ServiceException
+    {
+        YosokumoRequest request = new YosokumoRequest(
+                    new Credentials("U1", new byte[Credentials.KEY_LEN]),
+                    "yosokumo.invalid", 8080, CONTENT_TYPE);
+        request.setTransport(new LoopbackTransport(responder));
+        request.setBufferPool(pool);
+        return request;
+    }
+
+    private static byte [] makeEntity(int length)
+    {
+        byte [] entity = new byte[length];
+
+        for (int i = 0;  i < length;  ++i)
+            entity[i] = (byte)(i * 31);
+
+        return entity;
+    }
+
+    private static byte [] readAll(InputStream is) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte [] b = new byte[7000];
+        int n;
+
+        while ((n = is.read(b, 0, b.length)) != -1)
+            out.write(b, 0, n);
+
+        return out.toByteArray();
+    }
+
+    private static void assertFailed(YosokumoRequest request, String what)
+    {
+        String message = request.getException().getMessage();
+        assertTrue(message, message.indexOf(what) >= 0);
+    }
+
+    @Test
+    public void entityOfUnknownLengthIsReadInChunks() throws Exception
+    {
+        byte [] entity = makeEntity(150000);
+        responder.response = new Streamed(entity, -1);
+        YosokumoRequest request = makeRequest();
+
+        assertTrue(request.getFromServer("/S1"));
+        assertTrue(Arrays.equals(entity, readAll(request.getEntityStream())));
+        assertTrue(Arrays.equals(entity, request.getEntity()));
+        assertEquals(0, pool.getRetainedBytes());
+
+        request.releaseEntity();
+
+        assertEquals(3 * CHUNK, pool.getRetainedBytes());
+    }
+
+    @Test
+    public void emptyEntityOfUnknownLengthIsNoEntity() throws Exception
+    {
+        responder.response = new Streamed(new byte[0], -1);
+        YosokumoRequest request = makeRequest();
+
+        assertTrue(request.getFromServer("/S1"));
+        assertNull(request.getEntity());
+        assertEquals(CHUNK, pool.getRetainedBytes());
+    }
+
+    @Test
+    public void largeEntityOfKnownLengthIsRefused() throws Exception
+    {
+        YosokumoRequest request = makeRequest();
+        request.setMaxEntitySize(1000);
+
+        responder.response = TransportResponse.of(200, CONTENT_TYPE, 
+                                                            makeEntity(1000));
+
+        assertTrue(request.getFromServer("/S1"));
+        assertEquals(1000, request.getEntity().length);
+
+        responder.response = TransportResponse.of(200, CONTENT_TYPE, 
+                                                            makeEntity(1001));
+
+        assertFalse(request.getFromServer("/S1"));
+        assertFailed(request, "exceeds the maximum of 1000 bytes");
+        assertNull(request.getEntity());
+    }
+
+    @Test
+    public void largeEntityOfUnknownLengthIsRefused() throws Exception
+    {
+        YosokumoRequest request = makeRequest();
+        request.setMaxEntitySize(100000);
+
+        responder.response = new Streamed(makeEntity(100000), -1);
+
+        assertTrue(request.getFromServer("/S1"));
+        assertEquals(100000, request.getEntity().length);
+
+        request.releaseEntity();
+        pool.clear();
+
+        // Reading stops soon after the limit is passed, and the chunks 
+        // read are given back
+
+        Streamed response = new Streamed(makeEntity(150000), -1);
+        responder.response = response;
+
+        assertFalse(request.getFromServer("/S1"));
+        assertFailed(request, "exceeds the maximum of 100000 bytes");
+        assertNull(request.getEntity());
+        assertTrue(response.supplied < 110000);
+        assertEquals(2 * CHUNK, pool.getRetainedBytes());
+    }
+
+    @Test
+    public void chunksAreGivenBackWhenTheStreamFails() throws Exception
+    {
+        YosokumoRequest request = makeRequest();
+
+        Streamed response = new Streamed(makeEntity(150000), -1);
+        response.failAfter = 100000;
+        responder.response = response;
+
+        assertFalse(request.getFromServer("/S1"));
+        assertFailed(request, "Fatal transport error");
+        assertNull(request.getEntity());
+        assertEquals(2 * CHUNK, pool.getRetainedBytes());
+
+        // An entity of known length which ends early
+
+        pool.clear();
+        responder.response = new Streamed(makeEntity(3000), 5000);
+
+        assertFalse(request.getFromServer("/S1"));
+        assertFailed(request, "last 2000 bytes");
+        assertNull(request.getEntity());
+        assertEquals(8192, pool.getRetainedBytes());
+    }
+
+}   //  end class YosokumoRequestTest
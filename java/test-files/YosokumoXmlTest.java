@@ -0,0 +1,192 @@
+// YosokumoXmlTest.java  -  Test the YosokumoXml class with JUnit
+
+package com.yosokumo.core;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class YosokumoXmlTest
+{
+    private static byte [] utf8(String s) throws Exception
+    {
+        return s.getBytes("UTF-8");
+    }
+
+    private static SpecimenBlock makeBlock()
+    {
+        List<Specimen> list = new ArrayList<Specimen>();
+
+        Value [] values =
+        {
+            new EmptyValue(),
+            new NaturalValue(Long.MAX_VALUE),
+            new IntegerValue(Long.MIN_VALUE + 1),
+            new RealValue(2.5),
+            new RealValue(-1e-300),
+            new RealValue(Double.NaN),
+            new RealValue(Double.NEGATIVE_INFINITY)
+        };
+
+        for (int i = 0;  i < values.length;  ++i)
+        {
+            List<Cell> cells = new ArrayList<Cell>();
+            cells.add(new Cell(1, values[(i + 1) % values.length]));
+            cells.add(new Cell(2, new SpecialValue(i)));
+            cells.add(new Cell(Long.MAX_VALUE, new IntegerValue(-i)));
+
+            Specimen s = new Specimen(1000 + i, values[i], cells);
+            s.setWeight(i + 1);
+            if (i % 2 == 1)
+                s.setStatus(Specimen.Status.INACTIVE);
+            list.add(s);
+        }
+
+        return new SpecimenBlock("S <\"1\"> & \u00e9\u4e2d\ud83d\ude00", list);
+    }
+
+    @Test
+    public void specimenBlockRoundTrip()
+    {
+        YosokumoXml ydif = new YosokumoXml();
+        SpecimenBlock block = makeBlock();
+
+        byte [] bytes = ydif.makeBytesFromBlock(block);
+        assertTrue(ydif.getException() == null);
+
+        SpecimenBlock copy = (SpecimenBlock)ydif.makeBlockFromBytes(bytes);
+        assertTrue(copy != null);
+        assertTrue(copy.getStudyIdentifier().equals(block.getStudyIdentifier()));
+        assertTrue(copy.toString().equals(block.toString()));
+
+        // The same block decoded from a stream and encoded into a pool
+
+        copy = (SpecimenBlock)ydif.makeBlockFromStream(
+                                            new ByteArrayInputStream(bytes));
+        assertTrue(copy.toString().equals(block.toString()));
+
+        BufferPool pool = new BufferPool();
+        ByteBuffer buffer = ydif.makeBufferFromBlock(block, pool);
+        byte [] pooled = new byte[buffer.remaining()];
+        buffer.get(pooled);
+        assertTrue(new String(pooled).equals(new String(bytes)));
+    }
+
+    @Test
+    public void parseServerText() throws Exception
+    {
+        YosokumoXml ydif = new YosokumoXml();
+
+        String text =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<!-- a catalog -->\n" +
+            "<catalog xmlns=\"http://yosokumo.com/xml\">\n" +
+            "  <user_identifier>U1</user_identifier><user_name/>\n" +
+            "  <unknown><a>1</a><b><c>x</c></b></unknown>\n" +
+            "  <study>\n" +
+            "    <study_identifier>S1</study_identifier>\n" +
+            "    <study_name>Caf&#xE9; &amp; <![CDATA[Bar]]></study_name>\n" +
+            "    <type>Number</type><status>Standby</status>\n" +
+            "    <visibility>Public</visibility>\n" +
+            "    <owner><user_identifier>U1</user_identifier></owner>\n" +
+            "    <table><location>http://h/tbl</location></table>\n" +
+            "  </study>\n" +
+            "  <study><study_identifier>S2</study_identifier></study>\n" +
+            "</catalog>\n";
+
+        Catalog catalog = ydif.makeCatalogFromBytes(utf8(text));
+        assertTrue(catalog != null);
+        assertTrue(catalog.getUserIdentifier().equals("U1"));
+        assertTrue(catalog.getUserName().equals(""));
+        assertTrue(catalog.size() == 2);
+
+        Study s1 = catalog.getStudy("S1");
+        assertTrue(s1.getStudyName().equals("Caf\u00e9 & Bar"));
+        assertTrue(s1.getType() == Study.Type.NUMBER);
+        assertTrue(s1.getStatus() == Study.Status.STANDBY);
+        assertTrue(s1.getVisibility() == Study.Visibility.PUBLIC);
+        assertTrue(s1.getOwnerIdentifier().equals("U1"));
+        assertTrue(s1.getTableLocation().equals("http://h/tbl"));
+
+        Study s2 = catalog.getStudy("S2");
+        assertTrue(s2.getType() == Study.Type.CLASS);
+        assertTrue(s2.getStatus() == Study.Status.RUNNING);
+
+        String panelText =
+            "<panel><study_identifier>S1</study_identifier>" +
+            "<status_control><status>Running</status>" +
+            "<location>L</location></status_control>" +
+            "<cell_count_control><cell_count> 12345678901 </cell_count>" +
+            "</cell_count_control>" +
+            "<latest_block_time_control><latest_block_time>T" +
+            "</latest_block_time></latest_block_time_control></panel>";
+
+        Panel panel = ydif.makePanelFromBytes(utf8(panelText));
+        assertTrue(panel.getStatusControlLocation().equals("L"));
+        assertTrue(panel.getCellCount() == 12345678901L);
+        assertTrue(panel.getBlockCount() == 0);
+        assertTrue(panel.getLatestBlockTime().equals("T"));
+    }
+
+    @Test
+    public void roleRoundTrip()
+    {
+        YosokumoXml ydif = new YosokumoXml();
+
+        Role role = new Role("U7", "S9");
+        role.setUserName("Name");
+        role.setStudyName("Study");
+        role.addPrivilege(Role.Privilege.GET_STUDY);
+        role.addPrivilege(Role.Privilege.POST_MODEL);
+
+        Role copy = ydif.makeRoleFromBytes(ydif.makeBytesFromRole(role));
+
+        assertTrue(copy.getUserIdentifier().equals("U7"));
+        assertTrue(copy.getStudyIdentifier().equals("S9"));
+        assertTrue(copy.getUserName().equals("Name"));
+
+        for (Role.Privilege p : Role.Privilege.values())
+            assertTrue(copy.getPrivilege(p) == role.getPrivilege(p));
+    }
+
+    @Test
+    public void malformedTextIsReported() throws Exception
+    {
+        YosokumoXml ydif = new YosokumoXml();
+
+        assertTrue(ydif.makeBlockFromBytes(utf8("<block><specimen><key>1"))
+                                                                    == null);
+        assertTrue(ydif.getException().getCause() != null);
+
+        ydif = new YosokumoXml();
+        assertTrue(ydif.makeBlockFromBytes(
+                    utf8("<block><specimen><key>1</key></specimen></block>"))
+                                                                    == null);
+        assertTrue(ydif.getException().getMessage().contains("no value"));
+
+        ydif = new YosokumoXml();
+        assertTrue(ydif.makeBlockFromBytes(
+                    utf8("<block><specimen><key>x</key></specimen></block>"))
+                                                                    == null);
+        assertTrue(ydif.getException().getCause().getMessage()
+                                                    .contains("unsigned"));
+
+        ydif = new YosokumoXml();
+        assertTrue(ydif.makeMessageFromBytes(utf8("<role/>")) == null);
+        assertTrue(ydif.getException() != null);
+
+        // A document type declaration is not allowed
+
+        ydif = new YosokumoXml();
+        String entity =
+            "<!DOCTYPE message [<!ENTITY e SYSTEM \"file:///etc/passwd\">]>" +
+            "<message><text>&e;</text></message>";
+        assertTrue(ydif.makeMessageFromBytes(utf8(entity)) == null);
+        assertTrue(ydif.getException() != null);
+    }
+
+}   //  end class YosokumoXmlTest